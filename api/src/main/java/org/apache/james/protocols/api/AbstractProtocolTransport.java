@@ -21,12 +21,17 @@ package org.apache.james.protocols.api;
 
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.james.protocols.api.future.FutureResponse;
 import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.apache.james.protocols.api.handler.ChunkLengthParser.LineTracker;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 
 
 /**
@@ -42,9 +47,20 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
 
     
     // TODO: Should we limit the size ?
-    private final Queue<Response> responses = new LinkedBlockingQueue<Response>();
+    // holds the Response's or QueuedResponse's if a ProtocolTracer is installed, which measures the time in the queue
+    private final Queue<Object> responses = new LinkedBlockingQueue<Object>();
     private volatile boolean isAsync = false;
     
+    // the FutureResponse which blocks the writing of the queued responses
+    private volatile FutureResponse pending;
+    
+    // flush once the response to the current request was written
+    private volatile boolean flushRequested;
+    
+    // tasks to run once the current batch of requests was processed, guarded by itself
+    private final List<Runnable> requestBatchTasks = new ArrayList<Runnable>();
+    private int requestBatches;
+    
     /**
      * @see org.apache.james.protocols.api.ProtocolTransport#writeResponse(org.apache.james.protocols.api.Response, org.apache.james.protocols.api.ProtocolSession)
      */
@@ -55,7 +71,7 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         boolean enqueued = false;
         synchronized(this) {
             if (isAsync == true) {
-                responses.offer(response);
+                responses.offer(Tracing.getTracer() == null ? response : new QueuedResponse(response, System.nanoTime()));
                 enqueued = true;
             }
         }
@@ -64,12 +80,156 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         // set us "asynchrnous" and wait for response to be ready.
         if (!enqueued) {
             if (isResponseWritable(response)) {
-                writeResponseToClient(response, session);
+                if (!isCancelled(response)) {
+                    writeResponseToClient(response, session);
+                }
             } else {
-                addDequeuerListener(response, session);
+                addDequeuerListener(response, session, Tracing.getTracer() == null ? 0 : System.nanoTime());
                 isAsync = true;
             }
         }
+        
+        if (flushRequested) {
+            flushRequested = false;
+            flush();
+        }
+    }
+    
+    /**
+     * Start a batch of {@link Response}'s. Until the matching {@link #endBatch()} is called the transport may buffer the
+     * written {@link Response}'s and send them with as few writes as possible. This is used to answer pipelined commands
+     * (RFC 2920) at once. Batches can be nested.
+     * 
+     * The default implementation writes every {@link Response} directly and so ignores batches.
+     */
+    public void beginBatch() {
+    }
+    
+    /**
+     * End a batch of {@link Response}'s which was started with {@link #beginBatch()}. Once the outermost batch ends all
+     * buffered {@link Response}'s are written.
+     */
+    public void endBatch() {
+    }
+    
+    /**
+     * Write all buffered {@link Response}'s now, even if a batch is still running. 
+     */
+    public void flush() {
+    }
+    
+    /**
+     * Flush once the {@link Response} to the current request was passed to {@link #writeResponse(Response, ProtocolSession)}.
+     * This is used for commands after which the client waits for the response, like EHLO or DATA in SMTP.
+     */
+    public void flushAfterResponse() {
+        flushRequested = true;
+    }
+    
+    /**
+     * Start a batch of requests which were received at once from the client, like pipelined commands (RFC 2920). This
+     * also starts a batch of {@link Response}'s with {@link #beginBatch()}.
+     */
+    public void beginRequestBatch() {
+        synchronized (requestBatchTasks) {
+            requestBatches++;
+        }
+        beginBatch();
+    }
+    
+    /**
+     * End a batch of requests which was started with {@link #beginRequestBatch()}. Once the outermost batch ends all
+     * tasks which were registered with {@link #runAfterRequestBatch(Runnable)} are run in order, before the batch of
+     * {@link Response}'s is ended with {@link #endBatch()}.
+     */
+    public void endRequestBatch() {
+        boolean outermost;
+        synchronized (requestBatchTasks) {
+            if (requestBatches > 0) {
+                requestBatches--;
+            }
+            outermost = requestBatches == 0;
+        }
+        try {
+            if (outermost) {
+                runRequestBatchTasks();
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Run the tasks which were registered with {@link #runAfterRequestBatch(Runnable)} now, before the batch ended.
+     * This is used before a request which depends on the results of the previous ones, like DATA in SMTP.
+     */
+    public void runRequestBatchTasks() {
+        List<Runnable> tasks;
+        synchronized (requestBatchTasks) {
+            if (requestBatchTasks.isEmpty()) {
+                return;
+            }
+            tasks = new ArrayList<Runnable>(requestBatchTasks);
+            requestBatchTasks.clear();
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).run();
+        }
+    }
+    
+    /**
+     * Run the given task once all requests of the current batch were processed. This allows to handle all requests of
+     * the batch with one operation, like validating all recipients with one lookup. If no batch was started the task is
+     * run directly.
+     * 
+     * @param task
+     */
+    public void runAfterRequestBatch(Runnable task) {
+        synchronized (requestBatchTasks) {
+            if (requestBatches > 0) {
+                requestBatchTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Suspend the processing of the received requests until {@link #resumeRequests(Collection)} is called with the same
+     * commands. Requests which were already received are held back too. Requests for one of the given commands are
+     * still processed as long as no other request was held back, which allows to process pipelined commands which do
+     * not depend on each other, like the RCPT commands of SMTP.
+     * 
+     * The default implementation calls {@link #setReadable(boolean)}.
+     * 
+     * @param commands the commands which are still processed, may be empty
+     */
+    public void suspendRequests(Collection<String> commands) {
+        setReadable(false);
+    }
+
+    /**
+     * End a suspension which was started with {@link #suspendRequests(Collection)}. The requests which were held back
+     * are processed once no suspension is left.
+     * 
+     * The default implementation calls {@link #setReadable(boolean)}.
+     * 
+     * @param commands the commands which were given to {@link #suspendRequests(Collection)}
+     */
+    public void resumeRequests(Collection<String> commands) {
+        setReadable(true);
+    }
+
+    /**
+     * Return the {@link LineTracker} which this transport uses to find the binary data in the received lines, so the
+     * handlers can tell it about state changes it can not see in the lines.
+     * 
+     * The default implementation returns <code>null</code>.
+     * 
+     * @return tracker or <code>null</code> if the transport does not use one
+     */
+    public LineTracker getLineTracker() {
+        return null;
     }
     
     /**
@@ -85,13 +245,13 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         // dequeue Responses until non is left
         while (true) {
             
-            Response queuedResponse = null;
+            Object queued = null;
             
             // synchrnously we check responses and if it is empty we move back to non asynch
             // behaviour
             synchronized(this) {
-                queuedResponse = responses.poll();
-                if (queuedResponse == null) {
+                queued = responses.poll();
+                if (queued == null) {
                     isAsync = false;
                     break;
                 }
@@ -99,10 +259,23 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
 
             // if we have something in the queue we continue writing until we
             // find something asynchronous.
+            Response queuedResponse;
+            long enqueued;
+            if (queued instanceof QueuedResponse) {
+                queuedResponse = ((QueuedResponse) queued).response;
+                enqueued = ((QueuedResponse) queued).enqueued;
+            } else {
+                queuedResponse = (Response) queued;
+                enqueued = 0;
+            }
             if (isResponseWritable(queuedResponse)) {
+                if (isCancelled(queuedResponse)) {
+                    continue;
+                }
+                traceQueued(session, enqueued);
                 writeResponseToClient(queuedResponse, session);
             } else {
-                addDequeuerListener(queuedResponse, session);
+                addDequeuerListener(queuedResponse, session, enqueued);
                 // no changes to isAsync here, because in this method we are always already async.
                 break;
             }
@@ -113,16 +286,64 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
         return !(response instanceof FutureResponse) || ((FutureResponse) response).isReady();
     }
     
-    private void addDequeuerListener(Response response, final ProtocolSession session) {
-        ((FutureResponse) response).addListener(new ResponseListener() {
+    private boolean isCancelled(Response response) {
+        return response instanceof FutureResponse && ((FutureResponse) response).isCancelled();
+    }
+    
+    private void addDequeuerListener(Response response, final ProtocolSession session, final long enqueued) {
+        pending = (FutureResponse) response;
+        pending.addListener(new ResponseListener() {
                 
             public void onResponse(FutureResponse response) {
-                writeResponseToClient(response, session);
-                writeQueuedResponses(session);
+                pending = null;
+                
+                // write the response and all which got ready in the meantime at once
+                beginBatch();
+                try {
+                    if (!response.isCancelled()) {
+                        traceQueued(session, enqueued);
+                        writeResponseToClient(response, session);
+                    }
+                    writeQueuedResponses(session);
+                } finally {
+                    endBatch();
+                }
             }
         });
     }
     
+    /**
+     * Cancel all {@link FutureResponse}'s which are not written yet. This should be called once the client disconnected,
+     * so asynchronous hooks can stop their work and nothing is written to the closed connection.
+     */
+    public void cancelPendingResponses() {
+        List<FutureResponse> futures = new ArrayList<FutureResponse>();
+        synchronized (this) {
+            for (Object queued: responses) {
+                Response response = queued instanceof QueuedResponse ? ((QueuedResponse) queued).response : (Response) queued;
+                if (response instanceof FutureResponse) {
+                    futures.add((FutureResponse) response);
+                }
+            }
+        }
+        // cancel the queued ones first, so they are not written once the pending one is done
+        for (int i = futures.size() - 1; i >= 0; i--) {
+            futures.get(i).cancel();
+        }
+        FutureResponse current = pending;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+    
+    private void traceQueued(ProtocolSession session, long enqueued) {
+        ProtocolTracer tracer = Tracing.getTracer();
+        // enqueued is 0 if the tracer was installed while the response was queued
+        if (tracer != null && enqueued != 0) {
+            tracer.responseQueued(session.getSessionID(), System.nanoTime() - enqueued);
+        }
+    }
+
     /**
      * Write the {@link Response} to the client
      * 
@@ -131,6 +352,9 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
      */
     protected void writeResponseToClient(Response response, ProtocolSession session) {
         if (response != null) {
+            ProtocolTracer tracer = Tracing.getTracer();
+            long start = tracer == null ? 0 : System.nanoTime();
+            long bytes;
             boolean startTLS = false;
             if (response instanceof StartTlsResponse) {
                 if (isStartTLSSupported()) {
@@ -146,8 +370,14 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
             if (response instanceof StreamResponse) {
                 writeToClient(toBytes(response), session, false);
                 writeToClient(((StreamResponse) response).getStream(), session, startTLS);
+                bytes = -1;
             } else {
-                writeToClient(toBytes(response), session, startTLS);
+                byte[] data = toBytes(response);
+                writeToClient(data, session, startTLS);
+                bytes = data.length;
+            }
+            if (tracer != null) {
+                tracer.responseWritten(session.getSessionID(), bytes, System.nanoTime() - start);
             }
             // reset state on starttls
             if (startTLS) {
@@ -185,6 +415,20 @@ public abstract class AbstractProtocolTransport implements ProtocolTransport{
     }
     
 
+    /**
+     * {@link Response} which waits in the queue plus the {@link System#nanoTime()} at which it was queued. This is only
+     * used if a {@link ProtocolTracer} is installed
+     */
+    private final static class QueuedResponse {
+        private final Response response;
+        private final long enqueued;
+
+        public QueuedResponse(Response response, long enqueued) {
+            this.response = response;
+            this.enqueued = enqueued;
+        }
+    }
+
     /**
      * Write the given <code>byte's</code> to the remote peer
      * 
@@ -0,0 +1,133 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed key for an attachment of a {@link ProtocolSession}.
+ * 
+ * Every key gets its own slot when it is created, so the session can store the value in an array instead of hashing
+ * the name on every access. Keys should be created once and held in a <code>static final</code> field. Because the
+ * handlers are loaded when the chain gets wired, all keys are known before the first session is created.
+ * 
+ * The name of the key can still be used with {@link ProtocolSession#getAttachment(String, ProtocolSession.State)}
+ * and {@link ProtocolSession#setAttachment(String, Object, ProtocolSession.State)} to access the same value.
+ *
+ * @param <T> the type of the value
+ */
+public final class AttachmentKey<T> {
+
+    private final static ConcurrentMap<String, AttachmentKey<?>> KEYS = new ConcurrentHashMap<String, AttachmentKey<?>>();
+    private final static AtomicInteger SLOTS = new AtomicInteger();
+
+    private final String name;
+    private final Class<? super T> type;
+    private final int slot;
+
+    private AttachmentKey(String name, Class<? super T> type, int slot) {
+        this.name = name;
+        this.type = type;
+        this.slot = slot;
+    }
+
+    /**
+     * Return the {@link AttachmentKey} for the given name. If a key with the name exists already it is returned,
+     * otherwise a new one is registered.
+     * 
+     * @param name the name of the attachment
+     * @param type the type of the value
+     * @return key
+     * @throws IllegalArgumentException if a key with the same name but an other type exists
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttachmentKey<T> of(String name, Class<? super T> type) {
+        AttachmentKey<?> key = KEYS.get(name);
+        if (key == null) {
+            AttachmentKey<?> newKey = new AttachmentKey<T>(name, type, SLOTS.getAndIncrement());
+            key = KEYS.putIfAbsent(name, newKey);
+            if (key == null) {
+                key = newKey;
+            }
+        }
+        if (!key.type.equals(type)) {
+            throw new IllegalArgumentException("Attachment " + name + " is already registered with type " + key.type.getName());
+        }
+        return (AttachmentKey<T>) key;
+    }
+
+    /**
+     * Return the {@link AttachmentKey} which was registered for the given name or <code>null</code> if there is none
+     * 
+     * @param name
+     * @return key
+     */
+    static AttachmentKey<?> forName(String name) {
+        return KEYS.get(name);
+    }
+
+    /**
+     * Return all registered keys
+     * 
+     * @return keys
+     */
+    static Collection<AttachmentKey<?>> getKeys() {
+        return KEYS.values();
+    }
+
+    /**
+     * Return the count of slots which were assigned so far
+     * 
+     * @return count
+     */
+    static int getSlotCount() {
+        return SLOTS.get();
+    }
+
+    /**
+     * Return the name of the attachment
+     * 
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the type of the value
+     * 
+     * @return type
+     */
+    public Class<? super T> getType() {
+        return type;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,201 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the attachments of one {@link ProtocolSession.State} of a session.
+ * 
+ * Values of an {@link AttachmentKey} are stored in an array at the slot of the key. Attachments which are only
+ * accessed by a {@link String} that doesn't belong to any {@link AttachmentKey} are stored in a {@link HashMap}, which
+ * is only created once it is needed. If a value is set by the name of an {@link AttachmentKey} but is not of the type
+ * of the key, it replaces the typed value and is kept in the {@link HashMap}, so it is only visible by the name.
+ * 
+ * This class also implements {@link Map} to stay compatible with {@link ProtocolSession#getState()} and
+ * {@link ProtocolSession#getConnectionState()}. The {@link #entrySet()} is only a snapshot.
+ * 
+ * This class is not thread-safe, like the rest of the session.
+ */
+public class Attachments extends AbstractMap<String, Object> {
+
+    private Object[] slots;
+    private int usedSlots;
+    private HashMap<String, Object> named;
+
+    public Attachments() {
+        this.slots = new Object[AttachmentKey.getSlotCount()];
+    }
+
+    /**
+     * Return the value for the given {@link AttachmentKey} or <code>null</code>
+     * 
+     * @param key
+     * @return value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(AttachmentKey<T> key) {
+        int slot = key.getSlot();
+        if (slot < usedSlots) {
+            return (T) slots[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Store the value for the given {@link AttachmentKey}. A <code>null</code> value removes it.
+     * 
+     * @param key
+     * @param value
+     * @return the old value or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T set(AttachmentKey<T> key, T value) {
+        Object old = setSlot(key.getSlot(), value);
+        if (named != null && !named.isEmpty()) {
+            // drop a value of an other type which was set by the name
+            named.remove(key.getName());
+        }
+        return (T) old;
+    }
+
+    private Object setSlot(int slot, Object value) {
+        if (slot >= usedSlots) {
+            if (value == null) {
+                return null;
+            }
+            if (slot >= slots.length) {
+                slots = copyOf(slots, Math.max(slot + 1, AttachmentKey.getSlotCount()));
+            }
+            usedSlots = slot + 1;
+        }
+        Object old = slots[slot];
+        slots[slot] = value;
+        return old;
+    }
+
+    private static Object[] copyOf(Object[] slots, int length) {
+        Object[] copy = new Object[length];
+        System.arraycopy(slots, 0, copy, 0, slots.length);
+        return copy;
+    }
+
+    /**
+     * Remove all attachments. Only the slots which were used get cleared.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(slots, 0, usedSlots, null);
+        usedSlots = 0;
+        if (named != null) {
+            named.clear();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public Object get(Object name) {
+        AttachmentKey<?> key = AttachmentKey.forName((String) name);
+        if (key != null) {
+            Object value = get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return named == null ? null : named.get(name);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object name) {
+        return get(name) != null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public Object put(String name, Object value) {
+        AttachmentKey<?> key = AttachmentKey.forName(name);
+        if (key != null && (value == null || key.getType().isInstance(value))) {
+            Object old = setSlot(key.getSlot(), value);
+            Object replaced = named == null ? null : named.remove(name);
+            return old != null ? old : replaced;
+        }
+        if (value == null) {
+            return remove(name);
+        }
+        Object old = null;
+        if (key != null) {
+            // the typed value is replaced, as the value does not fit the type of the key
+            old = setSlot(key.getSlot(), null);
+        }
+        if (named == null) {
+            named = new HashMap<String, Object>();
+        }
+        Object replaced = named.put(name, value);
+        return old != null ? old : replaced;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#remove(java.lang.Object)
+     */
+    @Override
+    public Object remove(Object name) {
+        AttachmentKey<?> key = AttachmentKey.forName((String) name);
+        Object old = null;
+        if (key != null) {
+            old = setSlot(key.getSlot(), null);
+        }
+        Object replaced = named == null ? null : named.remove(name);
+        return old != null ? old : replaced;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        Map<String, Object> snapshot = new HashMap<String, Object>();
+        if (named != null) {
+            snapshot.putAll(named);
+        }
+        for (AttachmentKey<?> key : AttachmentKey.getKeys()) {
+            Object value = get(key);
+            if (value != null) {
+                snapshot.put(key.getName(), value);
+            }
+        }
+        return snapshot.entrySet();
+    }
+}
@@ -62,6 +62,27 @@ public interface ProtocolSession {
      * @return value the stored value for the key
      */
     Object getAttachment(String key, State state);
+
+    /**
+     * Store the given value for the given {@link AttachmentKey} in the specified {@link State}. If you want to remove a value you need to use <code>null</code> as value.
+     * 
+     * This is the same as {@link #setAttachment(String, Object, State)} with the name of the key, but without the need to hash the name.
+     * 
+     * @param key the key under which the value should get stored
+     * @param value the value which will get stored or <code>null</code> if you want to remove the value
+     * @param state the {@link State} to which the mapping belongs
+     * @return oldValue the value which was stored before for this key or <code>null</code> if non was stored before.
+     */
+    <T> T setAttachment(AttachmentKey<T> key, T value, State state);
+
+    /**
+     * Return the value which is stored for the given {@link AttachmentKey} in the specified {@link State} or <code>null</code> if non was stored before.
+     * 
+     * @param key the key under which the value should be searched
+     * @param state the {@link State} in which the value was stored for the key
+     * @return value the stored value for the key
+     */
+    <T> T getAttachment(AttachmentKey<T> key, State state);
     
     
     /**
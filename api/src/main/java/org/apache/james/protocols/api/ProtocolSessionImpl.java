@@ -21,7 +21,6 @@ package org.apache.james.protocols.api;
 
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
-import java.util.HashMap;
 import java.util.Map;
 
 
@@ -39,8 +38,8 @@ public class ProtocolSessionImpl implements ProtocolSession {
 
     private final Logger pLog;
     private final ProtocolTransport transport;
-    private final Map<String, Object> connectionState;
-    private final Map<String, Object> sessionState;
+    private final Attachments connectionState;
+    private final Attachments sessionState;
     private String user;
     protected final ProtocolConfiguration config;
     private final static Charset CHARSET = Charset.forName("US-ASCII");
@@ -49,8 +48,8 @@ public class ProtocolSessionImpl implements ProtocolSession {
     public ProtocolSessionImpl(Logger logger, ProtocolTransport transport, ProtocolConfiguration config) {
         this.transport = transport;
         this.pLog = new ContextualLogger(this, logger);
-        this.connectionState = new HashMap<String, Object>();
-        this.sessionState = new HashMap<String, Object>();
+        this.connectionState = new Attachments();
+        this.sessionState = new Attachments();
         this.config = config;
 
     }
@@ -190,6 +189,30 @@ public class ProtocolSessionImpl implements ProtocolSession {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#setAttachment(org.apache.james.protocols.api.AttachmentKey, java.lang.Object, org.apache.james.protocols.api.ProtocolSession.State)
+     */
+    public <T> T setAttachment(AttachmentKey<T> key, T value, State state) {
+        if (state == State.Connection) {
+            return connectionState.set(key, value);
+        } else {
+            return sessionState.set(key, value);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.ProtocolSession#getAttachment(org.apache.james.protocols.api.AttachmentKey, org.apache.james.protocols.api.ProtocolSession.State)
+     */
+    public <T> T getAttachment(AttachmentKey<T> key, State state) {
+        if (state == State.Connection) {
+            return connectionState.get(key);
+        } else {
+            return sessionState.get(key);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.ProtocolSession#getAttachment(java.lang.String, org.apache.james.protocols.api.ProtocolSession.State)
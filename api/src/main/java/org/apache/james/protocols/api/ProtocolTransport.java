@@ -99,7 +99,9 @@ public interface ProtocolTransport {
     
     
     /**
-     * Set the {@link ProtocolTransport} readable or not. If its not readable then no new lines should get processed 
+     * Set the {@link ProtocolTransport} readable or not. If its not readable then no new lines should get processed,
+     * including the lines which were already received but not processed yet. They get processed once it is readable
+     * again.
      * 
      * @param readable
      */
@@ -0,0 +1,337 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.audit;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.audit.AuditEvent.Type;
+
+/**
+ * Records {@link AuditEvent}'s into a bounded, lock-free ring buffer which is drained by a background thread
+ * to an {@link AuditSink}. This way the protocol threads never wait for the {@link AuditSink}, even if it stalls.
+ * 
+ * The {@link AuditEvent}'s are preallocated, so recording does not allocate. If the ring buffer is full the
+ * configured {@link OverflowPolicy} decides if the event gets dropped or the recording thread waits for a free slot.
+ * 
+ * {@link #start()} must get called before any {@link AuditEvent} reaches the {@link AuditSink}.
+ */
+public class AsyncAuditLog {
+
+    public static enum OverflowPolicy {
+        /**
+         * Drop the event and count it
+         */
+        Drop,
+        /**
+         * Wait till the background thread freed a slot
+         */
+        Block
+    }
+
+    public final static int DEFAULT_CAPACITY = 8192;
+
+    private final static long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private final static long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AuditSink sink;
+    private final OverflowPolicy policy;
+    private final AuditEvent[] events;
+    // sequence per slot. A slot can be claimed by a producer if its sequence equals the position and
+    // read by the drainer if it equals the position + 1
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private volatile long head = 0;
+
+    private volatile boolean running = false;
+    // set by stop(), events which are recorded before the first start() are still buffered
+    private volatile boolean stopped = false;
+    private volatile boolean waiting = false;
+    private volatile Thread drainer;
+
+    public AsyncAuditLog(AuditSink sink) {
+        this(sink, DEFAULT_CAPACITY, OverflowPolicy.Drop);
+    }
+
+    /**
+     * Create a new {@link AsyncAuditLog}
+     * 
+     * @param sink the {@link AuditSink} to which the {@link AuditEvent}'s are passed
+     * @param capacity the count of events which can be buffered. Will get rounded up to the next power of two
+     * @param policy the {@link OverflowPolicy} to use once the buffer is full
+     */
+    public AsyncAuditLog(AuditSink sink, int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.sink = sink;
+        this.policy = policy;
+        this.mask = size - 1;
+        this.events = new AuditEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new AuditEvent();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Start the background thread which passes the recorded {@link AuditEvent}'s to the {@link AuditSink}
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        stopped = false;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                drainLoop();
+            }
+        }, "AsyncAuditLog-" + System.identityHashCode(this));
+        thread.setDaemon(true);
+        drainer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop the background thread after it passed all recorded {@link AuditEvent}'s to the {@link AuditSink}.
+     * Events which are recorded after this call are dropped.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        stopped = true;
+        running = false;
+        Thread thread = drainer;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // the drainer is still running, so it must not be drained here
+            return;
+        }
+        drainer = null;
+
+        // producers which passed the stopped check before it was set may publish after the last drain of the
+        // background thread, so wait until every claimed slot was published and drain it here
+        while (head < tail.get()) {
+            if (drain() == 0) {
+                Thread.yield();
+            }
+        }
+        flushSink();
+    }
+
+    /**
+     * Return <code>true</code> if the background thread is running
+     * 
+     * @return running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Record the result of a command
+     * 
+     * @param session
+     * @param handler
+     * @param retCode
+     * @param executionTime
+     * @return recorded <code>false</code> if the event was dropped
+     */
+    public boolean recordCommand(ProtocolSession session, Class<?> handler, String retCode, long executionTime) {
+        return record(Type.Command, session.getSessionID(), session.getUser(), session.getRemoteAddress(), handler, retCode, 0, executionTime);
+    }
+
+    /**
+     * Record the result of a hook
+     * 
+     * @param session
+     * @param hook
+     * @param result
+     * @param executionTime
+     * @return recorded <code>false</code> if the event was dropped
+     */
+    public boolean recordHook(ProtocolSession session, Class<?> hook, int result, long executionTime) {
+        return record(Type.Hook, session.getSessionID(), session.getUser(), session.getRemoteAddress(), hook, null, result, executionTime);
+    }
+
+    /**
+     * Record an {@link AuditEvent} with the given values. 
+     * 
+     * @return recorded <code>false</code> if the event was dropped
+     */
+    public boolean record(Type type, String sessionId, String user, InetSocketAddress remoteAddress, Class<?> handler, String retCode, int result, long executionTime) {
+        if (stopped) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        long pos;
+        int index;
+        while (true) {
+            pos = tail.get();
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // the buffer is full
+                if (policy == OverflowPolicy.Drop || !running) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                wakeupDrainer();
+                LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+            }
+            // another producer claimed the slot, just retry
+        }
+        events[index].set(type, System.currentTimeMillis(), sessionId, user, remoteAddress, handler, retCode, result, executionTime);
+        // publish the event to the drainer
+        sequences.set(index, pos + 1);
+
+        if (waiting) {
+            wakeupDrainer();
+        }
+        return true;
+    }
+
+    private void wakeupDrainer() {
+        Thread thread = drainer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (drain() > 0) {
+                flushSink();
+                continue;
+            }
+            waiting = true;
+            // check again as a producer may have published before it saw the waiting flag
+            if (drain() == 0 && running) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+            waiting = false;
+        }
+        drain();
+        flushSink();
+    }
+
+    /**
+     * Pass all published {@link AuditEvent}'s to the {@link AuditSink}. This is only called by the drainer thread, or by
+     * {@link #stop()} once it has terminated.
+     * 
+     * @return count
+     */
+    private int drain() {
+        int count = 0;
+        int capacity = events.length;
+        while (true) {
+            long pos = head;
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                return count;
+            }
+            AuditEvent event = events[index];
+            try {
+                sink.onEvent(event);
+            } catch (Throwable t) {
+                failed.incrementAndGet();
+            }
+            event.clear();
+            // free the slot for the next round
+            sequences.set(index, pos + capacity);
+            head = pos + 1;
+            count++;
+        }
+    }
+
+    private void flushSink() {
+        try {
+            sink.flush();
+        } catch (Throwable t) {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the count of {@link AuditEvent}'s which were recorded and not dropped
+     * 
+     * @return recorded
+     */
+    public long getRecordedCount() {
+        return tail.get();
+    }
+
+    /**
+     * Return the count of {@link AuditEvent}'s which were dropped because the buffer was full
+     * 
+     * @return dropped
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Return the count of {@link AuditEvent}'s which are recorded but not passed to the {@link AuditSink} yet
+     * 
+     * @return pending
+     */
+    public long getPendingCount() {
+        return tail.get() - head;
+    }
+
+    /**
+     * Return the count of failed calls to the {@link AuditSink}
+     * 
+     * @return failed
+     */
+    public long getSinkFailureCount() {
+        return failed.get();
+    }
+
+    /**
+     * Return the capacity of the buffer
+     * 
+     * @return capacity
+     */
+    public int getCapacity() {
+        return events.length;
+    }
+}
@@ -0,0 +1,182 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.audit;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Compact record of the result of a command or hook which was passed to an {@link AsyncAuditLog}.
+ * 
+ * Instances are owned and reused by the {@link AsyncAuditLog}. They are only valid during the
+ * {@link AuditSink#onEvent(AuditEvent)} call, so an {@link AuditSink} which needs to keep them
+ * must copy them via {@link #copy()}.
+ */
+public final class AuditEvent {
+
+    public static enum Type {
+        Command,
+        Hook
+    }
+
+    private Type type;
+    private long timestamp;
+    private String sessionId;
+    private String user;
+    private InetSocketAddress remoteAddress;
+    private Class<?> handler;
+    private String retCode;
+    private int result;
+    private long executionTime;
+
+    AuditEvent() {
+    }
+
+    void set(Type type, long timestamp, String sessionId, String user, InetSocketAddress remoteAddress, Class<?> handler, String retCode, int result, long executionTime) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.sessionId = sessionId;
+        this.user = user;
+        this.remoteAddress = remoteAddress;
+        this.handler = handler;
+        this.retCode = retCode;
+        this.result = result;
+        this.executionTime = executionTime;
+    }
+
+    /**
+     * Release the references held by this event so they can get garbage collected
+     */
+    void clear() {
+        set(null, 0, null, null, null, null, null, 0, 0);
+    }
+
+    /**
+     * Return a copy of this {@link AuditEvent} which is not reused by the {@link AsyncAuditLog}
+     * 
+     * @return copy
+     */
+    public AuditEvent copy() {
+        AuditEvent event = new AuditEvent();
+        event.set(type, timestamp, sessionId, user, remoteAddress, handler, retCode, result, executionTime);
+        return event;
+    }
+
+    /**
+     * Return if this is the result of a command or of a hook
+     * 
+     * @return type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Return the time in milliseconds when the event was recorded
+     * 
+     * @return timestamp
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Return the id of the session
+     * 
+     * @return sessionId
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Return the user of the session or <code>null</code> if not authenticated
+     * 
+     * @return user
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Return the address of the remote peer
+     * 
+     * @return remoteAddress
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Return the class of the handler or hook which produced the result
+     * 
+     * @return handler
+     */
+    public Class<?> getHandler() {
+        return handler;
+    }
+
+    /**
+     * Return the return code of the response or <code>null</code> if there was none
+     * 
+     * @return retCode
+     */
+    public String getRetCode() {
+        return retCode;
+    }
+
+    /**
+     * Return the protocol specific result code. For SMTP hooks this is the HookReturnCode
+     * 
+     * @return result
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Return the execution time in milliseconds
+     * 
+     * @return executionTime
+     */
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(type).append(" Id='").append(sessionId).append("' User='");
+        if (user != null) {
+            sb.append(user);
+        }
+        sb.append("'");
+        if (remoteAddress != null && remoteAddress.getAddress() != null) {
+            sb.append(" Remote='").append(remoteAddress.getAddress().getHostAddress()).append("'");
+        }
+        if (handler != null) {
+            sb.append(" Handler='").append(handler.getName()).append("'");
+        }
+        if (retCode != null) {
+            sb.append(" RetCode='").append(retCode).append("'");
+        }
+        sb.append(" Result='").append(result).append("' Time='").append(executionTime).append("ms'");
+        return sb.toString();
+    }
+}
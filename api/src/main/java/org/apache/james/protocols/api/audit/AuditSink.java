@@ -0,0 +1,42 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.audit;
+
+/**
+ * Destination of the {@link AuditEvent}'s which were recorded by an {@link AsyncAuditLog}. All methods are
+ * called by the background thread of the {@link AsyncAuditLog}, so implementations can block without
+ * stalling the protocol threads.
+ */
+public interface AuditSink {
+
+    /**
+     * Handle the given {@link AuditEvent}. The {@link AuditEvent} is reused once this method returns, use 
+     * {@link AuditEvent#copy()} if it needs to be kept.
+     * 
+     * @param event
+     */
+    void onEvent(AuditEvent event);
+
+    /**
+     * Gets called after all {@link AuditEvent}'s which were available were passed to {@link #onEvent(AuditEvent)}.
+     * Implementations which buffer should flush now.
+     */
+    void flush();
+}
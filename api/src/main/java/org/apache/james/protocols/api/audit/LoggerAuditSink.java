@@ -0,0 +1,51 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.audit;
+
+import org.apache.james.protocols.api.logger.Logger;
+
+/**
+ * {@link AuditSink} which writes every {@link AuditEvent} to a {@link Logger} with INFO level
+ */
+public class LoggerAuditSink implements AuditSink {
+
+    private final Logger logger;
+
+    public LoggerAuditSink(Logger logger) {
+        this.logger = logger;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.audit.AuditSink#onEvent(org.apache.james.protocols.api.audit.AuditEvent)
+     */
+    public void onEvent(AuditEvent event) {
+        if (logger.isInfoEnabled()) {
+            logger.info(event.toString());
+        }
+    }
+
+    /**
+     * Does nothing
+     */
+    public void flush() {
+    }
+
+}
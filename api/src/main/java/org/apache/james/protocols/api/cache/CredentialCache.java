@@ -0,0 +1,210 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.api.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of recently verified credentials, which can be shared by the authentication of all protocols. Clients which
+ * reconnect often, or which use several protocols at once, then only hit the authentication backend once in the time
+ * to live of an entry.
+ * 
+ * The passwords themselves are never stored. The cache only keeps a verifier per user, which is derived from the password
+ * by an iterated hash with a random salt per entry and a random secret per cache. Only successful authentications are
+ * stored, a password which does not match the verifier must be checked against the backend again.
+ * 
+ * The backend should call {@link #invalidate(String)} when the password of an user is changed or the user is
+ * removed. Otherwise the old password is accepted until the entry expires.
+ * 
+ * This implementation is thread-safe
+ */
+public class CredentialCache {
+
+    private final static String ALGORITHM = "SHA-256";
+    private final static int SALT_LENGTH = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] secret = new byte[32];
+
+    /** Default time to live of a verifier: 5 minutes */
+    private volatile long ttl = 300000;
+
+    /** Default count of hash iterations to derive a verifier */
+    private volatile int iterations = 1000;
+
+    private volatile ExpiringLruCache<String, Verifier> verifiers = new ExpiringLruCache<String, Verifier>(10000);
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    public CredentialCache() {
+        random.nextBytes(secret);
+        try {
+            MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No " + ALGORITHM + " support!", e);
+        }
+    }
+
+    /**
+     * Set the time in milliseconds for which a successful authentication is remembered
+     * 
+     * @param ttl
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Set the maximal count of remembered users. This clears the cache.
+     * 
+     * @param cacheSize
+     */
+    public void setCacheSize(int cacheSize) {
+        this.verifiers = new ExpiringLruCache<String, Verifier>(cacheSize);
+    }
+
+    /**
+     * Set the count of hash iterations which are used to derive a verifier from a password. This only applies to
+     * verifiers which are stored afterwards.
+     * 
+     * @param iterations must be bigger than 0
+     */
+    public void setIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be bigger than 0");
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * Return <code>true</code> if the given credentials were successfully authenticated recently. If
+     * <code>false</code> is returned the credentials must be checked against the backend.
+     * 
+     * @param user
+     * @param password
+     * @return verified
+     */
+    public boolean verify(String user, String password) {
+        if (user == null || password == null) {
+            return false;
+        }
+        lookups.incrementAndGet();
+        Verifier verifier = verifiers.get(user);
+        if (verifier == null) {
+            return false;
+        }
+        if (MessageDigest.isEqual(verifier.hash, derive(user, password, verifier.salt, verifier.iterations))) {
+            hits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remember that the given credentials were successfully authenticated by the backend
+     * 
+     * @param user
+     * @param password
+     */
+    public void store(String user, String password) {
+        if (user == null || password == null) {
+            return;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        int iterations = this.iterations;
+        verifiers.put(user, new Verifier(salt, iterations, derive(user, password, salt, iterations)), ttl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Forget the credentials of the given user, so the next authentication of it hits the backend again
+     * 
+     * @param user
+     */
+    public void invalidate(String user) {
+        verifiers.remove(user);
+    }
+
+    /**
+     * Forget the credentials of all users
+     */
+    public void invalidateAll() {
+        verifiers.clear();
+    }
+
+    /**
+     * Return the ratio of authentications which were verified by the cache. A lookup for which a verifier exists but
+     * the password does not match is counted as miss, as it must be checked against the backend.
+     * 
+     * @return hitRate between 0 and 1
+     */
+    public double getHitRate() {
+        long lookups = this.lookups.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    private byte[] derive(String user, String password, byte[] salt, int iterations) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // checked in the constructor
+            throw new IllegalStateException("No " + ALGORITHM + " support!", e);
+        }
+        digest.update(secret);
+        digest.update(salt);
+        update(digest, user);
+        digest.update((byte) 0);
+        update(digest, password);
+        byte[] hash = digest.digest();
+        for (int i = 1; i < iterations; i++) {
+            digest.update(hash);
+            digest.update(salt);
+            hash = digest.digest();
+        }
+        return hash;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            digest.update((byte) (c >> 8));
+            digest.update((byte) c);
+        }
+    }
+
+    private final static class Verifier {
+        private final byte[] salt;
+        private final int iterations;
+        private final byte[] hash;
+
+        private Verifier(byte[] salt, int iterations, byte[] hash) {
+            this.salt = salt;
+            this.iterations = iterations;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.api.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded cache whose entries expire after a time to live. Once the cache is full the least recently used
+ * entries are removed.
+ * 
+ * The cache is split in segments which are locked on their own, so it can be shared by many threads without much
+ * contention. The least recently used order is kept per segment.
+ * 
+ * This implementation is thread-safe
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final static int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a new cache
+     * 
+     * @param maxSize the maximal count of entries, must be bigger than 0
+     */
+    @SuppressWarnings("unchecked")
+    public ExpiringLruCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be bigger than 0");
+        }
+        int count = Math.min(MAX_SEGMENTS, maxSize);
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread the remainder over the first segments
+            segments[i] = new Segment<K, V>(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * Return the value which is stored for the given key or <code>null</code> if there is none or it is expired
+     * 
+     * @param key
+     * @return value
+     */
+    public V get(K key) {
+        V value = segmentFor(key).get(key, System.nanoTime());
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Store the value for the given key
+     * 
+     * @param key
+     * @param value
+     * @param ttl the time to live of the entry
+     * @param unit the unit of the ttl
+     */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        segmentFor(key).put(key, new CachedValue<V>(value, System.nanoTime() + unit.toNanos(ttl)));
+    }
+
+    /**
+     * Remove the entry for the given key
+     * 
+     * @param key
+     */
+    public void remove(K key) {
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].clear();
+        }
+    }
+
+    /**
+     * Return the count of entries, including the expired ones which were not removed yet
+     * 
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            size += segments[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Return how often {@link #get(Object)} returned a value
+     * 
+     * @return hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Return how often {@link #get(Object)} returned <code>null</code>
+     * 
+     * @return misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Return the ratio of {@link #getHits()} to all calls of {@link #get(Object)}
+     * 
+     * @return hitRate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private final static class CachedValue<V> {
+        private final V value;
+        private final long expires;
+
+        private CachedValue(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Part of the cache which is guarded by its own lock
+     */
+    private final static class Segment<K, V> {
+        private final Map<K, CachedValue<V>> entries;
+
+        private Segment(final int maxSize) {
+            this.entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        private synchronized V get(K key, long now) {
+            CachedValue<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires - now <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        private synchronized void put(K key, CachedValue<V> entry) {
+            entries.put(key, entry);
+        }
+
+        private synchronized void remove(K key) {
+            entries.remove(key);
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+}
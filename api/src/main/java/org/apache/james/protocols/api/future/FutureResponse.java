@@ -19,6 +19,8 @@
 
 package org.apache.james.protocols.api.future;
 
+import java.util.concurrent.Executor;
+
 import org.apache.james.protocols.api.Response;
 
 /**
@@ -36,6 +38,17 @@ public interface FutureResponse extends Response{
      */
     public void addListener(ResponseListener listener);
     
+    /**
+     * Add a {@link ResponseListener} which will get notified by the given {@link Executor} once {@link #isReady()} is true.
+     * 
+     * Use this if the listener should not run on the thread which completes the {@link FutureResponse}, for example
+     * because it should be executed by the thread which handles the session.
+     * 
+     * @param listener
+     * @param executor
+     */
+    public void addListener(ResponseListener listener, Executor executor);
+    
     /**
      * Remote a {@link ResponseListener}
      * 
@@ -50,6 +63,24 @@ public interface FutureResponse extends Response{
      */
     public boolean isReady();
     
+    /**
+     * Cancel the {@link FutureResponse}, for example because the client disconnected. If it was not ready yet it will
+     * become ready and the registered {@link ResponseListener}'s get notified. A cancelled {@link FutureResponse} is
+     * never written to the client.
+     * 
+     * Asynchronous hooks should check {@link #isCancelled()} and stop their work once it returns <code>true</code>.
+     * 
+     * @return <code>true</code> if it was cancelled by this call
+     */
+    public boolean cancel();
+    
+    /**
+     * Return <code>true</code> if the {@link FutureResponse} was cancelled before it got ready
+     * 
+     * @return cancelled
+     */
+    public boolean isCancelled();
+    
     
     /**
      * Listener which will get notified once the {@link FutureResponse#isReady()} returns <code>true</code>
@@ -19,8 +19,15 @@
 
 package org.apache.james.protocols.api.future;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.james.protocols.api.AbstractResponse;
 import org.apache.james.protocols.api.Response;
@@ -29,10 +36,43 @@ import org.apache.james.protocols.api.logger.Logger;
 /**
  * {@link FutureResponse} implementation which wraps a {@link AbstractResponse} implementation
  * 
+ * This implementation is lock-free. The registered {@link ResponseListener}'s are kept in a linked stack which gets
+ * swapped out atomically once the {@link Response} is set, so every listener is notified exactly once and threads which
+ * complete the {@link FutureResponse} never block.
  *
  */
 public class FutureResponseImpl implements FutureResponse{
     
+    /**
+     * Marks the {@link FutureResponse} as ready in {@link #listeners}
+     */
+    private final static ListenerNode READY = new ListenerNode(null, null);
+    
+    /**
+     * {@link Response} which is set once the {@link FutureResponse} is cancelled
+     */
+    private final static Response CANCELLED = new Response() {
+
+        public String getRetCode() {
+            return "";
+        }
+
+        public List<CharSequence> getLines() {
+            return Collections.emptyList();
+        }
+
+        public boolean isEndSession() {
+            return false;
+        }
+        
+        public String toString() {
+            return "CANCELLED";
+        }
+    };
+    
+    private final static AtomicReferenceFieldUpdater<FutureResponseImpl, ListenerNode> LISTENERS = AtomicReferenceFieldUpdater.newUpdater(FutureResponseImpl.class, ListenerNode.class, "listeners");
+    private final static AtomicIntegerFieldUpdater<FutureResponseImpl> COMPLETED = AtomicIntegerFieldUpdater.newUpdater(FutureResponseImpl.class, "completed");
+
     private final Logger logger;
 
     public FutureResponseImpl() {
@@ -44,44 +84,97 @@ public class FutureResponseImpl implements FutureResponse{
     }
     
     protected Response response;
-    private List<ResponseListener> listeners;
-    private int waiters;
+    private volatile ListenerNode listeners;
+    private volatile int completed;
 
-    protected final synchronized void checkReady() {
+    /**
+     * Block until the {@link FutureResponse} is ready
+     */
+    protected final void checkReady() {
+        if (isReady()) {
+            return;
+        }
+        boolean interrupted = false;
+        addListener(new WakeupListener(Thread.currentThread()));
         while (!isReady()) {
-            try {
-                waiters++;
-                wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } finally {
-                waiters--;
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
+    
+    /**
+     * Wait at most the given time for the {@link FutureResponse} to get ready
+     * 
+     * @param timeout
+     * @param unit
+     * @return <code>true</code> if it is ready
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        if (isReady()) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        WakeupListener wakeup = new WakeupListener(Thread.currentThread());
+        addListener(wakeup);
+        while (!isReady()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                // don't let the listeners of a FutureResponse which is awaited repeatedly grow
+                removeListener(wakeup);
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                removeListener(wakeup);
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+    
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.FutureResponse#addListener(org.apache.james.protocols.api.FutureResponse.ResponseListener)
      */
-    public synchronized void addListener(ResponseListener listener) {
-        if (isReady()) {
-            listener.onResponse(this);
-        } else {
-            if (listeners == null) {
-                listeners = new ArrayList<ResponseListener>();
+    public void addListener(ResponseListener listener) {
+        while (true) {
+            ListenerNode head = listeners;
+            if (head == READY) {
+                notifyListener(listener);
+                return;
+            }
+            if (LISTENERS.compareAndSet(this, head, new ListenerNode(listener, head))) {
+                return;
             }
-            listeners.add(listener);
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.future.FutureResponse#addListener(org.apache.james.protocols.api.future.FutureResponse.ResponseListener, java.util.concurrent.Executor)
+     */
+    public void addListener(ResponseListener listener, Executor executor) {
+        addListener(new ExecutorListener(listener, executor));
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.FutureResponse#removeListener(org.apache.james.protocols.api.FutureResponse.ResponseListener)
      */
-    public synchronized void removeListener(ResponseListener listener) {
-        if (!isReady()) {
-            if (listeners != null) {
-                listeners.remove(listener);
+    public void removeListener(ResponseListener listener) {
+        while (true) {
+            ListenerNode head = listeners;
+            if (head == READY || !ListenerNode.contains(head, listener)) {
+                return;
+            }
+            if (LISTENERS.compareAndSet(this, head, ListenerNode.remove(head, listener))) {
+                return;
             }
         }
     }
@@ -90,8 +183,51 @@ public class FutureResponseImpl implements FutureResponse{
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.FutureResponse#isReady()
      */
-    public synchronized boolean isReady() {
-        return response != null;
+    public boolean isReady() {
+        return listeners == READY;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.future.FutureResponse#cancel()
+     */
+    public boolean cancel() {
+        return complete(CANCELLED);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.future.FutureResponse#isCancelled()
+     */
+    public boolean isCancelled() {
+        return isReady() && response == CANCELLED;
+    }
+    
+    /**
+     * Set the given {@link Response} if this {@link FutureResponse} is not ready after the given time. This allows
+     * asynchronous hooks to give up on slow lookups without blocking a thread.
+     * 
+     * @param timer the {@link ScheduledExecutorService} which is used to schedule the timeout
+     * @param timeout
+     * @param unit
+     * @param timeoutResponse the {@link Response} to use on timeout
+     */
+    public void setTimeout(ScheduledExecutorService timer, long timeout, TimeUnit unit, final Response timeoutResponse) {
+        if (isReady()) {
+            return;
+        }
+        final ScheduledFuture<?> task = timer.schedule(new Runnable() {
+
+            public void run() {
+                setResponse(timeoutResponse);
+            }
+        }, timeout, unit);
+        addListener(new ResponseListener() {
+            
+            public void onResponse(FutureResponse response) {
+                task.cancel(false);
+            }
+        });
     }
     
     /*
@@ -124,7 +260,7 @@ public class FutureResponseImpl implements FutureResponse{
     }
 
     @Override
-    public synchronized String toString() {
+    public String toString() {
         checkReady();
         return response.toString();
     }
@@ -134,36 +270,118 @@ public class FutureResponseImpl implements FutureResponse{
      * {@link ResponseListener}'. After this method is called all waiting
      * threads will get notified and {@link #isReady()} will return <code>true<code>. 
      * 
+     * If the {@link FutureResponse} is already ready, because it was cancelled or timed out, the call is ignored.
+     * 
      * @param response
      */
     public void setResponse(Response response) {
-        boolean fire = false;
-        synchronized (this) {
-            if (!isReady()) {
-                this.response = response;
-                fire = listeners != null;
-
-                if (waiters > 0) {
-                    notifyAll();
-                }
+        complete(response);
+    }
+
+    /**
+     * Complete the {@link FutureResponse} with the given {@link Response} and notify the listeners in the order they
+     * were added
+     * 
+     * @param response
+     * @return <code>true</code> if the {@link FutureResponse} was completed by this call
+     */
+    protected final boolean complete(Response response) {
+        if (!COMPLETED.compareAndSet(this, 0, 1)) {
+            return false;
+        }
+        this.response = response;
+        ListenerNode head = LISTENERS.getAndSet(this, READY);
+        
+        // the stack holds the listeners in reverse order
+        ListenerNode reversed = null;
+        for (ListenerNode node = head; node != null; node = node.next) {
+            reversed = new ListenerNode(node.listener, reversed);
+        }
+        for (ListenerNode node = reversed; node != null; node = node.next) {
+            notifyListener(node.listener);
+        }
+        return true;
+    }
+
+    private void notifyListener(ResponseListener listener) {
+        try {
+            listener.onResponse(this);
+        } catch (Throwable e) {
+            if (logger != null) {
+                logger.warn("An exception was thrown by the listener " + listener, e);
+            } else {
+                e.printStackTrace();
             }
         }
+    }
+
+    /**
+     * Immutable node of the stack of {@link ResponseListener}'s
+     */
+    private final static class ListenerNode {
+        private final ResponseListener listener;
+        private final ListenerNode next;
 
-        if (fire) {
-            for (ResponseListener listener : listeners) {
-                try {
-                    listener.onResponse(this);
-                } catch (Throwable e) {
-                    if (logger != null) {
-                        logger.warn("An exception was thrown by the listener " + listener, e);
-                    } else {
-                        e.printStackTrace();
-                    }
+        public ListenerNode(ResponseListener listener, ListenerNode next) {
+            this.listener = listener;
+            this.next = next;
+        }
+        
+        private static boolean contains(ListenerNode head, ResponseListener listener) {
+            for (ListenerNode node = head; node != null; node = node.next) {
+                if (node.listener == listener) {
+                    return true;
                 }
             }
-            listeners = null;
-            
+            return false;
+        }
+        
+        private static ListenerNode remove(ListenerNode head, ResponseListener listener) {
+            if (head.listener == listener) {
+                return head.next;
+            }
+            return new ListenerNode(head.listener, remove(head.next, listener));
+        }
+    }
+
+    /**
+     * {@link ResponseListener} which unparks a thread which waits for the {@link FutureResponse}
+     */
+    private final static class WakeupListener implements ResponseListener {
+        private final Thread thread;
+
+        public WakeupListener(Thread thread) {
+            this.thread = thread;
+        }
+        
+        public void onResponse(FutureResponse response) {
+            LockSupport.unpark(thread);
         }
     }
 
+    /**
+     * {@link ResponseListener} which hands the notification over to an {@link Executor}
+     */
+    private final static class ExecutorListener implements ResponseListener {
+        private final ResponseListener listener;
+        private final Executor executor;
+
+        public ExecutorListener(ResponseListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+        
+        public void onResponse(final FutureResponse response) {
+            executor.execute(new Runnable() {
+                
+                public void run() {
+                    listener.onResponse(response);
+                }
+            });
+        }
+        
+        public String toString() {
+            return listener.toString();
+        }
+    }
 }
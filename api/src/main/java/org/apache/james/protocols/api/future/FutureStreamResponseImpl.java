@@ -19,7 +19,10 @@
 
 package org.apache.james.protocols.api.future;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.StreamResponse;
@@ -31,6 +34,32 @@ import org.apache.james.protocols.api.StreamResponse;
  */
 public class FutureStreamResponseImpl extends FutureResponseImpl implements StreamResponse{
 
+    /**
+     * {@link StreamResponse} which is set once the {@link FutureStreamResponseImpl} is cancelled
+     */
+    private final static StreamResponse CANCELLED = new StreamResponse() {
+
+        public String getRetCode() {
+            return "";
+        }
+
+        public List<CharSequence> getLines() {
+            return Collections.emptyList();
+        }
+
+        public boolean isEndSession() {
+            return false;
+        }
+
+        public InputStream getStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        public String toString() {
+            return "CANCELLED";
+        }
+    };
+
     /**
      * Set the {@link StreamResponse} to wrap. If a non {@link StreamResponse} is set this implementation will throw an {@link IllegalArgumentException}
      * 
@@ -44,6 +73,25 @@ public class FutureStreamResponseImpl extends FutureResponseImpl implements Stre
         }
     }
 
+    /**
+     * Cancel with an empty {@link StreamResponse}, so {@link #getStream()} works after a cancel
+     * 
+     * @see org.apache.james.protocols.api.future.FutureResponseImpl#cancel()
+     */
+    @Override
+    public boolean cancel() {
+        return complete(CANCELLED);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.future.FutureResponseImpl#isCancelled()
+     */
+    @Override
+    public boolean isCancelled() {
+        return isReady() && response == CANCELLED;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.StreamResponse#getStream()
@@ -0,0 +1,61 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.api.handler;
+
+import java.nio.ByteBuffer;
+
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+
+/**
+ * Implementations of this interface tell the transport that a received line announces binary data of a fixed length,
+ * like the SMTP BDAT command (RFC 3030) does. The transport passes this data as it is received to the {@link LineHandler}
+ * instead of splitting it into lines, so it does not need to fit into a line and line delimiters in it have no
+ * meaning.
+ * 
+ * Transports split the received data into lines before any handler is called, so the {@link LineTracker} can not
+ * depend on the state of the session and needs to track the state it needs on its own. Handlers can reach the
+ * {@link LineTracker} of a connection with {@link AbstractProtocolTransport#getLineTracker()} to tell it about state
+ * changes which can not be seen in the lines.
+ */
+public interface ChunkLengthParser extends ProtocolHandler {
+
+    /**
+     * Return a new {@link LineTracker} for a connection
+     * 
+     * @return tracker
+     */
+    LineTracker newLineTracker();
+
+    /**
+     * Gets called for every line received on one connection, in the order the lines were received
+     */
+    public interface LineTracker {
+
+        /**
+         * Return the count of bytes which follow the given line as binary data or <code>-1</code> if the line is followed
+         * by another line. The line includes the line delimiter.
+         * 
+         * @param line not null
+         * @return length
+         */
+        long onLine(ByteBuffer line);
+    }
+}
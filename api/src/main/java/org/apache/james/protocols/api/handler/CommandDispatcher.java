@@ -19,7 +19,9 @@
 
 package org.apache.james.protocols.api.handler;
 
+import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -28,14 +30,18 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.james.protocols.api.AbstractProtocolTransport;
 import org.apache.james.protocols.api.BaseRequest;
 import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.ProtocolSessionImpl;
+import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
-import org.apache.james.protocols.api.future.FutureResponse;
-import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
-import org.apache.james.protocols.api.future.FutureResponseImpl;
+import org.apache.james.protocols.api.metrics.LatencyRecorder;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 
 
 
@@ -49,12 +55,41 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
      */
     private final HashMap<String, List<CommandHandler<Session>>> commandHandlerMap = new HashMap<String, List<CommandHandler<Session>>>();
 
+    /**
+     * Lookup table for the command handlers which works on the raw bytes of a line. Gets build once all handlers were
+     * added to the map
+     */
+    private volatile CommandTable<List<CommandHandler<Session>>> commandTable;
+
+    /**
+     * The last charset which was checked by {@link #isAsciiCompatible(Charset)}
+     */
+    private volatile Charset asciiCompatibleCharset;
+
     private final List<ProtocolHandlerResultHandler<Response, Session>> rHandlers = new ArrayList<ProtocolHandlerResultHandler<Response, Session>>();
 
+    private final List<LatencyRecorder> recorders = new ArrayList<LatencyRecorder>();
+
     private final Collection<String> mandatoryCommands;
-    
-    public CommandDispatcher(Collection<String> mandatoryCommands) {
+
+    private final Collection<String> syncCommands;
+
+    /**
+     * Create a new {@link CommandDispatcher}
+     * 
+     * @param mandatoryCommands the commands which must have at least one {@link CommandHandler}
+     * @param syncCommands the commands after which the client waits for the responses before it sends more commands. The
+     *            buffered responses get flushed once the response to one of them was written, even if more pipelined
+     *            commands were received with it. The tasks which wait for the end of the request batch are run before
+     *            one of them is dispatched
+     */
+    public CommandDispatcher(Collection<String> mandatoryCommands, Collection<String> syncCommands) {
         this.mandatoryCommands = mandatoryCommands;
+        this.syncCommands = syncCommands;
+    }
+
+    public CommandDispatcher(Collection<String> mandatoryCommands) {
+        this(mandatoryCommands, Collections.<String>emptyList());
     }
     
     public CommandDispatcher() {
@@ -74,11 +109,55 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
             commandHandlerMap.put(commandName, handlers);
         }
         handlers.add(cmdHandler);
+        commandTable = null;
     }
 
+    /**
+     * Return the {@link CommandTable} for all commands which only contain ASCII characters
+     * 
+     * @return table
+     */
+    private CommandTable<List<CommandHandler<Session>>> getCommandTable() {
+        CommandTable<List<CommandHandler<Session>>> table = commandTable;
+        if (table == null) {
+            HashMap<String, List<CommandHandler<Session>>> asciiCommands = new HashMap<String, List<CommandHandler<Session>>>();
+            for (String command: commandHandlerMap.keySet()) {
+                if (isAscii(command)) {
+                    asciiCommands.put(command, commandHandlerMap.get(command));
+                }
+            }
+            table = new CommandTable<List<CommandHandler<Session>>>(asciiCommands);
+            commandTable = table;
+        }
+        return table;
+    }
+
+    private static boolean isAscii(String command) {
+        for (int i = 0; i < command.length(); i++) {
+            if (command.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Return <code>true</code> if the {@link CommandHandler}'s which were resolved via the {@link CommandTable} while
+     * parsing the line are used, so {@link #getCommandHandlers(String, ProtocolSession)} is only called for requests
+     * which were not parsed from a line. Subclasses which override
+     * {@link #getCommandHandlers(String, ProtocolSession)} must return <code>false</code>. This implementation returns
+     * <code>true</code>.
+     * 
+     * @return useCommandTable
+     */
+    protected boolean useCommandTable() {
+        return true;
+    }
 
     /**
-     * Returns all the configured CommandHandlers for the specified command
+     * Returns all the configured CommandHandlers for the specified command. Subclasses which override this must
+     * also override {@link #useCommandTable()}
      *
      * @param command the command name which will be key
      * @param session not null
@@ -88,9 +167,7 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
         if (command == null) {
             return null;
         }
-        if (session.getLogger().isDebugEnabled()) {
-            session.getLogger().debug("Lookup command handler for command: " + command);
-        }
+        session.getLogger().debug("Lookup command handler for command: {}", command);
         List<CommandHandler<Session>> handlers =  commandHandlerMap.get(command);
         if(handlers == null) {
             handlers = commandHandlerMap.get(getUnknownCommandHandlerIdentifier());
@@ -108,6 +185,9 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
         if (interfaceName.equals(ProtocolHandlerResultHandler.class)) {
             rHandlers.addAll(extension);
         }
+        if (interfaceName.equals(LatencyRecorder.class)) {
+            recorders.addAll(extension);
+        }
         if (interfaceName.equals(CommandHandler.class)) {
             for (Iterator it = extension.iterator(); it.hasNext();) {
                 CommandHandler handler = (CommandHandler) it.next();
@@ -128,6 +208,7 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
                     }
                 }
             }
+            getCommandTable();
         }
 
     }
@@ -161,23 +242,50 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
      * @param request
      * @return response
      */
+    @SuppressWarnings("unchecked")
     protected Response dispatchCommandHandlers(Session session, Request request) {
-        if (session.getLogger().isDebugEnabled()) {
-            session.getLogger().debug(getClass().getName() + " received: " + request.getCommand());
+        session.getLogger().debug("{} received: {}", getClass().getName(), request.getCommand());
+        if (syncCommands.contains(request.getCommand()) && session instanceof ProtocolSessionImpl) {
+            ProtocolTransport transport = ((ProtocolSessionImpl) session).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                // the command may depend on the results of the previous ones of the batch
+                ((AbstractProtocolTransport) transport).runRequestBatchTasks();
+                ((AbstractProtocolTransport) transport).flushAfterResponse();
+            }
+        }
+        List<CommandHandler<Session>> commandHandlers = null;
+        if (request instanceof CommandLineRequest && useCommandTable()) {
+            // the handlers were already resolved while parsing the line
+            commandHandlers = ((CommandLineRequest<Session>) request).getHandlers();
+        }
+        boolean known = commandHandlers != null;
+        if (commandHandlers == null) {
+            commandHandlers = getCommandHandlers(request.getCommand(), session);
+            known = commandHandlerMap.containsKey(request.getCommand());
         }
-        List<CommandHandler<Session>> commandHandlers = getCommandHandlers(request.getCommand(), session);
         // fetch the command handlers registered to the command
         Iterator<CommandHandler<Session>> handlers = commandHandlers.iterator();
+        String metricName = getMetricName(request.getCommand(), known);
         
         while (handlers.hasNext()) {
-            final long start = System.currentTimeMillis();
+            final long start = System.nanoTime();
             CommandHandler<Session> cHandler = handlers.next();
             Response response = cHandler.onCommand(session, request);
+            long nanos = System.nanoTime() - start;
+            if (metricName != null) {
+                for (int i = 0; i < recorders.size(); i++) {
+                    recorders.get(i).recordCommand(metricName, nanos);
+                }
+            }
+            ProtocolTracer tracer = Tracing.getTracer();
+            if (tracer != null) {
+                tracer.commandExecuted(session.getSessionID(), request.getCommand(), cHandler.getClass(), nanos);
+            }
             if (response != null) {
-                long executionTime = System.currentTimeMillis() - start;
+                long executionTime = TimeUnit.NANOSECONDS.toMillis(nanos);
 
                 // now process the result handlers
-                response = executeResultHandlers(session, response, executionTime, cHandler, rHandlers.iterator());
+                response = ResultHandlerChain.execute(session, response, executionTime, cHandler, rHandlers);
                 if (response != null) {
                     return response;
                 }
@@ -188,39 +296,32 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
         return null;
     }
 
-    private Response executeResultHandlers(final Session session, Response response, final long executionTime, final CommandHandler<Session> cHandler, final Iterator<ProtocolHandlerResultHandler<Response, Session>> resultHandlers) {
-        // Check if the there is a ResultHandler left to execute if not just return the response
-        if (resultHandlers.hasNext()) {
-            // Special handling of FutureResponse
-            // See PROTOCOLS-37
-            if (response instanceof FutureResponse) {
-                final FutureResponseImpl futureResponse = new FutureResponseImpl();
-                ((FutureResponse) response).addListener(new ResponseListener() {
-
-                    public void onResponse(FutureResponse response) {
-                        Response r = resultHandlers.next().onResponse(session, response, executionTime, cHandler);
-                        
-                        // call the next ResultHandler 
-                        r = executeResultHandlers(session, r, executionTime, cHandler, resultHandlers);
-                        
-                        // notify the FutureResponse that we are ready
-                        futureResponse.setResponse(r);
-                    }
-                });
-                
-                // just return the new FutureResponse which will get notified once its ready
-                return futureResponse;
-            }  else {
-                response = resultHandlers.next().onResponse(session, response, executionTime, (CommandHandler<Session>) cHandler);
-                
-                // call the next ResultHandler 
-                return executeResultHandlers(session, response, executionTime, cHandler, resultHandlers);
-            }
+    /**
+     * Return the name under which the latency of the given command is passed to the {@link LatencyRecorder}'s or
+     * <code>null</code> if none is wired. Commands without a {@link CommandHandler} are all recorded as the unknown command,
+     * so clients can not flood the recorders with made up command names.
+     * 
+     * @param command
+     * @param known <code>true</code> if there is a {@link CommandHandler} for the command
+     * @return name
+     */
+    private String getMetricName(String command, boolean known) {
+        if (recorders.isEmpty()) {
+            return null;
+        }
+        if (known) {
+            return command;
         }
-        return response;
+        return getUnknownCommandHandlerIdentifier();
     }
+
     /**
-     * Parse the line into a {@link Request}
+     * Parse the line into a {@link Request}.
+     * 
+     * The verb and the argument are located directly in the bytes of the line and the verb is looked up in a
+     * {@link CommandTable}, so for known commands no {@link String} needs to be created for the verb. The argument is only
+     * decoded once {@link Request#getArgument()} is called. This only works for charsets which encode ASCII as single
+     * bytes, for all others the line is decoded first.
      * 
      * @param session
      * @param line
@@ -228,15 +329,92 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
      * @throws Exception
      */
     protected Request parseRequest(Session session, ByteBuffer buffer) throws Exception {
-        String curCommandName = null;
-        String curCommandArgument = null;
+        Charset charset = session.getCharset();
+        if (!isAsciiCompatible(charset)) {
+            return parseDecodedRequest(session, buffer);
+        }
         byte[] line;
+        int start;
+        int end;
         if (buffer.hasArray()) {
             line = buffer.array();
+            start = buffer.arrayOffset() + buffer.position();
+            end = buffer.arrayOffset() + buffer.limit();
         } else {
             line = new byte[buffer.remaining()];
             buffer.get(line);
+            start = 0;
+            end = line.length;
+        }
+
+        // trim the same way as String.trim() does
+        while (start < end && (line[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (line[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        int spaceIndex = start;
+        while (spaceIndex < end && line[spaceIndex] != ' ') {
+            spaceIndex++;
+        }
+
+        String command;
+        List<CommandHandler<Session>> handlers = null;
+        CommandTable.Entry<List<CommandHandler<Session>>> entry = getCommandTable().lookup(line, start, spaceIndex - start);
+        if (entry != null) {
+            command = entry.getCommand();
+            handlers = entry.getValue();
+        } else {
+            command = charset.decode(ByteBuffer.wrap(line, start, spaceIndex - start)).toString().toUpperCase(Locale.US);
         }
+        byte[] argument = null;
+        if (spaceIndex < end) {
+            argument = new byte[end - spaceIndex - 1];
+            System.arraycopy(line, spaceIndex + 1, argument, 0, argument.length);
+        }
+        return new CommandLineRequest<Session>(command, handlers, argument, charset);
+    }
+
+    /**
+     * Return <code>true</code> if the given {@link Charset} encodes all ASCII characters as single bytes with the same
+     * value, which is true for US-ASCII, ISO-8859-x and UTF-8
+     * 
+     * @param charset
+     * @return compatible
+     * @throws UnsupportedEncodingException 
+     */
+    private boolean isAsciiCompatible(Charset charset) throws UnsupportedEncodingException {
+        if (charset.equals(asciiCompatibleCharset)) {
+            return true;
+        }
+        String ascii = " \t\r\nAZaz09";
+        byte[] encoded = ascii.getBytes(charset.name());
+        if (encoded.length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        asciiCompatibleCharset = charset;
+        return true;
+    }
+
+    /**
+     * Parse the line into a {@link Request} by decoding it to a {@link String} first
+     * 
+     * @param session
+     * @param buffer
+     * @return request
+     * @throws Exception
+     */
+    private Request parseDecodedRequest(Session session, ByteBuffer buffer) throws Exception {
+        String curCommandName = null;
+        String curCommandArgument = null;
+        byte[] line = new byte[buffer.remaining()];
+        buffer.get(line);
         // This should be changed once we move to java6
         String cmdString = new String(line, session.getCharset().name()).trim();
         int spaceIndex = cmdString.indexOf(" ");
@@ -261,6 +439,7 @@ public class CommandDispatcher<Session extends ProtocolSession> implements Exten
         List res = new LinkedList();
         res.add(CommandHandler.class);
         res.add(ProtocolHandlerResultHandler.class);
+        res.add(LatencyRecorder.class);
         return res;
     }
 
@@ -0,0 +1,50 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.audit.AsyncAuditLog;
+
+/**
+ * {@link ProtocolHandlerResultHandler} which records the {@link Response} of {@link CommandHandler}'s in an {@link AsyncAuditLog}.
+ * 
+ * In contrast to {@link CommandHandlerResultLogger} nothing is formatted or written on the calling thread.
+ */
+public class CommandHandlerResultAuditor implements ProtocolHandlerResultHandler<Response, ProtocolSession> {
+
+    private final AsyncAuditLog auditLog;
+
+    public CommandHandlerResultAuditor(AsyncAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.handler.ProtocolHandlerResultHandler#onResponse(org.apache.james.protocols.api.ProtocolSession, org.apache.james.protocols.api.Response, long, org.apache.james.protocols.api.handler.ProtocolHandler)
+     */
+    public Response onResponse(ProtocolSession session, Response response, long executionTime, ProtocolHandler handler) {
+        if (handler instanceof CommandHandler && response != null) {
+            auditLog.recordCommand(session, handler.getClass(), response.getRetCode(), executionTime);
+        }
+        return response;
+    }
+
+}
@@ -0,0 +1,95 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Request;
+
+/**
+ * {@link Request} which was parsed by the {@link CommandDispatcher}. It keeps the raw bytes of the argument and only
+ * decodes them once {@link #getArgument()} is called, so commands which don't need the argument don't pay for it.
+ */
+final class CommandLineRequest<Session extends ProtocolSession> implements Request {
+
+    private final String command;
+    private final List<CommandHandler<Session>> handlers;
+    private final byte[] argumentBytes;
+    private final Charset charset;
+    private volatile String argument;
+
+    /**
+     * @param command the upper-case command
+     * @param handlers the resolved handlers or <code>null</code> if the command is not known
+     * @param argumentBytes the bytes of the argument or <code>null</code> if there is none
+     * @param charset the charset to decode the argument
+     */
+    public CommandLineRequest(String command, List<CommandHandler<Session>> handlers, byte[] argumentBytes, Charset charset) {
+        this.command = command;
+        this.handlers = handlers;
+        this.argumentBytes = argumentBytes;
+        this.charset = charset;
+    }
+
+    /**
+     * Return the handlers which were resolved while parsing or <code>null</code> if the command is not known
+     *
+     * @return handlers
+     */
+    public List<CommandHandler<Session>> getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.Request#getArgument()
+     */
+    public String getArgument() {
+        if (argumentBytes == null) {
+            return null;
+        }
+        String arg = argument;
+        if (arg == null) {
+            // decoding twice in a race is harmless, the result is the same
+            arg = charset.decode(ByteBuffer.wrap(argumentBytes)).toString();
+            argument = arg;
+        }
+        return arg;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.Request#getCommand()
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public String toString() {
+        String arg = getArgument();
+        if (arg == null) {
+            return command;
+        } else {
+            return command + " " + arg;
+        }
+    }
+}
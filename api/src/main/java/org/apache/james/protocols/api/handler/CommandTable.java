@@ -0,0 +1,163 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.util.Map;
+
+/**
+ * Immutable lookup table which maps the ASCII bytes of a command verb to a value without decoding them to a
+ * {@link String} first. The lookup is case-insensitive.
+ *
+ * The table uses a perfect hash, which means every verb has its own slot. The seed and size of the table are searched
+ * when the table is built, so a lookup needs only one hash calculation and one comparison.
+ */
+final class CommandTable<T> {
+
+    private final static int MAX_SEEDS = 1024;
+
+    private final Entry<T>[] slots;
+    private final int mask;
+    private final int seed;
+
+    /**
+     * Build the table for the given verbs. The keys must be upper-case and only contain ASCII characters.
+     *
+     * @param values
+     */
+    @SuppressWarnings("unchecked")
+    public CommandTable(Map<String, T> values) {
+        Entry<T>[] entries = new Entry[values.size()];
+        int i = 0;
+        for (Map.Entry<String, T> value : values.entrySet()) {
+            entries[i++] = new Entry<T>(value.getKey(), value.getValue());
+        }
+
+        int size = 2;
+        while (size < entries.length * 2) {
+            size <<= 1;
+        }
+        while (true) {
+            for (int s = 0; s < MAX_SEEDS; s++) {
+                Entry<T>[] table = new Entry[size];
+                if (fill(table, entries, s)) {
+                    this.slots = table;
+                    this.mask = size - 1;
+                    this.seed = s;
+                    return;
+                }
+            }
+            size <<= 1;
+        }
+    }
+
+    private static <T> boolean fill(Entry<T>[] table, Entry<T>[] entries, int seed) {
+        for (int i = 0; i < entries.length; i++) {
+            byte[] key = entries[i].key;
+            int index = hash(key, 0, key.length, seed) & (table.length - 1);
+            if (table[index] != null) {
+                return false;
+            }
+            table[index] = entries[i];
+        }
+        return true;
+    }
+
+    /**
+     * Return the {@link Entry} for the verb which is stored in the given bytes or <code>null</code> if there is none
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return entry
+     */
+    public Entry<T> lookup(byte[] data, int offset, int length) {
+        Entry<T> entry = slots[hash(data, offset, length, seed) & mask];
+        if (entry == null || entry.key.length != length) {
+            return null;
+        }
+        byte[] key = entry.key;
+        for (int i = 0; i < length; i++) {
+            if (key[i] != toUpperCase(data[offset + i])) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Return the count of slots. Only used for tests
+     *
+     * @return size
+     */
+    int size() {
+        return slots.length;
+    }
+
+    private static int hash(byte[] data, int offset, int length, int seed) {
+        int h = 0x811c9dc5 ^ seed;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ toUpperCase(data[i])) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static byte toUpperCase(byte b) {
+        if (b >= 'a' && b <= 'z') {
+            return (byte) (b - ('a' - 'A'));
+        }
+        return b;
+    }
+
+    /**
+     * A verb of the table and its value
+     */
+    static final class Entry<T> {
+        private final String command;
+        private final byte[] key;
+        private final T value;
+
+        private Entry(String command, T value) {
+            this.command = command;
+            this.value = value;
+            this.key = new byte[command.length()];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = (byte) command.charAt(i);
+            }
+        }
+
+        /**
+         * Return the verb
+         *
+         * @return command
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * Return the value which belongs to the verb
+         *
+         * @return value
+         */
+        public T getValue() {
+            return value;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Response;
@@ -36,22 +37,21 @@ import org.apache.james.protocols.api.Response;
  */
 public abstract class MultiLineHandler<S extends ProtocolSession> implements LineHandler<S>{
 
-    private static final String BUFFERED_LINES = "BUFFERED_LINES";
+    private static final AttachmentKey<List<ByteBuffer>> BUFFERED_LINES = AttachmentKey.of("BUFFERED_LINES", List.class);
     
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, byte[])
      */
-    @SuppressWarnings("unchecked")
     public Response onLine(S session, ByteBuffer line) {
-        Collection<ByteBuffer> lines = (List<ByteBuffer>) session.getAttachment(BUFFERED_LINES, State.Transaction);
+        List<ByteBuffer> lines = session.getAttachment(BUFFERED_LINES, State.Transaction);
         if (lines == null)  {
             lines = new ArrayList<ByteBuffer>();
             session.setAttachment(BUFFERED_LINES, lines, State.Transaction);
         }
         lines.add(line);
         if (isReady(session, line)) {
-            return onLines(session, (Collection<ByteBuffer>) session.setAttachment(BUFFERED_LINES, null, State.Transaction));
+            return onLines(session, session.setAttachment(BUFFERED_LINES, null, State.Transaction));
         }
         return null;
     }
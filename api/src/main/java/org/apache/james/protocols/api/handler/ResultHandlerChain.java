@@ -0,0 +1,134 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
+
+/**
+ * Pass a {@link Response} through a list of {@link ProtocolHandlerResultHandler}'s.
+ * 
+ * As long as the {@link Response}'s are ready the {@link ProtocolHandlerResultHandler}'s are just called one after the
+ * other. Once a {@link FutureResponse} which is not ready yet is returned a new {@link FutureResponse} is returned to the
+ * caller and the remaining {@link ProtocolHandlerResultHandler}'s are called once it gets ready. This is done in a loop
+ * and not by nesting listeners, so the stack does not grow with the count of asynchronous {@link Response}'s.
+ * 
+ * See PROTOCOLS-37
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class ResultHandlerChain implements ResponseListener {
+
+    private final ProtocolSession session;
+    private final long executionTime;
+    private final ProtocolHandler handler;
+    private final List<? extends ProtocolHandlerResultHandler> resultHandlers;
+    private final FutureResponseImpl result;
+    
+    // count of notifications which were not processed yet, only the thread which increments it from 0 runs the loop
+    private final AtomicInteger pending = new AtomicInteger();
+    private int index;
+    private volatile Response response;
+    
+    private ResultHandlerChain(ProtocolSession session, long executionTime, ProtocolHandler handler, List<? extends ProtocolHandlerResultHandler> resultHandlers, int index, Response response) {
+        this.session = session;
+        this.executionTime = executionTime;
+        this.handler = handler;
+        this.resultHandlers = resultHandlers;
+        this.index = index;
+        this.response = response;
+        this.result = new FutureResponseImpl(session.getLogger());
+        this.result.addListener(new ResponseListener() {
+            
+            public void onResponse(FutureResponse future) {
+                // pass the cancellation on to the FutureResponse we are waiting for, so the hook can stop its work
+                Response current = ResultHandlerChain.this.response;
+                if (future.isCancelled() && current instanceof FutureResponse) {
+                    ((FutureResponse) current).cancel();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Call the given {@link ProtocolHandlerResultHandler}'s for the {@link Response} and return the final
+     * {@link Response}
+     * 
+     * @param session
+     * @param response the {@link Response} returned by the handler, may be <code>null</code>
+     * @param executionTime the execution time of the handler in milliseconds
+     * @param handler the {@link ProtocolHandler} which returned the {@link Response}
+     * @param resultHandlers
+     * @return response which may be a {@link FutureResponse} if one of the {@link ProtocolHandlerResultHandler}'s needs
+     *         to wait for an asynchronous {@link Response}
+     */
+    public static Response execute(ProtocolSession session, Response response, long executionTime, ProtocolHandler handler, List<? extends ProtocolHandlerResultHandler> resultHandlers) {
+        int size = resultHandlers.size();
+        for (int i = 0; i < size; i++) {
+            if (isPending(response)) {
+                ResultHandlerChain chain = new ResultHandlerChain(session, executionTime, handler, resultHandlers, i, response);
+                ((FutureResponse) response).addListener(chain);
+                return chain.result;
+            }
+            response = resultHandlers.get(i).onResponse(session, response, executionTime, handler);
+        }
+        return response;
+    }
+
+    private static boolean isPending(Response response) {
+        return response instanceof FutureResponse && !((FutureResponse) response).isReady();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.future.FutureResponse.ResponseListener#onResponse(org.apache.james.protocols.api.future.FutureResponse)
+     */
+    public void onResponse(FutureResponse future) {
+        if (pending.getAndIncrement() != 0) {
+            // the loop is running further down the stack and will pick it up
+            return;
+        }
+        do {
+            if (future.isCancelled() || result.isReady()) {
+                result.cancel();
+                return;
+            }
+            while (index < resultHandlers.size()) {
+                response = resultHandlers.get(index++).onResponse(session, response, executionTime, handler);
+                if (isPending(response)) {
+                    // may call onResponse again if it got ready in the meantime
+                    ((FutureResponse) response).addListener(this);
+                    break;
+                }
+            }
+            if (index == resultHandlers.size() && !isPending(response)) {
+                result.setResponse(response);
+                return;
+            }
+            future = (FutureResponse) response;
+        } while (pending.decrementAndGet() != 0);
+    }
+
+}
@@ -22,8 +22,9 @@ package org.apache.james.protocols.api.logger;
 import org.apache.james.protocols.api.ProtocolSession;
 
 /**
- * {@link Logger} which adds context informations to the logged message.
- *
+ * {@link Logger} which prefixes every message with the id and the user of the {@link ProtocolSession}.
+ * 
+ * The prefix and the message are only rendered if the log level is enabled in the wrapped {@link Logger}
  */
 public class ContextualLogger implements Logger{
 
@@ -46,39 +47,141 @@ public class ContextualLogger implements Logger{
         sb.append("' ").append(str);
         return sb.toString();
     }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String)
+     */
+    public void trace(String arg0) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(arg0));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Throwable)
+     */
+    public void trace(String arg0, Throwable arg1) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(arg0), arg1);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Object)
+     */
+    public void trace(String format, Object arg) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void trace(String format, Object arg1, Object arg2) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Object[])
+     */
+    public void trace(String format, Object... args) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void trace(MessageSupplier supplier) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#isTraceEnabled()
+     */
+    public boolean isTraceEnabled() {
+        return logger.isTraceEnabled();
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String)
      */
     public void debug(String arg0) {
-        logger.debug(getText(arg0));
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(arg0));
+        }
     }
 
-
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Throwable)
      */
     public void debug(String arg0, Throwable arg1) {
-        logger.debug(getText(arg0), arg1);
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(arg0), arg1);
+        }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Object)
+     */
+    public void debug(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(MessageFormatter.format(format, arg)));
+        }
+    }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Object, java.lang.Object)
      */
-    public void error(String arg0) {
-        logger.error(getText(arg0));
+    public void debug(String format, Object arg1, Object arg2) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Object[])
+     */
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(MessageFormatter.format(format, args)));
+        }
+    }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Throwable)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(org.apache.james.protocols.api.logger.MessageSupplier)
      */
-    public void error(String arg0, Throwable arg1) {
-        logger.error(getText(arg0), arg1);
+    public void debug(MessageSupplier supplier) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#isDebugEnabled()
+     */
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
     }
 
     /*
@@ -86,7 +189,9 @@ public class ContextualLogger implements Logger{
      * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String)
      */
     public void info(String arg0) {
-        logger.info(getText(arg0));
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(arg0));
+        }
     }
 
     /*
@@ -94,23 +199,49 @@ public class ContextualLogger implements Logger{
      * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Throwable)
      */
     public void info(String arg0, Throwable arg1) {
-        logger.info(getText(arg0), arg1);
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(arg0), arg1);
+        }
     }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#isDebugEnabled()
+     * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Object)
      */
-    public boolean isDebugEnabled() {
-        return logger.isDebugEnabled();
+    public void info(String format, Object arg) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(MessageFormatter.format(format, arg)));
+        }
     }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#isErrorEnabled()
+     * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Object, java.lang.Object)
      */
-    public boolean isErrorEnabled() {
-        return logger.isErrorEnabled();
+    public void info(String format, Object arg1, Object arg2) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Object[])
+     */
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#info(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void info(MessageSupplier supplier) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(supplier.get()));
+        }
     }
 
     /*
@@ -123,10 +254,62 @@ public class ContextualLogger implements Logger{
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#isTraceEnabled()
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String)
      */
-    public boolean isTraceEnabled() {
-        return logger.isTraceEnabled();
+    public void warn(String arg0) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(arg0));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Throwable)
+     */
+    public void warn(String arg0, Throwable arg1) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(arg0), arg1);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Object)
+     */
+    public void warn(String format, Object arg) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void warn(String format, Object arg1, Object arg2) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Object[])
+     */
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void warn(MessageSupplier supplier) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(supplier.get()));
+        }
     }
 
     /*
@@ -139,35 +322,70 @@ public class ContextualLogger implements Logger{
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String)
      */
-    public void trace(String arg0) {
-        logger.trace(getText(arg0));
+    public void error(String arg0) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(arg0));
+        }
     }
-    
+
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Throwable)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Throwable)
      */
-    public void trace(String arg0, Throwable arg1) {
-        logger.trace(getText(arg0), arg1);
+    public void error(String arg0, Throwable arg1) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(arg0), arg1);
+        }
     }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Object)
      */
-    public void warn(String arg0) {
-        logger.warn(getText(arg0));
+    public void error(String format, Object arg) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(MessageFormatter.format(format, arg)));
+        }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void error(String format, Object arg1, Object arg2) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Throwable)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Object[])
      */
-    public void warn(String arg0, Throwable arg1) {
-        logger.warn(getText(arg0), arg1);
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#error(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void error(MessageSupplier supplier) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#isErrorEnabled()
+     */
+    public boolean isErrorEnabled() {
+        return logger.isErrorEnabled();
     }
 
 }
@@ -164,4 +164,200 @@ public interface Logger {
      * @param t log this cause
      */
     void error(String message, Throwable t);
+
+
+    /**
+     * <p> Log a message with trace log level. The message is only formatted if
+     * trace is enabled, every <code>{}</code> in the format gets replaced by the argument. </p>
+     *
+     * @param format the message format
+     * @param arg the argument
+     */
+    void trace(String format, Object arg);
+
+
+    /**
+     * <p> Log a message with trace log level. The message is only formatted if
+     * trace is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    void trace(String format, Object arg1, Object arg2);
+
+
+    /**
+     * <p> Log a message with trace log level. The message is only formatted if
+     * trace is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param args the arguments
+     */
+    void trace(String format, Object... args);
+
+
+    /**
+     * <p> Log the message of the given {@link MessageSupplier} with trace log level.
+     * The {@link MessageSupplier} is only asked for the message if trace is enabled. </p>
+     *
+     * @param supplier supplies the message to log
+     */
+    void trace(MessageSupplier supplier);
+
+    /**
+     * <p> Log a message with debug log level. The message is only formatted if
+     * debug is enabled, every <code>{}</code> in the format gets replaced by the argument. </p>
+     *
+     * @param format the message format
+     * @param arg the argument
+     */
+    void debug(String format, Object arg);
+
+
+    /**
+     * <p> Log a message with debug log level. The message is only formatted if
+     * debug is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    void debug(String format, Object arg1, Object arg2);
+
+
+    /**
+     * <p> Log a message with debug log level. The message is only formatted if
+     * debug is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param args the arguments
+     */
+    void debug(String format, Object... args);
+
+
+    /**
+     * <p> Log the message of the given {@link MessageSupplier} with debug log level.
+     * The {@link MessageSupplier} is only asked for the message if debug is enabled. </p>
+     *
+     * @param supplier supplies the message to log
+     */
+    void debug(MessageSupplier supplier);
+
+    /**
+     * <p> Log a message with info log level. The message is only formatted if
+     * info is enabled, every <code>{}</code> in the format gets replaced by the argument. </p>
+     *
+     * @param format the message format
+     * @param arg the argument
+     */
+    void info(String format, Object arg);
+
+
+    /**
+     * <p> Log a message with info log level. The message is only formatted if
+     * info is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    void info(String format, Object arg1, Object arg2);
+
+
+    /**
+     * <p> Log a message with info log level. The message is only formatted if
+     * info is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param args the arguments
+     */
+    void info(String format, Object... args);
+
+
+    /**
+     * <p> Log the message of the given {@link MessageSupplier} with info log level.
+     * The {@link MessageSupplier} is only asked for the message if info is enabled. </p>
+     *
+     * @param supplier supplies the message to log
+     */
+    void info(MessageSupplier supplier);
+
+    /**
+     * <p> Log a message with warn log level. The message is only formatted if
+     * warn is enabled, every <code>{}</code> in the format gets replaced by the argument. </p>
+     *
+     * @param format the message format
+     * @param arg the argument
+     */
+    void warn(String format, Object arg);
+
+
+    /**
+     * <p> Log a message with warn log level. The message is only formatted if
+     * warn is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    void warn(String format, Object arg1, Object arg2);
+
+
+    /**
+     * <p> Log a message with warn log level. The message is only formatted if
+     * warn is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param args the arguments
+     */
+    void warn(String format, Object... args);
+
+
+    /**
+     * <p> Log the message of the given {@link MessageSupplier} with warn log level.
+     * The {@link MessageSupplier} is only asked for the message if warn is enabled. </p>
+     *
+     * @param supplier supplies the message to log
+     */
+    void warn(MessageSupplier supplier);
+
+    /**
+     * <p> Log a message with error log level. The message is only formatted if
+     * error is enabled, every <code>{}</code> in the format gets replaced by the argument. </p>
+     *
+     * @param format the message format
+     * @param arg the argument
+     */
+    void error(String format, Object arg);
+
+
+    /**
+     * <p> Log a message with error log level. The message is only formatted if
+     * error is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    void error(String format, Object arg1, Object arg2);
+
+
+    /**
+     * <p> Log a message with error log level. The message is only formatted if
+     * error is enabled, the <code>{}</code>'s in the format get replaced by the arguments. </p>
+     *
+     * @param format the message format
+     * @param args the arguments
+     */
+    void error(String format, Object... args);
+
+
+    /**
+     * <p> Log the message of the given {@link MessageSupplier} with error log level.
+     * The {@link MessageSupplier} is only asked for the message if error is enabled. </p>
+     *
+     * @param supplier supplies the message to log
+     */
+    void error(MessageSupplier supplier);
 }
@@ -0,0 +1,108 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.logger;
+
+import java.util.Arrays;
+
+/**
+ * Formats log messages which use <code>{}</code> as placeholder for their arguments. Every placeholder
+ * is replaced by the next argument, placeholders without an argument are left as they are and arguments
+ * without a placeholder are ignored.
+ */
+public final class MessageFormatter {
+
+    private static final String PLACEHOLDER = "{}";
+
+    private MessageFormatter() {
+    }
+
+    /**
+     * Format the given message with one argument
+     * 
+     * @param format
+     * @param arg
+     * @return message
+     */
+    public static String format(String format, Object arg) {
+        if (format == null) {
+            return null;
+        }
+        int index = format.indexOf(PLACEHOLDER);
+        if (index == -1) {
+            return format;
+        }
+        StringBuilder sb = new StringBuilder(format.length() + 16);
+        sb.append(format, 0, index);
+        append(sb, arg);
+        sb.append(format, index + PLACEHOLDER.length(), format.length());
+        return sb.toString();
+    }
+
+    /**
+     * Format the given message with two arguments
+     * 
+     * @param format
+     * @param arg1
+     * @param arg2
+     * @return message
+     */
+    public static String format(String format, Object arg1, Object arg2) {
+        return format(format, new Object[] {arg1, arg2});
+    }
+
+    /**
+     * Format the given message with the given arguments
+     * 
+     * @param format
+     * @param args
+     * @return message
+     */
+    public static String format(String format, Object[] args) {
+        if (format == null || args == null || args.length == 0) {
+            return format;
+        }
+        StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+        int start = 0;
+        for (int i = 0; i < args.length; i++) {
+            int index = format.indexOf(PLACEHOLDER, start);
+            if (index == -1) {
+                break;
+            }
+            sb.append(format, start, index);
+            append(sb, args[i]);
+            start = index + PLACEHOLDER.length();
+        }
+        sb.append(format, start, format.length());
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, Object arg) {
+        try {
+            if (arg instanceof Object[]) {
+                sb.append(Arrays.deepToString((Object[]) arg));
+            } else {
+                sb.append(String.valueOf(arg));
+            }
+        } catch (RuntimeException e) {
+            // never let a broken toString() break the logging
+            sb.append("[").append(arg.getClass().getName()).append("#toString() failed]");
+        }
+    }
+}
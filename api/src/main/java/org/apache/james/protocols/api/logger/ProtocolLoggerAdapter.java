@@ -89,4 +89,94 @@ public class ProtocolLoggerAdapter implements Logger{
         logger.error(message, t);
     }
 
+    public void trace(String format, Object arg) {
+        logger.trace(format, arg);
+    }
+
+    public void trace(String format, Object arg1, Object arg2) {
+        logger.trace(format, arg1, arg2);
+    }
+
+    public void trace(String format, Object... args) {
+        logger.trace(format, args);
+    }
+
+    public void trace(MessageSupplier supplier) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(supplier.get());
+        }
+    }
+
+    public void debug(String format, Object arg) {
+        logger.debug(format, arg);
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        logger.debug(format, arg1, arg2);
+    }
+
+    public void debug(String format, Object... args) {
+        logger.debug(format, args);
+    }
+
+    public void debug(MessageSupplier supplier) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(supplier.get());
+        }
+    }
+
+    public void info(String format, Object arg) {
+        logger.info(format, arg);
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        logger.info(format, arg1, arg2);
+    }
+
+    public void info(String format, Object... args) {
+        logger.info(format, args);
+    }
+
+    public void info(MessageSupplier supplier) {
+        if (logger.isInfoEnabled()) {
+            logger.info(supplier.get());
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        logger.warn(format, arg);
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        logger.warn(format, arg1, arg2);
+    }
+
+    public void warn(String format, Object... args) {
+        logger.warn(format, args);
+    }
+
+    public void warn(MessageSupplier supplier) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(supplier.get());
+        }
+    }
+
+    public void error(String format, Object arg) {
+        logger.error(format, arg);
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        logger.error(format, arg1, arg2);
+    }
+
+    public void error(String format, Object... args) {
+        logger.error(format, args);
+    }
+
+    public void error(MessageSupplier supplier) {
+        if (logger.isErrorEnabled()) {
+            logger.error(supplier.get());
+        }
+    }
+
 }
@@ -165,4 +165,204 @@ public class ProtocolSessionLogger implements Logger {
         logger.warn(getText(arg0), arg1);
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Object)
+     */
+    public void trace(String format, Object arg) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void trace(String format, Object arg1, Object arg2) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(java.lang.String, java.lang.Object[])
+     */
+    public void trace(String format, Object... args) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#trace(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void trace(MessageSupplier supplier) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Object)
+     */
+    public void debug(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void debug(String format, Object arg1, Object arg2) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(java.lang.String, java.lang.Object[])
+     */
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#debug(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void debug(MessageSupplier supplier) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Object)
+     */
+    public void info(String format, Object arg) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void info(String format, Object arg1, Object arg2) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#info(java.lang.String, java.lang.Object[])
+     */
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#info(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void info(MessageSupplier supplier) {
+        if (logger.isInfoEnabled()) {
+            logger.info(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Object)
+     */
+    public void warn(String format, Object arg) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void warn(String format, Object arg1, Object arg2) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(java.lang.String, java.lang.Object[])
+     */
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#warn(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void warn(MessageSupplier supplier) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(getText(supplier.get()));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Object)
+     */
+    public void error(String format, Object arg) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(MessageFormatter.format(format, arg)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Object, java.lang.Object)
+     */
+    public void error(String format, Object arg1, Object arg2) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(MessageFormatter.format(format, arg1, arg2)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#error(java.lang.String, java.lang.Object[])
+     */
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(MessageFormatter.format(format, args)));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.logger.Logger#error(org.apache.james.protocols.api.logger.MessageSupplier)
+     */
+    public void error(MessageSupplier supplier) {
+        if (logger.isErrorEnabled()) {
+            logger.error(getText(supplier.get()));
+        }
+    }
+
 }
@@ -0,0 +1,261 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ *
+ * The buckets are log-linear: every power of two is split into {@link #SUB_BUCKET_COUNT} equally sized buckets,
+ * so the value reported for a percentile is never more than about 3% higher than the recorded one. Values
+ * which are bigger than {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}.
+ *
+ * Recording is a few atomic increments on preallocated counters, so it never allocates nor blocks. Reads walk over
+ * all buckets and are meant to be used by monitoring only.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    final static int SUB_BUCKET_BITS = 5;
+    final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int MAX_VALUE_BITS = 40;
+
+    /**
+     * Biggest value which can be recorded, about 18 minutes
+     */
+    public final static long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    final static int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+    private final String name;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Return the name of the command or handler which is measured by this histogram
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record the given latency
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            // the clock is not guaranteed to be monotonic on all platforms
+            nanos = 0;
+        } else if (nanos > MAX_VALUE) {
+            nanos = MAX_VALUE;
+        }
+        buckets.incrementAndGet(bucketIndex(nanos));
+        sum.addAndGet(nanos);
+
+        long current = max.get();
+        while (nanos > current) {
+            if (max.compareAndSet(current, nanos)) {
+                break;
+            }
+            current = max.get();
+        }
+    }
+
+    /**
+     * Return the value in nanoseconds below which the given percentage of all recorded latencies fall
+     *
+     * @param percentile between 0 and 100
+     * @return value or 0 if nothing was recorded yet
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // never report more than what was really recorded
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Return the count of recorded latencies
+     *
+     * @return count
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Return the sum of all recorded latencies in nanoseconds
+     *
+     * @return sum
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Return the biggest recorded latency in nanoseconds
+     *
+     * @return max
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyHistogramMBean#getMeanMicros()
+     */
+    public double getMeanMicros() {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        return toMicros(sum.get()) / count;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyHistogramMBean#getMaxMicros()
+     */
+    public double getMaxMicros() {
+        return toMicros(max.get());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyHistogramMBean#getP50Micros()
+     */
+    public double getP50Micros() {
+        return toMicros(getValueAtPercentile(50));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyHistogramMBean#getP99Micros()
+     */
+    public double getP99Micros() {
+        return toMicros(getValueAtPercentile(99));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyHistogramMBean#getP999Micros()
+     */
+    public double getP999Micros() {
+        return toMicros(getValueAtPercentile(99.9));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyHistogramMBean#reset()
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    static double toMicros(long nanos) {
+        return nanos / 1000d;
+    }
+
+    /**
+     * Return the index of the bucket which holds the given value
+     *
+     * @param value
+     * @return index
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Return the smallest value which is recorded in the bucket with the given index
+     *
+     * @param index
+     * @return value
+     */
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * Return the biggest value which is recorded in the bucket with the given index
+     *
+     * @param index
+     * @return value
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [count=" + getCount() + ", p50=" + getP50Micros() + "us, p99=" + getP99Micros() + "us, p999=" + getP999Micros() + "us, max=" + getMaxMicros() + "us]";
+    }
+}
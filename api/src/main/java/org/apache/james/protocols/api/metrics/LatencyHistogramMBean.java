@@ -0,0 +1,73 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+/**
+ * An interface to expose the latencies of a command or handler through JMX.
+ */
+public interface LatencyHistogramMBean {
+
+    /**
+     * Return the count of recorded latencies
+     *
+     * @return count
+     */
+    long getCount();
+
+    /**
+     * Return the mean latency in microseconds
+     *
+     * @return mean
+     */
+    double getMeanMicros();
+
+    /**
+     * Return the biggest latency in microseconds
+     *
+     * @return max
+     */
+    double getMaxMicros();
+
+    /**
+     * Return the median latency in microseconds
+     *
+     * @return p50
+     */
+    double getP50Micros();
+
+    /**
+     * Return the 99th percentile of the latencies in microseconds
+     *
+     * @return p99
+     */
+    double getP99Micros();
+
+    /**
+     * Return the 99.9th percentile of the latencies in microseconds
+     *
+     * @return p999
+     */
+    double getP999Micros();
+
+    /**
+     * Reset all recorded latencies
+     */
+    void reset();
+}
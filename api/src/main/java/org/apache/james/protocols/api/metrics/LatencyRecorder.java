@@ -0,0 +1,47 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import org.apache.james.protocols.api.handler.ProtocolHandler;
+
+/**
+ * {@link ProtocolHandler} which gets the execution time of every command and hook. Just add it to the
+ * handler chain and it will get wired to the handlers which measure their latencies.
+ *
+ * The methods are called on the protocol threads, so implementations must be thread-safe and should not block.
+ */
+public interface LatencyRecorder extends ProtocolHandler {
+
+    /**
+     * Record the execution time of a command
+     *
+     * @param command the name of the command
+     * @param nanos the execution time in nanoseconds
+     */
+    void recordCommand(String command, long nanos);
+
+    /**
+     * Record the execution time of a hook or other handler
+     *
+     * @param handler the class of the hook or handler
+     * @param nanos the execution time in nanoseconds
+     */
+    void recordHandler(Class<?> handler, long nanos);
+}
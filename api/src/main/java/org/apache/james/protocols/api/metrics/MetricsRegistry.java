@@ -0,0 +1,300 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler;
+
+/**
+ * {@link LatencyRecorder} which keeps a {@link LatencyHistogram} per command and per hook or handler.
+ *
+ * The {@link LatencyHistogram} is created the first time a command or handler is recorded, every later recording
+ * is a lookup in a {@link ConcurrentMap} plus the update of the {@link LatencyHistogram} and so does not allocate.
+ *
+ * Once {@link #registerMBeans(MBeanServer, String)} was called the registry and all its {@link LatencyHistogram}'s,
+ * including the ones which are created later, are exposed through JMX.
+ */
+public class MetricsRegistry implements LatencyRecorder, LifecycleAwareProtocolHandler, MetricsRegistryMBean {
+
+    private final ConcurrentMap<String, LatencyHistogram> commands = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<Class<?>, LatencyHistogram> handlers = new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    private volatile MBeanServer server;
+    private volatile String baseName;
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyRecorder#recordCommand(java.lang.String, long)
+     */
+    public void recordCommand(String command, long nanos) {
+        getCommandHistogram(command).record(nanos);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.LatencyRecorder#recordHandler(java.lang.Class, long)
+     */
+    public void recordHandler(Class<?> handler, long nanos) {
+        getHandlerHistogram(handler).record(nanos);
+    }
+
+    /**
+     * Return the {@link LatencyHistogram} for the given command. It is created if it not exists yet
+     *
+     * @param command
+     * @return histogram
+     */
+    public LatencyHistogram getCommandHistogram(String command) {
+        LatencyHistogram histogram = commands.get(command);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(command);
+            LatencyHistogram old = commands.putIfAbsent(command, histogram);
+            if (old != null) {
+                return old;
+            }
+            register("command", command, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Return the {@link LatencyHistogram} for the given hook or handler. It is created if it not exists yet
+     *
+     * @param handler
+     * @return histogram
+     */
+    public LatencyHistogram getHandlerHistogram(Class<?> handler) {
+        LatencyHistogram histogram = handlers.get(handler);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(handler.getName());
+            LatencyHistogram old = handlers.putIfAbsent(handler, histogram);
+            if (old != null) {
+                return old;
+            }
+            register("handler", handler.getName(), histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Return all {@link LatencyHistogram}'s of commands
+     *
+     * @return histograms
+     */
+    public Collection<LatencyHistogram> getCommandHistograms() {
+        return commands.values();
+    }
+
+    /**
+     * Return all {@link LatencyHistogram}'s of hooks and handlers
+     *
+     * @return histograms
+     */
+    public Collection<LatencyHistogram> getHandlerHistograms() {
+        return handlers.values();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#getMeasuredCommands()
+     */
+    public String[] getMeasuredCommands() {
+        return commands.keySet().toArray(new String[0]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#getMeasuredHandlers()
+     */
+    public String[] getMeasuredHandlers() {
+        List<String> names = new ArrayList<String>();
+        for (LatencyHistogram histogram: handlers.values()) {
+            names.add(histogram.getName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#getCommandCount(java.lang.String)
+     */
+    public long getCommandCount(String command) {
+        LatencyHistogram histogram = commands.get(command);
+        if (histogram == null) {
+            return 0;
+        }
+        return histogram.getCount();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#getCommandLatency(java.lang.String, double)
+     */
+    public double getCommandLatency(String command, double percentile) {
+        LatencyHistogram histogram = commands.get(command);
+        if (histogram == null) {
+            return 0;
+        }
+        return LatencyHistogram.toMicros(histogram.getValueAtPercentile(percentile));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#getHandlerCount(java.lang.String)
+     */
+    public long getHandlerCount(String handler) {
+        LatencyHistogram histogram = findHandlerHistogram(handler);
+        if (histogram == null) {
+            return 0;
+        }
+        return histogram.getCount();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#getHandlerLatency(java.lang.String, double)
+     */
+    public double getHandlerLatency(String handler, double percentile) {
+        LatencyHistogram histogram = findHandlerHistogram(handler);
+        if (histogram == null) {
+            return 0;
+        }
+        return LatencyHistogram.toMicros(histogram.getValueAtPercentile(percentile));
+    }
+
+    private LatencyHistogram findHandlerHistogram(String name) {
+        for (LatencyHistogram histogram: handlers.values()) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.metrics.MetricsRegistryMBean#reset()
+     */
+    public void reset() {
+        for (LatencyHistogram histogram: commands.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram: handlers.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Write the latencies of all commands and handlers as OpenMetrics summaries
+     *
+     * @param writer
+     * @param prefix the prefix of the metric names, for example <code>smtp</code>
+     * @throws IOException
+     */
+    public void writeOpenMetrics(OpenMetricsWriter writer, String prefix) throws IOException {
+        writer.summary(prefix + "_command_latency_seconds", "Execution time of commands", "command", commands.values());
+        writer.summary(prefix + "_handler_latency_seconds", "Execution time of hooks and handlers", "handler", handlers.values());
+    }
+
+    /**
+     * Register this registry and all its {@link LatencyHistogram}'s in the given {@link MBeanServer}. The registry
+     * is registered with the given base name, the histograms with the base name plus the type and the name of the
+     * command or handler. For example:
+     *
+     * <pre>
+     * org.apache.james:type=server,name=smtpserver,sub-type=command,command=RCPT
+     * </pre>
+     *
+     * @param server
+     * @param baseName the {@link ObjectName} to use for the registry
+     * @throws JMException
+     */
+    public synchronized void registerMBeans(MBeanServer server, String baseName) throws JMException {
+        if (this.server != null) {
+            throw new IllegalStateException("MBeans are already registered");
+        }
+        ObjectName name = new ObjectName(baseName);
+        server.registerMBean(this, name);
+        registered.add(name);
+
+        this.baseName = baseName;
+        this.server = server;
+
+        for (LatencyHistogram histogram: commands.values()) {
+            register("command", histogram.getName(), histogram);
+        }
+        for (LatencyHistogram histogram: handlers.values()) {
+            register("handler", histogram.getName(), histogram);
+        }
+    }
+
+    /**
+     * Unregister all MBeans which were registered by {@link #registerMBeans(MBeanServer, String)}
+     */
+    public synchronized void unregisterMBeans() {
+        if (server == null) {
+            return;
+        }
+        Iterator<ObjectName> names = registered.iterator();
+        while (names.hasNext()) {
+            try {
+                server.unregisterMBean(names.next());
+            } catch (JMException e) {
+                // already gone
+            }
+            names.remove();
+        }
+        server = null;
+        baseName = null;
+    }
+
+    private synchronized void register(String type, String name, LatencyHistogram histogram) {
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName oName = new ObjectName(baseName + ",sub-type=" + type + "," + type + "=" + ObjectName.quote(name));
+            server.registerMBean(histogram, oName);
+            registered.add(oName);
+        } catch (JMException e) {
+            // the latencies are still available via the registry itself
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler#destroy()
+     */
+    public void destroy() {
+        unregisterMBeans();
+    }
+}
@@ -0,0 +1,79 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+/**
+ * An interface to expose the latencies of all measured commands and handlers through JMX.
+ */
+public interface MetricsRegistryMBean {
+
+    /**
+     * Return the names of all commands for which latencies were recorded
+     *
+     * @return commands
+     */
+    String[] getMeasuredCommands();
+
+    /**
+     * Return the class names of all hooks and handlers for which latencies were recorded
+     *
+     * @return handlers
+     */
+    String[] getMeasuredHandlers();
+
+    /**
+     * Return how often the given command was executed
+     *
+     * @param command
+     * @return count or 0 if the command was never executed
+     */
+    long getCommandCount(String command);
+
+    /**
+     * Return the latency of the given command at the given percentile in microseconds
+     *
+     * @param command
+     * @param percentile between 0 and 100
+     * @return latency or 0 if the command was never executed
+     */
+    double getCommandLatency(String command, double percentile);
+
+    /**
+     * Return how often the given hook or handler was executed
+     *
+     * @param handler the class name
+     * @return count or 0 if the handler was never executed
+     */
+    long getHandlerCount(String handler);
+
+    /**
+     * Return the latency of the given hook or handler at the given percentile in microseconds
+     *
+     * @param handler the class name
+     * @param percentile between 0 and 100
+     * @return latency or 0 if the handler was never executed
+     */
+    double getHandlerLatency(String handler, double percentile);
+
+    /**
+     * Reset all recorded latencies
+     */
+    void reset();
+}
@@ -0,0 +1,177 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+/**
+ * Writes metrics in the OpenMetrics text format, so they can be scraped by monitoring systems without the
+ * need of any extra library.
+ *
+ * The caller is responsible to write every metric family only once and to call {@link #eof()} at the end.
+ */
+public class OpenMetricsWriter {
+
+    private final static double[] QUANTILES = new double[] {0.5, 0.99, 0.999};
+
+    private final Writer out;
+
+    public OpenMetricsWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a counter
+     *
+     * @param name the name of the metric family, without the <code>_total</code> suffix
+     * @param help description of the metric
+     * @param value
+     * @return this
+     * @throws IOException
+     */
+    public OpenMetricsWriter counter(String name, String help, long value) throws IOException {
+        writeHeader(name, "counter", help);
+        out.write(name);
+        out.write("_total ");
+        out.write(Long.toString(value));
+        out.write('\n');
+        return this;
+    }
+
+    /**
+     * Write a gauge
+     *
+     * @param name the name of the metric family
+     * @param help description of the metric
+     * @param value
+     * @return this
+     * @throws IOException
+     */
+    public OpenMetricsWriter gauge(String name, String help, double value) throws IOException {
+        writeHeader(name, "gauge", help);
+        out.write(name);
+        out.write(' ');
+        out.write(Double.toString(value));
+        out.write('\n');
+        return this;
+    }
+
+    /**
+     * Write the given {@link LatencyHistogram}'s as summary with the p50, p99 and p999 quantiles in seconds.
+     * Every {@link LatencyHistogram} is labeled with its name.
+     *
+     * @param name the name of the metric family
+     * @param help description of the metric
+     * @param label the name of the label which holds the name of the {@link LatencyHistogram}
+     * @param histograms
+     * @return this
+     * @throws IOException
+     */
+    public OpenMetricsWriter summary(String name, String help, String label, Collection<LatencyHistogram> histograms) throws IOException {
+        writeHeader(name, "summary", help);
+        for (LatencyHistogram histogram: histograms) {
+            String labelValue = escape(histogram.getName());
+            for (int i = 0; i < QUANTILES.length; i++) {
+                out.write(name);
+                out.write('{');
+                out.write(label);
+                out.write("=\"");
+                out.write(labelValue);
+                out.write("\",quantile=\"");
+                out.write(Double.toString(QUANTILES[i]));
+                out.write("\"} ");
+                out.write(Double.toString(toSeconds(histogram.getValueAtPercentile(QUANTILES[i] * 100))));
+                out.write('\n');
+            }
+            writeLabeled(name + "_count", label, labelValue, Long.toString(histogram.getCount()));
+            writeLabeled(name + "_sum", label, labelValue, Double.toString(toSeconds(histogram.getSum())));
+        }
+        return this;
+    }
+
+    /**
+     * Write the end marker and flush the underlying {@link Writer}
+     *
+     * @throws IOException
+     */
+    public void eof() throws IOException {
+        out.write("# EOF\n");
+        out.flush();
+    }
+
+    private void writeHeader(String name, String type, String help) throws IOException {
+        out.write("# TYPE ");
+        out.write(name);
+        out.write(' ');
+        out.write(type);
+        out.write('\n');
+        if (help != null) {
+            out.write("# HELP ");
+            out.write(name);
+            out.write(' ');
+            out.write(escape(help));
+            out.write('\n');
+        }
+    }
+
+    private void writeLabeled(String name, String label, String labelValue, String value) throws IOException {
+        out.write(name);
+        out.write('{');
+        out.write(label);
+        out.write("=\"");
+        out.write(labelValue);
+        out.write("\"} ");
+        out.write(value);
+        out.write('\n');
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / 1000000000d;
+    }
+
+    /**
+     * Escape the given label value or help text
+     *
+     * @param value
+     * @return escaped
+     */
+    static String escape(String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"' || c == '\n') {
+                if (sb == null) {
+                    sb = new StringBuilder(value.length() + 8);
+                    sb.append(value, 0, i);
+                }
+                sb.append('\\');
+                sb.append(c == '\n' ? 'n' : c);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        if (sb == null) {
+            return value;
+        }
+        return sb.toString();
+    }
+}
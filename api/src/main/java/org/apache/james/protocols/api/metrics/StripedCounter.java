@@ -0,0 +1,118 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which is updated very often by many threads but only read from time to time.
+ *
+ * The count is spread over several cells and every thread updates the cell which belongs to it, so IO threads do not
+ * contend with each other nor with readers. Every cell is padded to its own cache line. {@link #get()} sums up all
+ * cells and is not an atomic snapshot, which is good enough for statistics.
+ */
+public class StripedCounter {
+
+    // longs per cell, so every cell lives in its own cache line
+    private final static int PADDING = 8;
+
+    private final static int DEFAULT_STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        DEFAULT_STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a new {@link StripedCounter}
+     *
+     * @param stripes the count of cells to use. Will get rounded up to the next power of two
+     */
+    public StripedCounter(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes must be greater than 0");
+        }
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * PADDING);
+    }
+
+    /**
+     * Add the given value
+     *
+     * @param delta
+     */
+    public void add(long delta) {
+        cells.addAndGet(cellIndex(), delta);
+    }
+
+    /**
+     * Add one
+     */
+    public void increment() {
+        cells.incrementAndGet(cellIndex());
+    }
+
+    /**
+     * Return the sum of all cells
+     *
+     * @return count
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter to 0. Updates which happen at the same time may get lost
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & mask) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
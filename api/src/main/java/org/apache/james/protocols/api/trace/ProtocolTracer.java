@@ -0,0 +1,95 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.trace;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Receives low level trace events of the protocol implementations, for example to emit them as
+ * Java Flight Recorder events. Install it via {@link Tracing#setTracer(ProtocolTracer)}.
+ *
+ * All methods are called on the protocol threads, so implementations must be thread-safe and should return fast.
+ * All times are in nanoseconds.
+ */
+public interface ProtocolTracer {
+
+    /**
+     * A new session was started
+     *
+     * @param sessionId
+     * @param remoteAddress
+     */
+    void sessionStarted(String sessionId, InetSocketAddress remoteAddress);
+
+    /**
+     * A session was closed
+     *
+     * @param sessionId
+     * @param duration the time the session was open
+     */
+    void sessionEnded(String sessionId, long duration);
+
+    /**
+     * A command was executed by a handler
+     *
+     * @param sessionId
+     * @param command the name of the command
+     * @param handler the class of the handler which executed the command
+     * @param duration
+     */
+    void commandExecuted(String sessionId, String command, Class<?> handler, long duration);
+
+    /**
+     * A hook was executed
+     *
+     * @param sessionId
+     * @param command the name of the command for which the hook was executed
+     * @param hook the class of the hook
+     * @param result the result code returned by the hook
+     * @param duration
+     */
+    void hookExecuted(String sessionId, String command, Class<?> hook, int result, long duration);
+
+    /**
+     * A response was waiting in the response queue of the transport, because a response which was written before
+     * was not ready yet
+     *
+     * @param sessionId
+     * @param waitTime
+     */
+    void responseQueued(String sessionId, long waitTime);
+
+    /**
+     * A response was handed over to the transport
+     *
+     * @param sessionId
+     * @param bytes the count of bytes or -1 if it is streamed and so not known
+     * @param duration
+     */
+    void responseWritten(String sessionId, long bytes, long duration);
+
+    /**
+     * Received data was waiting for a worker thread before it was processed
+     *
+     * @param sessionId
+     * @param waitTime
+     */
+    void executionQueued(String sessionId, long waitTime);
+}
@@ -0,0 +1,70 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.trace;
+
+import org.apache.james.protocols.api.AttachmentKey;
+
+/**
+ * Holds the {@link ProtocolTracer} which is used by all protocol implementations of the JVM.
+ *
+ * Tracing is disabled by default. As long as no {@link ProtocolTracer} is installed, every trace point is only a
+ * read of a field, so it costs nothing worth to mention:
+ *
+ * <pre>
+ * ProtocolTracer tracer = Tracing.getTracer();
+ * if (tracer != null) {
+ *     tracer.commandExecuted(session.getSessionID(), command, handler.getClass(), duration);
+ * }
+ * </pre>
+ */
+public final class Tracing {
+
+    /**
+     * Key of the connection attachment which holds the {@link System#nanoTime()} at which the session was started.
+     * Only set when tracing is enabled.
+     */
+    public final static AttachmentKey<Long> SESSION_START = AttachmentKey.of("SESSION_START_NANOS", Long.class);
+
+    private static volatile ProtocolTracer tracer;
+
+    private Tracing() {
+    }
+
+    /**
+     * Return the installed {@link ProtocolTracer} or <code>null</code> if tracing is disabled
+     *
+     * @return tracer
+     */
+    public static ProtocolTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Install the {@link ProtocolTracer} to use. Use <code>null</code> to disable tracing again.
+     *
+     * Some trace points, like the one for the execution queue, are only added to connections which are opened while
+     * tracing is enabled.
+     *
+     * @param tracer
+     */
+    public static void setTracer(ProtocolTracer tracer) {
+        Tracing.tracer = tracer;
+    }
+}
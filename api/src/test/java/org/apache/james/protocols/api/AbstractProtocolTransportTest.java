@@ -21,6 +21,9 @@ package org.apache.james.protocols.api;
 
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,6 +34,8 @@ import java.util.concurrent.CountDownLatch;
 
 import org.apache.james.protocols.api.future.FutureResponseImpl;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 import org.junit.Test;
 
 import static junit.framework.Assert.*;
@@ -129,12 +134,191 @@ public class AbstractProtocolTransportTest {
             }
         }).start();
     }
+    @Test
+    public void testTracing() throws InterruptedException {
+        final List<String> traces = Collections.synchronizedList(new ArrayList<String>());
+        ProtocolTracer tracer = new ProtocolTracer() {
+
+            public void sessionStarted(String sessionId, InetSocketAddress remoteAddress) {
+            }
+
+            public void sessionEnded(String sessionId, long duration) {
+            }
+
+            public void commandExecuted(String sessionId, String command, Class<?> handler, long duration) {
+            }
+
+            public void hookExecuted(String sessionId, String command, Class<?> hook, int result, long duration) {
+            }
+
+            public void responseQueued(String sessionId, long waitTime) {
+                assertTrue(waitTime >= 0);
+                traces.add("queued " + sessionId);
+            }
+
+            public void responseWritten(String sessionId, long bytes, long duration) {
+                assertTrue(duration >= 0);
+                traces.add("written " + sessionId + " " + bytes);
+            }
+
+            public void executionQueued(String sessionId, long waitTime) {
+            }
+        };
+        ProtocolSession session = (ProtocolSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ProtocolSession.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getSessionID")) {
+                    return "1";
+                }
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        CountDownLatch latch = new CountDownLatch(2);
+        AbstractProtocolTransport transport = createTransport(new ArrayList<byte[]>(), latch);
+        Tracing.setTracer(tracer);
+        try {
+            FutureResponseImpl future = new FutureResponseImpl();
+            transport.writeResponse(future, session);
+            transport.writeResponse(new TestResponse(), session);
+            assertTrue(traces.isEmpty());
+
+            future.setResponse(new TestResponse());
+            latch.await();
+        } finally {
+            Tracing.setTracer(null);
+        }
+        // the uuid has 36 chars plus the CRLF
+        assertEquals(Arrays.asList("queued 1", "written 1 38", "queued 1", "written 1 38"), traces);
+    }
+
+    @Test
+    public void testCancelPendingResponses() throws InterruptedException {
+        List<byte[]> writtenMessages = new ArrayList<byte[]>();
+        CountDownLatch latch = new CountDownLatch(1);
+        AbstractProtocolTransport transport = createTransport(writtenMessages, latch);
+
+        FutureResponseImpl pending = new FutureResponseImpl();
+        FutureResponseImpl queued = new FutureResponseImpl();
+        TestResponse response = new TestResponse();
+        transport.writeResponse(pending, null);
+        transport.writeResponse(queued, null);
+        transport.writeResponse(response, null);
+
+        transport.cancelPendingResponses();
+        latch.await();
+        assertTrue(pending.isCancelled());
+        assertTrue(queued.isCancelled());
+        
+        // the hook completes after the disconnect, which must not be written anymore
+        pending.setResponse(new TestResponse());
+        assertTrue(pending.isCancelled());
+        assertEquals(1, writtenMessages.size());
+        assertEquals(response.getLines().get(0) + "\r\n", new String(writtenMessages.get(0)));
+    }
+
+    @Test
+    public void testBatchFutureResponses() throws InterruptedException {
+        List<byte[]> writtenMessages = new ArrayList<byte[]>();
+        List<String> events = new ArrayList<String>();
+        CountDownLatch latch = new CountDownLatch(3);
+        AbstractProtocolTransport transport = createTransport(writtenMessages, latch, events);
+
+        FutureResponseImpl pending = new FutureResponseImpl();
+        transport.writeResponse(pending, null);
+        transport.writeResponse(new TestResponse(), null);
+        transport.writeResponse(new TestResponse(), null);
+        assertTrue(events.isEmpty());
+
+        // the responses which were queued behind the future must be written in the same batch
+        pending.setResponse(new TestResponse());
+        latch.await();
+        assertEquals(Arrays.asList("begin", "write", "write", "write", "end"), events);
+    }
+
+    @Test
+    public void testFlushAfterResponse() throws InterruptedException {
+        List<byte[]> writtenMessages = new ArrayList<byte[]>();
+        List<String> events = new ArrayList<String>();
+        CountDownLatch latch = new CountDownLatch(2);
+        AbstractProtocolTransport transport = createTransport(writtenMessages, latch, events);
+
+        transport.writeResponse(new TestResponse(), null);
+        transport.flushAfterResponse();
+        transport.writeResponse(new TestResponse(), null);
+        latch.await();
+        assertEquals(Arrays.asList("write", "write", "flush"), events);
+    }
+
+    @Test
+    public void testRunAfterRequestBatch() {
+        final List<String> events = new ArrayList<String>();
+        AbstractProtocolTransport transport = createTransport(new ArrayList<byte[]>(), new CountDownLatch(0), events);
+        Runnable task = new Runnable() {
+
+            public void run() {
+                events.add("task");
+            }
+        };
+
+        transport.beginRequestBatch();
+        transport.beginRequestBatch();
+        transport.runAfterRequestBatch(task);
+        transport.runAfterRequestBatch(task);
+        transport.endRequestBatch();
+        assertEquals(Arrays.asList("begin", "begin", "end"), events);
+        transport.endRequestBatch();
+        assertEquals(Arrays.asList("begin", "begin", "end", "task", "task", "end"), events);
+
+        // without a batch the task is run directly
+        events.clear();
+        transport.runAfterRequestBatch(task);
+        assertEquals(Arrays.asList("task"), events);
+    }
+
     private void checkWrittenResponses(List<Response> messages) throws InterruptedException, UnsupportedEncodingException {
         final List<byte[]> writtenMessages = new ArrayList<byte[]>();
 
         final CountDownLatch latch = new CountDownLatch(messages.size());
 
-        AbstractProtocolTransport transport = new AbstractProtocolTransport() {
+        AbstractProtocolTransport transport = createTransport(writtenMessages, latch);
+        for (Response message: messages) {
+            transport.writeResponse(message, null);
+        }
+        latch.await();
+        
+        assertEquals(messages.size(), writtenMessages.size());
+        
+        for (int i = 0; i < messages.size(); i++) {
+            Response response = messages.get(i);
+            checkBytesEquals(response.getLines().get(0).toString().getBytes(US_ASCII), writtenMessages.get(i));
+        }
+    }
+
+    private AbstractProtocolTransport createTransport(final List<byte[]> writtenMessages, final CountDownLatch latch) {
+        return createTransport(writtenMessages, latch, null);
+    }
+
+    private AbstractProtocolTransport createTransport(final List<byte[]> writtenMessages, final CountDownLatch latch, final List<String> events) {
+        return new AbstractProtocolTransport() {
+
+            public void beginBatch() {
+                record("begin");
+            }
+
+            public void endBatch() {
+                record("end");
+            }
+
+            public void flush() {
+                record("flush");
+            }
+
+            private void record(String event) {
+                if (events != null) {
+                    events.add(event);
+                }
+            }
 
             public void setReadable(boolean readable) {
                 throw new UnsupportedOperationException();
@@ -178,6 +362,7 @@ public class AbstractProtocolTransportTest {
             }
             
             protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
+                record("write");
                 writtenMessages.add(bytes);
                 latch.countDown();
             }
@@ -190,17 +375,6 @@ public class AbstractProtocolTransportTest {
                 throw new UnsupportedOperationException();                
             }
         };
-        for (Response message: messages) {
-            transport.writeResponse(message, null);
-        }
-        latch.await();
-        
-        assertEquals(messages.size(), writtenMessages.size());
-        
-        for (int i = 0; i < messages.size(); i++) {
-            Response response = messages.get(i);
-            checkBytesEquals(response.getLines().get(0).toString().getBytes(US_ASCII), writtenMessages.get(i));
-        }
     }
     private void checkBytesEquals(byte[] expected, byte[] received) throws UnsupportedEncodingException {
         
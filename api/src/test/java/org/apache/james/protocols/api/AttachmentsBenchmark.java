@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Micro benchmark for the session attachments. It simulates what the SIZE extension does on every line of a message:
+ * check a flag and update the count of received bytes. It compares the String keyed {@link HashMap} with boxed values
+ * against {@link AttachmentKey}s with a mutable counter.
+ *
+ * This is not run as part of the tests. Start it with:
+ *
+ * <pre>
+ * java -cp ... org.apache.james.protocols.api.AttachmentsBenchmark
+ * </pre>
+ */
+public class AttachmentsBenchmark {
+
+    private final static AttachmentKey<Boolean> FAILED = AttachmentKey.of("AttachmentsBenchmark.FAILED", Boolean.class);
+    private final static AttachmentKey<Counter> SIZE = AttachmentKey.of("AttachmentsBenchmark.SIZE", Counter.class);
+
+    private final static int WARMUP = 1000000;
+    private final static int ITERATIONS = 20000000;
+    private final static int LINE_LENGTH = 78;
+
+    // rotate over some sessions, so the lookups can not be moved out of the loop
+    private final static int SESSIONS = 16;
+
+    public static void main(String[] args) {
+        for (int i = 0; i < 3; i++) {
+            measure("HashMap with boxing", new Task() {
+                private final Map<String, Object>[] states = createMaps();
+
+                public void run(int i) {
+                    Map<String, Object> state = states[i & (SESSIONS - 1)];
+                    Boolean failed = (Boolean) state.get("MESG_FAILED");
+                    if (failed == null) {
+                        Long size = (Long) state.get("CURRENT_SIZE");
+                        state.put("CURRENT_SIZE", size == null ? Long.valueOf(LINE_LENGTH) : Long.valueOf(size + LINE_LENGTH));
+                    }
+                }
+            });
+            measure("AttachmentKey", new Task() {
+                private final Attachments[] states = createAttachments();
+
+                public void run(int i) {
+                    Attachments state = states[i & (SESSIONS - 1)];
+                    Boolean failed = state.get(FAILED);
+                    if (failed == null) {
+                        Counter size = state.get(SIZE);
+                        if (size == null) {
+                            size = new Counter();
+                            state.set(SIZE, size);
+                        }
+                        size.value += LINE_LENGTH;
+                    }
+                }
+            });
+        }
+    }
+
+    private static void measure(String name, Task task) {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run(i);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = getAllocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run(i);
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = getAllocatedBytes(threads) - allocated;
+        System.out.println(String.format("%-25s %8.1f ns/op %8.1f bytes/op", name, (double) nanos / ITERATIONS, (double) allocated / ITERATIONS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object>[] createMaps() {
+        Map<String, Object>[] maps = new Map[SESSIONS];
+        for (int i = 0; i < maps.length; i++) {
+            maps[i] = new HashMap<String, Object>();
+        }
+        return maps;
+    }
+
+    private static Attachments[] createAttachments() {
+        Attachments[] attachments = new Attachments[SESSIONS];
+        for (int i = 0; i < attachments.length; i++) {
+            attachments[i] = new Attachments();
+        }
+        return attachments;
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private final static class Counter {
+        private long value;
+    }
+
+    private interface Task {
+        void run(int i);
+    }
+}
@@ -0,0 +1,115 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AttachmentsTest {
+
+    private final static AttachmentKey<String> NAME = AttachmentKey.of("AttachmentsTest.NAME", String.class);
+    private final static AttachmentKey<List<String>> LIST = AttachmentKey.of("AttachmentsTest.LIST", List.class);
+
+    @Test
+    public void testTypedAccess() {
+        Attachments attachments = new Attachments();
+        assertNull(attachments.get(NAME));
+        assertNull(attachments.set(NAME, "first"));
+        assertEquals("first", attachments.set(NAME, "second"));
+        assertEquals("second", attachments.get(NAME));
+
+        List<String> list = new ArrayList<String>();
+        attachments.set(LIST, list);
+        assertSame(list, attachments.get(LIST));
+
+        assertEquals("second", attachments.set(NAME, null));
+        assertNull(attachments.get(NAME));
+    }
+
+    @Test
+    public void testNamedAccess() {
+        Attachments attachments = new Attachments();
+
+        // names of registered keys end up in the same slot
+        attachments.put(NAME.getName(), "value");
+        assertEquals("value", attachments.get(NAME));
+        assertEquals("value", attachments.get(NAME.getName()));
+        assertTrue(attachments.containsKey(NAME.getName()));
+
+        attachments.put("AttachmentsTest.unregistered", 1);
+        assertEquals(1, attachments.get("AttachmentsTest.unregistered"));
+
+        Map<String, Object> copy = new HashMap<String, Object>(attachments);
+        assertEquals(2, copy.size());
+        assertEquals("value", copy.get(NAME.getName()));
+
+        assertEquals("value", attachments.remove(NAME.getName()));
+        assertNull(attachments.get(NAME));
+
+        // a value of an other type replaces the typed value and is only visible by the name
+        attachments.set(NAME, "value");
+        assertEquals("value", attachments.put(NAME.getName(), 1));
+        assertNull(attachments.get(NAME));
+        assertEquals(1, attachments.get(NAME.getName()));
+
+        // and is replaced by the next typed value
+        assertNull(attachments.set(NAME, "other"));
+        assertEquals("other", attachments.get(NAME.getName()));
+        assertEquals("other", attachments.remove(NAME.getName()));
+        assertNull(attachments.get(NAME.getName()));
+    }
+
+    @Test
+    public void testClear() {
+        Attachments attachments = new Attachments();
+        attachments.set(NAME, "value");
+        attachments.put("AttachmentsTest.unregistered", "value");
+        attachments.clear();
+        assertNull(attachments.get(NAME));
+        assertNull(attachments.get("AttachmentsTest.unregistered"));
+        assertTrue(attachments.isEmpty());
+    }
+
+    @Test
+    public void testKeyRegisteredLater() {
+        Attachments attachments = new Attachments();
+        AttachmentKey<Integer> later = AttachmentKey.of("AttachmentsTest.later", Integer.class);
+        assertNull(attachments.get(later));
+        attachments.set(later, 42);
+        assertEquals(Integer.valueOf(42), attachments.get(later));
+    }
+
+    @Test
+    public void testKeyRegistry() {
+        assertSame(NAME, AttachmentKey.of(NAME.getName(), String.class));
+        try {
+            AttachmentKey.of(NAME.getName(), Integer.class);
+            fail("Same name with other type must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
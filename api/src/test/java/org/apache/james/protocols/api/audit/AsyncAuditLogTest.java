@@ -0,0 +1,132 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.audit.AsyncAuditLog.OverflowPolicy;
+import org.apache.james.protocols.api.audit.AuditEvent.Type;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AsyncAuditLogTest {
+
+    private final static class CollectingSink implements AuditSink {
+        private final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<AuditEvent>());
+        
+        public void onEvent(AuditEvent event) {
+            events.add(event.copy());
+        }
+
+        public void flush() {
+        }
+    }
+
+    @Test
+    public void testEventsArePassedInOrder() throws InterruptedException {
+        CollectingSink sink = new CollectingSink();
+        AsyncAuditLog log = new AsyncAuditLog(sink, 16, OverflowPolicy.Block);
+        log.start();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(log.record(Type.Command, "1", null, null, getClass(), "250", i, 0));
+        }
+        log.stop();
+        
+        assertEquals(1000, sink.events.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, sink.events.get(i).getResult());
+        }
+        assertEquals(0, log.getDroppedCount());
+        assertEquals(0, log.getPendingCount());
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        CollectingSink sink = new CollectingSink();
+        AsyncAuditLog log = new AsyncAuditLog(sink, 4, OverflowPolicy.Drop);
+        
+        // not started so nothing gets drained
+        for (int i = 0; i < 10; i++) {
+            log.record(Type.Hook, "1", null, null, getClass(), null, i, 0);
+        }
+        assertEquals(4, log.getRecordedCount());
+        assertEquals(6, log.getDroppedCount());
+        assertEquals(4, log.getPendingCount());
+        
+        log.start();
+        log.stop();
+        assertEquals(4, sink.events.size());
+        assertEquals(0, log.getPendingCount());
+    }
+    
+    @Test
+    public void testDropAfterStop() {
+        CollectingSink sink = new CollectingSink();
+        AsyncAuditLog log = new AsyncAuditLog(sink, 4, OverflowPolicy.Drop);
+        log.start();
+        log.stop();
+
+        assertFalse(log.record(Type.Hook, "1", null, null, getClass(), null, 0, 0));
+        assertEquals(1, log.getDroppedCount());
+        assertEquals(0, log.getPendingCount());
+
+        // recording is possible again once restarted
+        log.start();
+        assertTrue(log.record(Type.Hook, "1", null, null, getClass(), null, 0, 0));
+        log.stop();
+        assertEquals(1, sink.events.size());
+    }
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        assertEquals(8, new AsyncAuditLog(new CollectingSink(), 5, OverflowPolicy.Drop).getCapacity());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final CollectingSink sink = new CollectingSink();
+        final AsyncAuditLog log = new AsyncAuditLog(sink, 64, OverflowPolicy.Block);
+        log.start();
+        
+        int threads = 4;
+        final int perThread = 5000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        log.record(Type.Command, getName(), null, null, AsyncAuditLogTest.class, "250", i, 0);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        log.stop();
+        
+        assertEquals(threads * perThread, sink.events.size());
+        assertEquals(0, log.getDroppedCount());
+    }
+}
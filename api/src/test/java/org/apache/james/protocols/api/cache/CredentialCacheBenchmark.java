@@ -0,0 +1,116 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.api.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark for the {@link CredentialCache}. It simulates a login storm, where many clients authenticate at the same
+ * time against a slow authentication backend, like the reconnects of all MUAs after a restart. The backend is
+ * simulated by a fixed delay with a limited count of connections. It compares the throughput with and without the
+ * cache.
+ *
+ * This is not run as part of the tests. Start it with:
+ *
+ * <pre>
+ * java -cp ... org.apache.james.protocols.api.cache.CredentialCacheBenchmark
+ * </pre>
+ */
+public class CredentialCacheBenchmark {
+
+    private final static int THREADS = 32;
+    private final static int LOGINS = 500;
+    private final static int USERS = 1000;
+    private final static int BACKEND_CONNECTIONS = 8;
+    private final static long BACKEND_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            measure("without cache", null);
+            measure("with cache", new CredentialCache());
+        }
+    }
+
+    private static void measure(String name, final CredentialCache cache) throws Exception {
+        final Backend backend = new Backend();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < LOGINS; i++) {
+                            String user = "user" + ((offset * LOGINS + i) % USERS);
+                            String password = "password-" + user;
+                            if (!login(cache, backend, user, password)) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long nanos = System.nanoTime() - start;
+        int logins = THREADS * LOGINS;
+        System.out.println(String.format("%-15s %8.0f logins/s %6d backend calls %d failures", name, logins / (nanos / 1000000000.0), backend.calls.get(), failures.get()));
+    }
+
+    private static boolean login(CredentialCache cache, Backend backend, String user, String password) throws InterruptedException {
+        if (cache != null && cache.verify(user, password)) {
+            return true;
+        }
+        if (backend.authenticate(user, password)) {
+            if (cache != null) {
+                cache.store(user, password);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stand-in for a directory which needs some time per authentication and only allows a few concurrent connections
+     */
+    private final static class Backend {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final Semaphore connections = new Semaphore(BACKEND_CONNECTIONS);
+
+        private boolean authenticate(String user, String password) throws InterruptedException {
+            calls.incrementAndGet();
+            connections.acquire();
+            try {
+                Thread.sleep(BACKEND_MILLIS);
+            } finally {
+                connections.release();
+            }
+            return password.equals("password-" + user);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.api.cache;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class CredentialCacheTest {
+
+    @Test
+    public void testVerify() {
+        CredentialCache cache = new CredentialCache();
+        assertFalse(cache.verify("user", "secret"));
+
+        cache.store("user", "secret");
+        assertTrue(cache.verify("user", "secret"));
+        assertFalse(cache.verify("user", "Secret"));
+        assertFalse(cache.verify("other", "secret"));
+        assertFalse(cache.verify("user", null));
+        assertFalse(cache.verify(null, "secret"));
+
+        // a stored password of another user must not match
+        cache.store("other", "password");
+        assertTrue(cache.verify("other", "password"));
+        assertFalse(cache.verify("user", "password"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        CredentialCache cache = new CredentialCache();
+        cache.setIterations(10);
+        cache.store("user", "secret");
+        cache.store("other", "secret");
+
+        cache.invalidate("user");
+        assertFalse(cache.verify("user", "secret"));
+        assertTrue(cache.verify("other", "secret"));
+
+        cache.invalidateAll();
+        assertFalse(cache.verify("other", "secret"));
+    }
+
+    @Test
+    public void testHitRate() {
+        CredentialCache cache = new CredentialCache();
+        cache.setIterations(10);
+        assertEquals(0.0, cache.getHitRate());
+
+        cache.store("user", "secret");
+        assertTrue(cache.verify("user", "secret"));
+        // the verifier exists but the password does not match, so it is no hit
+        assertFalse(cache.verify("user", "wrong"));
+        assertFalse(cache.verify("other", "secret"));
+        assertTrue(cache.verify("user", "secret"));
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        CredentialCache cache = new CredentialCache();
+        cache.setTtl(1);
+        cache.store("user", "secret");
+        Thread.sleep(10);
+        assertFalse(cache.verify("user", "secret"));
+    }
+}
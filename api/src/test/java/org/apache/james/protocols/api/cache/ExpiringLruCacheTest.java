@@ -0,0 +1,78 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.api.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class ExpiringLruCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<String, String>(100);
+        assertNull(cache.get("key"));
+        cache.put("key", "value", 1, TimeUnit.HOURS);
+        assertEquals("value", cache.get("key"));
+        assertEquals(1, cache.size());
+
+        cache.remove("key");
+        assertNull(cache.get("key"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1.0 / 3, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<String, String>(100);
+        cache.put("short", "value", 1, TimeUnit.MILLISECONDS);
+        cache.put("long", "value", 1, TimeUnit.HOURS);
+        Thread.sleep(10);
+        assertNull(cache.get("short"));
+        assertEquals("value", cache.get("long"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        // one segment so the order is global
+        ExpiringLruCache<Integer, String> cache = new ExpiringLruCache<Integer, String>(1);
+        cache.put(1, "1", 1, TimeUnit.HOURS);
+        cache.put(2, "2", 1, TimeUnit.HOURS);
+        assertNull(cache.get(1));
+        assertEquals("2", cache.get(2));
+
+        cache = new ExpiringLruCache<Integer, String>(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, String.valueOf(i), 1, TimeUnit.HOURS);
+            // keep the first entry in use
+            assertEquals("0", cache.get(0));
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals("999", cache.get(999));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
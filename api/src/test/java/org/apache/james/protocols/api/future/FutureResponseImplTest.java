@@ -0,0 +1,183 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.future;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class FutureResponseImplTest {
+
+    @Test
+    public void testListenerOrder() {
+        final List<String> notified = new ArrayList<String>();
+        FutureResponseImpl future = new FutureResponseImpl();
+        ResponseListener removed = new NamedListener("removed", notified);
+        future.addListener(new NamedListener("first", notified));
+        future.addListener(removed);
+        future.addListener(new NamedListener("second", notified));
+        future.removeListener(removed);
+        assertFalse(future.isReady());
+
+        future.setResponse(new TestResponse("250 OK"));
+        future.addListener(new NamedListener("late", notified));
+        assertTrue(future.isReady());
+        assertFalse(future.isCancelled());
+        assertEquals(Arrays.asList("first", "second", "late"), notified);
+        assertEquals("250", future.getRetCode());
+    }
+
+    @Test
+    public void testSetResponseOnlyOnce() {
+        FutureResponseImpl future = new FutureResponseImpl();
+        future.setResponse(new TestResponse("250 OK"));
+        future.setResponse(new TestResponse("451 Later"));
+        assertFalse(future.cancel());
+        assertEquals("250", future.getRetCode());
+    }
+
+    @Test
+    public void testCancel() {
+        final List<String> notified = new ArrayList<String>();
+        FutureResponseImpl future = new FutureResponseImpl();
+        future.addListener(new NamedListener("listener", notified));
+        assertTrue(future.cancel());
+        assertTrue(future.isReady());
+        assertTrue(future.isCancelled());
+        assertEquals(Collections.singletonList("listener"), notified);
+
+        future.setResponse(new TestResponse("250 OK"));
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void testCancelStreamResponse() throws Exception {
+        FutureStreamResponseImpl future = new FutureStreamResponseImpl();
+        assertTrue(future.cancel());
+        assertTrue(future.isCancelled());
+        assertEquals(-1, future.getStream().read());
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            FutureResponseImpl future = new FutureResponseImpl();
+            future.setTimeout(timer, 10, TimeUnit.MILLISECONDS, new TestResponse("451 Timeout"));
+            assertTrue(future.await(10, TimeUnit.SECONDS));
+            assertEquals("451", future.getRetCode());
+
+            FutureResponseImpl fast = new FutureResponseImpl();
+            fast.setTimeout(timer, 10, TimeUnit.MILLISECONDS, new TestResponse("451 Timeout"));
+            fast.setResponse(new TestResponse("250 OK"));
+            Thread.sleep(50);
+            assertEquals("250", fast.getRetCode());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAwait() throws InterruptedException {
+        final FutureResponseImpl future = new FutureResponseImpl();
+        assertFalse(future.await(10, TimeUnit.MILLISECONDS));
+        new Thread() {
+            public void run() {
+                future.setResponse(new TestResponse("250 OK"));
+            }
+        }.start();
+        
+        // blocks till the other thread set the response
+        assertEquals("250", future.getRetCode());
+    }
+
+    @Test
+    public void testListenerExecutor() throws InterruptedException {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        Executor executor = new Executor() {
+            
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command);
+                threads.add(thread);
+                thread.start();
+            }
+        };
+        final List<Thread> notified = Collections.synchronizedList(new ArrayList<Thread>());
+        FutureResponseImpl future = new FutureResponseImpl();
+        future.addListener(new ResponseListener() {
+            
+            public void onResponse(FutureResponse response) {
+                notified.add(Thread.currentThread());
+                latch.countDown();
+            }
+        }, executor);
+        future.setResponse(new TestResponse("250 OK"));
+        latch.await();
+        assertEquals(threads, notified);
+    }
+
+    private final static class NamedListener implements ResponseListener {
+        private final String name;
+        private final List<String> notified;
+
+        public NamedListener(String name, List<String> notified) {
+            this.name = name;
+            this.notified = notified;
+        }
+        
+        public void onResponse(FutureResponse response) {
+            assertTrue(response.isReady());
+            notified.add(name);
+        }
+    }
+    
+    private final static class TestResponse implements Response {
+        private final String line;
+
+        public TestResponse(String line) {
+            this.line = line;
+        }
+
+        public String getRetCode() {
+            return line.substring(0, 3);
+        }
+
+        public List<CharSequence> getLines() {
+            return Collections.<CharSequence>singletonList(line);
+        }
+
+        public boolean isEndSession() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import org.apache.james.protocols.api.BaseRequest;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
+import org.slf4j.helpers.NOPLogger;
+
+/**
+ * Micro benchmark for the command dispatching of the {@link CommandDispatcher}. It measures the nanoseconds and the
+ * allocated bytes per dispatched line for typical SMTP and POP3 commands and compares them with decoding the whole line
+ * to a {@link String} first.
+ *
+ * This is not run as part of the tests. Start it with:
+ *
+ * <pre>
+ * java -cp ... org.apache.james.protocols.api.handler.CommandDispatcherBenchmark
+ * </pre>
+ */
+public class CommandDispatcherBenchmark {
+
+    private final static String[] SMTP_LINES = new String[] {"EHLO mail.example.com\r\n", "MAIL FROM:<sender@example.com> SIZE=1024\r\n",
+        "RCPT TO:<rcpt@example.com>\r\n", "DATA\r\n", "RSET\r\n", "NOOP\r\n", "QUIT\r\n"};
+    private final static String[] POP3_LINES = new String[] {"USER someone\r\n", "PASS secret\r\n", "STAT\r\n", "LIST\r\n", "UIDL\r\n",
+        "RETR 1\r\n", "DELE 1\r\n", "QUIT\r\n"};
+
+    private final static int WARMUP = 200000;
+    private final static int ITERATIONS = 2000000;
+
+    public static void main(String[] args) throws Exception {
+        run("SMTP", SMTP_LINES, "EHLO", "HELO", "MAIL", "RCPT", "DATA", "RSET", "NOOP", "QUIT", "VRFY", "EXPN", "HELP", "AUTH", "STARTTLS",
+            UnknownCommandHandler.COMMAND_IDENTIFIER);
+        run("POP3", POP3_LINES, "USER", "PASS", "APOP", "AUTH", "STAT", "LIST", "UIDL", "RETR", "DELE", "NOOP", "RSET", "TOP", "QUIT", "CAPA",
+            "STLS", UnknownCommandHandler.COMMAND_IDENTIFIER);
+    }
+
+    private static void run(String protocol, String[] lines, String... commands) throws Exception {
+        final Charset charset = Charset.forName("US-ASCII");
+        final CommandDispatcher<ProtocolSession> dispatcher = CommandDispatcherTest.createDispatcher(commands);
+        final ProtocolSession session = CommandDispatcherTest.createSession(charset, new ProtocolLoggerAdapter(NOPLogger.NOP_LOGGER));
+        final ByteBuffer[] buffers = new ByteBuffer[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            buffers[i] = ByteBuffer.wrap(lines[i].getBytes("US-ASCII"));
+        }
+
+        measure(protocol + " dispatch", buffers, new Task() {
+            public Object run(ByteBuffer buffer) throws Exception {
+                return dispatcher.dispatchCommandHandlers(session, dispatcher.parseRequest(session, buffer));
+            }
+        });
+        measure(protocol + " dispatch decoded", buffers, new Task() {
+            public Object run(ByteBuffer buffer) throws Exception {
+                byte[] line = new byte[buffer.remaining()];
+                buffer.duplicate().get(line);
+                String cmdString = new String(line, charset.name()).trim();
+                int spaceIndex = cmdString.indexOf(" ");
+                String command = cmdString;
+                String argument = null;
+                if (spaceIndex > 0) {
+                    command = cmdString.substring(0, spaceIndex);
+                    argument = cmdString.substring(spaceIndex + 1);
+                }
+                return dispatcher.dispatchCommandHandlers(session, new BaseRequest(command.toUpperCase(Locale.US), argument));
+            }
+        });
+    }
+
+    private static void measure(String name, ByteBuffer[] buffers, Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run(buffers[i % buffers.length]);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = getAllocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run(buffers[i % buffers.length]);
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = getAllocatedBytes(threads) - allocated;
+        System.out.println(String.format("%-25s %8.1f ns/op %8.1f bytes/op", name, (double) nanos / ITERATIONS, (double) allocated / ITERATIONS));
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private interface Task {
+        Object run(ByteBuffer buffer) throws Exception;
+    }
+}
@@ -0,0 +1,212 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Request;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.utils.MockLogger;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class CommandDispatcherTest {
+
+    private final static String[] LINES = new String[] {"EHLO example.com\r\n", "ehlo example.com\r\n", "mAiL FROM:<a@example.com> SIZE=100\r\n",
+        "RCPT  TO:<b@example.com>\r\n", "  NOOP  \r\n", "QUIT\r\n", "XUNKNOWN arg\r\n", "\r\n", "DATA\n", "HELO äöü.example\r\n"};
+
+    @Test
+    public void testParseRequest() throws Exception {
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher("EHLO", "HELO", "MAIL", "RCPT", "NOOP", "QUIT", "DATA");
+        for (String charset : new String[] {"US-ASCII", "UTF-8", "ISO-8859-1", "UTF-16"}) {
+            ProtocolSession session = createSession(Charset.forName(charset));
+            for (String line : LINES) {
+                byte[] bytes = line.getBytes(charset);
+                // characters which the charset can not encode got replaced
+                line = new String(bytes, charset);
+                assertRequest(line, charset, dispatcher.parseRequest(session, ByteBuffer.wrap(bytes)));
+
+                // the line is only a part of the array
+                byte[] padded = new byte[bytes.length + 10];
+                Arrays.fill(padded, (byte) 'X');
+                System.arraycopy(bytes, 0, padded, 5, bytes.length);
+                assertRequest(line, charset, dispatcher.parseRequest(session, ByteBuffer.wrap(padded, 5, bytes.length)));
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+                direct.put(bytes).flip();
+                assertRequest(line, charset, dispatcher.parseRequest(session, direct));
+            }
+        }
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher("EHLO", "MAIL", UnknownCommandHandler.COMMAND_IDENTIFIER);
+        ProtocolSession session = createSession(Charset.forName("US-ASCII"));
+
+        assertEquals("EHLO", dispatcher.onLine(session, ByteBuffer.wrap("ehlo example.com\r\n".getBytes("US-ASCII"))).getRetCode());
+        assertEquals("MAIL", dispatcher.onLine(session, ByteBuffer.wrap("Mail FROM:<>\r\n".getBytes("US-ASCII"))).getRetCode());
+        assertEquals(UnknownCommandHandler.COMMAND_IDENTIFIER, dispatcher.onLine(session, ByteBuffer.wrap("EHLOX\r\n".getBytes("US-ASCII"))).getRetCode());
+    }
+
+    @Test
+    public void testOverriddenLookup() throws Exception {
+        final CommandDispatcher<ProtocolSession> mail = createDispatcher("MAIL");
+        CommandDispatcher<ProtocolSession> dispatcher = new CommandDispatcher<ProtocolSession>() {
+
+            @Override
+            protected List<CommandHandler<ProtocolSession>> getCommandHandlers(String command, ProtocolSession session) {
+                // route every command to the MAIL handler
+                return mail.getCommandHandlers("MAIL", session);
+            }
+
+            @Override
+            protected boolean useCommandTable() {
+                return false;
+            }
+        };
+        dispatcher.wireExtensions(CommandHandler.class, createDispatcher("EHLO").getCommandHandlers("EHLO", createSession(Charset.forName("US-ASCII"))));
+        ProtocolSession session = createSession(Charset.forName("US-ASCII"));
+
+        assertEquals("MAIL", dispatcher.onLine(session, ByteBuffer.wrap("EHLO example.com\r\n".getBytes("US-ASCII"))).getRetCode());
+    }
+
+    @Test
+    public void testLazyArgument() throws Exception {
+        CommandDispatcher<ProtocolSession> dispatcher = createDispatcher("RCPT");
+        byte[] bytes = "RCPT TO:<b@example.com>\r\n".getBytes("US-ASCII");
+        Request request = dispatcher.parseRequest(createSession(Charset.forName("US-ASCII")), ByteBuffer.wrap(bytes));
+
+        // the argument must not change if the buffer gets reused
+        Arrays.fill(bytes, (byte) 0);
+        assertEquals("TO:<b@example.com>", request.getArgument());
+        assertSame(request.getArgument(), request.getArgument());
+        assertEquals("RCPT TO:<b@example.com>", request.toString());
+    }
+
+    @Test
+    public void testCommandTable() {
+        Map<String, Integer> commands = new HashMap<String, Integer>();
+        for (int i = 0; i < 500; i++) {
+            commands.put("CMD" + Integer.toString(i, 36).toUpperCase(Locale.US), i);
+        }
+        CommandTable<Integer> table = new CommandTable<Integer>(commands);
+        assertTrue(table.size() >= 1000);
+        for (Map.Entry<String, Integer> command : commands.entrySet()) {
+            byte[] lower = command.getKey().toLowerCase(Locale.US).getBytes();
+            CommandTable.Entry<Integer> entry = table.lookup(lower, 0, lower.length);
+            assertNotNull(command.getKey(), entry);
+            assertSame(command.getKey(), entry.getCommand());
+            assertEquals(command.getValue(), entry.getValue());
+        }
+        byte[] miss = "CMDXYZ".getBytes();
+        assertNull(table.lookup(miss, 0, miss.length));
+        assertNull(table.lookup(miss, 0, 0));
+
+        assertNull(new CommandTable<Integer>(new HashMap<String, Integer>()).lookup(miss, 0, miss.length));
+    }
+
+    /**
+     * Check the request against the result of the old string based parsing
+     */
+    private static void assertRequest(String line, String charset, Request request) {
+        String cmdString = line.trim();
+        String command = cmdString;
+        String argument = null;
+        int spaceIndex = cmdString.indexOf(" ");
+        if (spaceIndex > 0) {
+            command = cmdString.substring(0, spaceIndex);
+            argument = cmdString.substring(spaceIndex + 1);
+        }
+        assertEquals(charset + ": " + line, command.toUpperCase(Locale.US), request.getCommand());
+        assertEquals(charset + ": " + line, argument, request.getArgument());
+    }
+
+    static CommandDispatcher<ProtocolSession> createDispatcher(String... commands) throws WiringException {
+        List<CommandHandler<ProtocolSession>> handlers = new ArrayList<CommandHandler<ProtocolSession>>();
+        for (final String command : commands) {
+            final Response response = new TestResponse(command);
+            handlers.add(new CommandHandler<ProtocolSession>() {
+
+                public Response onCommand(ProtocolSession session, Request request) {
+                    return response;
+                }
+
+                public Collection<String> getImplCommands() {
+                    return Arrays.asList(command);
+                }
+            });
+        }
+        CommandDispatcher<ProtocolSession> dispatcher = new CommandDispatcher<ProtocolSession>();
+        dispatcher.wireExtensions(CommandHandler.class, handlers);
+        return dispatcher;
+    }
+
+    static ProtocolSession createSession(final Charset charset) {
+        return createSession(charset, new MockLogger());
+    }
+
+    static ProtocolSession createSession(final Charset charset, final Object logger) {
+        return (ProtocolSession) Proxy.newProxyInstance(CommandDispatcherTest.class.getClassLoader(), new Class<?>[] { ProtocolSession.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getCharset")) {
+                    return charset;
+                } else if (method.getName().equals("getLogger")) {
+                    return logger;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private final static class TestResponse implements Response {
+        private final String command;
+
+        public TestResponse(String command) {
+            this.command = command;
+        }
+
+        public String getRetCode() {
+            return command;
+        }
+
+        public List<CharSequence> getLines() {
+            return Arrays.asList((CharSequence) command);
+        }
+
+        public boolean isEndSession() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class ResultHandlerChainTest {
+
+    @Test
+    public void testSynchronousResponses() {
+        List<ProtocolHandlerResultHandler<Response, ProtocolSession>> handlers = new ArrayList<ProtocolHandlerResultHandler<Response, ProtocolSession>>();
+        handlers.add(new ReplacingHandler("250 first"));
+        handlers.add(new ReplacingHandler("250 second"));
+        Response response = ResultHandlerChain.execute(createSession(), new TestResponse("250 original"), 0, null, handlers);
+        assertEquals("250 second", response.getLines().get(0));
+    }
+
+    @Test
+    public void testAsynchronousResponses() {
+        // every handler returns a FutureResponse which is completed by the next one, so a recursive implementation would
+        // blow up the stack
+        int count = 100000;
+        final List<FutureResponseImpl> futures = new ArrayList<FutureResponseImpl>();
+        List<ProtocolHandlerResultHandler<Response, ProtocolSession>> handlers = new ArrayList<ProtocolHandlerResultHandler<Response, ProtocolSession>>();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            handlers.add(new TestResultHandler() {
+
+                public Response onResponse(ProtocolSession session, Response response, long executionTime, ProtocolHandler handler) {
+                    assertTrue(((FutureResponse) response).isReady());
+                    return futures.get(index + 1);
+                }
+            });
+        }
+        for (int i = 0; i <= count; i++) {
+            futures.add(new FutureResponseImpl());
+        }
+        Response response = ResultHandlerChain.execute(createSession(), futures.get(0), 0, null, handlers);
+        assertTrue(response instanceof FutureResponse);
+        assertFalse(((FutureResponse) response).isReady());
+
+        // complete them in reverse order, so each one just continues the loop which is already running
+        for (int i = count; i > 0; i--) {
+            futures.get(i).setResponse(new TestResponse("250 " + i));
+        }
+        assertFalse(((FutureResponse) response).isReady());
+        futures.get(0).setResponse(new TestResponse("250 0"));
+        assertTrue(((FutureResponse) response).isReady());
+        assertEquals("250 " + count, response.getLines().get(0));
+    }
+
+    @Test
+    public void testCancel() {
+        FutureResponseImpl future = new FutureResponseImpl();
+        List<ProtocolHandlerResultHandler<Response, ProtocolSession>> handlers = new ArrayList<ProtocolHandlerResultHandler<Response, ProtocolSession>>();
+        handlers.add(new ReplacingHandler("250 replaced"));
+        Response response = ResultHandlerChain.execute(createSession(), future, 0, null, handlers);
+        
+        // the client disconnected so the hook can stop its work
+        ((FutureResponse) response).cancel();
+        assertTrue(future.isCancelled());
+    }
+
+    private static ProtocolSession createSession() {
+        return CommandDispatcherTest.createSession(null);
+    }
+
+    private static class ReplacingHandler extends TestResultHandler {
+        private final String line;
+
+        public ReplacingHandler(String line) {
+            this.line = line;
+        }
+        
+        public Response onResponse(ProtocolSession session, Response response, long executionTime, ProtocolHandler handler) {
+            return new TestResponse(line);
+        }
+    }
+
+    private static abstract class TestResultHandler implements ProtocolHandlerResultHandler<Response, ProtocolSession> {
+    }
+
+    private final static class TestResponse implements Response {
+        private final String line;
+
+        public TestResponse(String line) {
+            this.line = line;
+        }
+
+        public String getRetCode() {
+            return line.substring(0, 3);
+        }
+
+        public List<CharSequence> getLines() {
+            return Collections.<CharSequence>singletonList(line);
+        }
+
+        public boolean isEndSession() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.logger;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class MessageFormatterTest {
+
+    @Test
+    public void testFormatOneArgument() {
+        assertEquals("Lookup command handler for command: EHLO", MessageFormatter.format("Lookup command handler for command: {}", "EHLO"));
+    }
+
+    @Test
+    public void testFormatTwoArguments() {
+        assertEquals("Add ip 127.0.0.1 for 10 to blockList", MessageFormatter.format("Add ip {} for {} to blockList", "127.0.0.1", 10L));
+    }
+
+    @Test
+    public void testFormatMoreArguments() {
+        assertEquals("a | b | c -> 1", MessageFormatter.format("{} | {} | {} -> {}", new Object[] {"a", "b", "c", 1}));
+    }
+
+    @Test
+    public void testMissingArgumentKeepsPlaceholder() {
+        assertEquals("a and {}", MessageFormatter.format("{} and {}", new Object[] {"a"}));
+    }
+
+    @Test
+    public void testNoPlaceholder() {
+        assertEquals("message", MessageFormatter.format("message", "a", "b"));
+    }
+
+    @Test
+    public void testNullArgument() {
+        assertEquals("value null", MessageFormatter.format("value {}", (Object) null));
+    }
+    
+    @Test
+    public void testFailingToString() {
+        Object broken = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException();
+            }
+        };
+        assertTrue(MessageFormatter.format("value {}", broken).startsWith("value ["));
+    }
+}
@@ -0,0 +1,131 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long low = LatencyHistogram.lowestEquivalentValue(i);
+            long high = LatencyHistogram.highestEquivalentValue(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(low));
+            assertEquals(i, LatencyHistogram.bucketIndex(high));
+            if (i + 1 < LatencyHistogram.BUCKET_COUNT) {
+                assertEquals(high + 1, LatencyHistogram.lowestEquivalentValue(i + 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("RCPT");
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertWithinPrecision(5000000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(9900000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(9990000, histogram.getValueAtPercentile(99.9));
+        assertEquals(10000000, histogram.getValueAtPercentile(100));
+        assertEquals(5000.5, histogram.getMeanMicros(), 0.001);
+    }
+
+    @Test
+    public void testOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram("DATA");
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        histogram.record(-10);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram("MAIL");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int a = 0; a < 10000; a++) {
+                        histogram.record(a);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.recordCommand("EHLO", 2000);
+        registry.recordCommand("EHLO", 4000);
+        registry.recordHandler(String.class, 1000);
+
+        assertSame(registry.getCommandHistogram("EHLO"), registry.getCommandHistogram("EHLO"));
+        assertEquals(2, registry.getCommandCount("EHLO"));
+        assertEquals(0, registry.getCommandCount("RCPT"));
+        assertEquals(4.0, registry.getCommandLatency("EHLO", 100), 0.001);
+        assertEquals(1, registry.getHandlerCount(String.class.getName()));
+        assertEquals(1, registry.getMeasuredHandlers().length);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String baseName = "org.apache.james:type=server,name=latencytest";
+        registry.registerMBeans(server, baseName);
+        try {
+            registry.recordCommand("RCPT", 1000);
+            assertTrue(server.isRegistered(new ObjectName(baseName)));
+            assertTrue(server.isRegistered(new ObjectName(baseName + ",sub-type=command,command=\"EHLO\"")));
+            assertTrue(server.isRegistered(new ObjectName(baseName + ",sub-type=command,command=\"RCPT\"")));
+            assertEquals(1L, server.getAttribute(new ObjectName(baseName + ",sub-type=command,command=\"RCPT\""), "Count"));
+        } finally {
+            registry.destroy();
+        }
+        assertFalse(server.isRegistered(new ObjectName(baseName)));
+    }
+
+    private static void assertWithinPrecision(long expected, long value) {
+        assertTrue("Expected " + expected + " but was " + value, value >= expected && value <= expected + expected / LatencyHistogram.SUB_BUCKET_COUNT);
+    }
+}
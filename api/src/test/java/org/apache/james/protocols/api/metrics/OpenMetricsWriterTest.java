@@ -0,0 +1,91 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.api.metrics;
+
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class OpenMetricsWriterTest {
+
+    @Test
+    public void testCounterAndGauge() throws Exception {
+        StringWriter out = new StringWriter();
+        OpenMetricsWriter writer = new OpenMetricsWriter(out);
+        writer.counter("smtp_bytes_read", "Bytes read from clients", 1024);
+        writer.gauge("smtp_connections_current", null, 3);
+        writer.eof();
+
+        assertEquals("# TYPE smtp_bytes_read counter\n"
+                + "# HELP smtp_bytes_read Bytes read from clients\n"
+                + "smtp_bytes_read_total 1024\n"
+                + "# TYPE smtp_connections_current gauge\n"
+                + "smtp_connections_current 3.0\n"
+                + "# EOF\n", out.toString());
+    }
+
+    @Test
+    public void testSummary() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("RCPT");
+        histogram.record(1000);
+
+        StringWriter out = new StringWriter();
+        new OpenMetricsWriter(out).summary("smtp_command_latency_seconds", null, "command", Collections.singletonList(histogram));
+
+        String text = out.toString();
+        assertTrue(text.startsWith("# TYPE smtp_command_latency_seconds summary\n"));
+        assertTrue(text.contains("smtp_command_latency_seconds{command=\"RCPT\",quantile=\"0.99\"} 1.0E-6\n"));
+        assertTrue(text.contains("smtp_command_latency_seconds_count{command=\"RCPT\"} 1\n"));
+        assertTrue(text.contains("smtp_command_latency_seconds_sum{command=\"RCPT\"} 1.0E-6\n"));
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("plain", OpenMetricsWriter.escape("plain"));
+        assertEquals("a\\\"b\\\\c\\n", OpenMetricsWriter.escape("a\"b\\c\n"));
+    }
+
+    @Test
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter(3);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int a = 0; a < 10000; a++) {
+                        counter.increment();
+                    }
+                    counter.add(5);
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(80040, counter.get());
+
+        counter.reset();
+        assertEquals(0, counter.get());
+    }
+}
@@ -20,6 +20,8 @@
 package org.apache.james.protocols.api.utils;
 
 import org.apache.james.protocols.api.logger.Logger;
+import org.apache.james.protocols.api.logger.MessageFormatter;
+import org.apache.james.protocols.api.logger.MessageSupplier;
 
 public class MockLogger implements Logger {
 
@@ -87,6 +89,86 @@ public class MockLogger implements Logger {
         SysPrint(msg, t);
     }
 
+    public void trace(String format, Object arg) {
+        SysPrint(MessageFormatter.format(format, arg));
+    }
+
+    public void trace(String format, Object arg1, Object arg2) {
+        SysPrint(MessageFormatter.format(format, arg1, arg2));
+    }
+
+    public void trace(String format, Object... args) {
+        SysPrint(MessageFormatter.format(format, args));
+    }
+
+    public void trace(MessageSupplier supplier) {
+        SysPrint(supplier.get());
+    }
+
+    public void debug(String format, Object arg) {
+        SysPrint(MessageFormatter.format(format, arg));
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        SysPrint(MessageFormatter.format(format, arg1, arg2));
+    }
+
+    public void debug(String format, Object... args) {
+        SysPrint(MessageFormatter.format(format, args));
+    }
+
+    public void debug(MessageSupplier supplier) {
+        SysPrint(supplier.get());
+    }
+
+    public void info(String format, Object arg) {
+        SysPrint(MessageFormatter.format(format, arg));
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        SysPrint(MessageFormatter.format(format, arg1, arg2));
+    }
+
+    public void info(String format, Object... args) {
+        SysPrint(MessageFormatter.format(format, args));
+    }
+
+    public void info(MessageSupplier supplier) {
+        SysPrint(supplier.get());
+    }
+
+    public void warn(String format, Object arg) {
+        SysPrint(MessageFormatter.format(format, arg));
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        SysPrint(MessageFormatter.format(format, arg1, arg2));
+    }
+
+    public void warn(String format, Object... args) {
+        SysPrint(MessageFormatter.format(format, args));
+    }
+
+    public void warn(MessageSupplier supplier) {
+        SysPrint(supplier.get());
+    }
+
+    public void error(String format, Object arg) {
+        SysPrint(MessageFormatter.format(format, arg));
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        SysPrint(MessageFormatter.format(format, arg1, arg2));
+    }
+
+    public void error(String format, Object... args) {
+        SysPrint(MessageFormatter.format(format, args));
+    }
+
+    public void error(MessageSupplier supplier) {
+        SysPrint(supplier.get());
+    }
+
     private void SysPrint(String msg, Object... obj) {
         if (obj != null) {
             Throwable t = null;
@@ -22,6 +22,7 @@ package org.apache.james.imap.main;
 import java.io.IOException;
 
 import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.api.message.request.ImapRequest;
 import org.apache.james.imap.api.message.response.ImapResponseMessage;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.api.process.ImapSession;
@@ -31,6 +32,8 @@ import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.decode.ImapRequestLineReader;
 import org.apache.james.imap.encode.ImapEncoder;
 import org.apache.james.imap.encode.ImapResponseComposer;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 import org.slf4j.Logger;
 
 public abstract class AbstractImapRequestHandler {
@@ -52,7 +55,14 @@ public abstract class AbstractImapRequestHandler {
     protected boolean doProcessRequest(ImapRequestLineReader request, ImapResponseComposer response, ImapSession session) {
         ImapMessage message = decoder.decode(request, session);
         final ResponseEncoder responseEncoder = new ResponseEncoder(encoder, response, session);
-        processor.process(message, responseEncoder, session);
+        final ProtocolTracer tracer = Tracing.getTracer();
+        if (tracer == null) {
+            processor.process(message, responseEncoder, session);
+        } else {
+            long start = System.nanoTime();
+            processor.process(message, responseEncoder, session);
+            tracer.commandExecuted(Integer.toHexString(System.identityHashCode(session)), getCommandName(message), processor.getClass(), System.nanoTime() - start);
+        }
 
         final boolean result;
         final IOException failure = responseEncoder.getFailure();
@@ -69,6 +79,13 @@ public abstract class AbstractImapRequestHandler {
         return result;
     }
 
+    private String getCommandName(ImapMessage message) {
+        if (message instanceof ImapRequest) {
+            return ((ImapRequest) message).getCommand().getName();
+        }
+        return message.getClass().getSimpleName();
+    }
+
     protected boolean isSelectedMailboxDeleted(ImapSession session) {
         final boolean selectedMailboxIsDeleted;
         final SelectedMailbox mailbox = session.getSelected();
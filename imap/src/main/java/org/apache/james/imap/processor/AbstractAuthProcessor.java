@@ -32,6 +32,7 @@ import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.exception.MailboxExistsException;
 import org.apache.james.mailbox.model.MailboxConstants;
 import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.protocols.api.cache.CredentialCache;
 
 public abstract class AbstractAuthProcessor<M extends ImapRequest> extends AbstractMailboxProcessor<M>{
 
@@ -39,11 +40,38 @@ public abstract class AbstractAuthProcessor<M extends ImapRequest> extends Abstr
 
     // TODO: this should be configurable
     private static final int MAX_FAILURES = 3;
+
+    private volatile CredentialCache credentialCache;
     
     public AbstractAuthProcessor(Class<M> acceptableClass, ImapProcessor next, MailboxManager mailboxManager, StatusResponseFactory factory) {
         super(acceptableClass, next, mailboxManager, factory);
     }
 
+    /**
+     * Set the {@link CredentialCache} which remembers successful authentications. Use <code>null</code> to disable it,
+     * which is the default.
+     * 
+     * @param credentialCache
+     */
+    public void setCredentialCache(CredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    /**
+     * Return a {@link MailboxSession} for an user whose credentials were already verified by the
+     * {@link CredentialCache}, without authenticating against the {@link MailboxManager} again. This implementation
+     * uses {@link MailboxManager#createSystemSession(String, org.slf4j.Logger)}. If <code>null</code> is returned
+     * {@link MailboxManager#login(String, String, org.slf4j.Logger)} is called instead.
+     * 
+     * @param userid
+     * @param session
+     * @return mailboxSession
+     * @throws MailboxException
+     */
+    protected MailboxSession createSession(String userid, ImapSession session) throws MailboxException {
+        return getMailboxManager().createSystemSession(userid, session.getLog());
+    }
+
     protected void doAuth(String userid, String passwd, ImapSession session, String tag, ImapCommand command, Responder responder, HumanReadableText failed) {
         try {
             boolean authFailure = false;
@@ -53,7 +81,17 @@ public abstract class AbstractAuthProcessor<M extends ImapRequest> extends Abstr
             if (authFailure == false) {
                 final MailboxManager mailboxManager = getMailboxManager();
                 try {
-                    final MailboxSession mailboxSession = mailboxManager.login(userid, passwd, session.getLog());
+                    final CredentialCache credentialCache = this.credentialCache;
+                    MailboxSession mailboxSession = null;
+                    if (credentialCache != null && credentialCache.verify(userid, passwd)) {
+                        mailboxSession = createSession(userid, session);
+                    }
+                    if (mailboxSession == null) {
+                        mailboxSession = mailboxManager.login(userid, passwd, session.getLog());
+                        if (credentialCache != null) {
+                            credentialCache.store(userid, passwd);
+                        }
+                    }
                     session.authenticated();
                     session.setAttribute(ImapSessionUtils.MAILBOX_SESSION_ATTRIBUTE_SESSION_KEY, mailboxSession);
                     final MailboxPath inboxPath = buildFullPath(session, MailboxConstants.INBOX);
@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
@@ -34,6 +35,7 @@ import org.apache.james.protocols.imap.IMAPSession;
 public class IMAPCommandDispatcher extends CommandDispatcher<IMAPSession>{
 
     private final static Pattern LITERAL_PATTERN = Pattern.compile(".*\\{(\\d+)\\}.*");
+    private final static AttachmentKey<Long> BYTES_READ = AttachmentKey.of("BYTES_READ", Long.class);
     
     @Override
     protected Request parseRequest(IMAPSession session, ByteBuffer buffer) throws Exception {
@@ -43,15 +45,16 @@ public class IMAPCommandDispatcher extends CommandDispatcher<IMAPSession>{
             final long bytesToRead = Long.parseLong(matcher.group(1));
             MultiLineHandler<IMAPSession> handler = new MultiLineHandler<IMAPSession>() {
                 
-                private static final String BYTES_READ = "BYTES_READ";
-                
                 /*
                  * (non-Javadoc)
                  * @see org.apache.james.protocols.api.handler.MultiLineHandler#isReady(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
                  */
                 protected boolean isReady(IMAPSession session, ByteBuffer line) {
-                    long bytesRead = (Long) session.setAttachment(BYTES_READ, null, State.Transaction);
-                    bytesRead += line.remaining();
+                    Long read = session.setAttachment(BYTES_READ, null, State.Transaction);
+                    long bytesRead = line.remaining();
+                    if (read != null) {
+                        bytesRead += read;
+                    }
                     if (bytesRead >= bytesToRead) {
                         return true;
                     } else {
@@ -0,0 +1,146 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.jfr;
+
+import java.net.InetSocketAddress;
+
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
+
+/**
+ * {@link ProtocolTracer} which emits Java Flight Recorder events.
+ *
+ * All events are disabled by default, so this tracer costs almost nothing until a recording enables them. The
+ * profile {@link #PROFILE} which is shipped in this module enables all of them. Extract it from the jar and pass it
+ * together with the default profile of the JVM:
+ *
+ * <pre>
+ * -XX:StartFlightRecording:settings=default.jfc,protocols.jfc
+ * </pre>
+ *
+ * The events are committed once the traced operation is done, so the measured time is stored in an own field and
+ * not in the duration of the event itself.
+ */
+public class JfrProtocolTracer implements ProtocolTracer {
+
+    /**
+     * Name of the Flight Recorder profile which enables all events of this module
+     */
+    public final static String PROFILE = "org/apache/james/protocols/jfr/protocols.jfc";
+
+    /**
+     * Install a {@link JfrProtocolTracer} via {@link Tracing#setTracer(ProtocolTracer)}
+     */
+    public static void install() {
+        Tracing.setTracer(new JfrProtocolTracer());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#sessionStarted(java.lang.String, java.net.InetSocketAddress)
+     */
+    public void sessionStarted(String sessionId, InetSocketAddress remoteAddress) {
+        // the session is emitted as one event once it ends
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#sessionEnded(java.lang.String, long)
+     */
+    public void sessionEnded(String sessionId, long duration) {
+        SessionEvent event = new SessionEvent();
+        if (event.isEnabled()) {
+            event.sessionId = sessionId;
+            event.sessionTime = duration;
+            event.commit();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#commandExecuted(java.lang.String, java.lang.String, java.lang.Class, long)
+     */
+    public void commandExecuted(String sessionId, String command, Class<?> handler, long duration) {
+        CommandEvent event = new CommandEvent();
+        if (event.isEnabled()) {
+            event.sessionId = sessionId;
+            event.command = command;
+            event.handler = handler;
+            event.executionTime = duration;
+            event.commit();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#hookExecuted(java.lang.String, java.lang.String, java.lang.Class, int, long)
+     */
+    public void hookExecuted(String sessionId, String command, Class<?> hook, int result, long duration) {
+        HookEvent event = new HookEvent();
+        if (event.isEnabled()) {
+            event.sessionId = sessionId;
+            event.command = command;
+            event.hook = hook;
+            event.result = result;
+            event.executionTime = duration;
+            event.commit();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#responseQueued(java.lang.String, long)
+     */
+    public void responseQueued(String sessionId, long waitTime) {
+        ResponseQueueEvent event = new ResponseQueueEvent();
+        if (event.isEnabled()) {
+            event.sessionId = sessionId;
+            event.waitTime = waitTime;
+            event.commit();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#responseWritten(java.lang.String, long, long)
+     */
+    public void responseWritten(String sessionId, long bytes, long duration) {
+        ResponseWriteEvent event = new ResponseWriteEvent();
+        if (event.isEnabled()) {
+            event.sessionId = sessionId;
+            event.bytes = bytes;
+            event.writeTime = duration;
+            event.commit();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.trace.ProtocolTracer#executionQueued(java.lang.String, long)
+     */
+    public void executionQueued(String sessionId, long waitTime) {
+        ExecutionQueueEvent event = new ExecutionQueueEvent();
+        if (event.isEnabled()) {
+            event.sessionId = sessionId;
+            event.waitTime = waitTime;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A response which was handed over to the transport
+ */
+@Name("org.apache.james.protocols.ResponseWrite")
+@Label("Response Write")
+@Description("A response which was handed over to the transport")
+@Category({"Apache James", "Protocols"})
+@Enabled(false)
+@StackTrace(false)
+class ResponseWriteEvent extends Event {
+
+    @Label("Session ID")
+    String sessionId;
+
+    @Label("Bytes")
+    @Description("The size of the response or -1 if it was streamed")
+    @DataAmount
+    long bytes;
+
+    @Label("Write Time")
+    @Description("The time it took to hand over the response")
+    @Timespan
+    long writeTime;
+}
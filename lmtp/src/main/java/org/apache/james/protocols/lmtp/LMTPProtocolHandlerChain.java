@@ -19,6 +19,8 @@
 package org.apache.james.protocols.lmtp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.james.protocols.api.handler.CommandDispatcher;
@@ -28,6 +30,7 @@ import org.apache.james.protocols.api.handler.WiringException;
 import org.apache.james.protocols.lmtp.core.DataLineMessageHookHandler;
 import org.apache.james.protocols.lmtp.core.ReceivedDataLineFilter;
 import org.apache.james.protocols.lmtp.core.LhloCmdHandler;
+import org.apache.james.protocols.lmtp.core.MailSizeEsmtpExtension;
 import org.apache.james.protocols.lmtp.core.WelcomeMessageHandler;
 import org.apache.james.protocols.smtp.SMTPProtocolHandlerChain;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -41,7 +44,6 @@ import org.apache.james.protocols.smtp.core.RcptCmdHandler;
 import org.apache.james.protocols.smtp.core.RsetCmdHandler;
 import org.apache.james.protocols.smtp.core.UnknownCmdHandler;
 import org.apache.james.protocols.smtp.core.VrfyCmdHandler;
-import org.apache.james.protocols.smtp.core.esmtp.MailSizeEsmtpExtension;
 import org.apache.james.protocols.smtp.core.esmtp.StartTlsCmdHandler;
 import org.apache.james.protocols.smtp.hook.Hook;
 
@@ -52,6 +54,11 @@ import org.apache.james.protocols.smtp.hook.Hook;
  */
 public class LMTPProtocolHandlerChain extends SMTPProtocolHandlerChain{
 
+    /**
+     * Like {@link SMTPProtocolHandlerChain#SYNC_COMMANDS} but with LHLO instead of HELO and EHLO
+     */
+    protected final static List<String> LMTP_SYNC_COMMANDS = Collections.unmodifiableList(Arrays.asList("LHLO", "DATA", "RSET", "STARTTLS", "VRFY", "EXPN", "NOOP", "QUIT"));
+
     public LMTPProtocolHandlerChain() {
         super();
     }
@@ -67,7 +74,7 @@ public class LMTPProtocolHandlerChain extends SMTPProtocolHandlerChain{
     @Override
     protected List<ProtocolHandler> initDefaultHandlers() {
         List<ProtocolHandler> defaultHandlers = new ArrayList<ProtocolHandler>();
-        defaultHandlers.add(new CommandDispatcher<SMTPSession>());
+        defaultHandlers.add(new CommandDispatcher<SMTPSession>(Collections.<String>emptyList(), LMTP_SYNC_COMMANDS));
         defaultHandlers.add(new ExpnCmdHandler());
         defaultHandlers.add(new LhloCmdHandler());
         defaultHandlers.add(new HelpCmdHandler());
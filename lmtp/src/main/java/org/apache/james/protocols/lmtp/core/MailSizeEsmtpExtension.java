@@ -0,0 +1,50 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.lmtp.core;
+
+import java.util.Collection;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.lmtp.LMTPMultiResponse;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPSession;
+
+/**
+ * {@link org.apache.james.protocols.smtp.core.esmtp.MailSizeEsmtpExtension} which rejects a message which exceeded the
+ * maximum message size once per recipient, as LMTP requires a response for every recipient after the DATA.
+ */
+public class MailSizeEsmtpExtension extends org.apache.james.protocols.smtp.core.esmtp.MailSizeEsmtpExtension {
+
+    @Override
+    protected Response getQuotaExceededResponse(SMTPSession session) {
+        Response response = super.getQuotaExceededResponse(session);
+        Collection<MailAddress> recipients = session.getAttachment(SMTPSession.RCPT_LIST_KEY, State.Transaction);
+        if (recipients == null || recipients.size() < 2) {
+            return response;
+        }
+        LMTPMultiResponse mResponse = new LMTPMultiResponse(response);
+        for (int i = 1; i < recipients.size(); i++) {
+            mResponse.addResponse(response);
+        }
+        return mResponse;
+    }
+}
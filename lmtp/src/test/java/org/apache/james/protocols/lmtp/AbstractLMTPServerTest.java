@@ -86,6 +86,36 @@ public abstract class AbstractLMTPServerTest extends AbstractSMTPServerTest{
 
     }
 
+    @Override
+    public void testChunking() throws Exception {
+        // Disable, LMTP does not support BDAT
+    }
+
+    @Override
+    public void testChunkingAfterRejectedData() throws Exception {
+        // Disable, LMTP does not support BDAT
+    }
+
+    @Override
+    public void testPipelinedAsyncHook() throws Exception {
+        // Disable, LMTP does not support EHLO
+    }
+
+    @Override
+    public void testPipelinedAsyncHookCompletesLate() throws Exception {
+        // Disable, LMTP does not support EHLO
+    }
+
+    @Override
+    public void testPipelinedBatchValidRcpt() throws Exception {
+        // Disable, LMTP does not support EHLO
+    }
+
+    @Override
+    public void testPipelinedTarpit() throws Exception {
+        // Disable, LMTP does not support EHLO
+    }
+
 
     @Override
     public void testMailWithoutBrackets() throws Exception {
@@ -20,6 +20,7 @@ package org.apache.james.protocols.netty;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
+import org.apache.james.protocols.api.trace.Tracing;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
@@ -39,22 +40,37 @@ import org.jboss.netty.util.HashedWheelTimer;
 public abstract class AbstractChannelPipelineFactory implements ChannelPipelineFactory, ExternalResourceReleasable{
 
     public final static int MAX_LINE_LENGTH = 8192;
+    private final static ExecutionQueueTracingHandler EXECUTION_QUEUE_ENTER = ExecutionQueueTracingHandler.enter();
+    private final static ExecutionQueueTracingHandler EXECUTION_QUEUE_EXIT = ExecutionQueueTracingHandler.exit();
     protected final ConnectionLimitUpstreamHandler connectionLimitHandler;
     protected final ConnectionPerIpLimitUpstreamHandler connectionPerIpLimitHandler;
     private final HashedWheelTimer timer = new HashedWheelTimer();
     private final ChannelGroupHandler groupHandler;
 	private final int timeout;
     private final ExecutionHandler eHandler;
+    private final TransportStatisticsHandler statisticsHandler;
     public AbstractChannelPipelineFactory(int timeout, int maxConnections, int maxConnectsPerIp, ChannelGroup channels) {
         this(timeout, maxConnections, maxConnectsPerIp, channels, null);
     }
     
     public AbstractChannelPipelineFactory(int timeout, int maxConnections, int maxConnectsPerIp, ChannelGroup channels, ExecutionHandler eHandler) {
-        this.connectionLimitHandler = new ConnectionLimitUpstreamHandler(maxConnections);
-        this.connectionPerIpLimitHandler = new ConnectionPerIpLimitUpstreamHandler(maxConnectsPerIp);
+        this(timeout, maxConnections, maxConnectsPerIp, channels, eHandler, null);
+    }
+    
+    /**
+     * @param statistics the {@link TransportStatistics} to update or <code>null</code> if no statistics should be collected
+     */
+    public AbstractChannelPipelineFactory(int timeout, int maxConnections, int maxConnectsPerIp, ChannelGroup channels, ExecutionHandler eHandler, TransportStatistics statistics) {
+        this.connectionLimitHandler = new ConnectionLimitUpstreamHandler(maxConnections, statistics);
+        this.connectionPerIpLimitHandler = new ConnectionPerIpLimitUpstreamHandler(maxConnectsPerIp, statistics);
         this.groupHandler = new ChannelGroupHandler(channels);
         this.timeout = timeout;
         this.eHandler = eHandler;
+        if (statistics != null) {
+            this.statisticsHandler = new TransportStatisticsHandler(statistics);
+        } else {
+            this.statisticsHandler = null;
+        }
     }
     
     
@@ -66,6 +82,9 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
     public ChannelPipeline getPipeline() throws Exception {
         // Create a default pipeline implementation.
         ChannelPipeline pipeline = pipeline();
+        if (statisticsHandler != null) {
+            pipeline.addLast(HandlerConstants.STATISTICS_HANDLER, statisticsHandler);
+        }
         pipeline.addLast(HandlerConstants.GROUP_HANDLER, groupHandler);
 
         pipeline.addLast(HandlerConstants.CONNECTION_LIMIT_HANDLER, connectionLimitHandler);
@@ -73,17 +92,32 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
         pipeline.addLast(HandlerConstants.CONNECTION_PER_IP_LIMIT_HANDLER, connectionPerIpLimitHandler);
 
         
+        // Mark the lines of one read, so the responses to pipelined commands can be written at once
+        ChannelUpstreamHandler batchHandler = createPipeliningBatchHandler();
+        if (batchHandler != null) {
+            pipeline.addLast(HandlerConstants.BATCH_HANDLER, batchHandler);
+        }
+
         // Add the text line decoder which limit the max line length, don't strip the delimiter and use CRLF as delimiter
-        pipeline.addLast(HandlerConstants.FRAMER, new DelimiterBasedFrameDecoder(MAX_LINE_LENGTH, false, Delimiters.lineDelimiter()));
+        pipeline.addLast(HandlerConstants.FRAMER, createFrameHandler());
        
         // Add the ChunkedWriteHandler to be able to write ChunkInput
         pipeline.addLast(HandlerConstants.CHUNK_HANDLER, new ChunkedWriteHandler());
         pipeline.addLast(HandlerConstants.TIMEOUT_HANDLER, new TimeoutHandler(timer, timeout));
 
         if (eHandler != null) {
-            pipeline.addLast(HandlerConstants.EXECUTION_HANDLER, eHandler);
+            if (Tracing.getTracer() != null) {
+                pipeline.addLast(HandlerConstants.EXECUTION_QUEUE_ENTER_HANDLER, EXECUTION_QUEUE_ENTER);
+                pipeline.addLast(HandlerConstants.EXECUTION_HANDLER, eHandler);
+                pipeline.addLast(HandlerConstants.EXECUTION_QUEUE_EXIT_HANDLER, EXECUTION_QUEUE_EXIT);
+            } else {
+                pipeline.addLast(HandlerConstants.EXECUTION_HANDLER, eHandler);
+            }
         }
         
+        // Hold back pipelined lines while the processing of a request is suspended
+        pipeline.addLast(HandlerConstants.REQUEST_QUEUE_HANDLER, new RequestQueueHandler());
+
         pipeline.addLast(HandlerConstants.CORE_HANDLER, createHandler());
 
 
@@ -100,6 +134,27 @@ public abstract class AbstractChannelPipelineFactory implements ChannelPipelineF
      */
     protected abstract ChannelUpstreamHandler createHandler();
 
+    /**
+     * Create the {@link ChannelUpstreamHandler} which marks the lines of one read, like a {@link PipeliningBatchHandler}.
+     * Its markers are sent upstream together with the lines, so the core handler must know about them. This
+     * implementation returns <code>null</code>, so no markers are sent.
+     * 
+     * @return batchHandler or <code>null</code>
+     */
+    protected ChannelUpstreamHandler createPipeliningBatchHandler() {
+        return null;
+    }
+
+    /**
+     * Create the {@link ChannelUpstreamHandler} which splits the received data into lines. This implementation returns a
+     * {@link DelimiterBasedFrameDecoder}, subclasses may override it to handle binary data.
+     * 
+     * @return framer
+     */
+    protected ChannelUpstreamHandler createFrameHandler() {
+        return new DelimiterBasedFrameDecoder(MAX_LINE_LENGTH, false, Delimiters.lineDelimiter());
+    }
+
     
     /*
      * (non-Javadoc)
@@ -38,12 +38,17 @@ public abstract class AbstractSSLAwareChannelPipelineFactory extends AbstractCha
 
     public AbstractSSLAwareChannelPipelineFactory(int timeout,
             int maxConnections, int maxConnectsPerIp, ChannelGroup group, ExecutionHandler eHandler) {
-        super(timeout, maxConnections, maxConnectsPerIp, group, eHandler);
+        this(timeout, maxConnections, maxConnectsPerIp, group, null, eHandler, null);
     }
 
     public AbstractSSLAwareChannelPipelineFactory(int timeout,
             int maxConnections, int maxConnectsPerIp, ChannelGroup group, String[] enabledCipherSuites, ExecutionHandler eHandler) {
-        this(timeout, maxConnections, maxConnectsPerIp, group, eHandler);
+        this(timeout, maxConnections, maxConnectsPerIp, group, enabledCipherSuites, eHandler, null);
+    }
+
+    public AbstractSSLAwareChannelPipelineFactory(int timeout,
+            int maxConnections, int maxConnectsPerIp, ChannelGroup group, String[] enabledCipherSuites, ExecutionHandler eHandler, TransportStatistics statistics) {
+        super(timeout, maxConnections, maxConnectsPerIp, group, eHandler, statistics);
         
         // We need to copy the String array becuase of possible security issues.
         // See https://issues.apache.org/jira/browse/PROTOCOLS-18
@@ -68,11 +73,26 @@ public abstract class AbstractSSLAwareChannelPipelineFactory extends AbstractCha
             if (enabledCipherSuites != null && enabledCipherSuites.length > 0) {
                 engine.setEnabledCipherSuites(enabledCipherSuites);
             }
-            pipeline.addFirst(HandlerConstants.SSL_HANDLER, new SslHandler(engine));
+            addSslHandler(pipeline, new SslHandler(engine));
         }
         return pipeline;
     }
 
+    /**
+     * Add the {@link SslHandler} as the first handler of the pipeline, but behind the {@link TransportStatisticsHandler}
+     * so the statistics count the encrypted bytes
+     * 
+     * @param pipeline
+     * @param sslHandler
+     */
+    static void addSslHandler(ChannelPipeline pipeline, SslHandler sslHandler) {
+        if (pipeline.get(HandlerConstants.STATISTICS_HANDLER) != null) {
+            pipeline.addAfter(HandlerConstants.STATISTICS_HANDLER, HandlerConstants.SSL_HANDLER, sslHandler);
+        } else {
+            pipeline.addFirst(HandlerConstants.SSL_HANDLER, sslHandler);
+        }
+    }
+
     /**
      * Return if the socket is using SSL/TLS
      * 
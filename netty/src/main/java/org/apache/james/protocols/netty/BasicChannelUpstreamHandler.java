@@ -20,12 +20,15 @@ package org.apache.james.protocols.netty;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLEngine;
 
+import org.apache.james.protocols.api.AbstractProtocolTransport;
 import org.apache.james.protocols.api.ProtocolSessionImpl;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.Encryption;
@@ -35,6 +38,10 @@ import org.apache.james.protocols.api.handler.DisconnectHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
 import org.apache.james.protocols.api.handler.ProtocolHandlerChain;
 import org.apache.james.protocols.api.handler.ProtocolHandlerResultHandler;
+import org.apache.james.protocols.api.handler.ResultHandlerChain;
+import org.apache.james.protocols.api.metrics.LatencyRecorder;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 import org.apache.james.protocols.netty.NettyProtocolTransport;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
@@ -83,27 +90,36 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
     public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
         List<ConnectHandler> connectHandlers = chain.getHandlers(ConnectHandler.class);
         List<ProtocolHandlerResultHandler> resultHandlers = chain.getHandlers(ProtocolHandlerResultHandler.class);
+        List<LatencyRecorder> recorders = chain.getHandlers(LatencyRecorder.class);
         ProtocolSession session = (ProtocolSession) ctx.getAttachment();
-        session.getLogger().info("Connection established from " + session.getRemoteAddress().getAddress().getHostAddress());
+        session.getLogger().info("Connection established from {}", session.getRemoteAddress().getAddress().getHostAddress());
+        ProtocolTracer tracer = Tracing.getTracer();
+        if (tracer != null) {
+            session.setAttachment(Tracing.SESSION_START, System.nanoTime(), State.Connection);
+            tracer.sessionStarted(session.getSessionID(), session.getRemoteAddress());
+        }
         if (connectHandlers != null) {
             for (int i = 0; i < connectHandlers.size(); i++) {
                 ConnectHandler cHandler = connectHandlers.get(i);
                 
-                long start = System.currentTimeMillis();
+                long start = System.nanoTime();
                 Response response = connectHandlers.get(i).onConnect(session);
-                long executionTime = System.currentTimeMillis() - start;
+                long nanos = System.nanoTime() - start;
+                long executionTime = TimeUnit.NANOSECONDS.toMillis(nanos);
                 
-                for (int a = 0; a < resultHandlers.size(); a++) {
-                    // Disable till PROTOCOLS-37 is implemented
-                    if (response instanceof FutureResponse) {
-                        session.getLogger().debug("ProtocolHandlerResultHandler are not supported for FutureResponse yet");
-                        break;
-                    } 
-                    resultHandlers.get(a).onResponse(session, response, executionTime, cHandler);
+                for (int a = 0; a < recorders.size(); a++) {
+                    recorders.get(a).recordHandler(cHandler.getClass(), nanos);
                 }
+                
+                response = ResultHandlerChain.execute(session, response, executionTime, cHandler, resultHandlers);
                 if (response != null) {
                     // TODO: This kind of sucks but I was able to come up with something more elegant here
                     ((ProtocolSessionImpl)session).getProtocolTransport().writeResponse(response, session);
+                    
+                    // the connection was rejected, so don't call the remaining handlers
+                    if (!(response instanceof FutureResponse) && response.isEndSession()) {
+                        break;
+                    }
                 }
                
             }
@@ -134,8 +150,20 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         ProtocolSession pSession = (ProtocolSession) ctx.getAttachment();
+        if (e.getMessage() instanceof PipeliningBatchHandler.Batch) {
+            ProtocolTransport transport = ((ProtocolSessionImpl) pSession).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                if (e.getMessage() == PipeliningBatchHandler.Batch.START) {
+                    ((AbstractProtocolTransport) transport).beginRequestBatch();
+                } else {
+                    ((AbstractProtocolTransport) transport).endRequestBatch();
+                }
+            }
+            return;
+        }
         LinkedList<LineHandler> lineHandlers = chain.getHandlers(LineHandler.class);
         LinkedList<ProtocolHandlerResultHandler> resultHandlers = chain.getHandlers(ProtocolHandlerResultHandler.class);
+        LinkedList<LatencyRecorder> recorders = chain.getHandlers(LatencyRecorder.class);
 
         
         if (lineHandlers.size() > 0) {
@@ -143,18 +171,16 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
             ChannelBuffer buf = (ChannelBuffer) e.getMessage();      
             
             LineHandler lHandler=  (LineHandler) lineHandlers.getLast();
-            long start = System.currentTimeMillis();            
+            long start = System.nanoTime();            
             Response response = lHandler.onLine(pSession,buf.toByteBuffer());
-            long executionTime = System.currentTimeMillis() - start;
+            long nanos = System.nanoTime() - start;
+            long executionTime = TimeUnit.NANOSECONDS.toMillis(nanos);
 
-            for (int i = 0; i < resultHandlers.size(); i++) {
-                // Disable till PROTOCOLS-37 is implemented
-                if (response instanceof FutureResponse) {
-                    pSession.getLogger().debug("ProtocolHandlerResultHandler are not supported for FutureResponse yet");
-                    break;
-                } 
-                response = resultHandlers.get(i).onResponse(pSession, response, executionTime, lHandler);
+            for (int i = 0; i < recorders.size(); i++) {
+                recorders.get(i).recordHandler(lHandler.getClass(), nanos);
             }
+
+            response = ResultHandlerChain.execute(pSession, response, executionTime, lHandler, resultHandlers);
             if (response != null) {
                 // TODO: This kind of sucks but I was able to come up with something more elegant here
                 ((ProtocolSessionImpl)pSession).getProtocolTransport().writeResponse(response, pSession);
@@ -170,7 +196,18 @@ public class BasicChannelUpstreamHandler extends SimpleChannelUpstreamHandler {
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
         ProtocolSession session = (ProtocolSession) ctx.getAttachment();
         if (session != null) {
-            session.getLogger().info("Connection closed for " + session.getRemoteAddress().getAddress().getHostAddress());
+            session.getLogger().info("Connection closed for {}", session.getRemoteAddress().getAddress().getHostAddress());
+            ProtocolTracer tracer = Tracing.getTracer();
+            if (tracer != null) {
+                Long start = session.getAttachment(Tracing.SESSION_START, State.Connection);
+                tracer.sessionEnded(session.getSessionID(), start == null ? -1 : System.nanoTime() - start);
+            }
+            
+            // nothing can be written anymore, so let asynchronous hooks know that they can stop
+            ProtocolTransport transport = ((ProtocolSessionImpl) session).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                ((AbstractProtocolTransport) transport).cancelPendingResponses();
+            }
         }
         cleanup(ctx);
 
@@ -0,0 +1,83 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.netty;
+
+import org.apache.james.protocols.api.handler.ChunkLengthParser;
+import org.apache.james.protocols.api.handler.ChunkLengthParser.LineTracker;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+
+/**
+ * {@link DelimiterBasedFrameDecoder} which splits the received data into lines, but passes binary data which was
+ * announced by a line as it is received. The {@link LineTracker} of the {@link ChunkLengthParser} decides which lines
+ * announce binary data.
+ * 
+ * The binary data is passed on in as many parts as it is received in, so it never needs to fit into the maximal line
+ * length.
+ * 
+ * This handler is stateful and so must not be shared across pipelines
+ */
+public class ChunkAwareFrameDecoder extends DelimiterBasedFrameDecoder {
+
+    private final LineTracker tracker;
+    
+    // bytes of the current binary chunk which were not passed on yet
+    private long chunkRemaining = 0;
+
+    public ChunkAwareFrameDecoder(int maxLineLength, ChunkLengthParser parser) {
+        super(maxLineLength, false, Delimiters.lineDelimiter());
+        this.tracker = parser.newLineTracker();
+    }
+
+    /**
+     * Return the {@link LineTracker} of the connection
+     * 
+     * @return tracker
+     */
+    public LineTracker getLineTracker() {
+        return tracker;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        if (chunkRemaining > 0) {
+            int readable = buffer.readableBytes();
+            if (readable == 0) {
+                return null;
+            }
+            int length = (int) Math.min(readable, chunkRemaining);
+            chunkRemaining -= length;
+            // copy the data like the lines, as the cumulation buffer is reused once the handlers run on another thread
+            return buffer.readBytes(length);
+        }
+        Object frame = super.decode(ctx, channel, buffer);
+        if (frame != null) {
+            long length = tracker.onLine(((ChannelBuffer) frame).toByteBuffer());
+            if (length > 0) {
+                chunkRemaining = length;
+            }
+        }
+        return frame;
+    }
+}
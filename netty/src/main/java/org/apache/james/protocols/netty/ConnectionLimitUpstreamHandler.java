@@ -38,9 +38,19 @@ public class ConnectionLimitUpstreamHandler extends SimpleChannelUpstreamHandler
 
     private final AtomicInteger connections = new AtomicInteger(0);
     private volatile int maxConnections = -1;
+    private final TransportStatistics statistics;
     
     public ConnectionLimitUpstreamHandler(int maxConnections) {
+        this(maxConnections, null);
+    }
+    
+    /**
+     * @param maxConnections
+     * @param statistics the {@link TransportStatistics} in which rejected connections are counted, may be <code>null</code>
+     */
+    public ConnectionLimitUpstreamHandler(int maxConnections, TransportStatistics statistics) {
         this.maxConnections = maxConnections;
+        this.statistics = statistics;
     }
     
     public int getConnections() {
@@ -57,6 +67,9 @@ public class ConnectionLimitUpstreamHandler extends SimpleChannelUpstreamHandler
             int currentCount = connections.incrementAndGet();
             
             if (currentCount > maxConnections) {
+                if (statistics != null) {
+                    statistics.rejectedByConnectionLimit();
+                }
                 ctx.getChannel().close();
             }
         }
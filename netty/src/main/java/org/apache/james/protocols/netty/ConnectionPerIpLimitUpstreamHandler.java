@@ -41,9 +41,19 @@ public class ConnectionPerIpLimitUpstreamHandler extends SimpleChannelUpstreamHa
 
     private final ConcurrentMap<String, AtomicInteger> connections = new ConcurrentHashMap<String, AtomicInteger>();    
     private volatile int maxConnectionsPerIp = -1;
+    private final TransportStatistics statistics;
     
     public ConnectionPerIpLimitUpstreamHandler(int maxConnectionsPerIp) {
+        this(maxConnectionsPerIp, null);
+    }
+    
+    /**
+     * @param maxConnectionsPerIp
+     * @param statistics the {@link TransportStatistics} in which rejected connections are counted, may be <code>null</code>
+     */
+    public ConnectionPerIpLimitUpstreamHandler(int maxConnectionsPerIp, TransportStatistics statistics) {
         this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.statistics = statistics;
     }
     
     public int getConnections(String ip) {
@@ -79,6 +89,9 @@ public class ConnectionPerIpLimitUpstreamHandler extends SimpleChannelUpstreamHa
             } else {
                 Integer count = atomicCount.incrementAndGet();
                 if (count > maxConnectionsPerIp) {
+                    if (statistics != null) {
+                        statistics.rejectedByConnectionPerIpLimit();
+                    }
                     ctx.getChannel().close();
                 }
             }
@@ -0,0 +1,102 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+
+/**
+ * Measure how long received messages wait in the queue of the {@link ExecutionHandler} and pass it to the
+ * {@link ProtocolTracer}.
+ *
+ * One instance must be added directly in front of the {@link ExecutionHandler} and one directly after it. The first
+ * one remembers when a message was queued, the second one reports the wait time once a worker thread picked it up.
+ * This works because the {@link ExecutionHandler} keeps the order of the messages per {@link Channel}.
+ *
+ * This handler is thread-safe and thus can be shared across pipelines
+ */
+@Sharable
+public class ExecutionQueueTracingHandler extends SimpleChannelUpstreamHandler {
+
+    private final static ChannelLocal<Queue<Long>> QUEUED = new ChannelLocal<Queue<Long>>() {
+        @Override
+        protected Queue<Long> initialValue(Channel channel) {
+            return new ConcurrentLinkedQueue<Long>();
+        }
+    };
+
+    private final boolean enter;
+
+    private ExecutionQueueTracingHandler(boolean enter) {
+        this.enter = enter;
+    }
+
+    /**
+     * Return the handler which must be added in front of the {@link ExecutionHandler}
+     *
+     * @return handler
+     */
+    public static ExecutionQueueTracingHandler enter() {
+        return new ExecutionQueueTracingHandler(true);
+    }
+
+    /**
+     * Return the handler which must be added after the {@link ExecutionHandler}
+     *
+     * @return handler
+     */
+    public static ExecutionQueueTracingHandler exit() {
+        return new ExecutionQueueTracingHandler(false);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Queue<Long> queued = QUEUED.get(ctx.getChannel());
+        if (enter) {
+            queued.offer(System.nanoTime());
+        } else {
+            Long start = queued.poll();
+            ProtocolTracer tracer = Tracing.getTracer();
+            if (start != null && tracer != null) {
+                tracer.executionQueued(String.valueOf(ctx.getChannel().getId()), System.nanoTime() - start);
+            }
+        }
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (!enter) {
+            QUEUED.remove(ctx.getChannel());
+        }
+        super.channelClosed(ctx, e);
+    }
+}
@@ -33,16 +33,26 @@ public interface HandlerConstants {
 
     public static final String GROUP_HANDLER = "groupHandler";
 
+    public static final String STATISTICS_HANDLER = "statisticsHandler";
+
     public static final String CONNECTION_LIMIT_HANDLER = " connectionLimit";
 
     public static final String CONNECTION_PER_IP_LIMIT_HANDLER = "connectionPerIpLimit";
 
     public static final String FRAMER = "framer";
 
+    public static final String BATCH_HANDLER = "batchHandler";
+
     public static final String EXECUTION_HANDLER = "executionHandler";
 
+    public static final String EXECUTION_QUEUE_ENTER_HANDLER = "executionQueueEnter";
+
+    public static final String EXECUTION_QUEUE_EXIT_HANDLER = "executionQueueExit";
+
     public static final String TIMEOUT_HANDLER = "timeoutHandler";
 
+    public static final String REQUEST_QUEUE_HANDLER = "requestQueueHandler";
+
     public static final String CORE_HANDLER = "coreHandler";
 
     public static final String CHUNK_HANDLER = "chunkHandler";
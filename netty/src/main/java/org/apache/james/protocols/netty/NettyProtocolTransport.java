@@ -24,16 +24,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.net.ssl.SSLEngine;
 
 import org.apache.james.protocols.api.AbstractProtocolTransport;
 import org.apache.james.protocols.api.CombinedInputStream;
 import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.handler.ChunkLengthParser.LineTracker;
 import org.apache.james.protocols.api.handler.LineHandler;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.DefaultFileRegion;
 import org.jboss.netty.handler.ssl.SslHandler;
@@ -48,6 +54,11 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
     private final SSLEngine engine;
     private int lineHandlerCount = 0;
     
+    // guards the batch state, as responses to asynchronous hooks may be written by other threads
+    private final Object writeLock = new Object();
+    private int batches = 0;
+    private List<byte[]> buffered;
+    
     public NettyProtocolTransport(Channel channel, SSLEngine engine) {
         this.channel = channel;
         this.engine = engine;
@@ -105,26 +116,84 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
     private void prepareStartTLS() {
         SslHandler filter = new SslHandler(engine, true);
         filter.getEngine().setUseClientMode(false);
-        channel.getPipeline().addFirst(HandlerConstants.SSL_HANDLER, filter);
+        AbstractSSLAwareChannelPipelineFactory.addSslHandler(channel.getPipeline(), filter);
     }
 
     @Override
     protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
-        if (startTLS) {
-            prepareStartTLS();
+        synchronized (writeLock) {
+            if (batches > 0 && !startTLS) {
+                if (buffered == null) {
+                    buffered = new ArrayList<byte[]>();
+                }
+                buffered.add(bytes);
+                return;
+            }
+            writeBuffered();
+            if (startTLS) {
+                prepareStartTLS();
+            }
+            channel.write(ChannelBuffers.wrappedBuffer(bytes));
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.AbstractProtocolTransport#beginBatch()
+     */
+    public void beginBatch() {
+        synchronized (writeLock) {
+            batches++;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.AbstractProtocolTransport#endBatch()
+     */
+    public void endBatch() {
+        synchronized (writeLock) {
+            if (batches > 0) {
+                batches--;
+            }
+            if (batches == 0) {
+                writeBuffered();
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.AbstractProtocolTransport#flush()
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            writeBuffered();
+        }
+    }
+
+    /**
+     * Write all buffered responses with one gathering write. Must be called while holding the writeLock
+     */
+    private void writeBuffered() {
+        if (buffered != null) {
+            byte[][] responses = buffered.toArray(new byte[buffered.size()][]);
+            buffered = null;
+            channel.write(ChannelBuffers.wrappedBuffer(responses));
         }
-        channel.write(ChannelBuffers.wrappedBuffer(bytes));
-        
     }
 
     @Override
     protected void close() {
+        flush();
         channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
     }
 
 
     @Override
     protected void writeToClient(InputStream in, ProtocolSession session, boolean startTLS) {
+        // the stream is written directly, so the buffered responses must go first
+        flush();
         if (startTLS) {
             prepareStartTLS();
         }
@@ -169,7 +238,52 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      * @see org.apache.james.protocols.api.ProtocolTransport#setReadable(boolean)
      */
     public void setReadable(boolean readable) {
-        channel.setReadable(readable);
+        if (readable) {
+            resumeRequests(Collections.<String>emptyList());
+        } else {
+            suspendRequests(Collections.<String>emptyList());
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.AbstractProtocolTransport#suspendRequests(java.util.Collection)
+     */
+    public void suspendRequests(Collection<String> commands) {
+        RequestQueueHandler queue = getRequestQueue();
+        if (queue != null) {
+            // the lines which were already received get held back too
+            queue.suspend(commands);
+        } else {
+            channel.setReadable(false);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.AbstractProtocolTransport#resumeRequests(java.util.Collection)
+     */
+    public void resumeRequests(Collection<String> commands) {
+        RequestQueueHandler queue = getRequestQueue();
+        if (queue != null) {
+            queue.resume(commands);
+        } else {
+            channel.setReadable(true);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.api.AbstractProtocolTransport#getLineTracker()
+     */
+    public LineTracker getLineTracker() {
+        ChannelHandler framer = channel.getPipeline().get(HandlerConstants.FRAMER);
+        return framer instanceof ChunkAwareFrameDecoder ? ((ChunkAwareFrameDecoder) framer).getLineTracker() : null;
+    }
+
+    private RequestQueueHandler getRequestQueue() {
+        ChannelHandler queue = channel.getPipeline().get(HandlerConstants.REQUEST_QUEUE_HANDLER);
+        return queue instanceof RequestQueueHandler ? (RequestQueueHandler) queue : null;
     }
 
     /*
@@ -177,6 +291,10 @@ public class NettyProtocolTransport extends AbstractProtocolTransport {
      * @see org.apache.james.protocols.api.ProtocolTransport#isReadable()
      */
     public boolean isReadable() {
+        RequestQueueHandler queue = getRequestQueue();
+        if (queue != null && queue.isSuspended()) {
+            return false;
+        }
         return channel.isReadable();
     }
 
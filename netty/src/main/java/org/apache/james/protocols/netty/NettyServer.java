@@ -19,10 +19,13 @@
 package org.apache.james.protocols.netty;
 
 
+import java.util.List;
+
 import javax.net.ssl.SSLContext;
 
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.Encryption;
+import org.apache.james.protocols.api.handler.ChunkLengthParser;
 import org.apache.james.protocols.api.handler.ProtocolHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
@@ -36,6 +39,8 @@ import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
  */
 public class NettyServer extends AbstractAsyncServer {
 
+    private final static PipeliningBatchHandler BATCH_HANDLER = new PipeliningBatchHandler();
+
     protected final Protocol protocol;
     
     private ExecutionHandler eHandler;
@@ -47,6 +52,8 @@ public class NettyServer extends AbstractAsyncServer {
     private int maxCurConnections;
 
     private int maxCurConnectionsPerIP;
+
+    private final TransportStatistics statistics = new TransportStatistics();
    
     public NettyServer(Protocol protocol) {
         this(protocol, null);
@@ -92,6 +99,15 @@ public class NettyServer extends AbstractAsyncServer {
         this.maxCurConnectionsPerIP = maxCurConnectionsPerIP;
     }
     
+    /**
+     * Return the traffic and connection statistics of this server
+     * 
+     * @return statistics
+     */
+    public TransportStatistics getStatistics() {
+        return statistics;
+    }
+    
     protected ChannelUpstreamHandler createCoreHandler() {
         return new BasicChannelUpstreamHandler(protocol, secure);
     }
@@ -106,13 +122,28 @@ public class NettyServer extends AbstractAsyncServer {
     @Override
     protected ChannelPipelineFactory createPipelineFactory(ChannelGroup group) {
 
-        return new AbstractSSLAwareChannelPipelineFactory(getTimeout(), maxCurConnections, maxCurConnectionsPerIP, group, eHandler) {
+        return new AbstractSSLAwareChannelPipelineFactory(getTimeout(), maxCurConnections, maxCurConnectionsPerIP, group, null, eHandler, statistics) {
 
             @Override
             protected ChannelUpstreamHandler createHandler() {
                 return coreHandler;
             }
 
+            @Override
+            protected ChannelUpstreamHandler createPipeliningBatchHandler() {
+                // only the BasicChannelUpstreamHandler knows about the markers
+                return coreHandler instanceof BasicChannelUpstreamHandler ? BATCH_HANDLER : null;
+            }
+
+            @Override
+            protected ChannelUpstreamHandler createFrameHandler() {
+                List<ChunkLengthParser> parsers = protocol.getProtocolChain().getHandlers(ChunkLengthParser.class);
+                if (parsers.isEmpty()) {
+                    return super.createFrameHandler();
+                }
+                return new ChunkAwareFrameDecoder(MAX_LINE_LENGTH, parsers.get(0));
+            }
+
             @Override
             protected boolean isSSLSocket() {
                 return getSSLContext() != null && secure != null && !secure.isStartTLS();
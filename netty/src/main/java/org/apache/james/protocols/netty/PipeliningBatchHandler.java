@@ -0,0 +1,59 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+
+/**
+ * Mark the lines which were received with one read, so they can be processed as one batch. This allows to write the
+ * responses to pipelined commands (RFC 2920) with one write instead of one write per response.
+ * 
+ * This handler must be added directly in front of the {@link FrameDecoder} which splits the received data into lines.
+ * It sends {@link Batch#START} upstream before the received data and {@link Batch#END} after all lines of it were
+ * passed on. Both markers pass the {@link FrameDecoder} and a possible execution handler in order with the lines.
+ * 
+ * This handler is thread-safe and thus can be shared across pipelines
+ */
+@Sharable
+public class PipeliningBatchHandler extends SimpleChannelUpstreamHandler {
+
+    /**
+     * The markers which are sent upstream
+     */
+    public enum Batch {
+        START,
+        END
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        ctx.sendUpstream(new UpstreamMessageEvent(e.getChannel(), Batch.START, e.getRemoteAddress()));
+        try {
+            super.messageReceived(ctx, e);
+        } finally {
+            ctx.sendUpstream(new UpstreamMessageEvent(e.getChannel(), Batch.END, e.getRemoteAddress()));
+        }
+    }
+}
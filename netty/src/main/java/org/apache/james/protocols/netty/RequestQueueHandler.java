@@ -0,0 +1,205 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+
+/**
+ * Holds back the received lines while the processing of the requests is suspended, like while an asynchronous hook is
+ * running or a response is delayed. Suspending to read from the channel is not enough for that, as a client which
+ * pipelines its commands may have sent more lines with the same packet, which the {@link FrameDecoder} passes on
+ * anyway.
+ * 
+ * The held back lines are passed on in order once the processing is resumed. They go through the pipeline as it is
+ * then, so they reach a {@link LineHandlerUpstreamHandler} which was pushed by an earlier line. A suspension may allow
+ * some commands to be processed anyway, as long as no other line was held back before.
+ * 
+ * The markers of the {@link PipeliningBatchHandler} are never held back behind a line, so a batch of requests always
+ * ends and the tasks which wait for its end get run.
+ * 
+ * This handler must be added directly in front of the core handler. It is stateful and so must not be shared across
+ * pipelines.
+ * 
+ * @see AbstractProtocolTransport#suspendRequests(Collection)
+ */
+public class RequestQueueHandler extends SimpleChannelUpstreamHandler {
+
+    private final static int MAX_COMMAND_LENGTH = 16;
+
+    private final LinkedList<MessageEvent> queue = new LinkedList<MessageEvent>();
+    private volatile ChannelHandlerContext ctx;
+
+    // the commands which are still processed, per active suspension
+    private final List<Collection<String>> suspensions = new ArrayList<Collection<String>>();
+    private boolean replaying = false;
+
+    @Override
+    public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        this.ctx = ctx;
+        super.handleUpstream(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        synchronized (queue) {
+            if (replaying || (e.getMessage() instanceof ChannelBuffer && (!queue.isEmpty() || !isProcessable(e)))) {
+                queue.add(e);
+                return;
+            }
+        }
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (queue) {
+            queue.clear();
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * Suspend to process the received lines until {@link #resume(Collection)} is called with the same commands.
+     * Reading from the channel is suspended too.
+     * 
+     * @param commands the commands which are still processed as long as no other line was held back
+     */
+    public void suspend(Collection<String> commands) {
+        synchronized (queue) {
+            suspensions.add(commands);
+            if (ctx != null) {
+                ctx.getChannel().setReadable(false);
+            }
+        }
+    }
+
+    /**
+     * End a suspension which was started with {@link #suspend(Collection)}. Once no suspension is left the lines
+     * which were held back are passed on in order, in the calling thread. If one of them suspends the processing again
+     * the remaining ones are held back until it is resumed.
+     * 
+     * @param commands the commands which were given to {@link #suspend(Collection)}
+     */
+    public void resume(Collection<String> commands) {
+        synchronized (queue) {
+            if (!suspensions.remove(commands) || replaying) {
+                // the thread which replays the lines goes on with them
+                return;
+            }
+            replaying = true;
+        }
+        ChannelHandlerContext ctx = this.ctx;
+        while (true) {
+            MessageEvent e;
+            synchronized (queue) {
+                e = nextProcessable();
+                if (e == null) {
+                    replaying = false;
+                    if (suspensions.isEmpty() && ctx != null) {
+                        ctx.getChannel().setReadable(true);
+                    }
+                    return;
+                }
+            }
+            ctx.sendUpstream(e);
+        }
+    }
+
+    /**
+     * Return <code>true</code> if the processing of the received lines is suspended
+     * 
+     * @return suspended
+     */
+    public boolean isSuspended() {
+        synchronized (queue) {
+            return !suspensions.isEmpty();
+        }
+    }
+
+    /**
+     * Remove and return the next event which can be processed, which is the first line if all suspensions allow it or
+     * the first batch marker otherwise. Must be called while holding the lock of the queue.
+     */
+    private MessageEvent nextProcessable() {
+        if (queue.isEmpty()) {
+            return null;
+        }
+        if (isProcessable(queue.getFirst())) {
+            return queue.removeFirst();
+        }
+        Iterator<MessageEvent> events = queue.iterator();
+        while (events.hasNext()) {
+            MessageEvent e = events.next();
+            if (!(e.getMessage() instanceof ChannelBuffer)) {
+                events.remove();
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return <code>true</code> if the event is not a line or if all suspensions allow the command of the line. Must be
+     * called while holding the lock of the queue.
+     */
+    private boolean isProcessable(MessageEvent e) {
+        if (suspensions.isEmpty() || !(e.getMessage() instanceof ChannelBuffer)) {
+            return true;
+        }
+        String command = getCommand((ChannelBuffer) e.getMessage());
+        for (int i = 0; i < suspensions.size(); i++) {
+            if (!suspensions.get(i).contains(command)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the upper case command of the line, which is everything up to the first space or line break. Only the
+     * start of the line is checked, as it may be a long line of a message.
+     */
+    private static String getCommand(ChannelBuffer line) {
+        int start = line.readerIndex();
+        int end = Math.min(line.writerIndex(), start + MAX_COMMAND_LENGTH);
+        StringBuilder command = new StringBuilder(8);
+        for (int i = start; i < end; i++) {
+            char c = (char) (line.getByte(i) & 0xff);
+            if (c == ' ' || c == '\r' || c == '\n') {
+                break;
+            }
+            command.append(Character.toUpperCase(c));
+        }
+        return command.toString();
+    }
+}
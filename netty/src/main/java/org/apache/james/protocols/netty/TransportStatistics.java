@@ -0,0 +1,217 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.metrics.OpenMetricsWriter;
+import org.apache.james.protocols.api.metrics.StripedCounter;
+
+/**
+ * Traffic and connection statistics of a {@link NettyServer}.
+ *
+ * All counters are {@link StripedCounter}'s, so the IO threads do not contend while updating them and reading
+ * the statistics, via JMX or as OpenMetrics text, does not slow down the IO threads.
+ */
+public class TransportStatistics implements TransportStatisticsMBean {
+
+    private final static long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final StripedCounter bytesRead = new StripedCounter();
+    private final StripedCounter bytesWritten = new StripedCounter();
+    private final StripedCounter opened = new StripedCounter();
+    private final StripedCounter closed = new StripedCounter();
+    private final StripedCounter tlsSessions = new StripedCounter();
+    private final StripedCounter plainSessions = new StripedCounter();
+    private final StripedCounter rejectedByConnectionLimit = new StripedCounter();
+    private final StripedCounter rejectedByConnectionPerIpLimit = new StripedCounter();
+
+    // only accessed by readers while holding the lock
+    private long previousSampleTime = System.nanoTime();
+    private long previousSampleCount = 0;
+    private long sampleTime = previousSampleTime;
+    private long sampleCount = 0;
+
+    void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    void connectionOpened() {
+        opened.increment();
+    }
+
+    void connectionClosed(boolean tls) {
+        closed.increment();
+        if (tls) {
+            tlsSessions.increment();
+        } else {
+            plainSessions.increment();
+        }
+    }
+
+    void rejectedByConnectionLimit() {
+        rejectedByConnectionLimit.increment();
+    }
+
+    void rejectedByConnectionPerIpLimit() {
+        rejectedByConnectionPerIpLimit.increment();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getBytesRead()
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getBytesWritten()
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getAcceptedConnections()
+     */
+    public long getAcceptedConnections() {
+        return opened.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getAcceptRate()
+     */
+    public synchronized double getAcceptRate() {
+        long now = System.nanoTime();
+        long count = opened.get();
+        if (now - sampleTime >= RATE_INTERVAL) {
+            previousSampleTime = sampleTime;
+            previousSampleCount = sampleCount;
+            sampleTime = now;
+            sampleCount = count;
+        }
+        long elapsed = now - previousSampleTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (count - previousSampleCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getCurrentConnections()
+     */
+    public long getCurrentConnections() {
+        // read closed first so a connection which is closed in the meantime is never counted negative
+        long closedCount = closed.get();
+        return Math.max(0, opened.get() - closedCount);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getTLSSessions()
+     */
+    public long getTLSSessions() {
+        return tlsSessions.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getPlainSessions()
+     */
+    public long getPlainSessions() {
+        return plainSessions.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getRejectedByConnectionLimit()
+     */
+    public long getRejectedByConnectionLimit() {
+        return rejectedByConnectionLimit.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.netty.TransportStatisticsMBean#getRejectedByConnectionPerIpLimit()
+     */
+    public long getRejectedByConnectionPerIpLimit() {
+        return rejectedByConnectionPerIpLimit.get();
+    }
+
+    /**
+     * Write the statistics to the given {@link OpenMetricsWriter}
+     *
+     * @param writer
+     * @param prefix the prefix of the metric names, for example <code>smtp</code>
+     * @throws IOException
+     */
+    public void writeOpenMetrics(OpenMetricsWriter writer, String prefix) throws IOException {
+        writer.counter(prefix + "_bytes_read", "Bytes read from clients", getBytesRead());
+        writer.counter(prefix + "_bytes_written", "Bytes written to clients", getBytesWritten());
+        writer.counter(prefix + "_connections_accepted", "Accepted connections", getAcceptedConnections());
+        writer.gauge(prefix + "_connections_accept_rate", "Accepted connections per second", getAcceptRate());
+        writer.gauge(prefix + "_connections_current", "Currently open connections", getCurrentConnections());
+        writer.counter(prefix + "_sessions_tls", "Closed sessions which used TLS", getTLSSessions());
+        writer.counter(prefix + "_sessions_plain", "Closed sessions which did not use TLS", getPlainSessions());
+        writer.counter(prefix + "_connections_rejected_connection_limit", "Connections rejected by the concurrent connection limit", getRejectedByConnectionLimit());
+        writer.counter(prefix + "_connections_rejected_connection_per_ip_limit", "Connections rejected by the concurrent connection per ip limit", getRejectedByConnectionPerIpLimit());
+    }
+
+    /**
+     * Dump the statistics in OpenMetrics text format to the given {@link File}. The content is written to a temporary
+     * file first which is renamed afterwards, so a reader never sees a partial written file.
+     *
+     * @param file
+     * @param prefix the prefix of the metric names, for example <code>smtp</code>
+     * @throws IOException
+     */
+    public void dumpOpenMetrics(File file, String prefix) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            OpenMetricsWriter writer = new OpenMetricsWriter(out);
+            writeOpenMetrics(writer, prefix);
+            writer.eof();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // renameTo fails on some platforms if the target exists
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.ssl.SslHandler;
+
+/**
+ * Update the {@link TransportStatistics} of a server.
+ *
+ * The handler is added as the first handler of the pipeline, so it counts the bytes as they are on the wire. If TLS is
+ * used the {@link SslHandler} is added after it, so the counted bytes are the encrypted ones.
+ *
+ * This handler is thread-safe and thus can be shared across pipelines
+ */
+@Sharable
+public class TransportStatisticsHandler extends SimpleChannelHandler {
+
+    private final TransportStatistics statistics;
+
+    public TransportStatisticsHandler(TransportStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        statistics.connectionOpened();
+        super.channelOpen(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ChannelPipeline pipeline = ctx.getPipeline();
+        statistics.connectionClosed(pipeline.get(SslHandler.class) != null);
+        super.channelClosed(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object message = e.getMessage();
+        if (message instanceof ChannelBuffer) {
+            statistics.bytesRead(((ChannelBuffer) message).readableBytes());
+        }
+        super.messageReceived(ctx, e);
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object message = e.getMessage();
+        if (message instanceof ChannelBuffer) {
+            statistics.bytesWritten(((ChannelBuffer) message).readableBytes());
+        }
+        super.writeRequested(ctx, e);
+    }
+}
@@ -0,0 +1,89 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.netty;
+
+/**
+ * An interface to expose the transport statistics of a {@link NettyServer} through JMX.
+ */
+public interface TransportStatisticsMBean {
+
+    /**
+     * Return the count of bytes which were read from the clients
+     *
+     * @return bytesRead
+     */
+    long getBytesRead();
+
+    /**
+     * Return the count of bytes which were written to the clients
+     *
+     * @return bytesWritten
+     */
+    long getBytesWritten();
+
+    /**
+     * Return the count of accepted connections, including the ones which were rejected by a limit afterwards
+     *
+     * @return accepted
+     */
+    long getAcceptedConnections();
+
+    /**
+     * Return the accepted connections per second, measured over the last 10 to 20 seconds
+     *
+     * @return rate
+     */
+    double getAcceptRate();
+
+    /**
+     * Return the count of currently open connections
+     *
+     * @return current
+     */
+    long getCurrentConnections();
+
+    /**
+     * Return the count of closed sessions which used TLS, either directly or via STARTTLS
+     *
+     * @return tlsSessions
+     */
+    long getTLSSessions();
+
+    /**
+     * Return the count of closed sessions which did not use TLS
+     *
+     * @return plainSessions
+     */
+    long getPlainSessions();
+
+    /**
+     * Return the count of connections which were closed because the max concurrent connections were reached
+     *
+     * @return rejected
+     */
+    long getRejectedByConnectionLimit();
+
+    /**
+     * Return the count of connections which were closed because the max concurrent connections per ip were reached
+     *
+     * @return rejected
+     */
+    long getRejectedByConnectionPerIpLimit();
+}
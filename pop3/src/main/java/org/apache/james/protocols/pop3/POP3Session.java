@@ -19,8 +19,12 @@
 
 package org.apache.james.protocols.pop3;
 
+import java.util.List;
+
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
 
 /**
  * All the handlers access this interface to communicate with POP3Handler object
@@ -32,6 +36,11 @@ public interface POP3Session extends ProtocolSession {
     final static String DELETED_UID_LIST = "DELETED_UID_LIST";
     final static String APOP_TIMESTAMP = "APOP_TIMESTAMP";
 
+    // Typed keys for the data above, which don't need to hash the name on every access
+    final static AttachmentKey<List<MessageMetaData>> UID_LIST_KEY = AttachmentKey.of(UID_LIST, List.class);
+    final static AttachmentKey<List<String>> DELETED_UID_LIST_KEY = AttachmentKey.of(DELETED_UID_LIST, List.class);
+    final static AttachmentKey<String> APOP_TIMESTAMP_KEY = AttachmentKey.of(APOP_TIMESTAMP, String.class);
+
     // Authentication states for the POP3 interaction
     /** Waiting for user id */
     final static int AUTHENTICATION_READY = 0;
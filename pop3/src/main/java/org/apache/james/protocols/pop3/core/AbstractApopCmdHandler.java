@@ -42,7 +42,7 @@ public abstract class AbstractApopCmdHandler extends AbstractPassCmdHandler{
     
     @Override
     public Response onCommand(POP3Session session, Request request) {
-        if (session.getAttachment(POP3Session.APOP_TIMESTAMP, State.Connection) == null) {
+        if (session.getAttachment(POP3Session.APOP_TIMESTAMP_KEY, State.Connection) == null) {
             // APOP timestamp was not found in the session so APOP is not supported
             return POP3Response.ERR;
         }
@@ -85,7 +85,7 @@ public abstract class AbstractApopCmdHandler extends AbstractPassCmdHandler{
      * @see org.apache.james.protocols.pop3.core.AbstractPassCmdHandler#auth(org.apache.james.protocols.pop3.POP3Session, java.lang.String, java.lang.String)
      */
     protected final Mailbox auth(POP3Session session, String username, String password) throws Exception {
-        return auth(session, (String)session.getAttachment(POP3Session.APOP_TIMESTAMP, State.Connection), username, password);
+        return auth(session, session.getAttachment(POP3Session.APOP_TIMESTAMP_KEY, State.Connection), username, password);
     }
 
 
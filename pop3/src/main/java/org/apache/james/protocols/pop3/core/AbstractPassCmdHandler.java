@@ -26,6 +26,7 @@ import java.util.Collections;
 
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.cache.CredentialCache;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
 import org.apache.james.protocols.pop3.mailbox.Mailbox;
@@ -38,6 +39,19 @@ public abstract class AbstractPassCmdHandler extends RsetCmdHandler {
     private static final Response UNEXPECTED_ERROR = new POP3Response(POP3Response.ERR_RESPONSE, "Unexpected error accessing mailbox").immutable();
     protected static final Response AUTH_FAILED = new POP3Response(POP3Response.ERR_RESPONSE, "Authentication failed.").immutable();
 
+    private volatile CredentialCache credentialCache;
+
+    /**
+     * Set the {@link CredentialCache} which remembers successful authentications. It is only used if
+     * {@link #supportsOpenMailbox()} returns <code>true</code>. Use <code>null</code> to disable it, which is the
+     * default.
+     * 
+     * @param credentialCache
+     */
+    public void setCredentialCache(CredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
     /**
      * Handler method called upon receipt of a PASS command. Reads in and
      * validates the password.
@@ -63,7 +77,18 @@ public abstract class AbstractPassCmdHandler extends RsetCmdHandler {
      */
     protected final Response doAuth(POP3Session session, String user, String pass) {
         try {
-            Mailbox mailbox = auth(session, user, pass);
+            // without a way to open the mailbox of a cached user the cache would only add work
+            CredentialCache credentialCache = supportsOpenMailbox() ? this.credentialCache : null;
+            Mailbox mailbox = null;
+            if (credentialCache != null && credentialCache.verify(user, pass)) {
+                mailbox = openMailbox(session, user);
+            }
+            if (mailbox == null) {
+                mailbox = auth(session, user, pass);
+                if (mailbox != null && credentialCache != null) {
+                    credentialCache.store(user, pass);
+                }
+            }
 
             if (mailbox != null) {
                 session.setUserMailbox(mailbox);
@@ -102,4 +127,28 @@ public abstract class AbstractPassCmdHandler extends RsetCmdHandler {
      * 
      */
     protected abstract Mailbox auth(POP3Session session, String username, String password) throws Exception;
+
+    /**
+     * Return <code>true</code> if {@link #openMailbox(POP3Session, String)} is implemented, so the
+     * {@link CredentialCache} can be used. This implementation returns <code>false</code>.
+     * 
+     * @return supported
+     */
+    protected boolean supportsOpenMailbox() {
+        return false;
+    }
+
+    /**
+     * Return the {@link Mailbox} of an user whose credentials were already verified by the {@link CredentialCache},
+     * without authenticating against the backend again. Subclasses which implement it must also override
+     * {@link #supportsOpenMailbox()}. If <code>null</code> is returned {@link #auth(POP3Session, String, String)} is
+     * called instead, which is what this implementation does.
+     * 
+     * @param session
+     * @param username
+     * @return mailbox
+     */
+    protected Mailbox openMailbox(POP3Session session, String username) throws Exception {
+        return null;
+    }
 }
@@ -45,7 +45,6 @@ public class DeleCmdHandler implements CommandHandler<POP3Session> {
      * Handler method called upon receipt of a DELE command. This command
      * deletes a particular mail message from the mailbox.
      */
-    @SuppressWarnings("unchecked")
     public Response onCommand(POP3Session session, Request request) {
         if (session.getHandlerState() == POP3Session.TRANSACTION) {
             int num = 0;
@@ -60,7 +59,7 @@ public class DeleCmdHandler implements CommandHandler<POP3Session> {
                     StringBuilder responseBuffer = new StringBuilder(64).append("Message (").append(num).append(") does not exist.");
                     return  new POP3Response(POP3Response.ERR_RESPONSE, responseBuffer.toString());
                 }
-                List<String> deletedUidList = (List<String>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
+                List<String> deletedUidList = session.getAttachment(POP3Session.DELETED_UID_LIST_KEY, State.Transaction);
 
                 String uid = meta.getUid();
 
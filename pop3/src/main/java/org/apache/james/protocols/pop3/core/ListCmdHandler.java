@@ -50,11 +50,10 @@ public class ListCmdHandler implements CommandHandler<POP3Session> {
      *            the request to process
      */
 
-    @SuppressWarnings("unchecked")
     public Response onCommand(POP3Session session, Request request) {
         String parameters = request.getArgument();
-        List<MessageMetaData> uidList = (List<MessageMetaData>) session.getAttachment(POP3Session.UID_LIST, State.Transaction);
-        List<String> deletedUidList = (List<String>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
+        List<MessageMetaData> uidList = session.getAttachment(POP3Session.UID_LIST_KEY, State.Transaction);
+        List<String> deletedUidList = session.getAttachment(POP3Session.DELETED_UID_LIST_KEY, State.Transaction);
 
         if (session.getHandlerState() == POP3Session.TRANSACTION) {
             POP3Response response = null;
@@ -48,7 +48,6 @@ public class RetrCmdHandler implements CommandHandler<POP3Session> {
      * Handler method called upon receipt of a RETR command. This command
      * retrieves a particular mail message from the mailbox.
      */
-    @SuppressWarnings("unchecked")
     public Response onCommand(POP3Session session, Request request) {
         POP3Response response = null;
         String parameters = request.getArgument();
@@ -67,7 +66,7 @@ public class RetrCmdHandler implements CommandHandler<POP3Session> {
                     response = new POP3Response(POP3Response.ERR_RESPONSE, responseBuffer.toString());
                     return response;
                 }
-                List<String> deletedUidList = (List<String>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
+                List<String> deletedUidList = session.getAttachment(POP3Session.DELETED_UID_LIST_KEY, State.Transaction);
 
                 String uid = data.getUid();
                 if (deletedUidList.contains(uid) == false) {
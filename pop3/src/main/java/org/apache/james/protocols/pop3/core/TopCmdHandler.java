@@ -55,7 +55,6 @@ public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
      * The expected command format is TOP [mail message number] [number of lines
      * to return]
      */
-    @SuppressWarnings("unchecked")
     @Override
     public Response onCommand(POP3Session session, Request request) {
         String parameters = request.getArgument();
@@ -88,7 +87,7 @@ public class TopCmdHandler extends RetrCmdHandler implements CapaCapability {
                     return  new POP3Response(POP3Response.ERR_RESPONSE, responseBuffer.toString());
                 }
                 
-                List<String> deletedUidList = (List<String>) session.getAttachment(POP3Session.DELETED_UID_LIST, State.Transaction);
+                List<String> deletedUidList = session.getAttachment(POP3Session.DELETED_UID_LIST_KEY, State.Transaction);
 
                 String uid = data.getUid();
                 if (deletedUidList.contains(uid) == false) {
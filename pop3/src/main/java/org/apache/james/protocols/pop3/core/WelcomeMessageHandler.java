@@ -38,7 +38,7 @@ public class WelcomeMessageHandler implements ConnectHandler<POP3Session> {
         responseBuffer.append("<").append(session.getSessionID()).append(".").append(System.currentTimeMillis()).append("@").append(session.getConfiguration().getHelloName()).append("> ");
         
         // store the timestamp for later usage
-        session.setAttachment(POP3Session.APOP_TIMESTAMP, responseBuffer.toString(), State.Connection);
+        session.setAttachment(POP3Session.APOP_TIMESTAMP_KEY, responseBuffer.toString(), State.Connection);
         
         // complete the response banner and send it back to the client
         responseBuffer.append("POP3 server (").append(session.getConfiguration().getSoftwareName()).append(") ready ");
@@ -36,6 +36,7 @@ import org.apache.commons.net.pop3.POP3MessageInfo;
 import org.apache.commons.net.pop3.POP3Reply;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.ProtocolServer;
+import org.apache.james.protocols.api.cache.CredentialCache;
 import org.apache.james.protocols.api.handler.WiringException;
 import org.apache.james.protocols.api.utils.MockLogger;
 import org.apache.james.protocols.api.utils.TestUtils;
@@ -118,6 +119,43 @@ public abstract class AbstractPOP3ServerTest {
         
     }
     
+    @Test
+    public void testCachedAuth() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        try {
+            CredentialCache cache = new CredentialCache();
+            cache.setIterations(10);
+            TestPassCmdHandler handler = new TestPassCmdHandler();
+            handler.setCredentialCache(cache);
+            
+            handler.add("valid", new MockMailbox("id"));
+            server = createServer(createProtocol(handler), address);
+            server.bind();
+            
+            for (int i = 0; i < 2; i++) {
+                POP3Client client =  createClient();
+                client.connect(address.getAddress().getHostAddress(), address.getPort());
+                
+                assertTrue(client.login("valid", "valid"));
+                assertEquals(0, client.listMessages().length);
+                assertTrue(client.logout());
+                client.disconnect();
+            }
+            
+            // the first login was stored, the second one was verified by the cache
+            assertTrue(cache.verify("valid", "valid"));
+            assertEquals(2.0 / 3, cache.getHitRate(), 0.0001);
+           
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+        
+    }
+    
     @Test
     public void testInboxWithMessages() throws Exception {
         InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
@@ -36,4 +36,14 @@ public class TestPassCmdHandler extends AbstractPassCmdHandler {
         return mailboxes.get(username);
     }
 
+    @Override
+    protected boolean supportsOpenMailbox() {
+        return true;
+    }
+
+    @Override
+    protected Mailbox openMailbox(POP3Session session, String username) throws Exception {
+        return mailboxes.get(username);
+    }
+
 }
@@ -0,0 +1,181 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Digest of the content of a message which is computed while the message is received. Two transmissions of the same
+ * message get the same digest, even if they were received at different times or over different hops.
+ * 
+ * The header fields are normalized before they are digested: the names are compared case-insensitive, the values
+ * are unfolded and runs of whitespace are replaced by a single space. Trace fields (Received and Return-Path) and
+ * fields which were added by the server are left out. The body is digested as it was received, without the
+ * dot-stuffing.
+ * 
+ * This class is not thread-safe.
+ */
+public class ContentDigest {
+
+    /**
+     * The default algorithm which is used to compute the digest
+     */
+    public final static String DEFAULT_ALGORITHM = "SHA-256";
+
+    private final static byte[] SEPARATOR = new byte[] { '\r', '\n' };
+
+    private final MessageDigest digest;
+    private boolean headersDigested;
+    private boolean incomplete;
+
+    /**
+     * Create a new {@link ContentDigest} which uses the given algorithm
+     * 
+     * @param algorithm
+     * @throws NoSuchAlgorithmException
+     */
+    public ContentDigest(String algorithm) throws NoSuchAlgorithmException {
+        this.digest = MessageDigest.getInstance(algorithm);
+    }
+
+    /**
+     * Compute the digest of the given message at once
+     * 
+     * @param algorithm
+     * @param env
+     * @return digest or <code>null</code>
+     * @throws NoSuchAlgorithmException
+     * @throws IOException
+     */
+    public static String compute(String algorithm, MailEnvelope env) throws NoSuchAlgorithmException, IOException {
+        ContentDigest digest = new ContentDigest(algorithm);
+        InputStream in = env.getMessageInputStream();
+        try {
+            // parsing the headers leaves the stream at the start of the body
+            digest.updateHeaders(MessageHeaders.parse(in));
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                digest.digest.update(buf, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.getDigest();
+    }
+
+    /**
+     * Add the header fields to the digest. This must be called once, before the first line of the body is added.
+     * Later calls are ignored.
+     * 
+     * @param headers
+     */
+    public void updateHeaders(MessageHeaders headers) {
+        if (headersDigested) {
+            return;
+        }
+        headersDigested = true;
+        if (headers.isTruncated()) {
+            // messages which only differ in the fields which were not indexed must not get the same digest
+            incomplete = true;
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.getName(i);
+            if (!headers.isReceived(i) || name.equalsIgnoreCase("Received") || name.equalsIgnoreCase("Return-Path")) {
+                continue;
+            }
+            sb.append(name.toLowerCase(Locale.US)).append(':');
+            String value = headers.getValue(i);
+            boolean whitespace = false;
+            for (int a = 0; a < value.length(); a++) {
+                char c = value.charAt(a);
+                if (c == ' ' || c == '\t') {
+                    whitespace = true;
+                } else {
+                    if (whitespace) {
+                        sb.append(' ');
+                        whitespace = false;
+                    }
+                    sb.append(c);
+                }
+            }
+            sb.append("\r\n");
+        }
+        try {
+            digest.update(sb.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("NO UTF-8 support ?", e);
+        }
+        digest.update(SEPARATOR);
+    }
+
+    /**
+     * Return <code>true</code> once the header fields were added
+     * 
+     * @return headersDigested
+     */
+    public boolean isHeadersDigested() {
+        return headersDigested;
+    }
+
+    /**
+     * Add the given line of the body to the digest. The position of the line is not changed.
+     * 
+     * @param line
+     */
+    public void updateBody(ByteBuffer line) {
+        ByteBuffer copy = line.duplicate();
+        if (copy.hasArray()) {
+            digest.update(copy.array(), copy.arrayOffset() + copy.position(), copy.remaining());
+        } else {
+            byte[] bytes = new byte[copy.remaining()];
+            copy.get(bytes);
+            digest.update(bytes);
+        }
+    }
+
+    /**
+     * Finish the digest and return it as lower case hex string. The {@link ContentDigest} can not be used anymore
+     * afterwards. If the headers were too big to be indexed completely, <code>null</code> is returned.
+     * 
+     * @return digest
+     */
+    public String getDigest() {
+        if (incomplete) {
+            return null;
+        }
+        byte[] bytes = digest.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+}
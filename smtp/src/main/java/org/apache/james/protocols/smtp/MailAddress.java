@@ -56,15 +56,38 @@ import java.util.Locale;
  * from RFC 821 on page 30 and 31, section 4.1.2. COMMAND SYNTAX.
  * http://www.freesoft.org/CIE/RFC/821/15.htm</p>
  *
+ * <p>The parser works on the characters of the address without copying them into buffers first. The canonical
+ * and the lower case form of the address are cached, and the domains are shared between the addresses through a
+ * small cache, as most addresses of a server belong to a few domains.</p>
+ *
  * <strong>This version is copied from mailet-api with a few changes to not make it depend on javamail</strong>
  */
 public class MailAddress {
 
-    private final static char[] SPECIAL =
-    {'<', '>', '(', ')', '[', ']', '\\', '.', ',', ';', ':', '@', '\"'};
+    // <special> ::= "<" | ">" | "(" | ")" | "[" | "]" | "\" | "." | "," | ";" | ":" | "@"  """
+    private final static boolean[] SPECIAL = new boolean[128];
+
+    // size of the domain cache, must be a power of two
+    private final static int DOMAIN_CACHE_SIZE = 1024;
+
+    // direct-mapped cache of domains. A slot is overwritten if another domain maps to it, so it never grows. The
+    // unsynchronized access is safe as Strings are immutable
+    private final static String[] DOMAINS = new String[DOMAIN_CACHE_SIZE];
+
+    static {
+        char[] special = {'<', '>', '(', ')', '[', ']', '\\', '.', ',', ';', ':', '@', '\"'};
+        for (int i = 0; i < special.length; i++) {
+            SPECIAL[special[i]] = true;
+        }
+    }
 
-    private String localPart = null;
-    private String domain = null;
+    // the canonical form local-part@domain
+    private String address;
+    // the index of the @ in the address
+    private int at;
+    private String domain;
+    private String localPart;
+    private String lowerCase;
 
     private static final MailAddress NULL_SENDER = new MailAddress() {
 
@@ -94,20 +117,42 @@ public class MailAddress {
      * Strips source routing. According to RFC-2821 it is a valid approach
      * to handle mails containing RFC-821 source-route information.
      * 
+     * A source route which is not valid is not stripped, so the address is rejected as missing its local-part.
+     * 
      * @param address the address to strip
-     * @param pos current position
-     * @return new pos
+     * @param start the start of the address
+     * @param end the end of the address
+     * @return the position after the source route or start if there is none
      */
-    private int stripSourceRoute(String address, int pos) {
-        if (pos < address.length()) {
-            if (address.charAt(pos)=='@') { 
-                int i = address.indexOf(':');
-                if (i != -1) {
-                    pos = i+1;
+    private static int stripSourceRoute(CharSequence address, int start, int end) {
+        //<A-d-l> ::= <at-domain> | <at-domain> "," <A-d-l>
+        //<at-domain> ::= "@" <domain>
+        int pos = start;
+        while (pos < end && address.charAt(pos) == '@') {
+            pos++;
+            int labelStart = pos;
+            while (pos < end) {
+                char c = address.charAt(pos);
+                if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-') {
+                    pos++;
+                    continue;
+                }
+                if (pos == labelStart || address.charAt(labelStart) == '-' || address.charAt(pos - 1) == '-') {
+                    return start;
                 }
+                if (c == ':') {
+                    return pos + 1;
+                } else if (c == ',') {
+                    pos++;
+                    break;
+                } else if (c != '.') {
+                    return start;
+                }
+                pos++;
+                labelStart = pos;
             }
         }
-        return pos;
+        return start;
     }
     
     public static MailAddress nullSender() {
@@ -115,8 +160,11 @@ public class MailAddress {
     }
     
     private MailAddress() {
-        
+        address = "";
+        domain = "";
+        localPart = "";
     }
+
     /**
      * Constructs a MailAddress by parsing the provided address.
      *
@@ -124,87 +172,180 @@ public class MailAddress {
      * @throws MailAddressException if the parse failed
      */
     public MailAddress(String address) throws MailAddressException {
-        address = address.trim();
-        int pos = 0;
-        
+        this(address, 0, address.length());
+    }
+
+    /**
+     * Constructs a MailAddress by parsing the given range of the provided characters. Leading and trailing whitespace
+     * is ignored.
+     *
+     * @param address the characters which contain the email address, compliant to the RFC2822 3.4.1. addr-spec
+     *        specification
+     * @param start the index of the first character of the address
+     * @param end the index after the last character of the address
+     * @throws MailAddressException if the parse failed
+     */
+    public MailAddress(CharSequence address, int start, int end) throws MailAddressException {
+        while (start < end && address.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && address.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        parse(address, start, end);
+    }
+
+    /**
+     * Constructs a MailAddress with the provided local part and domain.
+     *
+     * @param localPart the local-part portion. This is a domain dependent string.
+     *        In addresses, it is simply interpreted on the particular host as a
+     *        name of a particular mailbox. per RFC2822 3.4.1. addr-spec specification
+     * @param domain the domain portion. This identifies the point to which the mail
+     *        is delivered  per RFC2822 3.4.1. addr-spec specification
+     * @throws AddressException if the parse failed
+     */
+    public MailAddress(String localPart, String domain) throws MailAddressException {
+        this(localPart+"@"+domain);
+    }
+
+    private void parse(CharSequence address, int start, int end) throws MailAddressException {
         // Test if mail address has source routing information (RFC-821) and get rid of it!!
         //must be called first!! (or at least prior to updating pos)
-        stripSourceRoute(address, pos);
+        // the positions in errors are still relative to the start of the whole address
+        int local = stripSourceRoute(address, start, end);
+        int pos = local;
+        int at;
+        boolean escaped = false;
 
-        StringBuffer localPartSB = new StringBuffer();
-        StringBuffer domainSB = new StringBuffer();
         //Begin parsing
         //<mailbox> ::= <local-part> "@" <domain>
-
         try {
             //parse local-part
             //<local-part> ::= <dot-string> | <quoted-string>
-            if (address.charAt(pos) == '\"') {
-                pos = parseQuotedLocalPart(localPartSB, address, pos);
-                if (localPartSB.toString().length() == 2) {
-                    throw new MailAddressException("No quoted local-part (user account) found at position " + (pos + 2) + " in '" + address + "'",address,pos+2);
+            if (charAt(address, pos, end) == '\"') {
+                pos = parseQuotedLocalPart(address, pos, start, end);
+                if (pos - local == 2) {
+                    throw exception("No quoted local-part (user account) found at position ", address, start, end, pos + 2);
                 }
             } else {
-                pos = parseUnquotedLocalPart(localPartSB, address, pos);
-                if (localPartSB.toString().length() == 0) {
-                    throw new MailAddressException("No local-part (user account) found at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                pos = parseUnquotedLocalPart(address, pos, start, end);
+                if (pos == local) {
+                    throw exception("No local-part (user account) found at position ", address, start, end, pos + 1);
                 }
             }
 
             //find @
-            if (pos >= address.length() || address.charAt(pos) != '@') {
-                throw new MailAddressException("Did not find @ between local-part and domain at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (pos >= end || address.charAt(pos) != '@') {
+                throw exception("Did not find @ between local-part and domain at position ", address, start, end, pos + 1);
             }
+            at = pos;
             pos++;
 
             //parse domain
             //<domain> ::=  <element> | <element> "." <domain>
             //<element> ::= <name> | "#" <number> | "[" <dotnum> "]"
             while (true) {
-                if (address.charAt(pos) == '#') {
-                    pos = parseNumber(domainSB, address, pos);
-                } else if (address.charAt(pos) == '[') {
-                    pos = parseDomainLiteral(domainSB, address, pos);
+                char c = charAt(address, pos, end);
+                if (c == '#') {
+                    //<number> ::= <d> | <d> <number>
+                    throw exception("In domain, did not find a number in # address at position ", address, start, end, pos + 1);
+                } else if (c == '[') {
+                    int literalStart = pos;
+                    pos = parseDomainLiteral(address, pos, start, end);
+                    escaped |= indexOf(address, '\\', literalStart, pos) != -1;
                 } else {
-                    pos = parseDomain(domainSB, address, pos);
+                    pos = parseDomain(address, pos, start, end);
                 }
-                if (pos >= address.length()) {
+                if (pos >= end) {
                     break;
                 }
                 if (address.charAt(pos) == '.') {
-                    domainSB.append('.');
                     pos++;
                     continue;
                 }
                 break;
             }
 
-            if (domainSB.toString().length() == 0) {
-                throw new MailAddressException("No domain found at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (pos == at + 1) {
+                throw exception("No domain found at position ", address, start, end, pos + 1);
             }
         } catch (IndexOutOfBoundsException ioobe) {
-            throw new MailAddressException("Out of data at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            throw exception("Out of data at position ", address, start, end, pos + 1);
         }
 
-        localPart = localPartSB.toString();
-        domain = domainSB.toString();
+        String text;
+        if (escaped) {
+            // the irrelevant '\' in a domain-literal are thrown away
+            StringBuilder sb = new StringBuilder(pos - local);
+            for (int i = local; i < pos; i++) {
+                char c = address.charAt(i);
+                if (i <= at || c != '\\') {
+                    sb.append(c);
+                }
+            }
+            text = sb.toString();
+        } else if (address instanceof String && local == 0 && pos == address.length()) {
+            // no need to copy the address
+            text = (String) address;
+        } else {
+            text = address.subSequence(local, pos).toString();
+        }
+        this.address = text;
+        this.at = at - local;
+
+        int domainStart = this.at + 1;
+        int domainEnd = text.length();
+        if (text.charAt(domainStart) == '[' && text.charAt(domainEnd - 1) == ']') {
+            // the braces of a domain-literal are stripped
+            domainStart++;
+            domainEnd--;
+        }
+        this.domain = domain(text, domainStart, domainEnd);
     }
 
     /**
-     * Constructs a MailAddress with the provided local part and domain.
-     *
-     * @param localPart the local-part portion. This is a domain dependent string.
-     *        In addresses, it is simply interpreted on the particular host as a
-     *        name of a particular mailbox. per RFC2822 3.4.1. addr-spec specification
-     * @param domain the domain portion. This identifies the point to which the mail
-     *        is delivered  per RFC2822 3.4.1. addr-spec specification
-     * @throws AddressException if the parse failed
+     * Return the shared instance of the domain in the given range of the address
      */
-    public MailAddress(String localPart, String domain) throws MailAddressException {
-        this(localPart+"@"+domain);
+    private static String domain(String address, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + address.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (DOMAIN_CACHE_SIZE - 1);
+        String cached = DOMAINS[index];
+        int length = end - start;
+        if (cached != null && cached.length() == length && address.regionMatches(start, cached, 0, length)) {
+            return cached;
+        }
+        String domain = address.substring(start, end);
+        DOMAINS[index] = domain;
+        return domain;
     }
 
+    /**
+     * Return the character at the given position or throw an {@link IndexOutOfBoundsException} if the end is reached
+     */
+    private static char charAt(CharSequence address, int pos, int end) {
+        if (pos >= end) {
+            throw new IndexOutOfBoundsException();
+        }
+        return address.charAt(pos);
+    }
 
+    private static int indexOf(CharSequence address, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (address.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static MailAddressException exception(String message, CharSequence address, int start, int end, int pos) {
+        String text = address.subSequence(start, end).toString();
+        return new MailAddressException(message + (pos - start) + " in '" + text + "'", text, pos - start);
+    }
     
     /**
      * Returns the domain part per RFC2822 3.4.1. addr-spec specification.
@@ -215,10 +356,7 @@ public class MailAddress {
      * 
      */
     public String getDomain() {
-        if (!(domain.startsWith("[") && domain.endsWith("]"))) {
-            return domain;
-        } 
-        return domain.substring(1, domain.length() -1);
+        return domain;
     }
 
 
@@ -236,17 +374,32 @@ public class MailAddress {
      * @since Mailet API 2.4
      */
     public String getLocalPart() {
+        String localPart = this.localPart;
+        if (localPart == null) {
+            localPart = address.substring(0, at);
+            this.localPart = localPart;
+        }
         return localPart;
     }
 
     @Override
     public String toString() {
-        StringBuffer addressBuffer =
-            new StringBuffer(128)
-                    .append(localPart)
-                    .append("@")
-                    .append(domain);
-        return addressBuffer.toString();
+        return address;
+    }
+
+    /**
+     * Return the address in lower case, as it is used to compare addresses. The result is cached, so it is cheap to
+     * call this method several times.
+     * 
+     * @return lowerCase
+     */
+    public String toLowerCase() {
+        String lowerCase = this.lowerCase;
+        if (lowerCase == null) {
+            lowerCase = toString().toLowerCase(Locale.US);
+            this.lowerCase = lowerCase;
+        }
+        return lowerCase;
     }
     
     
@@ -262,7 +415,9 @@ public class MailAddress {
      */
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
+        if (obj == this) {
+            return true;
+        } else if (obj == null) {
             return false;
         } else if (obj instanceof String) {
             String theString = (String)obj;
@@ -285,70 +440,60 @@ public class MailAddress {
      */
     @Override
     public int hashCode() {
-        return toString().toLowerCase(Locale.US).hashCode();
+        return toLowerCase().hashCode();
     }
 
-    private int parseQuotedLocalPart(StringBuffer lpSB, String address, int pos) throws MailAddressException {
-        StringBuffer resultSB = new StringBuffer();
-        resultSB.append('\"');
+    private static int parseQuotedLocalPart(CharSequence address, int pos, int start, int end) throws MailAddressException {
         pos++;
         //<quoted-string> ::=  """ <qtext> """
         //<qtext> ::=  "\" <x> | "\" <x> <qtext> | <q> | <q> <qtext>
         while (true) {
-            if (address.charAt(pos) == '\"') {
-                resultSB.append('\"');
+            char c = charAt(address, pos, end);
+            if (c == '\"') {
                 //end of quoted string... move forward
                 pos++;
                 break;
             }
-            if (address.charAt(pos) == '\\') {
-                resultSB.append('\\');
+            if (c == '\\') {
                 pos++;
                 //<x> ::= any one of the 128 ASCII characters (no exceptions)
-                char x = address.charAt(pos);
-                if (x < 0 || x > 127) {
-                    throw new MailAddressException("Invalid \\ syntaxed character at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                char x = charAt(address, pos, end);
+                if (x > 127) {
+                    throw exception("Invalid \\ syntaxed character at position ", address, start, end, pos + 1);
                 }
-                resultSB.append(x);
                 pos++;
             } else {
                 //<q> ::= any one of the 128 ASCII characters except <CR>,
                 //<LF>, quote ("), or backslash (\)
-                char q = address.charAt(pos);
-                if (q <= 0 || q == '\n' || q == '\r' || q == '\"' || q == '\\') {
-                    throw new MailAddressException("Unquoted local-part (user account) must be one of the 128 ASCI characters exception <CR>, <LF>, quote (\"), or backslash (\\) at position " + (pos + 1) + " in '" + address + "'", address, pos+1);
+                if (c == 0 || c == '\n' || c == '\r') {
+                    throw exception("Unquoted local-part (user account) must be one of the 128 ASCI characters exception <CR>, <LF>, quote (\"), or backslash (\\) at position ", address, start, end, pos + 1);
                 }
-                resultSB.append(q);
                 pos++;
             }
         }
-        lpSB.append(resultSB);
         return pos;
     }
 
-    private int parseUnquotedLocalPart(StringBuffer lpSB, String address, int pos) throws MailAddressException {
-        StringBuffer resultSB = new StringBuffer();
+    private static int parseUnquotedLocalPart(CharSequence address, int pos, int start, int end) throws MailAddressException {
         //<dot-string> ::= <string> | <string> "." <dot-string>
         boolean lastCharDot = false;
         while (true) {
             //<string> ::= <char> | <char> <string>
             //<char> ::= <c> | "\" <x>
-            if (address.charAt(pos) == '\\') {
-                resultSB.append('\\');
+            char c = charAt(address, pos, end);
+            if (c == '\\') {
                 pos++;
                 //<x> ::= any one of the 128 ASCII characters (no exceptions)
-                char x = address.charAt(pos);
-                if (x < 0 || x > 127) {
-                    throw new MailAddressException("Invalid \\ syntaxed character at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                char x = charAt(address, pos, end);
+                if (x > 127) {
+                    throw exception("Invalid \\ syntaxed character at position ", address, start, end, pos + 1);
                 }
-                resultSB.append(x);
                 pos++;
                 lastCharDot = false;
-            } else if (address.charAt(pos) == '.') {
-                resultSB.append('.');
+            } else if (c == '.') {
                 pos++;
                 lastCharDot = true;
-            } else if (address.charAt(pos) == '@') {
+            } else if (c == '@') {
                 //End of local-part
                 break;
             } else {
@@ -359,60 +504,30 @@ public class MailAddress {
                 //    characters (ASCII codes 0 through 31 inclusive and
                 //    127)
                 //<SP> ::= the space character (ASCII code 32)
-                char c = address.charAt(pos);
-                if (c <= 31 || c >= 127 || c == ' ') {
-                    throw new MailAddressException("Invalid character in local-part (user account) at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                if (c <= 31 || c >= 127 || c == ' ' || SPECIAL[c]) {
+                    throw exception("Invalid character in local-part (user account) at position ", address, start, end, pos + 1);
                 }
-                for (int i = 0; i < SPECIAL.length; i++) {
-                    if (c == SPECIAL[i]) {
-                        throw new MailAddressException("Invalid character in local-part (user account) at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
-                    }
-                }
-                resultSB.append(c);
                 pos++;
                 lastCharDot = false;
             }
         }
         if (lastCharDot) {
-            throw new MailAddressException("local-part (user account) ended with a \".\", which is invalid in address '" + address + "'",address,pos);
+            String text = address.subSequence(start, end).toString();
+            throw new MailAddressException("local-part (user account) ended with a \".\", which is invalid in address '" + text + "'", text, pos - start);
         }
-        lpSB.append(resultSB);
         return pos;
     }
 
-    private int parseNumber(StringBuffer dSB, String address, int pos) throws MailAddressException {
-        //<number> ::= <d> | <d> <number>
-
-        StringBuffer resultSB = new StringBuffer();
-        //We keep the position from the class level pos field
-        while (true) {
-            if (pos >= address.length()) {
-                break;
-            }
-            //<d> ::= any one of the ten digits 0 through 9
-            char d = address.charAt(pos);
-            if (d == '.') {
-                break;
-            }
-            if (d < '0' || d > '9') {
-                throw new MailAddressException("In domain, did not find a number in # address at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
-            }
-            resultSB.append(d);
+    private static int skipBackslashes(CharSequence address, int pos, int end) {
+        while (pos < end && address.charAt(pos) == '\\') {
             pos++;
         }
-        dSB.append(resultSB);
         return pos;
     }
 
-    private int parseDomainLiteral(StringBuffer dSB, String address, int pos) throws MailAddressException {
-        //throw away all irrelevant '\' they're not necessary for escaping of '.' or digits, and are illegal as part of the domain-literal
-        while(address.indexOf("\\")>-1){
-             address= address.substring(0,address.indexOf("\\")) + address.substring(address.indexOf("\\")+1);
-        }
-        StringBuffer resultSB = new StringBuffer();
+    private static int parseDomainLiteral(CharSequence address, int pos, int start, int end) throws MailAddressException {
+        //irrelevant '\' are skipped, they're not necessary for escaping of '.' or digits, and are illegal as part of the domain-literal
         //we were passed the string with pos pointing the the [ char.
-        // take the first char ([), put it in the result buffer and increment pos
-        resultSB.append(address.charAt(pos));
         pos++;
 
         //<dotnum> ::= <snum> "." <snum> "." <snum> "." <snum>
@@ -420,9 +535,11 @@ public class MailAddress {
             //<snum> ::= one, two, or three digits representing a decimal
             //                      integer value in the range 0 through 255
             //<d> ::= any one of the ten digits 0 through 9
-            StringBuffer snumSB = new StringBuffer();
-            for (int digits = 0; digits < 3; digits++) {
-                char d = address.charAt(pos);
+            int snum = 0;
+            int digits = 0;
+            for (; digits < 3; digits++) {
+                pos = skipBackslashes(address, pos, end);
+                char d = charAt(address, pos, end);
                 if (d == '.') {
                     break;
                 }
@@ -430,45 +547,37 @@ public class MailAddress {
                     break;
                 }
                 if (d < '0' || d > '9') {
-                    throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw exception("Invalid number at position ", address, start, end, pos + 1);
                 }
-                snumSB.append(d);
+                snum = snum * 10 + (d - '0');
                 pos++;
             }
-            if (snumSB.toString().length() == 0) {
-                throw new MailAddressException("Number not found at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (digits == 0) {
+                throw exception("Number not found at position ", address, start, end, pos + 1);
             }
-            try {
-                int snum = Integer.parseInt(snumSB.toString());
-                if (snum > 255) {
-                    throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
-                }
-            } catch (NumberFormatException nfe) {
-                throw new MailAddressException("Invalid number at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+            if (snum > 255) {
+                throw exception("Invalid number at position ", address, start, end, pos + 1);
             }
-            resultSB.append(snumSB.toString());
-            if (address.charAt(pos) == ']') {
+            pos = skipBackslashes(address, pos, end);
+            if (charAt(address, pos, end) == ']') {
                 if (octet < 3) {
-                    throw new MailAddressException("End of number reached too quickly at " + (pos + 1) + " in '" + address + "'",address,pos+1);
+                    throw exception("End of number reached too quickly at ", address, start, end, pos + 1);
                 } 
                 break;
             }
             if (address.charAt(pos) == '.') {
-                resultSB.append('.');
                 pos++;
             }
         }
-        if (address.charAt(pos) != ']') {
-            throw new MailAddressException("Did not find closing bracket \"]\" in domain at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+        pos = skipBackslashes(address, pos, end);
+        if (charAt(address, pos, end) != ']') {
+            throw exception("Did not find closing bracket \"]\" in domain at position ", address, start, end, pos + 1);
         }
-        resultSB.append(']');
         pos++;
-        dSB.append(resultSB);
         return pos;
     }
 
-    private int parseDomain(StringBuffer dSB, String address, int pos) throws MailAddressException {
-        StringBuffer resultSB = new StringBuffer();
+    private static int parseDomain(CharSequence address, int pos, int start, int end) throws MailAddressException {
         //<name> ::= <a> <ldh-str> <let-dig>
         //<ldh-str> ::= <let-dig-hyp> | <let-dig-hyp> <ldh-str>
         //<let-dig> ::= <a> | <d>
@@ -484,29 +593,25 @@ public class MailAddress {
         // in practice though, we should relax this as domain names can start
         // with digits as well as letters.  So only check that doesn't start
         // or end with hyphen.
-        while (true) {
-            if (pos >= address.length()) {
-                break;
-            }
+        int labelStart = pos;
+        while (pos < end) {
             char ch = address.charAt(pos);
             if ((ch >= '0' && ch <= '9') ||
                 (ch >= 'a' && ch <= 'z') ||
                 (ch >= 'A' && ch <= 'Z') ||
                 (ch == '-')) {
-                resultSB.append(ch);
                 pos++;
                 continue;
             }
             if (ch == '.') {
                 break;
             }
-            throw new MailAddressException("Invalid character at " + pos + " in '" + address + "'",address,pos);
+            String text = address.subSequence(start, end).toString();
+            throw new MailAddressException("Invalid character at " + (pos - start) + " in '" + text + "'", text, pos - start);
         }
-        String result = resultSB.toString();
-        if (result.startsWith("-") || result.endsWith("-")) {
-            throw new MailAddressException("Domain name cannot begin or end with a hyphen \"-\" at position " + (pos + 1) + " in '" + address + "'",address,pos+1);
+        if (pos > labelStart && (address.charAt(labelStart) == '-' || address.charAt(pos - 1) == '-')) {
+            throw exception("Domain name cannot begin or end with a hyphen \"-\" at position ", address, start, end, pos + 1);
         }
-        dSB.append(result);
         return pos;
     }
     
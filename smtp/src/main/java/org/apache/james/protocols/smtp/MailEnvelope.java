@@ -71,4 +71,13 @@ public interface MailEnvelope {
      * @throws IOException
      */
     InputStream getMessageInputStream() throws IOException;
+
+    /**
+     * Return the digest of the content of the message as hex string, or <code>null</code> if it was not computed.
+     * Retransmissions of the same message have the same digest.
+     * 
+     * @see ContentDigest
+     * @return digest
+     */
+    String getDigest();
 }
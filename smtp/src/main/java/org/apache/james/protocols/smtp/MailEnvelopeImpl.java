@@ -37,7 +37,9 @@ public class MailEnvelopeImpl implements MailEnvelope{
 
     private MailAddress sender;
 
-    private ByteArrayOutputStream outputStream;
+    private MessageOutputStream outputStream;
+
+    private String digest;
 
     /**
      * @see org.apache.james.protocols.smtp.MailEnvelope#getSize()
@@ -63,7 +65,7 @@ public class MailEnvelopeImpl implements MailEnvelope{
     }
 
     /**
-     * Set the recipients of the mail
+     * Set the recipients of the mail. The given {@link List} is used as it is and not copied.
      * 
      * @param recipientCollection
      */
@@ -86,16 +88,47 @@ public class MailEnvelopeImpl implements MailEnvelope{
     public OutputStream getMessageOutputStream() {
         if (outputStream == null) {
             // use 100kb as default which should be enough for most emails
-            this.outputStream = new ByteArrayOutputStream(100 * 1024);
+            this.outputStream = new MessageOutputStream(100 * 1024);
         }
         return outputStream;
     }
 
     /**
+     * Return a new InputStream which reads the message from the buffer it was written to, without copying it. So
+     * several hooks can read the message at the same time, even from different threads, as long as nothing is written
+     * to it anymore.
+     * 
      * @see org.apache.james.protocols.smtp.MailEnvelope#getMessageInputStream()
      */
     public InputStream getMessageInputStream() {
-        return new ByteArrayInputStream(outputStream.toByteArray());
+        return outputStream.toInputStream();
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.MailEnvelope#getDigest()
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Set the digest of the content of the mail
+     * 
+     * @param digest
+     */
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    private final static class MessageOutputStream extends ByteArrayOutputStream {
+
+        public MessageOutputStream(int size) {
+            super(size);
+        }
+
+        public synchronized InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
     }
 }
 
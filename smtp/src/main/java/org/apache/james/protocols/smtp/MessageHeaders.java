@@ -0,0 +1,411 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.james.protocols.api.AttachmentKey;
+import org.apache.james.protocols.api.ProtocolSession.State;
+
+/**
+ * Index of the header fields of a message. It is built while the lines of the message are received, so the headers
+ * are parsed only once, no matter how many {@link org.apache.james.protocols.smtp.core.DataLineFilter}'s and
+ * {@link org.apache.james.protocols.smtp.hook.MessageHook}'s need them.
+ * 
+ * Only the raw bytes of the header block and the offsets of the fields are kept while the message is received. The
+ * names of the fields are interned, their values are decoded when they are requested for the first time. Headers which
+ * are added in front or at the end of the received ones, like the Received header, can be registered with
+ * {@link #prepend(String, String)} and {@link #append(String, String)}.
+ * 
+ * This class is not thread-safe, like the other state of a transaction.
+ */
+public class MessageHeaders {
+
+    /**
+     * The {@link MessageHeaders} of the message which is currently received, stored in the {@link State#Transaction}
+     */
+    public final static AttachmentKey<MessageHeaders> HEADERS_KEY = AttachmentKey.of("MESSAGE_HEADERS", MessageHeaders.class);
+
+    /**
+     * Header blocks bigger than this are not indexed completely
+     */
+    public final static int MAX_HEADERS_LENGTH = 64 * 1024;
+
+    private final static int MAX_INTERNED_NAMES = 1024;
+    private final static ConcurrentMap<String, String> NAMES = new ConcurrentHashMap<String, String>();
+
+    private byte[] raw = new byte[1024];
+    private int rawLength;
+
+    private int count;
+    private String[] names = new String[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private String[] values = new String[16];
+
+    private boolean complete;
+    private boolean bodyStarted;
+    private boolean truncated;
+
+    /**
+     * Return the {@link MessageHeaders} of the given message. If they were not indexed while the message was received,
+     * they are parsed from the message now and stored in the session, so it happens only once.
+     * 
+     * @param session
+     * @param env
+     * @return headers
+     * @throws IOException
+     */
+    public static MessageHeaders get(SMTPSession session, MailEnvelope env) throws IOException {
+        MessageHeaders headers = session.getAttachment(HEADERS_KEY, State.Transaction);
+        if (headers == null) {
+            headers = parse(env.getMessageInputStream());
+            session.setAttachment(HEADERS_KEY, headers, State.Transaction);
+        }
+        return headers;
+    }
+
+    /**
+     * Parse the headers from the given message. The stream is read until the end of the headers and is not closed.
+     * 
+     * @param in
+     * @return headers
+     * @throws IOException
+     */
+    public static MessageHeaders parse(InputStream in) throws IOException {
+        MessageHeaders headers = new MessageHeaders();
+        byte[] line = new byte[256];
+        int length = 0;
+        int b;
+        while (!headers.isComplete() && (b = in.read()) != -1) {
+            if (length == line.length) {
+                line = grow(line, length * 2);
+            }
+            line[length++] = (byte) b;
+            if (b == '\n') {
+                headers.addLine(ByteBuffer.wrap(line, 0, length));
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            headers.addLine(ByteBuffer.wrap(line, 0, length));
+        }
+        headers.complete = true;
+        return headers;
+    }
+
+    /**
+     * Add the next received line of the message, including the line delimiter. Lines after the empty line which
+     * separates the headers from the body are ignored. The position of the line is not changed.
+     * 
+     * @param line
+     * @return <code>true</code> if the line was part of the headers or the separating line
+     */
+    public boolean addLine(ByteBuffer line) {
+        if (bodyStarted) {
+            return false;
+        }
+        if (complete) {
+            bodyStarted = true;
+            return false;
+        }
+        int pos = line.position();
+        int length = line.remaining();
+        if (length == 0 || isLineDelimiter(line.get(pos)) || (length == 3 && line.get(pos) == '.')) {
+            // the separating line or the end of a message without body
+            complete = true;
+            return true;
+        }
+        if (line.get(pos) == '.') {
+            // dot-stuffing
+            pos++;
+            length--;
+        }
+        if (truncated || rawLength + length > MAX_HEADERS_LENGTH) {
+            truncated = true;
+            return true;
+        }
+        int start = rawLength;
+        ensureRaw(rawLength + length);
+        for (int i = 0; i < length; i++) {
+            raw[rawLength++] = line.get(pos + i);
+        }
+
+        byte first = raw[start];
+        if ((first == ' ' || first == '\t') && count > 0) {
+            // folded line of the last field
+            ends[count - 1] = rawLength;
+            values[count - 1] = null;
+            return true;
+        }
+        int colon = start;
+        while (colon < rawLength && raw[colon] != ':') {
+            colon++;
+        }
+        int nameEnd = colon;
+        while (nameEnd > start && (raw[nameEnd - 1] == ' ' || raw[nameEnd - 1] == '\t' || isLineDelimiter(raw[nameEnd - 1]))) {
+            nameEnd--;
+        }
+        char[] name = new char[nameEnd - start];
+        for (int i = 0; i < name.length; i++) {
+            // field names are US-ASCII
+            name[i] = (char) (raw[start + i] & 0xff);
+        }
+        insert(count, intern(new String(name)), Math.min(colon + 1, rawLength), rawLength, null);
+        return true;
+    }
+
+    /**
+     * Return <code>true</code> once the empty line which separates the headers from the body was added
+     * 
+     * @return complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Return <code>true</code> once a line after the empty line which separates the headers from the body was added
+     * 
+     * @return bodyStarted
+     */
+    public boolean isBodyStarted() {
+        return bodyStarted;
+    }
+
+    /**
+     * Return <code>true</code> if the headers were bigger than {@link #MAX_HEADERS_LENGTH}, so not all of them are
+     * indexed
+     * 
+     * @return truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Return the count of header fields
+     * 
+     * @return count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return the name of the header field at the given index
+     * 
+     * @param index
+     * @return name
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * Return the unfolded value of the header field at the given index, without leading and trailing whitespace
+     * 
+     * @param index
+     * @return value
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        String value = values[index];
+        if (value == null) {
+            value = decode(starts[index], ends[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Return <code>true</code> if the header field at the given index was received, <code>false</code> if it was
+     * registered with {@link #prepend(String, String)} or {@link #append(String, String)}
+     * 
+     * @param index
+     * @return received
+     */
+    public boolean isReceived(int index) {
+        checkIndex(index);
+        return starts[index] >= 0;
+    }
+
+    /**
+     * Return the value of the first header field with the given name, ignoring the case, or <code>null</code>
+     * 
+     * @param name
+     * @return value
+     */
+    public String getFirst(String name) {
+        for (int i = 0; i < count; i++) {
+            if (matches(i, name)) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the values of all header fields with the given name, ignoring the case
+     * 
+     * @param name
+     * @return values
+     */
+    public List<String> getAll(String name) {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            if (matches(i, name)) {
+                result.add(getValue(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Register a header field which was added in front of the others
+     * 
+     * @param name
+     * @param value
+     */
+    public void prepend(String name, String value) {
+        insert(0, intern(name), -1, -1, value);
+    }
+
+    /**
+     * Register a header field which was added after the others
+     * 
+     * @param name
+     * @param value
+     */
+    public void append(String name, String value) {
+        insert(count, intern(name), -1, -1, value);
+    }
+
+    private boolean matches(int index, String name) {
+        String fieldName = names[index];
+        return fieldName == name || fieldName.equalsIgnoreCase(name);
+    }
+
+    private void insert(int index, String name, int start, int end, String value) {
+        if (count == names.length) {
+            int capacity = count * 2;
+            names = grow(names, capacity);
+            starts = grow(starts, capacity);
+            ends = grow(ends, capacity);
+            values = grow(values, capacity);
+        }
+        if (index < count) {
+            System.arraycopy(names, index, names, index + 1, count - index);
+            System.arraycopy(starts, index, starts, index + 1, count - index);
+            System.arraycopy(ends, index, ends, index + 1, count - index);
+            System.arraycopy(values, index, values, index + 1, count - index);
+        }
+        names[index] = name;
+        starts[index] = start;
+        ends[index] = end;
+        values[index] = value;
+        count++;
+    }
+
+    /**
+     * Decode the value between the given offsets. The line delimiters of folded lines are removed.
+     */
+    private String decode(int start, int end) {
+        byte[] unfolded = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            if (!isLineDelimiter(raw[i])) {
+                unfolded[length++] = raw[i];
+            }
+        }
+        int from = 0;
+        while (from < length && (unfolded[from] == ' ' || unfolded[from] == '\t')) {
+            from++;
+        }
+        while (length > from && (unfolded[length - 1] == ' ' || unfolded[length - 1] == '\t')) {
+            length--;
+        }
+        try {
+            // headers are ASCII, but may contain UTF-8 (RFC 6532)
+            return new String(unfolded, from, length - from, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("NO UTF-8 support ?", e);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+    }
+
+    private void ensureRaw(int capacity) {
+        if (capacity > raw.length) {
+            raw = grow(raw, Math.max(capacity, raw.length * 2));
+        }
+    }
+
+    private static boolean isLineDelimiter(byte b) {
+        return b == '\r' || b == '\n';
+    }
+
+    /**
+     * Return the shared instance of the given header name, so the names of all messages don't need their own copies
+     */
+    private static String intern(String name) {
+        String interned = NAMES.get(name);
+        if (interned != null) {
+            return interned;
+        }
+        if (NAMES.size() >= MAX_INTERNED_NAMES) {
+            // don't let clients fill the memory with made up names
+            return name;
+        }
+        interned = NAMES.putIfAbsent(name, name);
+        return interned == null ? name : interned;
+    }
+
+    private static byte[] grow(byte[] array, int capacity) {
+        byte[] grown = new byte[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static String[] grow(String[] array, int capacity) {
+        String[] grown = new String[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
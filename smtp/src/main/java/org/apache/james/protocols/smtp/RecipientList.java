@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * {@link List} of the recipients of a transaction, in the order in which they were given. Besides the list it keeps a
+ * hash of the normalized addresses, so {@link #contains(Object)} does not need to walk through all recipients. This keeps
+ * transactions with thousands of recipients cheap.
+ * 
+ * Addresses are compared like {@link MailAddress#equals(Object)} does, so case-insensitive. Duplicates are allowed,
+ * use {@link #contains(Object)} to detect them.
+ * 
+ * This class is not thread-safe, like the other state of a transaction.
+ */
+public class RecipientList extends AbstractList<MailAddress> implements RandomAccess {
+
+    private final List<MailAddress> recipients;
+    private final Map<String, int[]> counts;
+
+    public RecipientList() {
+        this.recipients = new ArrayList<MailAddress>();
+        this.counts = new HashMap<String, int[]>();
+    }
+
+    public RecipientList(Collection<MailAddress> recipients) {
+        this.recipients = new ArrayList<MailAddress>(recipients.size());
+        this.counts = new HashMap<String, int[]>(recipients.size() * 2);
+        addAll(recipients);
+    }
+
+    /**
+     * Return the given recipients as {@link RecipientList}. If it already is one it is returned as it is, otherwise the
+     * recipients are copied
+     * 
+     * @param recipients
+     * @return list
+     */
+    public static RecipientList of(Collection<MailAddress> recipients) {
+        if (recipients instanceof RecipientList) {
+            return (RecipientList) recipients;
+        }
+        return new RecipientList(recipients);
+    }
+
+    /**
+     * Return the key which is used to detect duplicates
+     */
+    private static String normalize(MailAddress address) {
+        return address.toLowerCase();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractList#get(int)
+     */
+    public MailAddress get(int index) {
+        return recipients.get(index);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractCollection#size()
+     */
+    public int size() {
+        return recipients.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractList#add(int, java.lang.Object)
+     */
+    public void add(int index, MailAddress address) {
+        String key = normalize(address);
+        recipients.add(index, address);
+        int[] count = counts.get(key);
+        if (count == null) {
+            counts.put(key, new int[] {1});
+        } else {
+            count[0]++;
+        }
+        modCount++;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractList#set(int, java.lang.Object)
+     */
+    public MailAddress set(int index, MailAddress address) {
+        String key = normalize(address);
+        MailAddress old = recipients.set(index, address);
+        release(old);
+        int[] count = counts.get(key);
+        if (count == null) {
+            counts.put(key, new int[] {1});
+        } else {
+            count[0]++;
+        }
+        return old;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractList#remove(int)
+     */
+    public MailAddress remove(int index) {
+        MailAddress old = recipients.remove(index);
+        release(old);
+        modCount++;
+        return old;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.AbstractList#clear()
+     */
+    public void clear() {
+        recipients.clear();
+        counts.clear();
+        modCount++;
+    }
+
+    /**
+     * Return <code>true</code> if the given {@link MailAddress} was already added. This does not depend on the count of
+     * recipients.
+     * 
+     * @see java.util.AbstractCollection#contains(java.lang.Object)
+     */
+    public boolean contains(Object o) {
+        if (o instanceof MailAddress) {
+            return counts.containsKey(normalize((MailAddress) o));
+        }
+        return super.contains(o);
+    }
+
+    private void release(MailAddress address) {
+        String key = normalize(address);
+        int[] count = counts.get(key);
+        if (--count[0] == 0) {
+            counts.remove(key);
+        }
+    }
+}
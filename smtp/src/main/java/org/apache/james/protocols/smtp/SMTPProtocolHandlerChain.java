@@ -19,7 +19,9 @@
 package org.apache.james.protocols.smtp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.james.protocols.api.handler.CommandDispatcher;
@@ -29,6 +31,7 @@ import org.apache.james.protocols.api.handler.ProtocolHandlerChain;
 import org.apache.james.protocols.api.handler.ProtocolHandlerChainImpl;
 import org.apache.james.protocols.api.handler.CommandHandlerResultLogger;
 import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.smtp.core.BdatCmdHandler;
 import org.apache.james.protocols.smtp.core.DataCmdHandler;
 import org.apache.james.protocols.smtp.core.DataLineMessageHookHandler;
 import org.apache.james.protocols.smtp.core.ExpnCmdHandler;
@@ -59,6 +62,12 @@ import org.apache.james.protocols.smtp.hook.Hook;
  */
 public class SMTPProtocolHandlerChain extends ProtocolHandlerChainImpl {
     
+    /**
+     * The commands after which a client needs to wait for the responses, even if it uses pipelining (RFC 2920). Every
+     * other command may be followed by more commands without waiting.
+     */
+    protected final static List<String> SYNC_COMMANDS = Collections.unmodifiableList(Arrays.asList("HELO", "EHLO", "DATA", "RSET", "STARTTLS", "AUTH", "VRFY", "EXPN", "NOOP", "QUIT"));
+
     public SMTPProtocolHandlerChain() {
         this(true);
     }
@@ -86,7 +95,7 @@ public class SMTPProtocolHandlerChain extends ProtocolHandlerChainImpl {
     
     protected List<ProtocolHandler> initDefaultHandlers() {
         List<ProtocolHandler> defaultHandlers = new ArrayList<ProtocolHandler>();
-        defaultHandlers.add(new CommandDispatcher<SMTPSession>());
+        defaultHandlers.add(new CommandDispatcher<SMTPSession>(Collections.<String>emptyList(), SYNC_COMMANDS));
         defaultHandlers.add(new ExpnCmdHandler());
         defaultHandlers.add(new EhloCmdHandler());
         defaultHandlers.add(new HeloCmdHandler());
@@ -98,6 +107,7 @@ public class SMTPProtocolHandlerChain extends ProtocolHandlerChainImpl {
         defaultHandlers.add(new RsetCmdHandler());
         defaultHandlers.add(new VrfyCmdHandler());
         defaultHandlers.add(new DataCmdHandler());
+        defaultHandlers.add(new BdatCmdHandler());
         defaultHandlers.add(new MailSizeEsmtpExtension());
         defaultHandlers.add(new WelcomeMessageHandler());
         defaultHandlers.add(new PostmasterAbuseRcptHook());
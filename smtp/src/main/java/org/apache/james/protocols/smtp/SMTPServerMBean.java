@@ -39,4 +39,80 @@ public interface SMTPServerMBean {
     * @return String The scoekt type, plain or SSL     
     */  
     String  getSocketType();
+
+    /**
+     * Returns the count of currently open connections
+     * 
+     * @return long The connection count
+     */
+    long getCurrentConnections();
+
+    /**
+     * Returns the count of accepted connections since the server was started
+     * 
+     * @return long The connection count
+     */
+    long getAcceptedConnections();
+
+    /**
+     * Returns the count of bytes read from the clients
+     * 
+     * @return long The byte count
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the count of bytes written to the clients
+     * 
+     * @return long The byte count
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the names of all commands for which latencies were recorded
+     * 
+     * @return String[] The command names
+     */
+    String[] getMeasuredCommands();
+
+    /**
+     * Returns how often the given command was executed
+     * 
+     * @param command the command name
+     * @return long The count
+     */
+    long getCommandCount(String command);
+
+    /**
+     * Returns the latency of the given command at the given percentile
+     * 
+     * @param command the command name
+     * @param percentile between 0 and 100
+     * @return double The latency in microseconds
+     */
+    double getCommandLatency(String command, double percentile);
+
+    /**
+     * Returns the class names of all hooks for which latencies were recorded
+     * 
+     * @return String[] The hook class names
+     */
+    String[] getMeasuredHooks();
+
+    /**
+     * Returns how often the given hook was executed
+     * 
+     * @param hook the class name of the hook
+     * @return long The count
+     */
+    long getHookCount(String hook);
+
+    /**
+     * Returns the latency of the given hook at the given percentile
+     * 
+     * @param hook the class name of the hook
+     * @param percentile between 0 and 100
+     * @return double The latency in microseconds
+     */
+    double getHookLatency(String hook, double percentile);
 }
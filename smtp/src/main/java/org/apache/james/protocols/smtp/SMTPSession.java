@@ -19,6 +19,9 @@
 
 package org.apache.james.protocols.smtp;
 
+import java.util.Collection;
+
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession;
 
 /**
@@ -37,6 +40,15 @@ public interface SMTPSession extends ProtocolSession{
     final static String CURRENT_HELO_MODE = "CURRENT_HELO_MODE";
     final static String CURRENT_HELO_NAME = "CURRENT_HELO_NAME";
 
+    // Typed keys for the data above, which don't need to hash the name on every access
+    /** Sender's email address */
+    final static AttachmentKey<MailAddress> SENDER_KEY = AttachmentKey.of(SENDER, MailAddress.class);
+    /** The message recipients, a {@link RecipientList} unless some handler replaced it */
+    final static AttachmentKey<Collection<MailAddress>> RCPT_LIST_KEY = AttachmentKey.of(RCPT_LIST, Collection.class);
+    /** HELO or EHLO */
+    final static AttachmentKey<String> CURRENT_HELO_MODE_KEY = AttachmentKey.of(CURRENT_HELO_MODE, String.class);
+    final static AttachmentKey<String> CURRENT_HELO_NAME_KEY = AttachmentKey.of(CURRENT_HELO_NAME, String.class);
+
     /**
      * Returns the service wide configuration
      *
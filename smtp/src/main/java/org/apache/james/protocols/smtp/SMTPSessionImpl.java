@@ -53,13 +53,13 @@ public class SMTPSessionImpl extends ProtocolSessionImpl implements SMTPSession
     @Override
     public void resetState() {
         // remember the ehlo mode between resets
-        Object currentHeloMode = getState().get(CURRENT_HELO_MODE);
+        String currentHeloMode = getAttachment(CURRENT_HELO_MODE_KEY, State.Transaction);
 
-        getState().clear();
+        super.resetState();
 
         // start again with the old helo mode
         if (currentHeloMode != null) {
-            getState().put(CURRENT_HELO_MODE, currentHeloMode);
+            setAttachment(CURRENT_HELO_MODE_KEY, currentHeloMode, State.Transaction);
         }
     }
 
@@ -67,13 +67,13 @@ public class SMTPSessionImpl extends ProtocolSessionImpl implements SMTPSession
     /**
      * @see org.apache.james.protocols.smtp.SMTPSession#getRcptCount()
      */
-    @SuppressWarnings("unchecked")
     public int getRcptCount() {
         int count = 0;
 
         // check if the key exists
-        if (getState().get(SMTPSession.RCPT_LIST) != null) {
-            count = ((Collection<MailAddress>) getState().get(SMTPSession.RCPT_LIST)).size();
+        Collection<MailAddress> rcpts = getAttachment(RCPT_LIST_KEY, State.Transaction);
+        if (rcpts != null) {
+            count = rcpts.size();
         }
 
         return count;
@@ -0,0 +1,80 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
+
+/**
+ * Delay {@link Response}'s without blocking a thread. The {@link Response} is returned as {@link FutureResponse} which
+ * gets completed by a shared timer, so the number of tarpitted connections does not depend on the number of threads.
+ * 
+ * Once the {@link FutureResponse} is cancelled, because the client disconnected, the scheduled task is cancelled too.
+ */
+public final class Tarpit {
+
+    private Tarpit() {
+    }
+
+    /**
+     * Return the shared timer which is used to complete the delayed {@link Response}'s. It uses one daemon thread which
+     * only completes the {@link FutureResponse}'s, so tasks scheduled on it must not block.
+     * 
+     * @return timer
+     */
+    public static ScheduledExecutorService getTimer() {
+        return TimerHolder.TIMER;
+    }
+
+    /**
+     * Return a {@link FutureResponse} which gets completed with the given {@link Response} after the given delay
+     * 
+     * @param response
+     * @param delay
+     * @param unit
+     * @return delayed response
+     */
+    public static FutureResponse delay(Response response, long delay, TimeUnit unit) {
+        FutureResponseImpl future = new FutureResponseImpl();
+        future.setTimeout(getTimer(), delay, unit, response);
+        return future;
+    }
+
+    /**
+     * Creates the timer on first use
+     */
+    private final static class TimerHolder {
+        private final static ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Tarpit timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
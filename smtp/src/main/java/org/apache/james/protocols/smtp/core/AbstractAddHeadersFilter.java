@@ -25,9 +25,11 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.MessageHeaders;
 import org.apache.james.protocols.smtp.SMTPSession;
 
 /**
@@ -39,8 +41,8 @@ public abstract class AbstractAddHeadersFilter extends SeparatingDataLineFilter{
 
     private static final AtomicInteger COUNTER = new AtomicInteger(0);
     
-    private final String headersPrefixAdded = "HEADERS_PREFIX_ADDED" + COUNTER.incrementAndGet();
-    private final String headersSuffixAdded = "HEADERS_SUFFIX_ADDED" + COUNTER.incrementAndGet();
+    private final AttachmentKey<Boolean> headersPrefixAdded = AttachmentKey.of("HEADERS_PREFIX_ADDED" + COUNTER.incrementAndGet(), Boolean.class);
+    private final AttachmentKey<Boolean> headersSuffixAdded = AttachmentKey.of("HEADERS_SUFFIX_ADDED" + COUNTER.incrementAndGet(), Boolean.class);
 
     enum Location{
         Prefix,
@@ -82,8 +84,10 @@ public abstract class AbstractAddHeadersFilter extends SeparatingDataLineFilter{
      * @return response
      */
     private Response addHeaders(SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
+        Collection<Header> headers = headers(session);
+        register(session, headers);
         Response response;
-        for (Header header: headers(session)) {
+        for (Header header: headers) {
             response = header.transferTo(session, next);
             if (response != null) {
                 return response;
@@ -92,6 +96,30 @@ public abstract class AbstractAddHeadersFilter extends SeparatingDataLineFilter{
         return next.onLine(session, line);
     }
     
+    /**
+     * Register the added headers in the {@link MessageHeaders} of the transaction, so hooks see them without parsing
+     * the message again
+     * 
+     * @param session
+     * @param headers
+     */
+    private void register(SMTPSession session, Collection<Header> headers) {
+        MessageHeaders index = session.getAttachment(MessageHeaders.HEADERS_KEY, State.Transaction);
+        if (index == null) {
+            return;
+        }
+        List<Header> ordered = new ArrayList<Header>(headers);
+        if (getLocation() == Location.Prefix) {
+            for (int i = ordered.size() - 1; i >= 0; i--) {
+                index.prepend(ordered.get(i).name, ordered.get(i).getValue());
+            }
+        } else {
+            for (Header header: ordered) {
+                index.append(header.name, header.getValue());
+            }
+        }
+    }
+
     /**
      * Return the {@link Header}'s to operate on
      * 
@@ -119,6 +147,22 @@ public abstract class AbstractAddHeadersFilter extends SeparatingDataLineFilter{
             values.add(value);
             return this;
         }
+
+        /**
+         * Return the unfolded value of the header
+         * 
+         * @return value
+         */
+        public String getValue() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    sb.append(MULTI_LINE_PREFIX);
+                }
+                sb.append(values.get(i));
+            }
+            return sb.toString();
+        }
         
         
         /**
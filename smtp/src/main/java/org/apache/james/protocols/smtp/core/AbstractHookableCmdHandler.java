@@ -20,28 +20,75 @@
 package org.apache.james.protocols.smtp.core;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.apache.james.protocols.api.ProtocolSessionImpl;
+import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.api.handler.ExtensibleHandler;
+import org.apache.james.protocols.api.metrics.LatencyRecorder;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.Tarpit;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.FutureHookResult.HookResultListener;
+import org.apache.james.protocols.smtp.hook.HookExecutor;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookResultHook;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
 
 /**
  * Abstract class which Handle hook-aware CommanHandler.
  * 
+ * If some hooks implement {@link SessionClassAware}, the hooks which apply to each {@link SessionClass} are collected
+ * once when they are wired. Every command then only calls the hooks of the class of its session.
+ * 
+ * Commands are processed while holding the lock of the {@link SMTPSession}. Once an asynchronous hook is done the
+ * remaining hooks are processed by the {@link HookExecutor} while holding the same lock, so they never run at the same
+ * time as a pipelined command of the session.
  */
 public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.protocols.smtp.hook.Hook> implements CommandHandler<SMTPSession>, ExtensibleHandler {
 
 
     private List<Hook> hooks;
     private List<HookResultHook> rHooks;
+    private List<LatencyRecorder> recorders;
+    
+    // synchronous and asynchronous hooks in the configured order, only set if there are asynchronous hooks
+    private List<org.apache.james.protocols.smtp.hook.Hook> orderedHooks;
+
+    // the hooks per session class, only set if some hooks are restricted to some session classes
+    private Map<SessionClass, List<org.apache.james.protocols.smtp.hook.Hook>> classHooks;
+
+    private volatile Executor executor;
+
+    /**
+     * Set the {@link Executor} which processes the remaining hooks once an asynchronous hook is done. By default they
+     * are processed by the {@link HookExecutor}, so blocking hooks never run in the thread which completed the
+     * asynchronous hook and the commands of a session are done in order.
+     * 
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
 
     /**
      * Handle command processing
@@ -52,20 +99,21 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
     public Response onCommand(SMTPSession session, Request request) {
         String command = request.getCommand();
         String parameters = request.getArgument();
-        Response response = doFilterChecks(session, command, parameters);
-
-        if (response == null) {
-
-            response = processHooks(session, command, parameters);
+        synchronized (session) {
+            Response response = doFilterChecks(session, command, parameters);
+    
             if (response == null) {
-                return doCoreCmd(session, command, parameters);
+    
+                response = processHooks(session, command, parameters);
+                if (response == null) {
+                    return doCoreCmd(session, command, parameters);
+                } else {
+                    return response;
+                }
             } else {
                 return response;
             }
-        } else {
-            return response;
         }
-
     }
 
     /**
@@ -81,65 +129,208 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
      */
     private Response processHooks(SMTPSession session, String command,
             String parameters) {
+        Map<SessionClass, List<org.apache.james.protocols.smtp.hook.Hook>> classHooks = this.classHooks;
+        if (classHooks != null) {
+            return processHooks(session, command, parameters, classHooks.get(SessionClass.of(session)), 0, null, 0);
+        }
+        if (orderedHooks != null) {
+            return processHooks(session, command, parameters, orderedHooks, 0, null, 0);
+        }
         List<Hook> hooks = getHooks();
         if (hooks != null) {
-            int count = hooks.size();
-            for (int i = 0; i < count; i++) {
-                Hook rawHook = hooks.get(i);
-                session.getLogger().debug("executing hook " + rawHook.getClass().getName());
-                long start = System.currentTimeMillis();
-                
-                HookResult hRes = callHook(rawHook, session, parameters);
-                long executionTime = System.currentTimeMillis() - start;
-
-                if (rHooks != null) {
-                    for (int i2 = 0; i2 < rHooks.size(); i2++) {
-                        Object rHook = rHooks.get(i2);
-                        session.getLogger().debug("executing hook " + rHook);
-                        hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHook);
+            return processHooks(session, command, parameters, hooks, 0, null, 0);
+        }
+        return null;
+    }
+
+    /**
+     * Process the hooks starting at the given index. If an asynchronous hook is not done yet the {@link FutureResponse}
+     * of the {@link PendingHook} is returned and the remaining hooks are processed once the hook is done.
+     * 
+     * @param session
+     * @param command
+     * @param parameters
+     * @param hooks
+     * @param index the index of the first hook to process
+     * @param pending the {@link PendingHook} if some hook was already processed asynchronously or <code>null</code>
+     * @param delay the biggest delay in milliseconds which was requested by the hooks processed so far
+     * @return response or <code>null</code> if all hooks declined
+     */
+    @SuppressWarnings("unchecked")
+    private Response processHooks(SMTPSession session, String command, String parameters, List<? extends org.apache.james.protocols.smtp.hook.Hook> hooks, int index, PendingHook pending, long delay) {
+        Class<Hook> hookInterface = getHookInterface();
+        int count = hooks.size();
+        for (int i = index; i < count; i++) {
+            org.apache.james.protocols.smtp.hook.Hook rawHook = hooks.get(i);
+            session.getLogger().debug("executing hook {}", rawHook.getClass().getName());
+            long start = System.nanoTime();
+            
+            HookResult hRes;
+            if (hookInterface.isInstance(rawHook)) {
+                hRes = callHook((Hook) rawHook, session, parameters);
+            } else {
+                FutureHookResult future = callAsyncHook(rawHook, session, parameters);
+                if (!future.isReady()) {
+                    if (pending == null) {
+                        pending = new PendingHook(session, command, parameters, hooks);
                     }
+                    pending.await(i, rawHook, start, future, delay);
+                    return pending.response;
                 }
-                
-                // call the core cmd if we receive a ok return code of the hook so no other hooks are executed
-                if ((hRes.getResult() & HookReturnCode.OK) == HookReturnCode.OK) {
-                    final Response response = doCoreCmd(session, command, parameters);
-                    if ((hRes.getResult() & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
-                        return new Response() {
-                            
-                            /*
-                             * (non-Javadoc)
-                             * @see org.apache.james.protocols.api.Response#isEndSession()
-                             */
-                            public boolean isEndSession() {
-                                return true;
-                            }
-                            
-                            /*
-                             * (non-Javadoc)
-                             * @see org.apache.james.protocols.api.Response#getRetCode()
-                             */
-                            public String getRetCode() {
-                                return response.getRetCode();
-                            }
-                            
-                            /*
-                             * (non-Javadoc)
-                             * @see org.apache.james.protocols.api.Response#getLines()
-                             */
-                            public List<CharSequence> getLines() {
-                                return response.getLines();
-                            }
-                        };
+                hRes = future.getResult();
+            }
+            if (hRes != null) {
+                delay = Math.max(delay, hRes.getDelay());
+            }
+            Response response = processHookResult(session, command, parameters, rawHook, hRes, System.nanoTime() - start);
+            if (response != null) {
+                return delay(session, response, delay);
+            }
+        }
+        if (delay > 0) {
+            return delay(session, doCoreCmd(session, command, parameters), delay);
+        }
+        return null;
+    }
+
+    /**
+     * Delay the given {@link Response} by the given time without blocking a thread. Reading from the client is
+     * suspended until the {@link Response} was released, so a tarpitted client can not push more commands meanwhile.
+     * 
+     * @return the delayed response or the given one if there is no delay
+     */
+    private static Response delay(final SMTPSession session, Response response, long delay) {
+        if (delay <= 0 || response == null) {
+            return response;
+        }
+        final Collection<String> none = Collections.emptyList();
+        suspend(session, none);
+        FutureResponse delayed = Tarpit.delay(response, delay, TimeUnit.MILLISECONDS);
+        delayed.addListener(new ResponseListener() {
+            
+            public void onResponse(FutureResponse response) {
+                resume(session, none);
+            }
+        });
+        return delayed;
+    }
+
+    /**
+     * Process the {@link HookResult} of a hook
+     * 
+     * @return response or <code>null</code> if the next hook should be called
+     */
+    private Response processHookResult(SMTPSession session, String command, String parameters, org.apache.james.protocols.smtp.hook.Hook rawHook, HookResult hRes, long nanos) {
+        long executionTime = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        if (recorders != null) {
+            for (int i2 = 0; i2 < recorders.size(); i2++) {
+                recorders.get(i2).recordHandler(rawHook.getClass(), nanos);
+            }
+        }
+        ProtocolTracer tracer = Tracing.getTracer();
+        if (tracer != null) {
+            tracer.hookExecuted(session.getSessionID(), command, rawHook.getClass(), hRes == null ? HookReturnCode.DECLINED : hRes.getResult(), nanos);
+        }
+
+        if (rHooks != null) {
+            for (int i2 = 0; i2 < rHooks.size(); i2++) {
+                Object rHook = rHooks.get(i2);
+                session.getLogger().debug("executing hook {}", rHook);
+                hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHook);
+            }
+        }
+        
+        // call the core cmd if we receive a ok return code of the hook so no other hooks are executed
+        if ((hRes.getResult() & HookReturnCode.OK) == HookReturnCode.OK) {
+            final Response response = doCoreCmd(session, command, parameters);
+            if ((hRes.getResult() & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
+                return new Response() {
+                    
+                    /*
+                     * (non-Javadoc)
+                     * @see org.apache.james.protocols.api.Response#isEndSession()
+                     */
+                    public boolean isEndSession() {
+                        return true;
                     }
-                    return response;
-                } else {
-                    SMTPResponse res = calcDefaultSMTPResponse(hRes);
-                    if (res != null) {
-                        return res;
+                    
+                    /*
+                     * (non-Javadoc)
+                     * @see org.apache.james.protocols.api.Response#getRetCode()
+                     */
+                    public String getRetCode() {
+                        return response.getRetCode();
                     }
-                }
+                    
+                    /*
+                     * (non-Javadoc)
+                     * @see org.apache.james.protocols.api.Response#getLines()
+                     */
+                    public List<CharSequence> getLines() {
+                        return response.getLines();
+                    }
+                };
+            }
+            return response;
+        } else {
+            return calcDefaultSMTPResponse(hRes);
+        }
+    }
+
+    /**
+     * Suspend processing the commands of the client while an asynchronous hook is running or a response is delayed,
+     * so the next command is not processed before the current one is done. This includes the pipelined commands which
+     * were already received.
+     * 
+     * @param commands the commands which may still be processed
+     */
+    private static void suspend(SMTPSession session, Collection<String> commands) {
+        if (session instanceof ProtocolSessionImpl) {
+            ProtocolTransport transport = ((ProtocolSessionImpl) session).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                ((AbstractProtocolTransport) transport).suspendRequests(commands);
+            } else {
+                transport.setReadable(false);
+            }
+        }
+    }
+
+    /**
+     * Resume processing the commands of the client after {@link #suspend(SMTPSession, Collection)}
+     */
+    private static void resume(SMTPSession session, Collection<String> commands) {
+        if (session instanceof ProtocolSessionImpl) {
+            ProtocolTransport transport = ((ProtocolSessionImpl) session).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                ((AbstractProtocolTransport) transport).resumeRequests(commands);
+            } else {
+                transport.setReadable(true);
             }
         }
+    }
+
+    /**
+     * Must be overridden by hookable cmd handlers which support asynchronous hooks to make the effective call to the
+     * hook. It is only called for hooks which implement {@link #getAsyncHookInterface()}, so the default
+     * implementation, which is used if there is no such interface, just declines.
+     * 
+     * @param rawHook the hook which implements {@link #getAsyncHookInterface()}
+     * @param session the session
+     * @param parameters the parameters
+     * @return the FutureHookResult
+     */
+    protected FutureHookResult callAsyncHook(org.apache.james.protocols.smtp.hook.Hook rawHook, SMTPSession session, String parameters) {
+        return FutureHookResult.ready(HookResult.declined());
+    }
+
+    /**
+     * Return the interface which asynchronous hooks need to implement to hook in or <code>null</code> if the command
+     * does not support them. Synchronous and asynchronous hooks are called in the order in which they were configured.
+     * 
+     * @return interface
+     */
+    protected Class<?> getAsyncHookInterface() {
         return null;
     }
 
@@ -244,9 +435,14 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
      * @see org.apache.james.protocols.api.handler.ExtensibleHandler#getMarkerInterfaces()
      */
     public List<Class<?>> getMarkerInterfaces() {
-        List<Class<?>> classes = new ArrayList<Class<?>>(2);
+        List<Class<?>> classes = new ArrayList<Class<?>>(5);
         classes.add(getHookInterface());
         classes.add(HookResultHook.class);
+        classes.add(LatencyRecorder.class);
+        if (getAsyncHookInterface() != null) {
+            // wire all hooks to get the synchronous and asynchronous ones in the configured order
+            classes.add(org.apache.james.protocols.smtp.hook.Hook.class);
+        }
         return classes;
     }
 
@@ -267,8 +463,101 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
             this.hooks = (List<Hook>) extension;
         } else if (HookResultHook.class.equals(interfaceName)) {
             this.rHooks = (List<HookResultHook>) extension;
+        } else if (LatencyRecorder.class.equals(interfaceName)) {
+            this.recorders = (List<LatencyRecorder>) extension;
+        } else if (org.apache.james.protocols.smtp.hook.Hook.class.equals(interfaceName)) {
+            this.orderedHooks = getOrderedHooks((List<org.apache.james.protocols.smtp.hook.Hook>) extension);
+        }
+        this.classHooks = getClassHooks();
+    }
+
+    /**
+     * Return the hooks which apply to each {@link SessionClass} in the configured order or <code>null</code> if no
+     * hook is restricted to some session classes
+     */
+    private Map<SessionClass, List<org.apache.james.protocols.smtp.hook.Hook>> getClassHooks() {
+        List<? extends org.apache.james.protocols.smtp.hook.Hook> all = orderedHooks != null ? orderedHooks : hooks;
+        if (all == null) {
+            return null;
+        }
+        boolean restricted = false;
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i) instanceof SessionClassAware) {
+                restricted = true;
+                break;
+            }
+        }
+        if (!restricted) {
+            return null;
+        }
+        Map<SessionClass, List<org.apache.james.protocols.smtp.hook.Hook>> classHooks = new EnumMap<SessionClass, List<org.apache.james.protocols.smtp.hook.Hook>>(SessionClass.class);
+        for (SessionClass sessionClass: SessionClass.values()) {
+            List<org.apache.james.protocols.smtp.hook.Hook> applicable = new ArrayList<org.apache.james.protocols.smtp.hook.Hook>();
+            for (int i = 0; i < all.size(); i++) {
+                org.apache.james.protocols.smtp.hook.Hook hook = all.get(i);
+                if (!(hook instanceof SessionClassAware) || ((SessionClassAware) hook).getSessionClasses().contains(sessionClass)) {
+                    applicable.add(hook);
+                }
+            }
+            classHooks.put(sessionClass, applicable);
         }
+        return classHooks;
+    }
 
+    /**
+     * Return the synchronous and asynchronous hooks in the configured order or <code>null</code> if there are no
+     * asynchronous hooks
+     */
+    private List<org.apache.james.protocols.smtp.hook.Hook> getOrderedHooks(List<org.apache.james.protocols.smtp.hook.Hook> extension) {
+        Class<?> asyncInterface = getAsyncHookInterface();
+        List<org.apache.james.protocols.smtp.hook.Hook> ordered = new ArrayList<org.apache.james.protocols.smtp.hook.Hook>();
+        boolean async = false;
+        for (int i = 0; i < extension.size(); i++) {
+            org.apache.james.protocols.smtp.hook.Hook hook = extension.get(i);
+            if (getHookInterface().isInstance(hook)) {
+                ordered.add(hook);
+            } else if (asyncInterface.isInstance(hook)) {
+                ordered.add(hook);
+                async = true;
+            }
+        }
+        return async ? ordered : null;
+    }
+
+    /**
+     * Return the commands which may still be processed while an asynchronous hook of this command is running, like
+     * more RCPT commands of a pipelined transaction. All other commands are held back until the hook is done.
+     * 
+     * The default implementation returns an empty collection.
+     * 
+     * @return commands
+     */
+    protected Collection<String> getPipelinedCommands() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Return the state which the command stored in the {@link SMTPSession} before the hooks are called, like the
+     * recipient of a RCPT command. It is restored with {@link #restoreCommandState(SMTPSession, Object)} once an
+     * asynchronous hook is done, as other commands may have been processed while it was running. It is restored
+     * while holding the lock of the {@link SMTPSession}, right before the remaining hooks are processed.
+     * 
+     * The default implementation returns null.
+     * 
+     * @param session
+     * @return state
+     */
+    protected Object getCommandState(SMTPSession session) {
+        return null;
+    }
+
+    /**
+     * Restore the state which was returned by {@link #getCommandState(SMTPSession)}
+     * 
+     * @param session
+     * @param state
+     */
+    protected void restoreCommandState(SMTPSession session, Object state) {
     }
 
     /**
@@ -280,4 +569,119 @@ public abstract class AbstractHookableCmdHandler<Hook extends org.apache.james.p
         return hooks;
     }
 
+    /**
+     * Waits for an asynchronous hook and processes the remaining hooks once it is done. The same instance is used for
+     * all asynchronous hooks of a command, so there is only one {@link FutureResponse} per command.
+     */
+    private final class PendingHook implements HookResultListener {
+        private final SMTPSession session;
+        private final String command;
+        private final String parameters;
+        private final List<? extends org.apache.james.protocols.smtp.hook.Hook> hooks;
+        private final FutureResponseImpl response;
+        private final Object commandState;
+        private final Collection<String> pipelinedCommands;
+        
+        private volatile int index;
+        private volatile org.apache.james.protocols.smtp.hook.Hook rawHook;
+        private volatile long start;
+        private volatile long delay;
+        private volatile FutureHookResult future;
+
+        public PendingHook(SMTPSession session, String command, String parameters, List<? extends org.apache.james.protocols.smtp.hook.Hook> hooks) {
+            this.session = session;
+            this.command = command;
+            this.parameters = parameters;
+            this.hooks = hooks;
+            this.commandState = getCommandState(session);
+            this.pipelinedCommands = getPipelinedCommands();
+            this.response = new FutureResponseImpl(session.getLogger());
+            this.response.addListener(new ResponseListener() {
+                
+                public void onResponse(FutureResponse response) {
+                    // let the hook know that it can stop if the client disconnected
+                    if (response.isCancelled()) {
+                        future.cancel();
+                    }
+                }
+            });
+            suspend(session, pipelinedCommands);
+        }
+        
+        private void await(int index, org.apache.james.protocols.smtp.hook.Hook rawHook, long start, FutureHookResult future, long delay) {
+            this.index = index;
+            this.rawHook = rawHook;
+            this.start = start;
+            this.delay = delay;
+            this.future = future;
+            future.addListener(this);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.smtp.hook.FutureHookResult.HookResultListener#onResult(org.apache.james.protocols.smtp.hook.FutureHookResult)
+         */
+        public void onResult(final FutureHookResult result) {
+            if (response.isReady()) {
+                return;
+            }
+            Runnable task = new Runnable() {
+
+                public void run() {
+                    proceed(result);
+                }
+            };
+            Executor executor = AbstractHookableCmdHandler.this.executor;
+            if (executor != null) {
+                executor.execute(task);
+            } else {
+                HookExecutor.execute(session, task);
+            }
+        }
+
+        /**
+         * Process the remaining hooks after the given asynchronous hook is done
+         */
+        private void proceed(FutureHookResult result) {
+            Response r;
+            synchronized (session) {
+                try {
+                    restoreCommandState(session, commandState);
+                    HookResult hRes = result.getResult();
+                    long delay = this.delay;
+                    if (hRes != null) {
+                        delay = Math.max(delay, hRes.getDelay());
+                    }
+                    r = processHookResult(session, command, parameters, rawHook, hRes, System.nanoTime() - start);
+                    if (r == null) {
+                        r = processHooks(session, command, parameters, hooks, index + 1, this, delay);
+                        if (r == response) {
+                            // waiting for the next asynchronous hook
+                            return;
+                        }
+                        if (r == null) {
+                            r = doCoreCmd(session, command, parameters);
+                        }
+                    } else {
+                        r = delay(session, r, delay);
+                    }
+                } catch (RuntimeException e) {
+                    session.getLogger().error("Unable to process hooks for " + command, e);
+                    r = session.newFatalErrorResponse();
+                }
+            }
+            if (r instanceof FutureResponse && !((FutureResponse) r).isReady()) {
+                ((FutureResponse) r).addListener(new ResponseListener() {
+                    
+                    public void onResponse(FutureResponse delayed) {
+                        response.setResponse(delayed);
+                        resume(session, pipelinedCommands);
+                    }
+                });
+                return;
+            }
+            response.setResponse(r);
+            resume(session, pipelinedCommands);
+        }
+    }
 }
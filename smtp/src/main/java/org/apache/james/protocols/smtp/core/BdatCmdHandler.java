@@ -0,0 +1,577 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.apache.james.protocols.api.AttachmentKey;
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.ProtocolSessionImpl;
+import org.apache.james.protocols.api.ProtocolTransport;
+import org.apache.james.protocols.api.Request;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.ChunkLengthParser;
+import org.apache.james.protocols.api.handler.CommandHandler;
+import org.apache.james.protocols.api.handler.ExtensibleHandler;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.smtp.MailEnvelopeImpl;
+import org.apache.james.protocols.smtp.RecipientList;
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.core.AbstractAddHeadersFilter.Header;
+import org.apache.james.protocols.smtp.core.AbstractAddHeadersFilter.Location;
+import org.apache.james.protocols.smtp.core.esmtp.EhloExtension;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.MailParametersHook;
+import org.apache.james.protocols.smtp.hook.MessageHook;
+
+/**
+ * Handles the BDAT command of the CHUNKING extension and the BINARYMIME body type (RFC 3030).
+ * 
+ * The chunks are written to the message exactly as they are received, without splitting them into lines or removing
+ * dot-stuffing. Because of this the {@link DataLineFilter}'s are not called for them, except for the
+ * {@link AbstractAddHeadersFilter}'s which add their headers once to the head of the message. Once the last chunk was
+ * received the message is passed to the {@link MessageHook}'s of the {@link DataLineMessageHookHandler}.
+ * 
+ * As a chunk must be read even if the BDAT command is rejected, the transport needs to know which lines are followed
+ * by a chunk before the commands are processed. This is done by the {@link ChunkLengthParser} implementation.
+ */
+public class BdatCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHandler, EhloExtension, MailParametersHook, ChunkLengthParser {
+
+    private static final Response SYNTAX_ERROR = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Usage: BDAT <size> [LAST]").immutable();
+    private static final Response NO_RECIPIENT = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_OTHER) + " No recipients specified").immutable();
+    private static final Response NO_SENDER = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_OTHER) + " No sender specified").immutable();
+    private static final Response QUOTA_EXCEEDED = new SMTPResponse(SMTPRetCode.QUOTA_EXCEEDED, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.SYSTEM_MSG_TOO_BIG) + " Message size exceeds fixed maximum message size").immutable();
+    private static final Response ERROR_PROCESSING_MESSAGE = new SMTPResponse(SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.UNDEFINED_STATUS) + " Error processing message").immutable();
+    private static final HookResult UNSUPPORTED_BODY = new HookResult(HookReturnCode.DENY, SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Unsupported BODY type");
+
+    private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList("BDAT"));
+    private static final List<String> FEATURES = Collections.unmodifiableList(Arrays.asList("CHUNKING", "BINARYMIME"));
+    private static final String[] MAIL_PARAMS = { "BODY" };
+    private static final String LAST = "LAST";
+    private static final String BINARYMIME = "BINARYMIME";
+
+    /**
+     * Set in the {@link State#Transaction} if the client announced a binary message with BODY=BINARYMIME. Such a message
+     * can only be transferred with BDAT.
+     */
+    public static final AttachmentKey<Boolean> BINARYMIME_KEY = AttachmentKey.of(BINARYMIME, Boolean.class);
+
+    private static final AttachmentKey<ChunkState> CHUNK_STATE_KEY = AttachmentKey.of("CHUNK_STATE", ChunkState.class);
+
+    // only buffer the head of a message up to this size to search the end of the headers
+    private static final int MAX_HEAD_LENGTH = 64 * 1024;
+
+    private final List<AbstractAddHeadersFilter> prefixFilters = new ArrayList<AbstractAddHeadersFilter>();
+    private final List<AbstractAddHeadersFilter> suffixFilters = new ArrayList<AbstractAddHeadersFilter>();
+    private DataLineMessageHookHandler messageHandler;
+
+    /**
+     * Handler method called upon receipt of a BDAT command. The {@link Response} is written after the chunk was received.
+     */
+    public Response onCommand(SMTPSession session, Request request) {
+        String argument = request.getArgument();
+        long size = parseChunkSize(argument);
+        if (size < 0) {
+            // the transport did not treat the following data as chunk either
+            return SYNTAX_ERROR;
+        }
+        boolean last = isLastChunk(argument);
+
+        Response response = doBDATFilter(session);
+        ChunkState state = null;
+        if (response == null) {
+            state = session.getAttachment(CHUNK_STATE_KEY, State.Transaction);
+            if (state == null) {
+                state = startMessage(session);
+                if (state == null) {
+                    response = ERROR_PROCESSING_MESSAGE;
+                }
+            }
+        }
+        ChunkLineHandler handler = new ChunkLineHandler(state, size, last, response);
+        if (size == 0) {
+            return handler.onChunkComplete(session);
+        }
+        session.pushLineHandler(handler);
+        return null;
+    }
+
+    protected Response doBDATFilter(SMTPSession session) {
+        if (session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction) == null) {
+            return NO_SENDER;
+        } else if (session.getAttachment(SMTPSession.RCPT_LIST_KEY, State.Transaction) == null) {
+            return NO_RECIPIENT;
+        }
+        return null;
+    }
+
+    /**
+     * Create the envelope of the message and write the headers which must be added in front of it
+     * 
+     * @param session
+     * @return state or <code>null</code> if the headers could not be written
+     */
+    private ChunkState startMessage(SMTPSession session) {
+        MailEnvelopeImpl env = new MailEnvelopeImpl();
+        env.setRecipients(RecipientList.of(session.getAttachment(SMTPSession.RCPT_LIST_KEY, State.Transaction)));
+        env.setSender(session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction));
+        session.setAttachment(DataCmdHandler.MAILENV_KEY, env, State.Transaction);
+
+        ChunkState state = new ChunkState(env);
+        if (!suffixFilters.isEmpty()) {
+            state.head = new byte[1024];
+        }
+        try {
+            writeHeaders(session, prefixFilters, env.getMessageOutputStream());
+        } catch (IOException e) {
+            session.getLogger().error("Unknown error occurred while processing BDAT.", e);
+            return null;
+        }
+        session.setAttachment(CHUNK_STATE_KEY, state, State.Transaction);
+        return state;
+    }
+
+    /**
+     * Write the given part of a chunk to the message
+     * 
+     * @return response if the message can not be accepted anymore or <code>null</code>
+     */
+    private Response writeChunk(SMTPSession session, ChunkState state, ByteBuffer chunk, int length) {
+        state.size += length;
+        long maxMessageSize = session.getConfiguration().getMaxMessageSize();
+        if (maxMessageSize > 0 && state.size > maxMessageSize) {
+            session.getLogger().error("Rejected message from " + state.env.getSender() + " from " + session.getRemoteAddress().getAddress().getHostAddress()
+                    + " exceeding system maximum message size of " + maxMessageSize);
+            return QUOTA_EXCEEDED;
+        }
+        try {
+            if (state.head == null) {
+                write(state.env.getMessageOutputStream(), chunk, length);
+            } else {
+                appendHead(state, chunk, length);
+                writeHead(session, state, false);
+            }
+        } catch (IOException e) {
+            session.getLogger().error("Unknown error occurred while processing BDAT.", e);
+            return ERROR_PROCESSING_MESSAGE;
+        }
+        return null;
+    }
+
+    private static void write(OutputStream out, ByteBuffer chunk, int length) throws IOException {
+        if (chunk.hasArray()) {
+            out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+        } else {
+            byte[] bytes = new byte[length];
+            chunk.get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    private static void appendHead(ChunkState state, ByteBuffer chunk, int length) {
+        int required = state.headLength + length;
+        if (required > state.head.length) {
+            byte[] head = new byte[Math.max(state.head.length * 2, required)];
+            System.arraycopy(state.head, 0, head, 0, state.headLength);
+            state.head = head;
+        }
+        chunk.get(state.head, state.headLength, length);
+        state.headLength = required;
+    }
+
+    /**
+     * Write the buffered head of the message with the headers which must be added at the end of the headers, once the
+     * empty line which separates the headers from the body was received. If the end of the message is reached before
+     * or the head gets too big, it is written without the headers, like the {@link SeparatingDataLineFilter} does.
+     */
+    private void writeHead(SMTPSession session, ChunkState state, boolean end) throws IOException {
+        byte[] head = state.head;
+        int length = state.headLength;
+        int separator = indexOfSeparator(head, length, state.searched);
+        if (separator < 0 && !end && length < MAX_HEAD_LENGTH) {
+            // only the last bytes can be the start of a separator which is completed by the next part
+            state.searched = Math.max(0, length - 3);
+            return;
+        }
+        state.head = null;
+        OutputStream out = state.env.getMessageOutputStream();
+        if (separator < 0) {
+            out.write(head, 0, length);
+        } else {
+            out.write(head, 0, separator);
+            writeHeaders(session, suffixFilters, out);
+            out.write(head, separator, length - separator);
+        }
+    }
+
+    /**
+     * Return the index of the empty line which separates the headers from the body or <code>-1</code>. The bytes before
+     * the given offset were already searched.
+     */
+    private static int indexOfSeparator(byte[] head, int length, int offset) {
+        if (offset == 0 && length >= 2 && head[0] == '\r' && head[1] == '\n') {
+            return 0;
+        }
+        for (int i = offset; i + 3 < length; i++) {
+            if (head[i] == '\r' && head[i + 1] == '\n' && head[i + 2] == '\r' && head[i + 3] == '\n') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeHeaders(SMTPSession session, List<AbstractAddHeadersFilter> filters, OutputStream out) throws IOException {
+        OutputLineHandler handler = new OutputLineHandler(out);
+        for (int i = 0; i < filters.size(); i++) {
+            for (Header header: filters.get(i).headers(session)) {
+                header.transferTo(session, handler);
+                if (handler.exception != null) {
+                    throw handler.exception;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass the received message to the {@link MessageHook}'s
+     */
+    private Response completeMessage(SMTPSession session, ChunkState state) {
+        MailEnvelopeImpl env = state.env;
+        try {
+            if (state.head != null) {
+                writeHead(session, state, true);
+            }
+            OutputStream out = env.getMessageOutputStream();
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            session.getLogger().error("Unknown error occurred while processing BDAT.", e);
+            session.resetState();
+            return ERROR_PROCESSING_MESSAGE;
+        }
+        messageHandler.computeDigest(session, env);
+        Response response = messageHandler.processExtensions(session, env);
+        session.resetState();
+        return response;
+    }
+
+    /**
+     * Return the size of the chunk of a BDAT command with the given argument or <code>-1</code> if the argument is not valid
+     * 
+     * @param argument
+     * @return size
+     */
+    public static long parseChunkSize(String argument) {
+        if (argument == null) {
+            return -1;
+        }
+        StringTokenizer tokens = new StringTokenizer(argument, " ");
+        int count = tokens.countTokens();
+        if (count < 1 || count > 2) {
+            return -1;
+        }
+        String size = tokens.nextToken();
+        if (count == 2 && !LAST.equalsIgnoreCase(tokens.nextToken())) {
+            return -1;
+        }
+        // more digits would not fit into a long
+        if (size.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < size.length(); i++) {
+            char c = size.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(size);
+    }
+
+    private static boolean isLastChunk(String argument) {
+        return argument.trim().toUpperCase(Locale.US).endsWith(LAST);
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
+     */
+    public Collection<String> getImplCommands() {
+        return COMMANDS;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.core.esmtp.EhloExtension#getImplementedEsmtpFeatures(org.apache.james.protocols.smtp.SMTPSession)
+     */
+    public List<String> getImplementedEsmtpFeatures(SMTPSession session) {
+        return FEATURES;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.MailParametersHook#doMailParameter(org.apache.james.protocols.smtp.SMTPSession, java.lang.String, java.lang.String)
+     */
+    public HookResult doMailParameter(SMTPSession session, String paramName, String paramValue) {
+        String body = paramValue.toUpperCase(Locale.US);
+        if (BINARYMIME.equals(body)) {
+            session.setAttachment(BINARYMIME_KEY, Boolean.TRUE, State.Transaction);
+        } else if (!"7BIT".equals(body) && !"8BITMIME".equals(body)) {
+            return UNSUPPORTED_BODY;
+        }
+        return null;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.MailParametersHook#getMailParamNames()
+     */
+    public String[] getMailParamNames() {
+        return MAIL_PARAMS;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.ChunkLengthParser#newLineTracker()
+     */
+    public LineTracker newLineTracker() {
+        return new BdatLineTracker();
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.ExtensibleHandler#getMarkerInterfaces()
+     */
+    public List<Class<?>> getMarkerInterfaces() {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        classes.add(DataLineFilter.class);
+        return classes;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.ExtensibleHandler#wireExtensions(java.lang.Class, java.util.List)
+     */
+    @SuppressWarnings("rawtypes")
+    public void wireExtensions(Class interfaceName, List extension) throws WiringException {
+        if (DataLineFilter.class.equals(interfaceName)) {
+            prefixFilters.clear();
+            suffixFilters.clear();
+            messageHandler = null;
+            for (int i = 0; i < extension.size(); i++) {
+                Object filter = extension.get(i);
+                if (filter instanceof AbstractAddHeadersFilter) {
+                    AbstractAddHeadersFilter headersFilter = (AbstractAddHeadersFilter) filter;
+                    if (headersFilter.getLocation() == Location.Prefix) {
+                        prefixFilters.add(headersFilter);
+                    } else {
+                        suffixFilters.add(headersFilter);
+                    }
+                } else if (filter instanceof DataLineMessageHookHandler) {
+                    messageHandler = (DataLineMessageHookHandler) filter;
+                }
+            }
+            if (messageHandler == null) {
+                throw new WiringException("No " + DataLineMessageHookHandler.class.getName() + " configured");
+            }
+        }
+    }
+
+    /**
+     * The state of the message which is received with BDAT
+     */
+    private static final class ChunkState {
+        private final MailEnvelopeImpl env;
+
+        // the received bytes of all chunks
+        private long size;
+
+        // the head of the message while the end of the headers is searched
+        private byte[] head;
+        private int headLength;
+
+        // the bytes of the head before this offset do not start the end of the headers
+        private int searched;
+
+        public ChunkState(MailEnvelopeImpl env) {
+            this.env = env;
+        }
+    }
+
+    /**
+     * {@link LineHandler} which receives one chunk. The transport passes the chunk in one or more parts as it is
+     * received.
+     */
+    private final class ChunkLineHandler implements LineHandler<SMTPSession> {
+        private final ChunkState state;
+        private final long size;
+        private final boolean last;
+        private long remaining;
+        private Response error;
+
+        public ChunkLineHandler(ChunkState state, long size, boolean last, Response error) {
+            this.state = state;
+            this.size = size;
+            this.last = last;
+            this.remaining = size;
+            this.error = error;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
+         */
+        public Response onLine(SMTPSession session, ByteBuffer chunk) {
+            int length = (int) Math.min(chunk.remaining(), remaining);
+            remaining -= length;
+            if (error == null) {
+                error = writeChunk(session, state, chunk, length);
+            }
+            if (remaining > 0) {
+                return null;
+            }
+            session.popLineHandler();
+            return onChunkComplete(session);
+        }
+
+        public Response onChunkComplete(SMTPSession session) {
+            if (error != null) {
+                // the whole transaction fails, so the following chunks are rejected
+                session.resetState();
+                return error;
+            }
+            if (last) {
+                return completeMessage(session, state);
+            }
+            return new SMTPResponse(SMTPRetCode.MAIL_OK, DSNStatus.getStatus(DSNStatus.SUCCESS, DSNStatus.UNDEFINED_STATUS) + " " + size + " octets received");
+        }
+    }
+
+    /**
+     * Tell the {@link LineTracker} of the session that the following lines are the message of a DATA command, up to the
+     * line which only contains a dot. This must be called before the 354 response is written.
+     * 
+     * @param session
+     */
+    public static void startData(SMTPSession session) {
+        if (session instanceof ProtocolSessionImpl) {
+            ProtocolTransport transport = ((ProtocolSessionImpl) session).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                LineTracker tracker = ((AbstractProtocolTransport) transport).getLineTracker();
+                if (tracker instanceof BdatLineTracker) {
+                    ((BdatLineTracker) tracker).startData();
+                }
+            }
+        }
+    }
+
+    /**
+     * Detects the BDAT commands in the received lines. The lines of a message sent with DATA are skipped, so a line in
+     * a message can not be taken for a BDAT command.
+     * 
+     * A DATA line alone does not start a message, as the command may be rejected. The {@link DataCmdHandler} calls
+     * {@link BdatCmdHandler#startData(SMTPSession)} once it accepted the command. The client must wait for the 354
+     * response before it sends the message (RFC 2920), so this happens before the first line of the message is received.
+     */
+    static final class BdatLineTracker implements LineTracker {
+        private static final byte[] BDAT = { 'B', 'D', 'A', 'T', ' ' };
+
+        // set by the thread which processes the DATA command
+        private volatile boolean data = false;
+
+        /**
+         * The following lines are the message of a DATA command
+         */
+        void startData() {
+            data = true;
+        }
+
+        public long onLine(ByteBuffer line) {
+            int start = line.position();
+            int end = line.limit();
+            if (data) {
+                // the message ends with a line which only contains a dot
+                if (end - start == 3 && line.get(start) == '.' && line.get(start + 1) == '\r' && line.get(start + 2) == '\n') {
+                    data = false;
+                }
+                return -1;
+            }
+
+            // trim the same way the command is parsed
+            while (start < end && (line.get(start) & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (line.get(end - 1) & 0xff) <= ' ') {
+                end--;
+            }
+            if (end - start > BDAT.length && startsWith(line, start, BDAT)) {
+                char[] argument = new char[end - start - BDAT.length];
+                for (int i = 0; i < argument.length; i++) {
+                    argument[i] = (char) (line.get(start + BDAT.length + i) & 0xff);
+                }
+                return parseChunkSize(new String(argument));
+            }
+            return -1;
+        }
+
+        private static boolean startsWith(ByteBuffer line, int start, byte[] prefix) {
+            for (int i = 0; i < prefix.length; i++) {
+                int c = line.get(start + i);
+                if (c >= 'a' && c <= 'z') {
+                    c -= 'a' - 'A';
+                }
+                if (c != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * {@link LineHandler} which writes the lines of the added headers to the message
+     */
+    private static final class OutputLineHandler implements LineHandler<SMTPSession> {
+        private final OutputStream out;
+        private IOException exception;
+
+        public OutputLineHandler(OutputStream out) {
+            this.out = out;
+        }
+
+        public Response onLine(SMTPSession session, ByteBuffer line) {
+            try {
+                write(out, line, line.remaining());
+            } catch (IOException e) {
+                exception = e;
+                return ERROR_PROCESSING_MESSAGE;
+            }
+            return null;
+        }
+    }
+}
@@ -19,13 +19,13 @@
 package org.apache.james.protocols.smtp.core;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
@@ -36,6 +36,8 @@ import org.apache.james.protocols.api.handler.WiringException;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailEnvelope;
 import org.apache.james.protocols.smtp.MailEnvelopeImpl;
+import org.apache.james.protocols.smtp.MessageHeaders;
+import org.apache.james.protocols.smtp.RecipientList;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -50,6 +52,8 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
     private static final Response NO_RECIPIENT = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" No recipients specified").immutable();
     private static final Response NO_SENDER = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" No sender specified").immutable();
     private static final Response UNEXPECTED_ARG = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_COMMAND_UNRECOGNIZED, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_INVALID_ARG)+" Unexpected argument provided with DATA command").immutable();
+    private static final Response BDAT_STARTED = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" DATA can not be used after BDAT").immutable();
+    private static final Response BINARYMIME_NEEDS_BDAT = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.DELIVERY_OTHER)+" BODY=BINARYMIME requires BDAT").immutable();
     private static final Response DATA_READY = new SMTPResponse(SMTPRetCode.DATA_READY, "Ok Send data ending with <CRLF>.<CRLF>").immutable();
     private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList("DATA"));
 
@@ -88,9 +92,35 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
     }
    
     public final static String MAILENV = "MAILENV";
+    public final static AttachmentKey<MailEnvelope> MAILENV_KEY = AttachmentKey.of(MAILENV, MailEnvelope.class);
     
     private LineHandler<SMTPSession> lineHandler;
     
+    /**
+     * {@link LineHandler} which adds the header lines to the {@link MessageHeaders} of the transaction before they are
+     * passed to the {@link DataLineFilter}'s, so the headers are parsed only once
+     */
+    public static final class HeaderIndexLineHandler implements LineHandler<SMTPSession> {
+
+        private LineHandler<SMTPSession> next;
+
+        public HeaderIndexLineHandler(LineHandler<SMTPSession> next) {
+            this.next = next;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
+         */
+        public Response onLine(SMTPSession session, ByteBuffer line) {
+            MessageHeaders headers = session.getAttachment(MessageHeaders.HEADERS_KEY, ProtocolSession.State.Transaction);
+            if (headers != null && !headers.isBodyStarted()) {
+                headers.addLine(line);
+            }
+            return next.onLine(session, line);
+        }
+    }
+    
     /**
      * process DATA command
      *
@@ -115,11 +145,12 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
      * @param session SMTP session object
      * @param argument the argument passed in with the command by the SMTP client
      */
-    @SuppressWarnings("unchecked")
     protected Response doDATA(SMTPSession session, String argument) {
-        MailEnvelope env = createEnvelope(session, (MailAddress) session.getAttachment(SMTPSession.SENDER,ProtocolSession.State.Transaction), new ArrayList<MailAddress>((Collection<MailAddress>)session.getAttachment(SMTPSession.RCPT_LIST,ProtocolSession.State.Transaction)));
-        session.setAttachment(MAILENV, env,ProtocolSession.State.Transaction);
+        MailEnvelope env = createEnvelope(session, session.getAttachment(SMTPSession.SENDER_KEY, ProtocolSession.State.Transaction), RecipientList.of(session.getAttachment(SMTPSession.RCPT_LIST_KEY, ProtocolSession.State.Transaction)));
+        session.setAttachment(MAILENV_KEY, env, ProtocolSession.State.Transaction);
+        session.setAttachment(MessageHeaders.HEADERS_KEY, new MessageHeaders(), ProtocolSession.State.Transaction);
         session.pushLineHandler(lineHandler);
+        BdatCmdHandler.startData(session);
         
         return DATA_READY;
     }
@@ -162,6 +193,7 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
             for (int i = extension.size() - 1; i >= 0; i--) {
                 lineHandler = new DataLineFilterWrapper((DataLineFilter) extension.get(i), lineHandler);
             }
+            lineHandler = new HeaderIndexLineHandler(lineHandler);
 
             this.lineHandler = lineHandler;
         }
@@ -171,10 +203,15 @@ public class DataCmdHandler implements CommandHandler<SMTPSession>, ExtensibleHa
         if ((argument != null) && (argument.length() > 0)) {
             return UNEXPECTED_ARG;
         }
-        if (session.getAttachment(SMTPSession.SENDER, ProtocolSession.State.Transaction) == null) {
+        if (session.getAttachment(SMTPSession.SENDER_KEY, ProtocolSession.State.Transaction) == null) {
             return NO_SENDER;
-        } else if (session.getAttachment(SMTPSession.RCPT_LIST, ProtocolSession.State.Transaction) == null) {
+        } else if (session.getAttachment(SMTPSession.RCPT_LIST_KEY, ProtocolSession.State.Transaction) == null) {
             return NO_RECIPIENT;
+        } else if (session.getAttachment(MAILENV_KEY, ProtocolSession.State.Transaction) != null) {
+            // RFC 3030 does not allow to mix DATA and BDAT in one transaction
+            return BDAT_STARTED;
+        } else if (session.getAttachment(BdatCmdHandler.BINARYMIME_KEY, ProtocolSession.State.Transaction) != null) {
+            return BINARYMIME_NEEDS_BDAT;
         }
         return null;
     }
@@ -24,19 +24,36 @@ package org.apache.james.protocols.smtp.core;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.ExtensibleHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
 import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.api.metrics.LatencyRecorder;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
+import org.apache.james.protocols.smtp.ContentDigest;
 import org.apache.james.protocols.smtp.MailEnvelopeImpl;
+import org.apache.james.protocols.smtp.MessageHeaders;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.ConcurrentMessageHook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookResultHook;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
@@ -46,16 +63,78 @@ import org.apache.james.protocols.smtp.hook.MessageHook;
  * This class handles the actual calling of the {@link MessageHook} implementations to queue the message. If no {@link MessageHook} return OK or DECLINED it will write back an
  * error to the client to report the problem while trying to queue the message 
  *
+ * If an {@link ExecutorService} is set, consecutive {@link ConcurrentMessageHook}'s are executed concurrently. Their
+ * results are passed to the {@link HookResultHook}'s in the configured order of the hooks, as soon as all hooks before
+ * are done, and the result which comes first in the configured precedence wins. If a result passed on has the highest
+ * precedence the hooks after it are cancelled, as they would not have been called one after the other.
+ * 
+ * While the body of the message is received its {@link ContentDigest} is computed, and set on the
+ * {@link MailEnvelopeImpl} before the {@link MessageHook}'s are called.
  */
 public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHandler {
 
     private static final Response ERROR_PROCESSING_MESSAGE = new SMTPResponse(SMTPRetCode.LOCAL_ERROR,DSNStatus.getStatus(DSNStatus.TRANSIENT,
             DSNStatus.UNDEFINED_STATUS) + " Error processing message").immutable();
     
+    private final static AttachmentKey<ContentDigest> DIGEST_KEY = AttachmentKey.of("CONTENT_DIGEST", ContentDigest.class);
+
     private List<?> messageHandlers;
     
     private List<?> rHooks;
+
+    private List<?> recorders;
+
+    private ExecutorService executor;
+
+    private String digestAlgorithm = ContentDigest.DEFAULT_ALGORITHM;
+
+    private int[] precedence = new int[] { HookReturnCode.DENY, HookReturnCode.DENYSOFT, HookReturnCode.OK, HookReturnCode.DECLINED };
     
+    /**
+     * Set the {@link ExecutorService} which is used to execute {@link ConcurrentMessageHook}'s concurrently. If it is
+     * not set, all {@link MessageHook}'s are executed one after the other. Default is <code>null</code>
+     * 
+     * This only shortens the time to the response to the time of the slowest hook. The thread which processes the
+     * message, which is usually the IO thread of the connection, still blocks until the slowest hook returned or one
+     * of them returned a result no other result can win against. The {@link HookResultHook}'s are still called in the
+     * configured order of the hooks.
+     * 
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the algorithm which is used to compute the {@link ContentDigest} of the messages or <code>null</code> to not
+     * compute it. Default is SHA-256
+     * 
+     * @param digestAlgorithm
+     */
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        if (digestAlgorithm != null) {
+            try {
+                MessageDigest.getInstance(digestAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unknown digest algorithm " + digestAlgorithm, e);
+            }
+        }
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * Set the precedence of the {@link HookReturnCode}'s which is used to merge the results of concurrently executed
+     * {@link ConcurrentMessageHook}'s, highest first. If several results have the same precedence, the one of the hook
+     * which is configured first wins. Default is DENY, DENYSOFT, OK, DECLINED
+     * 
+     * @param precedence
+     */
+    public void setResultPrecedence(int... precedence) {
+        if (precedence.length == 0) {
+            throw new IllegalArgumentException("At least one return code is needed");
+        }
+        this.precedence = precedence.clone();
+    }
 
 
     /*
@@ -63,7 +142,7 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
      * @see org.apache.james.protocols.smtp.core.DataLineFilter#onLine(org.apache.james.protocols.smtp.SMTPSession, java.nio.ByteBuffer, org.apache.james.protocols.api.handler.LineHandler)
      */
     public Response onLine(final SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
-        MailEnvelopeImpl env = (MailEnvelopeImpl) session.getAttachment(DataCmdHandler.MAILENV, ProtocolSession.State.Transaction);
+        MailEnvelopeImpl env = (MailEnvelopeImpl) session.getAttachment(DataCmdHandler.MAILENV_KEY, ProtocolSession.State.Transaction);
         OutputStream out = env.getMessageOutputStream();
         try {
             // 46 is "."
@@ -73,6 +152,7 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
                 out.flush();
                 out.close();
                 
+                computeDigest(session, env);
                 Response response = processExtensions(session, env);
                 session.popLineHandler();
                 session.resetState();
@@ -82,12 +162,15 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
             } else if (c == 46 && line.get() == 46) {
                 byte[] bline = readBytes(line);
                 out.write(bline,1,bline.length-1);
+                updateDigest(session, ByteBuffer.wrap(bline, 1, bline.length - 1));
             // Standard write
             } else {
                 // TODO: maybe we should handle the Header/Body recognition here
                 // and if needed let a filter to cache the headers to apply some
                 // transformation before writing them to output.
-                out.write(readBytes(line));
+                byte[] bline = readBytes(line);
+                out.write(bline);
+                updateDigest(session, ByteBuffer.wrap(bline));
             }
             out.flush();
         } catch (IOException e) {
@@ -112,6 +195,61 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
         return bline;
     }
 
+    /**
+     * Add the given line to the {@link ContentDigest} of the message, if it is a line of the body
+     */
+    private void updateDigest(SMTPSession session, ByteBuffer line) {
+        if (digestAlgorithm == null) {
+            return;
+        }
+        MessageHeaders headers = session.getAttachment(MessageHeaders.HEADERS_KEY, ProtocolSession.State.Transaction);
+        if (headers == null || !headers.isBodyStarted()) {
+            // the header fields are digested from the index
+            return;
+        }
+        ContentDigest digest = session.getAttachment(DIGEST_KEY, ProtocolSession.State.Transaction);
+        if (digest == null) {
+            digest = createDigest();
+            digest.updateHeaders(headers);
+            session.setAttachment(DIGEST_KEY, digest, ProtocolSession.State.Transaction);
+        }
+        digest.updateBody(line);
+    }
+
+    private ContentDigest createDigest() {
+        try {
+            return new ContentDigest(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unknown digest algorithm " + digestAlgorithm, e);
+        }
+    }
+
+    /**
+     * Set the {@link ContentDigest} of the message on the {@link MailEnvelopeImpl}. If it was not computed while the
+     * message was received, it is computed from the message now.
+     * 
+     * @param session
+     * @param mail
+     */
+    protected void computeDigest(SMTPSession session, MailEnvelopeImpl mail) {
+        if (digestAlgorithm == null) {
+            return;
+        }
+        ContentDigest digest = session.getAttachment(DIGEST_KEY, ProtocolSession.State.Transaction);
+        try {
+            if (digest != null) {
+                mail.setDigest(digest.getDigest());
+            } else {
+                mail.setDigest(ContentDigest.compute(digestAlgorithm, mail));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unknown digest algorithm " + digestAlgorithm, e);
+        } catch (IOException e) {
+            session.getLogger().error("Unable to compute the digest of the message", e);
+        }
+        session.setAttachment(DIGEST_KEY, null, ProtocolSession.State.Transaction);
+    }
+
     /**
      * @param session
      */
@@ -122,20 +260,21 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
             int count = messageHandlers.size();
             for (int i = 0; i < count; i++) {
                 MessageHook rawHandler = (MessageHook) messageHandlers.get(i);
-                session.getLogger().debug("executing message handler " + rawHandler);
-
-                long start = System.currentTimeMillis();
-                HookResult hRes = rawHandler.onMessage(session, mail);
-                long executionTime = System.currentTimeMillis() - start;
-
-                if (rHooks != null) {
-                    for (int i2 = 0; i2 < rHooks.size(); i2++) {
-                        Object rHook = rHooks.get(i2);
-                        session.getLogger().debug("executing hook " + rHook);
 
-                        hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHandler);
+                int end = i + 1;
+                if (executor != null && rawHandler instanceof ConcurrentMessageHook) {
+                    while (end < count && messageHandlers.get(end) instanceof ConcurrentMessageHook) {
+                        end++;
                     }
                 }
+                HookResult hRes;
+                if (end - i > 1) {
+                    hRes = executeConcurrently(session, mail, i, end);
+                    i = end - 1;
+                } else {
+                    HookExecution execution = new HookExecution(session, mail, rawHandler, i).call();
+                    hRes = processHookResultHooks(session, execution);
+                }
 
                 SMTPResponse response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(hRes);
 
@@ -156,6 +295,138 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
         return null;
     }
 
+    /**
+     * Execute the {@link ConcurrentMessageHook}'s between the given indexes concurrently and return the merged result
+     */
+    private HookResult executeConcurrently(SMTPSession session, MailEnvelopeImpl mail, int start, int end) {
+        try {
+            // make sure the hooks share the parsed headers instead of parsing them concurrently
+            MessageHeaders.get(session, mail);
+        } catch (IOException e) {
+            session.getLogger().debug("Unable to parse the headers of the message", e);
+        }
+
+        CompletionService<HookExecution> service = new ExecutorCompletionService<HookExecution>(executor);
+        List<Future<HookExecution>> futures = new ArrayList<Future<HookExecution>>(end - start);
+        // the executions by index, which are passed on once all executions before are passed on
+        HookExecution[] executions = new HookExecution[end - start];
+        int next = 0;
+        HookResult merged = null;
+        int mergedRank = Integer.MAX_VALUE;
+        try {
+            for (int i = start; i < end; i++) {
+                futures.add(service.submit(new HookExecution(session, mail, (MessageHook) messageHandlers.get(i), i)));
+            }
+            while (next < executions.length) {
+                HookExecution completed = service.take().get();
+                executions[completed.index - start] = completed;
+                while (next < executions.length && executions[next] != null) {
+                    HookExecution execution = executions[next++];
+                    HookResult hRes = processHookResultHooks(session, execution);
+                    int rank = rank(hRes);
+                    // on the same rank the result of the hook which comes first wins
+                    if (rank < mergedRank) {
+                        merged = hRes;
+                        mergedRank = rank;
+                    }
+                    if (rank == 0) {
+                        // no other result can win
+                        session.getLogger().debug("{} returned {}, cancel the other message handlers", execution.hook, hRes);
+                        return merged;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the message handlers", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).cancel(true);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Return the index of the given {@link HookResult} in the precedence. Results which are not listed come last
+     */
+    private int rank(HookResult hRes) {
+        int code = hRes == null ? HookReturnCode.DECLINED : hRes.getResult();
+        for (int i = 0; i < precedence.length; i++) {
+            if ((code & precedence[i]) == precedence[i]) {
+                return i;
+            }
+        }
+        return precedence.length;
+    }
+
+    /**
+     * Record the execution of the {@link MessageHook} and pass its result to the {@link HookResultHook}'s
+     */
+    private HookResult processHookResultHooks(SMTPSession session, HookExecution execution) {
+        HookResult hRes = execution.result;
+        if (recorders != null) {
+            for (int i = 0; i < recorders.size(); i++) {
+                ((LatencyRecorder) recorders.get(i)).recordHandler(execution.hook.getClass(), execution.nanos);
+            }
+        }
+        ProtocolTracer tracer = Tracing.getTracer();
+        if (tracer != null) {
+            tracer.hookExecuted(session.getSessionID(), "DATA", execution.hook.getClass(), hRes == null ? HookReturnCode.DECLINED : hRes.getResult(), execution.nanos);
+        }
+
+        if (rHooks != null) {
+            long executionTime = TimeUnit.NANOSECONDS.toMillis(execution.nanos);
+            for (int i = 0; i < rHooks.size(); i++) {
+                Object rHook = rHooks.get(i);
+                session.getLogger().debug("executing hook {}", rHook);
+
+                hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, execution.hook);
+            }
+        }
+        return hRes;
+    }
+
+    /**
+     * The call of a {@link MessageHook} and the time it took
+     */
+    private final static class HookExecution implements Callable<HookExecution> {
+        private final SMTPSession session;
+        private final MailEnvelopeImpl mail;
+        private final MessageHook hook;
+        private final int index;
+        private HookResult result;
+        private long nanos;
+
+        public HookExecution(SMTPSession session, MailEnvelopeImpl mail, MessageHook hook, int index) {
+            this.session = session;
+            this.mail = mail;
+            this.hook = hook;
+            this.index = index;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.util.concurrent.Callable#call()
+         */
+        public HookExecution call() {
+            session.getLogger().debug("executing message handler {}", hook);
+
+            long start = System.nanoTime();
+            result = hook.onMessage(session, mail);
+            nanos = System.nanoTime() - start;
+            return this;
+        }
+    }
+
     /**
      * @see org.apache.james.protocols.api.handler.ExtensibleHandler#wireExtensions(java.lang.Class, java.util.List)
      */
@@ -166,6 +437,8 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
             checkMessageHookCount(messageHandlers);
         } else if (HookResultHook.class.equals(interfaceName)) {
             this.rHooks = extension;
+        } else if (LatencyRecorder.class.equals(interfaceName)) {
+            this.recorders = extension;
         }
     }
 
@@ -181,6 +454,7 @@ public class DataLineMessageHookHandler implements DataLineFilter, ExtensibleHan
         List<Class<?>> classes = new LinkedList<Class<?>>();
         classes.add(MessageHook.class);
         classes.add(HookResultHook.class);
+        classes.add(LatencyRecorder.class);
         return classes;
     }
 
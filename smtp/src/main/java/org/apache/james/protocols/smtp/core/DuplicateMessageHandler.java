@@ -0,0 +1,123 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.cache.ExpiringLruCache;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookResultHook;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.MessageHook;
+
+/**
+ * {@link MessageHook} which accepts exact retransmissions of a message without calling the other {@link MessageHook}'s
+ * again. This happens when the client did not get the response for the first transmission, for example because of a
+ * timeout, and retries.
+ * 
+ * A message is a retransmission if it has the same sender, the same recipients and the same
+ * {@link MailEnvelope#getDigest()} as a message which was accepted within the configured window. Only messages which
+ * were accepted by another {@link MessageHook} are remembered, so a message which was rejected is processed again.
+ * 
+ * This handler must be configured in front of the other {@link MessageHook}'s.
+ */
+public class DuplicateMessageHandler implements MessageHook, HookResultHook {
+
+    private final static HookResult DUPLICATE = new HookResult(HookReturnCode.OK, "Message already received");
+
+    /** Default time in which retransmissions are detected: 1 hour */
+    private volatile long window = 3600000;
+
+    private volatile ExpiringLruCache<String, Boolean> accepted = new ExpiringLruCache<String, Boolean>(10000);
+
+    /**
+     * Set the time in milliseconds after the acceptance of a message in which retransmissions of it are detected
+     * 
+     * @param window
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Set the maximal count of remembered messages. This clears the cache.
+     * 
+     * @param cacheSize
+     */
+    public void setCacheSize(int cacheSize) {
+        this.accepted = new ExpiringLruCache<String, Boolean>(cacheSize);
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.MessageHook#onMessage(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailEnvelope)
+     */
+    public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+        String key = getKey(mail);
+        if (key != null && accepted.get(key) != null) {
+            session.getLogger().info("Accept retransmission of message {} without processing it again", mail.getDigest());
+            return DUPLICATE;
+        }
+        return HookResult.declined();
+    }
+
+    /**
+     * Remember the messages which were accepted by another {@link MessageHook}
+     * 
+     * @see org.apache.james.protocols.smtp.hook.HookResultHook#onHookResult(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.hook.HookResult, long, org.apache.james.protocols.smtp.hook.Hook)
+     */
+    public HookResult onHookResult(SMTPSession session, HookResult result, long executionTime, Hook hook) {
+        if (hook != this && hook instanceof MessageHook && result != null && (result.getResult() & HookReturnCode.OK) == HookReturnCode.OK) {
+            String key = getKey(session.getAttachment(DataCmdHandler.MAILENV_KEY, State.Transaction));
+            if (key != null) {
+                accepted.put(key, Boolean.TRUE, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the key of the given message in the cache or <code>null</code> if it has no digest
+     */
+    private static String getKey(MailEnvelope mail) {
+        if (mail == null || mail.getDigest() == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(mail.getDigest());
+        sb.append(' ');
+        MailAddress sender = mail.getSender();
+        if (sender != null) {
+            sb.append(sender.toLowerCase());
+        }
+        List<MailAddress> recipients = mail.getRecipients();
+        if (recipients != null) {
+            for (int i = 0; i < recipients.size(); i++) {
+                sb.append(' ').append(recipients.get(i).toLowerCase());
+            }
+        }
+        return sb.toString();
+    }
+}
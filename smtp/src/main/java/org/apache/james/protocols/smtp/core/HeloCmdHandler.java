@@ -30,7 +30,10 @@ import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncHeloHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
 import org.apache.james.protocols.smtp.hook.HeloHook;
+import org.apache.james.protocols.smtp.hook.Hook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 
 /**
@@ -61,7 +64,7 @@ public class HeloCmdHandler extends AbstractHookableCmdHandler<HeloHook> {
      */
     protected Response doCoreCmd(SMTPSession session, String command,
             String parameters) {
-        session.setAttachment(SMTPSession.CURRENT_HELO_MODE, COMMAND_NAME, ProtocolSession.State.Connection);
+        session.setAttachment(SMTPSession.CURRENT_HELO_MODE_KEY, COMMAND_NAME, ProtocolSession.State.Connection);
         StringBuilder response = new StringBuilder();
         response.append(session.getConfiguration().getHelloName()).append(
                 " Hello ").append(parameters).append(" [").append(
@@ -81,7 +84,7 @@ public class HeloCmdHandler extends AbstractHookableCmdHandler<HeloHook> {
             return DOMAIN_REQUIRED;
         } else {
             // store provided name
-            session.setAttachment(SMTPSession.CURRENT_HELO_NAME, parameters, State.Connection);
+            session.setAttachment(SMTPSession.CURRENT_HELO_NAME_KEY, parameters, State.Connection);
             return null;
         }
     }
@@ -101,5 +104,19 @@ public class HeloCmdHandler extends AbstractHookableCmdHandler<HeloHook> {
         return rawHook.doHelo(session, parameters);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected Class<AsyncHeloHook> getAsyncHookInterface() {
+        return AsyncHeloHook.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected FutureHookResult callAsyncHook(Hook rawHook, SMTPSession session, String parameters) {
+        return ((AsyncHeloHook) rawHook).doHelo(session, parameters);
+    }
+
 
 }
@@ -37,6 +37,9 @@ import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncMailHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.Hook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.MailHook;
 import org.apache.james.protocols.smtp.hook.MailParametersHook;
@@ -79,7 +82,7 @@ public class MailCmdHandler extends AbstractHookableCmdHandler<MailHook> {
         // Check if the response was not ok
         if (response.getRetCode().equals(SMTPRetCode.MAIL_OK) == false) {
             // cleanup the session
-            session.setAttachment(SMTPSession.SENDER, null,  State.Transaction);
+            session.setAttachment(SMTPSession.SENDER_KEY, null,  State.Transaction);
         }
 
         return response;
@@ -96,8 +99,8 @@ public class MailCmdHandler extends AbstractHookableCmdHandler<MailHook> {
      */
     private Response doMAIL(SMTPSession session, String argument) {
         StringBuilder responseBuffer = new StringBuilder();
-        MailAddress sender = (MailAddress) session.getAttachment(
-                SMTPSession.SENDER, State.Transaction);
+        MailAddress sender = session.getAttachment(
+                SMTPSession.SENDER_KEY, State.Transaction);
         responseBuffer.append(
                 DSNStatus.getStatus(DSNStatus.SUCCESS, DSNStatus.ADDRESS_OTHER))
                 .append(" Sender <");
@@ -147,10 +150,10 @@ public class MailCmdHandler extends AbstractHookableCmdHandler<MailHook> {
             sender = argument.substring(colonIndex + 1);
             argument = argument.substring(0, colonIndex);
         }
-        if (session.getAttachment(SMTPSession.SENDER, State.Transaction) != null) {
+        if (session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction) != null) {
             return SENDER_ALREADY_SPECIFIED;
         } else if (session.getAttachment(
-                SMTPSession.CURRENT_HELO_MODE, State.Connection) == null
+                SMTPSession.CURRENT_HELO_MODE_KEY, State.Connection) == null
                 && session.getConfiguration().useHeloEhloEnforcement()) {
             return EHLO_HELO_NEEDED;
         } else if (argument == null
@@ -252,7 +255,7 @@ public class MailCmdHandler extends AbstractHookableCmdHandler<MailHook> {
                 senderAddress = MailAddress.nullSender();
             }
             // Store the senderAddress in session map
-            session.setAttachment(SMTPSession.SENDER, senderAddress, State.Transaction);
+            session.setAttachment(SMTPSession.SENDER_KEY, senderAddress, State.Transaction);
         }
         return null;
     }
@@ -268,13 +271,31 @@ public class MailCmdHandler extends AbstractHookableCmdHandler<MailHook> {
      * {@inheritDoc}
      */
     protected HookResult callHook(MailHook rawHook, SMTPSession session, String parameters) {
-        MailAddress sender = (MailAddress) session.getAttachment(SMTPSession.SENDER, State.Transaction);
+        MailAddress sender = session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction);
         if (sender.isNullSender()) {
             sender = null;
         }
         return rawHook.doMail(session, sender);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected Class<AsyncMailHook> getAsyncHookInterface() {
+        return AsyncMailHook.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected FutureHookResult callAsyncHook(Hook rawHook, SMTPSession session, String parameters) {
+        MailAddress sender = session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction);
+        if (sender.isNullSender()) {
+            sender = null;
+        }
+        return ((AsyncMailHook) rawHook).doMail(session, sender);
+    }
+
     
     /**
      * @see org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler#getMarkerInterfaces()
@@ -19,21 +19,25 @@
 
 package org.apache.james.protocols.smtp.core;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.StringTokenizer;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.RecipientList;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.Hook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.RcptHook;
 
@@ -45,6 +49,7 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
 
     public static final String CURRENT_RECIPIENT = "CURRENT_RECIPIENT"; // Current
                                                                         // recipient
+    public static final AttachmentKey<MailAddress> CURRENT_RECIPIENT_KEY = AttachmentKey.of(CURRENT_RECIPIENT, MailAddress.class);
     private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList("RCPT"));
     private static final Response MAIL_NEEDED = new SMTPResponse(SMTPRetCode.BAD_SEQUENCE, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_OTHER) + " Need MAIL before RCPT").immutable();
     private static final Response SYNTAX_ERROR_ARGS = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_SYNTAX) + " Usage: RCPT TO:<recipient>").immutable();
@@ -62,18 +67,17 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
      * @param parameters
      *            parameters passed in with the command by the SMTP client
      */
-    @SuppressWarnings("unchecked")
     protected Response doCoreCmd(SMTPSession session, String command,
             String parameters) {
-        Collection<MailAddress> rcptColl = (Collection<MailAddress>) session.getAttachment(
-                SMTPSession.RCPT_LIST, State.Transaction);
+        Collection<MailAddress> rcptColl = session.getAttachment(
+                SMTPSession.RCPT_LIST_KEY, State.Transaction);
         if (rcptColl == null) {
-            rcptColl = new ArrayList<MailAddress>();
+            rcptColl = new RecipientList();
         }
-        MailAddress recipientAddress = (MailAddress) session.getAttachment(
-                CURRENT_RECIPIENT, State.Transaction);
+        MailAddress recipientAddress = session.getAttachment(
+                CURRENT_RECIPIENT_KEY, State.Transaction);
         rcptColl.add(recipientAddress);
-        session.setAttachment(SMTPSession.RCPT_LIST, rcptColl, State.Transaction);
+        session.setAttachment(SMTPSession.RCPT_LIST_KEY, rcptColl, State.Transaction);
         StringBuilder response = new StringBuilder();
         response
                 .append(
@@ -98,7 +102,7 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
             recipient = argument.substring(colonIndex + 1);
             argument = argument.substring(0, colonIndex);
         }
-        if (session.getAttachment(SMTPSession.SENDER, State.Transaction) == null) {
+        if (session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction) == null) {
             return MAIL_NEEDED;
         } else if (argument == null
                 || !argument.toUpperCase(Locale.US).equals("TO")
@@ -195,7 +199,7 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
             optionTokenizer = null;
         }
 
-        session.setAttachment(CURRENT_RECIPIENT,recipientAddress, State.Transaction);
+        session.setAttachment(CURRENT_RECIPIENT_KEY, recipientAddress, State.Transaction);
 
         return null;
     }
@@ -207,8 +211,9 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
         } else if (null != recipient) {
             sb.append(" [to:" + recipient + "]");
         }
-        if (null != session.getAttachment(SMTPSession.SENDER, State.Transaction)) {
-            sb.append(" [from:" + ((MailAddress) session.getAttachment(SMTPSession.SENDER, State.Transaction)).toString() + "]");
+        MailAddress sender = session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction);
+        if (null != sender) {
+            sb.append(" [from:" + sender.toString() + "]");
         }
         return sb.toString();
     }
@@ -233,8 +238,53 @@ public class RcptCmdHandler extends AbstractHookableCmdHandler<RcptHook> impleme
     protected HookResult callHook(RcptHook rawHook, SMTPSession session,
             String parameters) {
         return rawHook.doRcpt(session,
-                (MailAddress) session.getAttachment(SMTPSession.SENDER, State.Transaction),
-                (MailAddress) session.getAttachment(CURRENT_RECIPIENT, State.Transaction));
+                session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction),
+                session.getAttachment(CURRENT_RECIPIENT_KEY, State.Transaction));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Class<AsyncRcptHook> getAsyncHookInterface() {
+        return AsyncRcptHook.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected FutureHookResult callAsyncHook(Hook rawHook, SMTPSession session, String parameters) {
+        return ((AsyncRcptHook) rawHook).doRcpt(session,
+                session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction),
+                session.getAttachment(CURRENT_RECIPIENT_KEY, State.Transaction));
+    }
+
+    /**
+     * More RCPT commands can be processed while the asynchronous hooks of the previous ones are running, so the
+     * recipients of a pipelined transaction can be looked up at the same time
+     * 
+     * @see org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler#getPipelinedCommands()
+     */
+    protected Collection<String> getPipelinedCommands() {
+        return COMMANDS;
+    }
+
+    /**
+     * Pipelined RCPT commands are processed while the asynchronous hooks of the previous ones are still running, so
+     * the current recipient must be restored once they are done
+     * 
+     * @see org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler#getCommandState(org.apache.james.protocols.smtp.SMTPSession)
+     */
+    protected Object getCommandState(SMTPSession session) {
+        return session.getAttachment(CURRENT_RECIPIENT_KEY, State.Transaction);
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler#restoreCommandState(org.apache.james.protocols.smtp.SMTPSession, java.lang.Object)
+     */
+    protected void restoreCommandState(SMTPSession session, Object state) {
+        if (state != null) {
+            session.setAttachment(CURRENT_RECIPIENT_KEY, (MailAddress) state, State.Transaction);
+        }
     }
 
     protected String getDefaultDomain() {
@@ -20,9 +20,11 @@ package org.apache.james.protocols.smtp.core;
 
 import java.nio.ByteBuffer;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.MessageHeaders;
 import org.apache.james.protocols.smtp.SMTPSession;
 
 /**
@@ -42,17 +44,28 @@ import org.apache.james.protocols.smtp.SMTPSession;
  * {@link #onSeparatorLine(SMTPSession, ByteBuffer, LineHandler)}</br>
  * {@link #onBodyLine(SMTPSession, ByteBuffer, LineHandler)}</br>
  * 
+ * If the {@link MessageHeaders} of the transaction are available, they are used to find the start of the body.
+ * 
  *
  */
 public abstract class SeparatingDataLineFilter implements DataLineFilter{
 
-    private static final String HEADERS_COMPLETE = "HEADERS_COMPLETE";
+    private static final AttachmentKey<Boolean> HEADERS_COMPLETE = AttachmentKey.of("HEADERS_COMPLETE", Boolean.class);
     
     /*
      * (non-Javadoc)
      * @see org.apache.james.protocols.smtp.core.DataLineFilter#onLine(org.apache.james.protocols.smtp.SMTPSession, java.nio.ByteBuffer, org.apache.james.protocols.api.handler.LineHandler)
      */
     public final Response onLine(SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
+        MessageHeaders headers = session.getAttachment(MessageHeaders.HEADERS_KEY, State.Transaction);
+        if (headers != null) {
+            if (headers.isBodyStarted()) {
+                return onBodyLine(session, line, next);
+            } else if (isSeparator(line)) {
+                return onSeparatorLine(session, line, next);
+            }
+            return onHeadersLine(session, line, next);
+        }
         if (session.getAttachment(HEADERS_COMPLETE, State.Transaction) == null) {
             if (line.remaining() == 2 ) {
                 if (line.get() == '\r' && line.get() == '\n') {
@@ -68,6 +81,11 @@ public abstract class SeparatingDataLineFilter implements DataLineFilter{
         
         return onBodyLine(session, line, next);
     }
+
+    private static boolean isSeparator(ByteBuffer line) {
+        int pos = line.position();
+        return line.remaining() == 2 && line.get(pos) == '\r' && line.get(pos + 1) == '\n';
+    }
     
     /**
      * Gets called when the separating line is received. This is the CLRF sequence. 
@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.handler.UnknownCommandHandler;
 import org.apache.james.protocols.api.Response;
@@ -45,6 +46,8 @@ public class UnknownCmdHandler extends AbstractHookableCmdHandler<UnknownHook>{
      */
     private static final Collection<String> COMMANDS = Collections.unmodifiableCollection(Arrays.asList(UnknownCommandHandler.COMMAND_IDENTIFIER));
 
+    private static final AttachmentKey<String> CURR_COMMAND = AttachmentKey.of("CURR_COMMAND", String.class);
+
     /**
      * @see org.apache.james.protocols.api.handler.CommandHandler#getImplCommands()
      */
@@ -61,13 +64,13 @@ public class UnknownCmdHandler extends AbstractHookableCmdHandler<UnknownHook>{
 
     @Override
     protected Response doFilterChecks(SMTPSession session, String command, String parameters) {
-        session.setAttachment("CURR_COMMAND", command, State.Transaction);
+        session.setAttachment(CURR_COMMAND, command, State.Transaction);
         return null;
     }
 
     @Override
     protected HookResult callHook(UnknownHook rawHook, SMTPSession session, String parameters) {
-        return rawHook.doUnknown(session, (String) session.getAttachment("CURR_COMMAND", State.Transaction));
+        return rawHook.doUnknown(session, session.getAttachment(CURR_COMMAND, State.Transaction));
     }
 
     @Override
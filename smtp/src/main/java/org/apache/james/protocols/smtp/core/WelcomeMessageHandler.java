@@ -20,19 +20,61 @@
 
 package org.apache.james.protocols.smtp.core;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.james.protocols.api.AttachmentKey;
+import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
 import org.apache.james.protocols.api.handler.ConnectHandler;
+import org.apache.james.protocols.api.handler.LineHandler;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.Tarpit;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
 
 /**
- * This ConnectHandler print the greeting on connecting
+ * This ConnectHandler print the greeting on connecting.
+ * 
+ * If a greeting delay is set the greeting is sent after the delay, without blocking a thread. Clients which send data
+ * before they got the greeting violate the protocol (RFC 5321 4.3.1) and are typically spam bots, so they get rejected
+ * and disconnected. Such sessions are marked with {@link #EARLY_TALKER_KEY}.
  */
 public class WelcomeMessageHandler implements ConnectHandler<SMTPSession> {
 
+    /**
+     * Set to {@link Boolean#TRUE} in the {@link State#Connection} attachments if the client sent data before the greeting
+     */
+    public final static AttachmentKey<Boolean> EARLY_TALKER_KEY = AttachmentKey.of("EARLY_TALKER", Boolean.class);
+
     private final static String SERVICE_TYPE = "SMTP";
     
+    private final static Response EARLY_TALKER;
+    
+    static {
+        SMTPResponse response = new SMTPResponse(SMTPRetCode.TRANSACTION_FAILED, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_OTHER) + " Protocol violation: input before greeting");
+        response.setEndSession(true);
+        EARLY_TALKER = response.immutable();
+    }
+
+    private long greetingDelay = 0;
+
+    /**
+     * Set the time in milliseconds by which the greeting is delayed. Default is 0 which means the greeting is sent
+     * directly and no early talker detection is done.
+     * 
+     * @param greetingDelay
+     */
+    public void setGreetingDelay(long greetingDelay) {
+        this.greetingDelay = greetingDelay;
+    }
+
     /**
      * @see org.apache.james.protocols.api.handler.ConnectHandler#onConnect(org.apache.james.protocols.api.ProtocolSession)
      */
@@ -52,9 +94,80 @@ public class WelcomeMessageHandler implements ConnectHandler<SMTPSession> {
         } else {
             welcomeResponse = new SMTPResponse(SMTPRetCode.SERVICE_READY,smtpGreeting);
         }
+        if (greetingDelay > 0) {
+            return new DelayedGreeting(session, welcomeResponse).schedule(greetingDelay);
+        }
         return welcomeResponse;
     }
 
+    /**
+     * Holds the greeting back until the delay is over and watches for input which arrives before. The timer thread and
+     * the thread which handles the input change the line handlers and the early talker state while holding the lock of
+     * the {@link SMTPSession}.
+     */
+    private final static class DelayedGreeting implements LineHandler<SMTPSession>, Runnable {
+        private final SMTPSession session;
+        private final Response greeting;
+        private final FutureResponseImpl response;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public DelayedGreeting(SMTPSession session, Response greeting) {
+            this.session = session;
+            this.greeting = greeting;
+            this.response = new FutureResponseImpl(session.getLogger());
+        }
+
+        private FutureResponse schedule(long delay) {
+            session.pushLineHandler(this);
+            final ScheduledFuture<?> task = Tarpit.getTimer().schedule(this, delay, TimeUnit.MILLISECONDS);
+            response.addListener(new ResponseListener() {
+                
+                public void onResponse(FutureResponse response) {
+                    task.cancel(false);
+                }
+            });
+            return response;
+        }
+
+        /**
+         * Release the greeting once the delay is over
+         */
+        public void run() {
+            synchronized (session) {
+                if (!released.compareAndSet(false, true)) {
+                    return;
+                }
+                // remove the handler before the greeting is written, as the client is allowed to talk after it
+                session.popLineHandler();
+            }
+            response.setResponse(greeting);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
+         */
+        public Response onLine(SMTPSession session, ByteBuffer buffer) {
+            boolean release;
+            synchronized (session) {
+                if (session.getAttachment(EARLY_TALKER_KEY, State.Connection) != null) {
+                    // already rejected, just wait for the disconnect
+                    return null;
+                }
+                session.setAttachment(EARLY_TALKER_KEY, Boolean.TRUE, State.Connection);
+                release = released.compareAndSet(false, true);
+            }
+            session.getLogger().info("Rejected early talker {}", session.getRemoteAddress().getAddress().getHostAddress());
+            if (release) {
+                response.setResponse(EARLY_TALKER);
+                return null;
+            } else {
+                // the greeting was released concurrently, so reject after it
+                return EARLY_TALKER;
+            }
+        }
+    }
+
     protected String getServiceType(SMTPSession session) {
         return SERVICE_TYPE;
     }
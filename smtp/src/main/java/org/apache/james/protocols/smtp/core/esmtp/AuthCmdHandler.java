@@ -30,19 +30,25 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.cache.CredentialCache;
 import org.apache.james.protocols.api.handler.CommandHandler;
 import org.apache.james.protocols.api.handler.ExtensibleHandler;
 import org.apache.james.protocols.api.handler.LineHandler;
 import org.apache.james.protocols.api.handler.WiringException;
+import org.apache.james.protocols.api.metrics.LatencyRecorder;
+import org.apache.james.protocols.api.trace.ProtocolTracer;
+import org.apache.james.protocols.api.trace.Tracing;
 import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
 import org.apache.james.protocols.smtp.hook.AuthHook;
+import org.apache.james.protocols.smtp.hook.Hook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookResultHook;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
@@ -71,6 +77,7 @@ public class AuthCmdHandler
     private static final Response AUTH_READY_USERNAME_LOGIN = new SMTPResponse(SMTPRetCode.AUTH_READY, "VXNlcm5hbWU6").immutable(); // base64 encoded "Username:"
     private static final Response AUTH_READY_PASSWORD_LOGIN = new SMTPResponse(SMTPRetCode.AUTH_READY, "UGFzc3dvcmQ6").immutable(); // base64 encoded "Password:
     private static final Response AUTH_FAILED = new SMTPResponse(SMTPRetCode.AUTH_FAILED, "Authentication Failed").immutable();
+    private static final Response AUTH_OK = new SMTPResponse(SMTPRetCode.AUTH_OK, "Authentication Succesfull").immutable();
     private static final Response UNKNOWN_AUTH_TYPE = new SMTPResponse(SMTPRetCode.PARAMETER_NOT_IMPLEMENTED, "Unrecognized Authentication Type").immutable();
     
     private abstract class AbstractSMTPLineHandler implements LineHandler<SMTPSession> {
@@ -127,7 +134,21 @@ public class AuthCmdHandler
     private List<AuthHook> hooks;
     
     private List<HookResultHook> rHooks;
+
+    private List<LatencyRecorder> recorders;
+
+    private volatile CredentialCache credentialCache;
     
+    /**
+     * Set the {@link CredentialCache} which remembers successful authentications, so clients which reconnect often
+     * do not call the {@link AuthHook}'s every time. Use <code>null</code> to disable it, which is the default.
+     * 
+     * @param credentialCache
+     */
+    public void setCredentialCache(CredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
     /**
      * handles AUTH command
      *
@@ -336,6 +357,14 @@ public class AuthCmdHandler
         }
 
         Response res = null;
+
+        CredentialCache credentialCache = this.credentialCache;
+        if (credentialCache != null && credentialCache.verify(user, pass)) {
+            res = doCachedAuth(session, user, authType);
+            if (res != null) {
+                return res;
+            }
+        }
         
         List<AuthHook> hooks = getHooks();
         
@@ -343,17 +372,28 @@ public class AuthCmdHandler
             int count = hooks.size();
             for (int i = 0; i < count; i++) {
                 AuthHook rawHook = hooks.get(i);
-                session.getLogger().debug("executing  hook " + rawHook);
+                session.getLogger().debug("executing  hook {}", rawHook);
                 
 
-                long start = System.currentTimeMillis();
+                long start = System.nanoTime();
                 HookResult hRes = rawHook.doAuth(session, user, pass);
-                long executionTime = System.currentTimeMillis() - start;
+                long nanos = System.nanoTime() - start;
+                long executionTime = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+                if (recorders != null) {
+                    for (int i2 = 0; i2 < recorders.size(); i2++) {
+                        recorders.get(i2).recordHandler(rawHook.getClass(), nanos);
+                    }
+                }
+                ProtocolTracer tracer = Tracing.getTracer();
+                if (tracer != null) {
+                    tracer.hookExecuted(session.getSessionID(), "AUTH", rawHook.getClass(), hRes == null ? HookReturnCode.DECLINED : hRes.getResult(), nanos);
+                }
 
                 if (rHooks != null) {
                     for (int i2 = 0; i2 < rHooks.size(); i2++) {
                         Object rHook = rHooks.get(i2);
-                        session.getLogger().debug("executing  hook " + rHook);
+                        session.getLogger().debug("executing  hook {}", rHook);
                     
                         hRes = ((HookResultHook) rHook).onHookResult(session, hRes, executionTime, rawHook);
                     }
@@ -365,6 +405,9 @@ public class AuthCmdHandler
                     if (SMTPRetCode.AUTH_FAILED.equals(res.getRetCode())) {
                         session.getLogger().info("AUTH method "+authType+" failed");
                     } else if (SMTPRetCode.AUTH_OK.equals(res.getRetCode())) {
+                        if (credentialCache != null) {
+                            credentialCache.store(user, pass);
+                        }
                         if (session.getLogger().isDebugEnabled()) {
                             // TODO: Make this string a more useful debug message
                             session.getLogger().debug("AUTH method "+authType+" succeeded");
@@ -381,6 +424,56 @@ public class AuthCmdHandler
     }
 
 
+    /**
+     * Answer AUTH for credentials which were verified by the {@link CredentialCache}. The {@link HookResultHook}'s see
+     * the cached result as the result of the {@link CachedCredentialsHook}, and on success the session gets the same
+     * state an accepting {@link AuthHook} gives it: the user is set and relaying is allowed.
+     * 
+     * @param session
+     * @param user
+     * @param authType
+     * @return response or <code>null</code> if the {@link HookResultHook}'s declined the cached result
+     */
+    private Response doCachedAuth(SMTPSession session, String user, String authType) {
+        HookResult hRes = HookResult.ok();
+
+        ProtocolTracer tracer = Tracing.getTracer();
+        if (tracer != null) {
+            tracer.hookExecuted(session.getSessionID(), "AUTH", CachedCredentialsHook.class, hRes.getResult(), 0);
+        }
+        if (rHooks != null) {
+            for (int i = 0; i < rHooks.size(); i++) {
+                HookResultHook rHook = rHooks.get(i);
+                session.getLogger().debug("executing  hook {}", rHook);
+
+                hRes = rHook.onHookResult(session, hRes, 0, CachedCredentialsHook.INSTANCE);
+            }
+        }
+
+        Response res = calcDefaultSMTPResponse(hRes);
+        if (res != null) {
+            if (SMTPRetCode.AUTH_OK.equals(res.getRetCode())) {
+                session.setUser(user);
+                session.setRelayingAllowed(true);
+                session.getLogger().debug("AUTH method {} succeeded with cached credentials", authType);
+            } else {
+                session.getLogger().info("AUTH method "+authType+" failed");
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The {@link Hook} which is passed to the {@link HookResultHook}'s when the {@link CredentialCache} answered AUTH
+     * instead of the {@link AuthHook}'s
+     */
+    public final static class CachedCredentialsHook implements Hook {
+        public final static CachedCredentialsHook INSTANCE = new CachedCredentialsHook();
+
+        private CachedCredentialsHook() {
+        }
+    }
+
     /**
      * Calculate the SMTPResponse for the given result
      * 
@@ -487,8 +580,9 @@ public class AuthCmdHandler
      * @see org.apache.james.protocols.api.handler.ExtensibleHandler#getMarkerInterfaces()
      */
     public List<Class<?>> getMarkerInterfaces() {
-        List<Class<?>> classes = new ArrayList<Class<?>>(1);
+        List<Class<?>> classes = new ArrayList<Class<?>>(2);
         classes.add(AuthHook.class);
+        classes.add(LatencyRecorder.class);
         return classes;
     }
 
@@ -506,6 +600,8 @@ public class AuthCmdHandler
             }
         } else if (HookResultHook.class.equals(interfaceName)) {
             this.rHooks = (List<HookResultHook>) extension;
+        } else if (LatencyRecorder.class.equals(interfaceName)) {
+            this.recorders = (List<LatencyRecorder>) extension;
         }
     }
     
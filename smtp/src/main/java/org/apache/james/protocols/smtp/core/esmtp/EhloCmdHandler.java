@@ -31,7 +31,10 @@ import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncHeloHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
 import org.apache.james.protocols.smtp.hook.HeloHook;
+import org.apache.james.protocols.smtp.hook.Hook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 
 /**
@@ -65,7 +68,7 @@ public class EhloCmdHandler extends AbstractHookableCmdHandler<HeloHook> impleme
                 .append(" [")
                 .append(session.getRemoteAddress().getAddress().getHostAddress()).append("])"));
         
-        session.setAttachment(SMTPSession.CURRENT_HELO_MODE,
+        session.setAttachment(SMTPSession.CURRENT_HELO_MODE_KEY,
                 COMMAND_NAME, State.Connection);
 
         processExtensions(session, resp);
@@ -146,7 +149,7 @@ public class EhloCmdHandler extends AbstractHookableCmdHandler<HeloHook> impleme
             return DOMAIN_ADDRESS_REQUIRED;
         } else {
             // store provided name
-            session.setAttachment(SMTPSession.CURRENT_HELO_NAME, parameters, State.Connection);
+            session.setAttachment(SMTPSession.CURRENT_HELO_NAME_KEY, parameters, State.Connection);
             return null;
         }
     }
@@ -165,6 +168,20 @@ public class EhloCmdHandler extends AbstractHookableCmdHandler<HeloHook> impleme
         return rawHook.doHelo(session, parameters);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected Class<AsyncHeloHook> getAsyncHookInterface() {
+        return AsyncHeloHook.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected FutureHookResult callAsyncHook(Hook rawHook, SMTPSession session, String parameters) {
+        return ((AsyncHeloHook) rawHook).doHelo(session, parameters);
+    }
+
 
 
     /**
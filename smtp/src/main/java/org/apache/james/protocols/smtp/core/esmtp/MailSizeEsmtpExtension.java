@@ -24,12 +24,16 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPResponse;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.core.DataCmdHandler;
 import org.apache.james.protocols.smtp.core.DataLineFilter;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
 import org.apache.james.protocols.smtp.hook.HookResult;
@@ -42,12 +46,17 @@ import org.apache.james.protocols.smtp.hook.MessageHook;
  */
 public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension, DataLineFilter, MessageHook {
 
-    private final static String MESG_SIZE = "MESG_SIZE"; // The size of the
-    private final static String MESG_FAILED = "MESG_FAILED";   // Message failed flag
+    private final static AttachmentKey<Integer> MESG_SIZE = AttachmentKey.of("MESG_SIZE", Integer.class); // The size of the
+    private final static AttachmentKey<Boolean> MESG_FAILED = AttachmentKey.of("MESG_FAILED", Boolean.class);   // Message failed flag
+    private final static String CURRENT_SIZE = "CURRENT_SIZE"; // Received bytes so far, as Long
+    private final static AttachmentKey<DataSize> DATA_SIZE = AttachmentKey.of(MailSizeEsmtpExtension.class.getName() + ".DATA_SIZE", DataSize.class); // Counter behind CURRENT_SIZE
     private final static String[] MAIL_PARAMS = { "SIZE" };
     
     private static final HookResult SYNTAX_ERROR = new HookResult(HookReturnCode.DENY, SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Syntactically incorrect value for SIZE parameter");
     private static final HookResult QUOTA_EXCEEDED = new HookResult(HookReturnCode.DENY, SMTPRetCode.QUOTA_EXCEEDED, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.SYSTEM_MSG_TOO_BIG) + " Message size exceeds fixed maximum message size");
+    private static final Response QUOTA_EXCEEDED_RESPONSE = new SMTPResponse(QUOTA_EXCEEDED.getSmtpRetCode(), QUOTA_EXCEEDED.getSmtpDescription()).immutable();
+
+    private final LineHandler<SMTPSession> discardHandler = new DiscardLineHandler();
 
 
 
@@ -56,8 +65,9 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
      */
     public HookResult doMailParameter(SMTPSession session, String paramName,
             String paramValue) {
+        MailAddress sender = session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction);
         HookResult res = doMailSize(session, paramValue,
-                (String) session.getAttachment(SMTPSession.SENDER, State.Transaction));
+                sender == null ? null : sender.toString());
         return res;
     }
 
@@ -136,59 +146,76 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
 
 
     /**
+     * Once the maximum message size is exceeded the message is discarded. The remaining lines are consumed by a
+     * {@link LineHandler} which only looks for the end of the message, so they are neither stored nor passed to other
+     * {@link DataLineFilter}'s or hooks. The client gets the error once it sent the whole message.
+     * 
      * @see org.apache.james.protocols.smtp.core.DataLineFilter#onLine(SMTPSession, byte[], LineHandler)
      */
     public Response onLine(SMTPSession session, ByteBuffer line, LineHandler<SMTPSession> next) {
-        Response response = null;
-    	Boolean failed = (Boolean) session.getAttachment(MESG_FAILED, State.Transaction);
-        // If we already defined we failed and sent a reply we should simply
-        // wait for a CRLF.CRLF to be sent by the client.
-        if (failed != null && failed.booleanValue()) {
-            // TODO
-        } else {
-            if (line.remaining() == 3 && line.get() == 46) {
-                line.rewind();
-                response = next.onLine(session, line);
-            } else {
-                line.rewind();
-                Long currentSize = (Long) session.getAttachment("CURRENT_SIZE", State.Transaction);
-                Long newSize;
-                if (currentSize == null) {
-                    newSize = Long.valueOf(line.remaining());
-                } else {
-                    newSize = Long.valueOf(currentSize.intValue()+line.remaining());
-                }
-                
-                if (session.getConfiguration().getMaxMessageSize() > 0 && newSize.intValue() > session.getConfiguration().getMaxMessageSize()) {
-                    // Add an item to the state to suppress
-                    // logging of extra lines of data
-                    // that are sent after the size limit has
-                    // been hit.
-                    session.setAttachment(MESG_FAILED, Boolean.TRUE, State.Transaction);
-                    // then let the client know that the size
-                    // limit has been hit.
-                    response = next.onLine(session, ByteBuffer.wrap(".\r\n".getBytes()));
-                } else {
-                    line.rewind();
-                    response = next.onLine(session, line);
-                }
-                
-                session.setAttachment("CURRENT_SIZE", newSize, State.Transaction);
+        DataSize currentSize = session.getAttachment(DATA_SIZE, State.Transaction);
+        if (isEndOfMessage(line)) {
+            if (currentSize != null) {
+                publishSize(session, currentSize);
             }
+            return next.onLine(session, line);
+        }
+        // the size is counted in place, so no new object is needed per line
+        if (currentSize == null) {
+            currentSize = new DataSize();
+            session.setAttachment(DATA_SIZE, currentSize, State.Transaction);
         }
-        return response;
+        currentSize.bytes += line.remaining();
+        
+        long maxMessageSize = session.getConfiguration().getMaxMessageSize();
+        if (maxMessageSize > 0 && currentSize.bytes > maxMessageSize) {
+            publishSize(session, currentSize);
+            session.setAttachment(MESG_FAILED, Boolean.TRUE, State.Transaction);
+            // drop what was received so far and discard the rest of the message
+            session.setAttachment(DataCmdHandler.MAILENV_KEY, null, State.Transaction);
+            session.pushLineHandler(discardHandler);
+            return null;
+        }
+        return next.onLine(session, line);
+    }
+
+    /**
+     * Store the count of received bytes as {@link Long} in the <code>CURRENT_SIZE</code> attachment. This is only done
+     * once the message is terminated or exceeded the maximum message size, so no {@link Long} is needed per line.
+     */
+    private static void publishSize(SMTPSession session, DataSize currentSize) {
+        session.setAttachment(CURRENT_SIZE, Long.valueOf(currentSize.bytes), State.Transaction);
+    }
+
+    /**
+     * Return the {@link Response} which is sent once a message which exceeded the maximum message size is terminated.
+     * It is called before the state of the transaction is reset.
+     * 
+     * @param session
+     * @return response
+     */
+    protected Response getQuotaExceededResponse(SMTPSession session) {
+        return QUOTA_EXCEEDED_RESPONSE;
+    }
+
+    /**
+     * Return <code>true</code> if the line is the terminating "." line. The position of the line is not changed.
+     */
+    private static boolean isEndOfMessage(ByteBuffer line) {
+        // 46 is "."
+        return line.remaining() == 3 && line.get(line.position()) == 46;
     }
 
     /**
      * @see org.apache.james.protocols.smtp.hook.MessageHook#onMessage(SMTPSession, MailEnvelope)
      */
     public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
-        Boolean failed = (Boolean) session.getAttachment(MESG_FAILED, State.Transaction);
+        Boolean failed = session.getAttachment(MESG_FAILED, State.Transaction);
         if (failed != null && failed.booleanValue()) {
             
             StringBuilder errorBuffer = new StringBuilder(256).append(
                     "Rejected message from ").append(
-                    session.getAttachment(SMTPSession.SENDER, State.Transaction).toString())
+                    session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction).toString())
                     .append(" from ").append(session.getRemoteAddress().getAddress().getHostAddress())
                     .append(" exceeding system maximum message size of ")
                     .append(
@@ -200,4 +227,43 @@ public class MailSizeEsmtpExtension implements MailParametersHook, EhloExtension
         }
     }
 
+    /**
+     * Consumes the lines of a message which exceeded the maximum message size until the message is terminated. It is
+     * pushed on top of the DATA {@link LineHandler}, so both are removed once the message is terminated.
+     */
+    private final class DiscardLineHandler implements LineHandler<SMTPSession> {
+
+        /*
+         * (non-Javadoc)
+         * @see org.apache.james.protocols.api.handler.LineHandler#onLine(org.apache.james.protocols.api.ProtocolSession, java.nio.ByteBuffer)
+         */
+        public Response onLine(SMTPSession session, ByteBuffer line) {
+            if (!isEndOfMessage(line)) {
+                return null;
+            }
+            DataSize currentSize = session.getAttachment(DATA_SIZE, State.Transaction);
+            MailAddress sender = session.getAttachment(SMTPSession.SENDER_KEY, State.Transaction);
+            StringBuilder errorBuffer = new StringBuilder(256).append(
+                    "Rejected message from ").append(sender)
+                    .append(" from ").append(session.getRemoteAddress().getAddress().getHostAddress())
+                    .append(" of at least ").append(currentSize.bytes)
+                    .append(" bytes exceeding system maximum message size of ")
+                    .append(session.getConfiguration().getMaxMessageSize());
+            session.getLogger().error(errorBuffer.toString());
+
+            Response response = getQuotaExceededResponse(session);
+            session.popLineHandler();
+            session.popLineHandler();
+            session.resetState();
+            return response;
+        }
+    }
+
+    /**
+     * The count of bytes which were received for the current message
+     */
+    private final static class DataSize {
+        private long bytes;
+    }
+
 }
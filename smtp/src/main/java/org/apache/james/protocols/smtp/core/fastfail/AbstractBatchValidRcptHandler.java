@@ -0,0 +1,249 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.apache.james.protocols.api.AttachmentKey;
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.api.ProtocolSessionImpl;
+import org.apache.james.protocols.api.ProtocolTransport;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+
+/**
+ * Handler which want todo an recipient check against a backend which can validate many recipients with one lookup,
+ * like a LDAP or SQL directory, should extend this.
+ * 
+ * All recipients of RCPT commands which the client sent at once (RFC 2920) are collected and validated with one call
+ * of {@link #isValidRecipients(SMTPSession, List)} once the batch was processed. The responses are still written
+ * per recipient and in order. If the client does not use pipelining, or the transport does not support batches, every
+ * recipient is validated on its own with {@link #isValidRecipient(SMTPSession, MailAddress)}.
+ * 
+ * The lookups are done by an {@link Executor}, so they don't block the thread which processes the commands. Commands
+ * which depend on the recipients, like DATA, are held back until the lookups are done.
+ */
+public abstract class AbstractBatchValidRcptHandler implements AsyncRcptHook {
+
+    private static final AttachmentKey<Map<AbstractBatchValidRcptHandler, PendingRecipients>> PENDING_KEY = AttachmentKey.of(AbstractBatchValidRcptHandler.class.getName() + ".PENDING_RECIPIENTS", Map.class);
+
+    private Executor executor;
+
+    /**
+     * Set the {@link Executor} which does the lookups. If none is set a shared pool of daemon threads is used.
+     * 
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.AsyncRcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailAddress)
+     */
+    public FutureHookResult doRcpt(final SMTPSession session, MailAddress sender, MailAddress rcpt) {
+        if (isLocalDomain(session, rcpt.getDomain()) == false) {
+            if (session.isRelayingAllowed() == false) {
+                session.getLogger().debug("Unknown domain {} so reject it", rcpt.getDomain());
+            }
+            return FutureHookResult.ready(HookResult.declined());
+        }
+
+        FutureHookResult future = new FutureHookResult();
+        Map<AbstractBatchValidRcptHandler, PendingRecipients> pendingPerHandler = session.getAttachment(PENDING_KEY, State.Connection);
+        if (pendingPerHandler == null) {
+            // there may be more than one handler in the chain
+            pendingPerHandler = new IdentityHashMap<AbstractBatchValidRcptHandler, PendingRecipients>(2);
+            session.setAttachment(PENDING_KEY, pendingPerHandler, State.Connection);
+        }
+        PendingRecipients pending = pendingPerHandler.get(this);
+        if (pending == null) {
+            pending = new PendingRecipients();
+            pending.add(rcpt, future);
+            pendingPerHandler.put(this, pending);
+            runAfterRequestBatch(session, new Runnable() {
+
+                public void run() {
+                    submit(session);
+                }
+            });
+        } else {
+            pending.add(rcpt, future);
+        }
+        return future;
+    }
+
+    private void runAfterRequestBatch(SMTPSession session, Runnable task) {
+        if (session instanceof ProtocolSessionImpl) {
+            ProtocolTransport transport = ((ProtocolSessionImpl) session).getProtocolTransport();
+            if (transport instanceof AbstractProtocolTransport) {
+                ((AbstractProtocolTransport) transport).runAfterRequestBatch(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Hand all recipients which were collected for the session over to the {@link Executor}
+     * 
+     * @param session
+     */
+    private void submit(final SMTPSession session) {
+        Map<AbstractBatchValidRcptHandler, PendingRecipients> pendingPerHandler = session.getAttachment(PENDING_KEY, State.Connection);
+        final PendingRecipients pending = pendingPerHandler == null ? null : pendingPerHandler.remove(this);
+        if (pending == null) {
+            return;
+        }
+        Executor executor = this.executor;
+        if (executor == null) {
+            executor = Lookups.EXECUTOR;
+        }
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    validate(session, pending);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            session.getLogger().error("Unable to validate recipients " + pending.recipients, e);
+            complete(session, pending, null);
+        }
+    }
+
+    /**
+     * Validate the given recipients and complete their {@link FutureHookResult}'s in order
+     * 
+     * @param session
+     * @param pending
+     */
+    private void validate(SMTPSession session, PendingRecipients pending) {
+        List<MailAddress> recipients = pending.recipients;
+        boolean[] valid = null;
+        try {
+            if (recipients.size() == 1) {
+                valid = new boolean[] { isValidRecipient(session, recipients.get(0)) };
+            } else {
+                valid = isValidRecipients(session, Collections.unmodifiableList(recipients));
+            }
+        } catch (RuntimeException e) {
+            session.getLogger().error("Unable to validate recipients " + recipients, e);
+        }
+        complete(session, pending, valid);
+    }
+
+    /**
+     * Complete the {@link FutureHookResult}'s with the result of the lookup. If it is <code>null</code> or too short
+     * the recipients are denied temporary.
+     */
+    private static void complete(SMTPSession session, PendingRecipients pending, boolean[] valid) {
+        List<MailAddress> recipients = pending.recipients;
+        for (int i = 0; i < recipients.size(); i++) {
+            HookResult result;
+            if (valid == null || i >= valid.length) {
+                result = new HookResult(HookReturnCode.DENYSOFT, SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.SYSTEM_OTHER) + " Temporary error while validating the recipient");
+            } else if (valid[i]) {
+                result = HookResult.declined();
+            } else {
+                //user not exist
+                session.getLogger().info("Rejected message. Unknown user: {}", recipients.get(i));
+                result = new HookResult(HookReturnCode.DENY, SMTPRetCode.MAILBOX_PERM_UNAVAILABLE, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.ADDRESS_MAILBOX) + " Unknown user: " + recipients.get(i).toString());
+            }
+            pending.futures.get(i).setResult(result);
+        }
+    }
+
+    /**
+     * Return true if email for the given recipient should get accepted. This is used if only one recipient needs to
+     * be validated.
+     * 
+     * The default implementation calls {@link #isValidRecipients(SMTPSession, List)}.
+     * 
+     * @param session
+     * @param recipient
+     * @return isValid
+     */
+    protected boolean isValidRecipient(SMTPSession session, MailAddress recipient) {
+        return isValidRecipients(session, Collections.singletonList(recipient))[0];
+    }
+
+    /**
+     * Validate all the given recipients with one lookup. The returned array must contain one entry per recipient, in
+     * the same order, which is true if email for the recipient should get accepted.
+     * 
+     * @param session
+     * @param recipients
+     * @return valid
+     */
+    protected abstract boolean[] isValidRecipients(SMTPSession session, List<MailAddress> recipients);
+
+    /**
+     * Return true if the domain is local
+     * 
+     * @param session
+     * @param domain
+     * @return local
+     */
+    protected abstract boolean isLocalDomain(SMTPSession session, String domain);
+
+    /**
+     * Holds the shared {@link Executor}, which is only created once it is needed
+     */
+    private final static class Lookups {
+        private final static Executor EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ValidRcptLookup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * The recipients of a batch, together with the {@link FutureHookResult}'s which wait for their validation
+     */
+    private final static class PendingRecipients {
+        private final List<MailAddress> recipients = new ArrayList<MailAddress>();
+        private final List<FutureHookResult> futures = new ArrayList<FutureHookResult>();
+
+        private void add(MailAddress recipient, FutureHookResult future) {
+            recipients.add(recipient);
+            futures.add(future);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.james.protocols.api.cache.BloomFilter;
+import org.apache.james.protocols.api.cache.ExpiringLruCache;
+import org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+
+/**
+ * {@link AbstractValidRcptHandler} which caches the results of the recipient and domain lookups, so the backend is
+ * not asked for every RCPT command.
+ * 
+ * Valid and unknown recipients are cached in two separate caches with their own time to live, so a dictionary attack
+ * can not push the valid recipients out of the cache. If {@link #loadLocalRecipients()} returns all local recipients,
+ * a {@link BloomFilter} of them is built and rebuilt periodically by a background thread, which replaces the filter
+ * once the new one is complete. Until the first filter is built the backend is asked. Recipients which are definitely
+ * not in the filter are rejected with a temporary error without asking the backend, as they may have been added after
+ * the last rebuild. The client then retries after the next one, so the rebuild interval should be chosen according to
+ * how fast new recipients must be accepted.
+ * 
+ * The background thread is started by {@link #init()}, or by the first RCPT command if it was not called, and stopped
+ * by {@link #destroy()}.
+ * 
+ * Recipients and domains are compared case-insensitive.
+ */
+public abstract class AbstractCachingValidRcptHandler extends AbstractValidRcptHandler implements LifecycleAwareProtocolHandler {
+
+    /** Default time to live of valid recipients and local domains: 5 minutes */
+    private volatile long positiveTTL = 300000;
+
+    /** Default time to live of unknown recipients and domains which are not local: 1 minute */
+    private volatile long negativeTTL = 60000;
+
+    /** Default interval to rebuild the filter: 10 minutes */
+    private volatile long rebuildInterval = 600000;
+
+    private volatile double falsePositiveRate = 0.01;
+
+    private volatile ExpiringLruCache<String, Boolean> validRecipients = new ExpiringLruCache<String, Boolean>(10000);
+    private volatile ExpiringLruCache<String, Boolean> unknownRecipients = new ExpiringLruCache<String, Boolean>(10000);
+    private volatile ExpiringLruCache<String, Boolean> domains = new ExpiringLruCache<String, Boolean>(1000);
+
+    private volatile BloomFilter filter;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService timer;
+
+    // the last error of the background thread, which is logged by the next RCPT command
+    private final AtomicReference<RuntimeException> rebuildError = new AtomicReference<RuntimeException>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong filterRejects = new AtomicLong();
+    private final AtomicLong backendLookups = new AtomicLong();
+
+    public void setPositiveTTL(long positiveTTL) {
+        this.positiveTTL = positiveTTL;
+    }
+
+    public void setNegativeTTL(long negativeTTL) {
+        this.negativeTTL = negativeTTL;
+    }
+
+    /**
+     * Set the interval in milliseconds in which the filter is rebuilt. This must be set before the filter is built the
+     * first time.
+     * 
+     * @param rebuildInterval
+     */
+    public void setRebuildInterval(long rebuildInterval) {
+        this.rebuildInterval = rebuildInterval;
+    }
+
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Set the maximal count of cached valid and the maximal count of cached unknown recipients. This clears the caches.
+     * 
+     * @param cacheSize
+     */
+    public void setCacheSize(int cacheSize) {
+        this.validRecipients = new ExpiringLruCache<String, Boolean>(cacheSize);
+        this.unknownRecipients = new ExpiringLruCache<String, Boolean>(cacheSize);
+    }
+
+    /**
+     * Reject recipients which are not in the filter with a temporary error, as they may have been added after the last
+     * rebuild
+     * 
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractValidRcptHandler#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailAddress)
+     */
+    public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+        HookResult result = super.doRcpt(session, sender, rcpt);
+        if (result.getResult() == HookReturnCode.DENY) {
+            String key = rcpt.toLowerCase();
+            if (unknownRecipients.get(key) == null && isFilterReject(key)) {
+                return new HookResult(HookReturnCode.DENYSOFT, SMTPRetCode.MAILBOX_TEMP_UNAVAILABLE, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.ADDRESS_MAILBOX) + " Unknown user: " + rcpt.toString() + ", try again later");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractValidRcptHandler#isValidRecipient(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress)
+     */
+    protected final boolean isValidRecipient(SMTPSession session, MailAddress recipient) {
+        String key = recipient.toLowerCase();
+        if (validRecipients.get(key) != null) {
+            cacheHits.incrementAndGet();
+            return true;
+        }
+        if (unknownRecipients.get(key) != null) {
+            cacheHits.incrementAndGet();
+            return false;
+        }
+        init();
+        RuntimeException error = rebuildError.getAndSet(null);
+        if (error != null) {
+            session.getLogger().error("Unable to load the local recipients", error);
+        }
+        if (isFilterReject(key)) {
+            filterRejects.incrementAndGet();
+            return false;
+        }
+
+        backendLookups.incrementAndGet();
+        if (lookupRecipient(session, recipient)) {
+            validRecipients.put(key, Boolean.TRUE, positiveTTL, TimeUnit.MILLISECONDS);
+            return true;
+        } else {
+            unknownRecipients.put(key, Boolean.TRUE, negativeTTL, TimeUnit.MILLISECONDS);
+            return false;
+        }
+    }
+
+    /**
+     * Return true if the recipient is definitely not in the filter of local recipients
+     */
+    private boolean isFilterReject(String key) {
+        BloomFilter filter = this.filter;
+        return filter != null && filter.mightContain(key) == false;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractValidRcptHandler#isLocalDomain(org.apache.james.protocols.smtp.SMTPSession, java.lang.String)
+     */
+    protected final boolean isLocalDomain(SMTPSession session, String domain) {
+        String key = domain.toLowerCase(Locale.US);
+        Boolean local = domains.get(key);
+        if (local == null) {
+            local = Boolean.valueOf(lookupLocalDomain(session, domain));
+            domains.put(key, local, local.booleanValue() ? positiveTTL : negativeTTL, TimeUnit.MILLISECONDS);
+        }
+        return local.booleanValue();
+    }
+
+    /**
+     * Start to build the filter of local recipients in the background. If this is not called it happens on the first
+     * RCPT command.
+     */
+    public void init() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ValidRcptFilter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    rebuildFilter();
+                } catch (RuntimeException e) {
+                    // better ask the backend than rejecting recipients based on an outdated filter
+                    filter = null;
+                    rebuildError.set(e);
+                }
+            }
+        }, 0, Math.max(1, rebuildInterval), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop to rebuild the filter
+     * 
+     * @see org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler#destroy()
+     */
+    public void destroy() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Rebuild the filter of local recipients with {@link #loadLocalRecipients()} now. The RCPT commands use the old
+     * filter until the new one is complete.
+     */
+    public void rebuildFilter() {
+        Collection<String> recipients = loadLocalRecipients();
+        if (recipients == null) {
+            filter = null;
+            return;
+        }
+        BloomFilter newFilter = new BloomFilter(recipients.size(), falsePositiveRate);
+        Iterator<String> it = recipients.iterator();
+        while (it.hasNext()) {
+            newFilter.put(it.next().toLowerCase(Locale.US));
+        }
+        filter = newFilter;
+    }
+
+    /**
+     * Return how often a recipient was found in the cache of valid or unknown recipients
+     * 
+     * @return cacheHits
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Return how often a recipient was rejected because it was not in the filter of local recipients
+     * 
+     * @return filterRejects
+     */
+    public long getFilterRejects() {
+        return filterRejects.get();
+    }
+
+    /**
+     * Return how often {@link #lookupRecipient(SMTPSession, MailAddress)} was called
+     * 
+     * @return backendLookups
+     */
+    public long getBackendLookups() {
+        return backendLookups.get();
+    }
+
+    /**
+     * Return the ratio of recipients which were validated without asking the backend
+     * 
+     * @return hitRate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = getCacheHits() + getFilterRejects();
+        long total = hits + getBackendLookups();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Return all local recipients as <code>user@domain</code>, or <code>null</code> if the backend can not list them.
+     * In that case no filter is used.
+     * 
+     * The default implementation returns <code>null</code>.
+     * 
+     * @return recipients
+     */
+    protected Collection<String> loadLocalRecipients() {
+        return null;
+    }
+
+    /**
+     * Return true if email for the given recipient should get accepted. This is only called if the result is not
+     * cached.
+     * 
+     * @param session
+     * @param recipient
+     * @return isValid
+     */
+    protected abstract boolean lookupRecipient(SMTPSession session, MailAddress recipient);
+
+    /**
+     * Return true if the domain is local. This is only called if the result is not cached.
+     * 
+     * @param session
+     * @param domain
+     * @return local
+     */
+    protected abstract boolean lookupLocalDomain(SMTPSession session, String domain);
+}
@@ -20,6 +20,7 @@
 package org.apache.james.protocols.smtp.core.fastfail;
 
 import java.util.Iterator;
+import java.util.Set;
 
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPRetCode;
@@ -28,6 +29,8 @@ import org.apache.james.protocols.smtp.dsn.DSNStatus;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.hook.RcptHook;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
 
 
 /**
@@ -35,7 +38,7 @@ import org.apache.james.protocols.smtp.hook.RcptHook;
  * 
  *
  */
-public abstract class AbstractGreylistHandler implements RcptHook {
+public abstract class AbstractGreylistHandler implements RcptHook, SessionClassAware {
 
     /** 1 hour */
     private long tempBlockTime = 3600000;
@@ -63,6 +66,18 @@ public abstract class AbstractGreylistHandler implements RcptHook {
         this.tempBlockTime = tempBlockTime;
     }
 
+    public long getUnseenLifeTime() {
+        return unseenLifeTime;
+    }
+
+    public long getAutoWhiteListLifeTime() {
+        return autoWhiteListLifeTime;
+    }
+
+    public long getTempBlockTime() {
+        return tempBlockTime;
+    }
+
 
     private HookResult doGreyListCheck(SMTPSession session, MailAddress senderAddress, MailAddress recipAddress) {
         String recip = "";
@@ -79,14 +94,16 @@ public abstract class AbstractGreylistHandler implements RcptHook {
             int count = 0;
             
             // get the timestamp when he triplet was last seen
-            Iterator<String> data = getGreyListData(ipAddress, sender, recip);
+            long[] data = getTriplet(ipAddress, sender, recip);
             
-            if (data.hasNext()) {
-                createTimeStamp = Long.parseLong(data.next());
-                count = Integer.parseInt(data.next());
+            if (data != null) {
+                createTimeStamp = data[0];
+                count = (int) data[1];
             }
             
-            session.getLogger().debug("Triplet " + ipAddress + " | " + sender + " | " + recip  +" -> TimeStamp: " + createTimeStamp);
+            if (session.getLogger().isDebugEnabled()) {
+                session.getLogger().debug("Triplet {} | {} | {} -> TimeStamp: {}", ipAddress, sender, recip, createTimeStamp);
+            }
 
 
             // if the timestamp is bigger as 0 we have allready a triplet stored
@@ -97,14 +114,16 @@ public abstract class AbstractGreylistHandler implements RcptHook {
                     return TO_FAST;
                 } else {
                     
-                    session.getLogger().debug("Update triplet " + ipAddress + " | " + sender + " | " + recip + " -> timestamp: " + time);
+                    if (session.getLogger().isDebugEnabled()) {
+                        session.getLogger().debug("Update triplet {} | {} | {} -> timestamp: {}", ipAddress, sender, recip, time);
+                    }
                     
                     // update the triplet..
                     updateTriplet(ipAddress, sender, recip, count, time);
 
                 }
             } else {
-                session.getLogger().debug("New triplet " + ipAddress + " | " + sender + " | " + recip );
+                session.getLogger().debug("New triplet {} | {} | {}", ipAddress, sender, recip);
            
                 // insert a new triplet
                 insertTriplet(ipAddress, sender, recip, count, time);
@@ -114,7 +133,7 @@ public abstract class AbstractGreylistHandler implements RcptHook {
             }
 
             // some kind of random cleanup process
-            if (Math.random() > 0.99) {
+            if (isCleanupOnRcpt() && Math.random() > 0.99) {
                 // cleanup old entries
             
                 session.getLogger().debug("Delete old entries");
@@ -130,6 +149,42 @@ public abstract class AbstractGreylistHandler implements RcptHook {
         return HookResult.declined();
     }
 
+    /**
+     * Return the create time and the count of the given triplet, or <code>null</code> if it is not stored
+     * 
+     * This implementation parses the data returned by {@link #getGreyListData(String, String, String)}. Sub-classes
+     * may override this with a more performant solution.
+     * 
+     * @param ipAddress
+     *            The ipAddress of the client
+     * @param sender
+     *            The mailFrom
+     * @param recip
+     *            The rcptTo
+     * @return createTimeAndCount
+     * @throws Exception
+     */
+    protected long[] getTriplet(String ipAddress, String sender, String recip) throws Exception {
+        Iterator<String> data = getGreyListData(ipAddress, sender, recip);
+        if (data.hasNext()) {
+            return new long[] { Long.parseLong(data.next()), Integer.parseInt(data.next()) };
+        }
+        return null;
+    }
+
+    /**
+     * Return true if old entries should get removed now and then while processing a RCPT command, by calling
+     * {@link #cleanupAutoWhiteListGreyList(long)} and {@link #cleanupGreyList(long)}. Sub-classes which remove them in
+     * the background should return false.
+     * 
+     * This implementation returns true.
+     * 
+     * @return cleanupOnRcpt
+     */
+    protected boolean isCleanupOnRcpt() {
+        return true;
+    }
+
     /**
      * Get all necessary data for greylisting based on provided triplet
      * 
@@ -209,8 +264,17 @@ public abstract class AbstractGreylistHandler implements RcptHook {
         if (!session.isRelayingAllowed()) {
             return doGreyListCheck(session, sender,rcpt);
         } else {
-            session.getLogger().info("IpAddress " + session.getRemoteAddress().getAddress().getHostAddress() + " is allowed to send. Skip greylisting.");
+            session.getLogger().info("IpAddress {} is allowed to send. Skip greylisting.", session.getRemoteAddress().getAddress().getHostAddress());
         }
         return HookResult.declined();
     }
+
+    /**
+     * Only anonymous clients are greylisted
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
 }
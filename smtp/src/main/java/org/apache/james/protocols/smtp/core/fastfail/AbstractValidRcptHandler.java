@@ -53,7 +53,7 @@ public abstract class AbstractValidRcptHandler implements RcptHook {
             }
         } else {
             if (isLocalDomain(session, rcpt.getDomain()) == false) {
-                session.getLogger().debug("Unknown domain " + rcpt.getDomain() + " so reject it");
+                session.getLogger().debug("Unknown domain {} so reject it", rcpt.getDomain());
 
             } else {
                 if (isValidRecipient(session, rcpt) == false) {
@@ -64,7 +64,7 @@ public abstract class AbstractValidRcptHandler implements RcptHook {
        
         if (reject) {
           //user not exist
-            session.getLogger().info("Rejected message. Unknown user: " + rcpt.toString());
+            session.getLogger().info("Rejected message. Unknown user: {}", rcpt);
             return new HookResult(HookReturnCode.DENY,SMTPRetCode.MAILBOX_PERM_UNAVAILABLE, DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.ADDRESS_MAILBOX) + " Unknown user: " + rcpt.toString());
         } else {
             return HookResult.declined();
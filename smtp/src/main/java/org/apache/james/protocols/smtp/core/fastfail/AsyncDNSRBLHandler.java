@@ -0,0 +1,228 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dns.DNSService;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult.DNSResultListener;
+import org.apache.james.protocols.smtp.dns.RecordType;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.HookExecutor;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
+
+/**
+ * Does the same as {@link DNSRBLHandler}, but looks up all lists in parallel with a {@link DNSService} and without
+ * blocking the thread which processes the command. The answers are processed by the {@link HookExecutor}.
+ */
+public class AsyncDNSRBLHandler implements AsyncRcptHook, SessionClassAware {
+
+    /**
+     * The lists of rbl servers to be checked to limit spam
+     */
+    private String[] whitelist;
+    private String[] blacklist;
+
+    private boolean getDetail = false;
+
+    private DNSService dnsService;
+
+    /**
+     * Set the whitelist array
+     * 
+     * @param whitelist The array which contains the whitelist
+     */
+    public void setWhitelist(String[] whitelist) {
+        this.whitelist = whitelist == null ? null : whitelist.clone();
+    }
+
+    /**
+     * Set the blacklist array
+     * 
+     * @param blacklist The array which contains the blacklist
+     */
+    public void setBlacklist(String[] blacklist) {
+        this.blacklist = blacklist == null ? null : blacklist.clone();
+    }
+
+    /**
+     * Set the {@link DNSService} which is used for the lookups
+     * 
+     * @param dnsService
+     */
+    public void setDNSService(DNSService dnsService) {
+        this.dnsService = dnsService;
+    }
+
+    /**
+     * Set for try to get a TXT record for the blocked record. 
+     * 
+     * @param getDetail Set to true for enable
+     */
+    public void setGetDetail(boolean getDetail) {
+        this.getDetail = getDetail;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.AsyncRcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailAddress)
+     */
+    public FutureHookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+        String ipAddress = session.getRemoteAddress().getAddress().getHostAddress();
+        if (session.isRelayingAllowed()) {
+            session.getLogger().info("Ipaddress {} is allowed to relay. Don't check it", session.getRemoteAddress().getAddress());
+            return FutureHookResult.ready(HookResult.declined());
+        }
+        final String[] whitelist = this.whitelist == null ? new String[0] : this.whitelist;
+        final String[] blacklist = this.blacklist == null ? new String[0] : this.blacklist;
+        if (whitelist.length == 0 && blacklist.length == 0) {
+            return FutureHookResult.ready(HookResult.declined());
+        }
+        if (dnsService == null) {
+            session.getLogger().warn("No DNSService configured, so not checking {} against the RBL's", ipAddress);
+            return FutureHookResult.ready(HookResult.declined());
+        }
+        FutureHookResult future = new FutureHookResult();
+        checkDNSRBL(session, ipAddress, whitelist, blacklist, future);
+        return future;
+    }
+
+    /**
+     * Lookup the ipaddress in the whitelist and blacklist in parallel, and set the {@link FutureHookResult} once the
+     * lookups are done
+     */
+    private void checkDNSRBL(final SMTPSession session, final String ipAddress, final String[] whitelist, final String[] blacklist, final FutureHookResult future) {
+        StringBuffer sb = new StringBuffer();
+        StringTokenizer st = new StringTokenizer(ipAddress, " .", false);
+        while (st.hasMoreTokens()) {
+            sb.insert(0, st.nextToken() + ".");
+        }
+        final String reversedOctets = sb.toString();
+
+        final FutureDNSResult[] results = new FutureDNSResult[whitelist.length + blacklist.length];
+        final AtomicInteger pending = new AtomicInteger(results.length);
+        DNSResultListener listener = new DNSResultListener() {
+
+            public void onResult(FutureDNSResult result) {
+                if (pending.decrementAndGet() == 0) {
+                    // not on the receiver thread of the DNS client
+                    HookExecutor.execute(session, new Runnable() {
+
+                        public void run() {
+                            checkResults(session, ipAddress, reversedOctets, whitelist, blacklist, results, future);
+                        }
+                    });
+                }
+            }
+        };
+        for (int i = 0; i < results.length; i++) {
+            String rbl = i < whitelist.length ? whitelist[i] : blacklist[i - whitelist.length];
+            results[i] = dnsService.lookup(reversedOctets + rbl, RecordType.A);
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i].addListener(listener);
+        }
+    }
+
+    private void checkResults(final SMTPSession session, String ipAddress, String reversedOctets, String[] whitelist, String[] blacklist, FutureDNSResult[] results, final FutureHookResult future) {
+        for (int i = 0 ; i < whitelist.length ; i++) {
+            if (results[i].getResult().hasRecords()) {
+                if (session.getLogger().isInfoEnabled()) {
+                    session.getLogger().info("Connection from " + ipAddress + " whitelisted by " + whitelist[i]);
+                }
+                future.setResult(HookResult.declined());
+                return;
+            } else {
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("IpAddress " + session.getRemoteAddress().getAddress()  + " not listed on " + whitelist[i]);
+                }
+            }
+        }
+
+        for (int i = 0 ; i < blacklist.length ; i++) {
+            if (results[whitelist.length + i].getResult().hasRecords()) {
+                if (session.getLogger().isInfoEnabled()) {
+                    session.getLogger().info("Connection from " + ipAddress + " restricted by " + blacklist[i] + " to SMTP AUTH/postmaster/abuse.");
+                }
+                synchronized (session) {
+                    session.setAttachment(DNSRBLHandler.RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, "true", State.Connection);
+                }
+
+                // we should try to retrieve details
+                if (getDetail) {
+                    dnsService.lookup(reversedOctets + blacklist[i], RecordType.TXT).addListener(new DNSResultListener() {
+
+                        public void onResult(final FutureDNSResult result) {
+                            HookExecutor.execute(session, new Runnable() {
+
+                                public void run() {
+                                    Collection<String> txt = result.getResult().getRecords();
+
+                                    // Check if we found a txt record
+                                    if (!txt.isEmpty()) {
+                                        synchronized (session) {
+                                            session.setAttachment(DNSRBLHandler.RBL_DETAIL_MAIL_ATTRIBUTE_NAME, txt.iterator().next(), State.Connection);
+                                        }
+                                    }
+                                    future.setResult(reject(session));
+                                }
+                            });
+                        }
+                    });
+                } else {
+                    future.setResult(reject(session));
+                }
+                return;
+            } else {
+                // if it is unknown, it isn't blocked
+                if (session.getLogger().isDebugEnabled()) {
+                    session.getLogger().debug("unknown host exception thrown:" + blacklist[i]);
+                }
+            }
+        }
+        future.setResult(HookResult.declined());
+    }
+
+    private HookResult reject(SMTPSession session) {
+        return new HookResult(HookReturnCode.DENY,DSNStatus.getStatus(DSNStatus.PERMANENT,
+                DSNStatus.SECURITY_AUTH)  + " Rejected: unauthenticated e-mail from " + session.getRemoteAddress().getAddress() 
+                + " is restricted.  Contact the postmaster for details.");
+    }
+
+    /**
+     * Clients which are allowed to relay or authenticated are never looked up in the RBL's
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
+}
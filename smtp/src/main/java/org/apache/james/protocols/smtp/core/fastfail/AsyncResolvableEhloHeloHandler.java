@@ -0,0 +1,150 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.util.Set;
+
+import org.apache.james.protocols.api.ProtocolSession.State;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dns.DNSResult;
+import org.apache.james.protocols.smtp.dns.DNSService;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult.DNSResultListener;
+import org.apache.james.protocols.smtp.dns.RecordType;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncHeloHook;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.HookExecutor;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
+
+/**
+ * Does the same as {@link ResolvableEhloHeloHandler}, but resolves the EHLO/HELO with a {@link DNSService} and
+ * without blocking the thread which processes the command. The answers are processed by the {@link HookExecutor}.
+ */
+public class AsyncResolvableEhloHeloHandler implements AsyncRcptHook, AsyncHeloHook, SessionClassAware {
+
+    private DNSService dnsService;
+
+    /**
+     * Set the {@link DNSService} which is used to resolve the EHLO/HELO
+     * 
+     * @param dnsService
+     */
+    public void setDNSService(DNSService dnsService) {
+        this.dnsService = dnsService;
+    }
+
+    /**
+     * Check if EHLO/HELO is resolvable with the given {@link DNSService} and set the {@link FutureHookResult} once
+     * this is known. A bad EHLO/HELO is marked with {@link ResolvableEhloHeloHandler#BAD_EHLO_HELO}.
+     * 
+     * This implementation looks up the A records and then the AAAA records. If the lookup fails the EHLO/HELO is not
+     * rejected.
+     * 
+     * @param session
+     *            The SMTPSession
+     * @param argument
+     *            The argument
+     * @param dnsService
+     *            The DNSService
+     * @param future
+     *            The result of the hook
+     */
+    protected void checkEhloHelo(final SMTPSession session, final String argument, final DNSService dnsService, final FutureHookResult future) {
+        dnsService.lookup(argument, RecordType.A).addListener(new DNSResultListener() {
+
+            public void onResult(FutureDNSResult result) {
+                DNSResult a = result.getResult();
+                if (a.hasRecords() || a.isFailure()) {
+                    future.setResult(HookResult.declined());
+                    return;
+                }
+                dnsService.lookup(argument, RecordType.AAAA).addListener(new DNSResultListener() {
+
+                    public void onResult(final FutureDNSResult result) {
+                        // not on the receiver thread of the DNS client
+                        HookExecutor.execute(session, new Runnable() {
+
+                            public void run() {
+                                DNSResult aaaa = result.getResult();
+                                if (!aaaa.hasRecords() && !aaaa.isFailure()) {
+                                    markBadHelo(session);
+                                }
+                                future.setResult(HookResult.declined());
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Mark the EHLO/HELO of the {@link SMTPSession} as bad, so its recipients are rejected
+     * 
+     * @param session
+     */
+    protected void markBadHelo(SMTPSession session) {
+        synchronized (session) {
+            session.setAttachment(ResolvableEhloHeloHandler.BAD_EHLO_HELO, "true", State.Transaction);
+        }
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.AsyncRcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailAddress)
+     */
+    public FutureHookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+        if (session.getAttachment(ResolvableEhloHeloHandler.BAD_EHLO_HELO, State.Transaction) != null) {
+            return FutureHookResult.ready(new HookResult(HookReturnCode.DENY,SMTPRetCode.SYNTAX_ERROR_ARGUMENTS,DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG)
+                    + " Provided EHLO/HELO " + session.getAttachment(SMTPSession.CURRENT_HELO_NAME_KEY, State.Connection) + " can not resolved."));
+        } else {
+            return FutureHookResult.ready(HookResult.declined());
+        }
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.AsyncHeloHook#doHelo(org.apache.james.protocols.smtp.SMTPSession, java.lang.String)
+     */
+    public FutureHookResult doHelo(SMTPSession session, String helo) {
+        DNSService dnsService = this.dnsService;
+        if (dnsService == null) {
+            session.getLogger().warn("No DNSService configured, so not resolving {}", helo);
+            return FutureHookResult.ready(HookResult.declined());
+        }
+        FutureHookResult future = new FutureHookResult();
+        checkEhloHelo(session, helo, dnsService, future);
+        return future;
+    }
+
+    /**
+     * The EHLO/HELO of trusted clients is neither resolved nor used to reject their recipients
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
+}
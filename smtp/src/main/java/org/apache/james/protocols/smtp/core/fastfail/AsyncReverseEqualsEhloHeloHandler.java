@@ -0,0 +1,84 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.net.InetAddress;
+
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dns.DNSResult;
+import org.apache.james.protocols.smtp.dns.DNSService;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult.DNSResultListener;
+import org.apache.james.protocols.smtp.dns.RecordType;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.HookExecutor;
+import org.apache.james.protocols.smtp.hook.HookResult;
+
+/**
+ * Does the same as {@link ReverseEqualsEhloHeloHandler}, but looks up the PTR records of the remote address with a
+ * {@link DNSService} and without blocking
+ */
+public class AsyncReverseEqualsEhloHeloHandler extends AsyncResolvableEhloHeloHandler {
+
+    /**
+     * Lookup the PTR records of the remote address and reject the EHLO/HELO if it is none of them
+     * 
+     * @see org.apache.james.protocols.smtp.core.fastfail.AsyncResolvableEhloHeloHandler#checkEhloHelo(org.apache.james.protocols.smtp.SMTPSession, java.lang.String, org.apache.james.protocols.smtp.dns.DNSService, org.apache.james.protocols.smtp.hook.FutureHookResult)
+     */
+    @Override
+    protected void checkEhloHelo(final SMTPSession session, final String argument, DNSService dnsService, final FutureHookResult future) {
+        final InetAddress address = session.getRemoteAddress().getAddress();
+        dnsService.lookup(reverseName(address), RecordType.PTR).addListener(new DNSResultListener() {
+
+            public void onResult(final FutureDNSResult result) {
+                // not on the receiver thread of the DNS client
+                HookExecutor.execute(session, new Runnable() {
+
+                    public void run() {
+                        DNSResult ptr = result.getResult();
+                        if (!ptr.isFailure() && !ptr.getRecords().contains(argument) && !argument.equals(address.getHostAddress())) {
+                            markBadHelo(session);
+                        }
+                        future.setResult(HookResult.declined());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return the name of the PTR records of the address
+     */
+    private static String reverseName(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        StringBuilder name = new StringBuilder();
+        if (bytes.length == 4) {
+            for (int i = bytes.length - 1; i >= 0; i--) {
+                name.append(bytes[i] & 0xff).append('.');
+            }
+            return name.append("in-addr.arpa").toString();
+        }
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            name.append(Character.forDigit(bytes[i] & 0xf, 16)).append('.');
+            name.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append('.');
+        }
+        return name.append("ip6.arpa").toString();
+    }
+}
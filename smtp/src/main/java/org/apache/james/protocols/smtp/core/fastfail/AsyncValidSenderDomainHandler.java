@@ -0,0 +1,113 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.util.Set;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dns.DNSResult;
+import org.apache.james.protocols.smtp.dns.DNSService;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult.DNSResultListener;
+import org.apache.james.protocols.smtp.dns.RecordType;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.AsyncMailHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.HookExecutor;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
+
+/**
+ * Does the same as {@link ValidSenderDomainHandler}, but looks up the MX records with a {@link DNSService} and without
+ * blocking the thread which processes the command. The answers are processed by the {@link HookExecutor}.
+ */
+public class AsyncValidSenderDomainHandler implements AsyncMailHook, SessionClassAware {
+
+    private DNSService dnsService;
+
+    /**
+     * Set the {@link DNSService} which is used to lookup the MX records
+     * 
+     * @param dnsService
+     */
+    public void setDNSService(DNSService dnsService) {
+        this.dnsService = dnsService;
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.AsyncMailHook#doMail(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress)
+     */
+    public FutureHookResult doMail(final SMTPSession session, final MailAddress sender) {
+        final DNSService dnsService = this.dnsService;
+        if (sender == null) {
+            return FutureHookResult.ready(HookResult.declined());
+        }
+        if (dnsService == null) {
+            session.getLogger().warn("No DNSService configured, so not checking the MX records of {}", sender.getDomain());
+            return FutureHookResult.ready(HookResult.declined());
+        }
+
+        // mail can be delivered to the domain if it has MX records, or A records which are used as implicit MX
+        // (RFC 5321). If the lookup fails the domain is not rejected.
+        final FutureHookResult future = new FutureHookResult();
+        final String domain = sender.getDomain();
+        dnsService.lookup(domain, RecordType.MX).addListener(new DNSResultListener() {
+
+            public void onResult(FutureDNSResult result) {
+                DNSResult mx = result.getResult();
+                if (mx.hasRecords() || mx.isFailure()) {
+                    future.setResult(HookResult.declined());
+                    return;
+                }
+                dnsService.lookup(domain, RecordType.A).addListener(new DNSResultListener() {
+
+                    public void onResult(final FutureDNSResult result) {
+                        // not on the receiver thread of the DNS client
+                        HookExecutor.execute(session, new Runnable() {
+
+                            public void run() {
+                                DNSResult a = result.getResult();
+                                future.setResult(a.hasRecords() || a.isFailure() ? HookResult.declined() : reject(sender));
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    private HookResult reject(MailAddress sender) {
+        return new HookResult(HookReturnCode.DENY,SMTPRetCode.SYNTAX_ERROR_ARGUMENTS,DSNStatus.getStatus(DSNStatus.PERMANENT,DSNStatus.ADDRESS_SYNTAX_SENDER)+ " sender " + sender + " contains a domain with no valid MX records");
+    }
+
+    /**
+     * The sender domain of trusted clients is not checked
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
+}
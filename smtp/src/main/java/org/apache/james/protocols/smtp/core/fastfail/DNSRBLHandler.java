@@ -25,6 +25,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.james.protocols.api.ProtocolSession.State;
@@ -34,11 +35,13 @@ import org.apache.james.protocols.smtp.dsn.DSNStatus;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.hook.RcptHook;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
 
 /**
   * Connect handler for DNSRBL processing
   */
-public class DNSRBLHandler implements  RcptHook{
+public class DNSRBLHandler implements  RcptHook, SessionClassAware{
 
     
     /**
@@ -113,7 +116,7 @@ public class DNSRBLHandler implements  RcptHook{
          * This whould make no sense.
          */
         if (session.isRelayingAllowed()) {
-            session.getLogger().info("Ipaddress " + session.getRemoteAddress().getAddress() + " is allowed to relay. Don't check it");
+            session.getLogger().info("Ipaddress {} is allowed to relay. Don't check it", session.getRemoteAddress().getAddress());
             return;
         }
         
@@ -228,4 +231,13 @@ public class DNSRBLHandler implements  RcptHook{
         }
         return HookResult.declined();
     }
+
+    /**
+     * Clients which are allowed to relay or authenticated are never looked up in the RBL's
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
 }
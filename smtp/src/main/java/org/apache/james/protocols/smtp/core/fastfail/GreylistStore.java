@@ -0,0 +1,366 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Memory efficient store for greylisting triplets. Every triplet is stored as 64-bit digest together with its create
+ * time and count packed into one long, so an entry needs about 21 bytes and no objects are allocated per entry.
+ * 
+ * The entries are spread over shards which are locked on their own. Each shard is an open-addressing hash table with
+ * linear probing.
+ * 
+ * This implementation is thread-safe
+ */
+public final class GreylistStore {
+
+    private final static int COUNT_BITS = 20;
+    private final static long MAX_COUNT = (1L << COUNT_BITS) - 1;
+    private final static int SNAPSHOT_MAGIC = 0x47524c31;
+
+    private final Shard[] shards;
+
+    /**
+     * Create a new store
+     * 
+     * @param shardCount the count of shards, more shards mean less contention
+     * @param initialCapacity the count of triplets which can be stored before the shards need to grow
+     */
+    public GreylistStore(int shardCount, int initialCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be bigger than 0");
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.max(1, initialCapacity / shardCount));
+        }
+    }
+
+    /**
+     * Return the 64-bit digest of the given triplet
+     * 
+     * @param ipAddress
+     * @param sender
+     * @param recip
+     * @return digest which is never 0
+     */
+    public static long digest(String ipAddress, String sender, String recip) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, ipAddress);
+        h = hash(h, sender);
+        h = hash(h, recip);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        // 0 marks free slots
+        return h == 0 ? 1 : h;
+    }
+
+    private static long hash(long h, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // separate the parts, so "ab" + "c" differs from "a" + "bc"
+        h ^= 0xffff;
+        h *= 0x100000001b3L;
+        return h;
+    }
+
+    /**
+     * Pack the given create time and count into one long
+     * 
+     * @param createTime in milliseconds since the epoch
+     * @param count is limited to 2^20 - 1
+     * @return entry
+     */
+    public static long pack(long createTime, int count) {
+        return (createTime << COUNT_BITS) | Math.min(Math.max(count, 0), MAX_COUNT);
+    }
+
+    /**
+     * Return the create time of a packed entry
+     * 
+     * @param entry
+     * @return createTime
+     */
+    public static long createTime(long entry) {
+        return entry >>> COUNT_BITS;
+    }
+
+    /**
+     * Return the count of a packed entry
+     * 
+     * @param entry
+     * @return count
+     */
+    public static int count(long entry) {
+        return (int) (entry & MAX_COUNT);
+    }
+
+    private Shard shardFor(long digest) {
+        // the slots are selected by the lower bits
+        return shards[(int) ((digest >>> 40) % shards.length)];
+    }
+
+    /**
+     * Return the packed entry of the triplet with the given digest
+     * 
+     * @param digest
+     * @return entry or 0 if it is not stored
+     */
+    public long get(long digest) {
+        return shardFor(digest).get(digest);
+    }
+
+    /**
+     * Store the triplet with the given digest
+     * 
+     * @param digest
+     * @param createTime
+     * @param count
+     */
+    public void put(long digest, long createTime, int count) {
+        shardFor(digest).put(digest, pack(createTime, count));
+    }
+
+    /**
+     * Remove the triplet with the given digest
+     * 
+     * @param digest
+     * @return removed
+     */
+    public boolean remove(long digest) {
+        return shardFor(digest).remove(digest);
+    }
+
+    /**
+     * Return the count of stored triplets
+     * 
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < shards.length; i++) {
+            size += shards[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Return the count of shards
+     * 
+     * @return shardCount
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Remove the expired triplets of one shard
+     * 
+     * @param shard the index of the shard
+     * @param greylistBefore triplets with count 0 which were created before are removed
+     * @param whitelistBefore triplets with a count bigger than 0 which were updated before are removed
+     * @return the count of removed triplets
+     */
+    public int expire(int shard, long greylistBefore, long whitelistBefore) {
+        return shards[shard].expire(greylistBefore, whitelistBefore);
+    }
+
+    /**
+     * Remove the expired triplets of all shards
+     * 
+     * @param greylistBefore triplets with count 0 which were created before are removed
+     * @param whitelistBefore triplets with a count bigger than 0 which were updated before are removed
+     * @return the count of removed triplets
+     */
+    public int expire(long greylistBefore, long whitelistBefore) {
+        int removed = 0;
+        for (int i = 0; i < shards.length; i++) {
+            removed += expire(i, greylistBefore, whitelistBefore);
+        }
+        return removed;
+    }
+
+    /**
+     * Write all triplets. Each shard is locked while it is written, so the store can be used in the meantime.
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].writeTo(out);
+        }
+        // end marker
+        out.writeLong(0);
+    }
+
+    /**
+     * Read triplets which were written by {@link #writeTo(DataOutput)} and add them
+     * 
+     * @param in
+     * @throws IOException
+     */
+    public void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a greylist snapshot");
+        }
+        while (true) {
+            long digest = in.readLong();
+            if (digest == 0) {
+                return;
+            }
+            shardFor(digest).put(digest, in.readLong());
+        }
+    }
+
+    /**
+     * Open-addressing hash table of digests and packed entries
+     */
+    private final static class Shard {
+        private long[] digests;
+        private long[] entries;
+        private int size;
+
+        private Shard(int capacity) {
+            int tableSize = 16;
+            while (tableSize * 3 / 4 < capacity) {
+                tableSize <<= 1;
+            }
+            digests = new long[tableSize];
+            entries = new long[tableSize];
+        }
+
+        private int indexOf(long digest) {
+            int mask = digests.length - 1;
+            int i = (int) digest & mask;
+            while (digests[i] != 0 && digests[i] != digest) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private synchronized long get(long digest) {
+            int i = indexOf(digest);
+            return digests[i] == 0 ? 0 : entries[i];
+        }
+
+        private synchronized void put(long digest, long entry) {
+            int i = indexOf(digest);
+            if (digests[i] == 0) {
+                if ((size + 1) > digests.length * 3 / 4) {
+                    grow();
+                    i = indexOf(digest);
+                }
+                digests[i] = digest;
+                size++;
+            }
+            entries[i] = entry;
+        }
+
+        private synchronized boolean remove(long digest) {
+            int i = indexOf(digest);
+            if (digests[i] == 0) {
+                return false;
+            }
+            removeAt(i);
+            return true;
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized int expire(long greylistBefore, long whitelistBefore) {
+            int removed = 0;
+            int i = 0;
+            while (i < digests.length) {
+                if (digests[i] != 0) {
+                    long entry = entries[i];
+                    long before = count(entry) == 0 ? greylistBefore : whitelistBefore;
+                    if (createTime(entry) < before) {
+                        removeAt(i);
+                        removed++;
+                        // another entry may have been moved to this slot
+                        continue;
+                    }
+                }
+                i++;
+            }
+            return removed;
+        }
+
+        /**
+         * Remove the entry at the given slot and move the following entries back, so no lookup stops too early
+         */
+        private void removeAt(int i) {
+            int mask = digests.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (digests[j] == 0) {
+                    break;
+                }
+                int k = (int) digests[j] & mask;
+                // move the entry if its home slot is not between the free slot and its current slot
+                if ((i <= j) ? (i >= k || k > j) : (i >= k && k > j)) {
+                    digests[i] = digests[j];
+                    entries[i] = entries[j];
+                    i = j;
+                }
+            }
+            digests[i] = 0;
+            entries[i] = 0;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldDigests = digests;
+            long[] oldEntries = entries;
+            digests = new long[oldDigests.length << 1];
+            entries = new long[oldEntries.length << 1];
+            for (int i = 0; i < oldDigests.length; i++) {
+                if (oldDigests[i] != 0) {
+                    int index = indexOf(oldDigests[i]);
+                    digests[index] = oldDigests[i];
+                    entries[index] = oldEntries[i];
+                }
+            }
+        }
+
+        private synchronized void writeTo(DataOutput out) throws IOException {
+            for (int i = 0; i < digests.length; i++) {
+                if (digests[i] != 0) {
+                    out.writeLong(digests[i]);
+                    out.writeLong(entries[i]);
+                }
+            }
+        }
+    }
+}
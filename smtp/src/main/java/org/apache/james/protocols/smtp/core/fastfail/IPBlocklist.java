@@ -0,0 +1,211 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Blocklist of IP addresses with an expiry time per entry. One instance can be shared by several handlers, for example
+ * the {@link SpamTrapHandler} which adds the addresses and the {@link IPBlocklistConnectHandler} which drops them
+ * before the greeting.
+ * 
+ * The addresses are kept as binary keys in a {@link ConcurrentHashMap}, so lookups do not lock and do not need to
+ * format the address. IPv4 addresses are stored as IPv4-mapped IPv6 addresses, so both forms match the same entry.
+ * Expired entries are ignored on lookup and removed by a background timer, which is started once the first address is
+ * added.
+ * 
+ * This class is thread-safe.
+ */
+public class IPBlocklist {
+
+    private final ConcurrentMap<Key, Long> entries = new ConcurrentHashMap<Key, Long>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private ScheduledExecutorService timer;
+    private boolean closed = false;
+    private long expiryPeriod = 60000;
+
+    /**
+     * Set how often in milliseconds the expired entries are removed. Default is one minute.
+     * 
+     * @param expiryPeriod
+     */
+    public void setExpiryPeriod(long expiryPeriod) {
+        if (expiryPeriod < 1) {
+            throw new IllegalArgumentException("Expiry period must be positive");
+        }
+        this.expiryPeriod = expiryPeriod;
+    }
+
+    /**
+     * Block the given address for the given time. If the address is already blocked for longer the call has no effect.
+     * 
+     * @param address
+     * @param duration
+     * @param unit
+     */
+    public void block(InetAddress address, long duration, TimeUnit unit) {
+        start();
+        Key key = Key.of(address);
+        Long expires = Long.valueOf(System.currentTimeMillis() + unit.toMillis(duration));
+        while (true) {
+            Long current = entries.putIfAbsent(key, expires);
+            if (current == null || current.longValue() >= expires.longValue() || entries.replace(key, current, expires)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the given address from the blocklist
+     * 
+     * @param address
+     */
+    public void unblock(InetAddress address) {
+        entries.remove(Key.of(address));
+    }
+
+    /**
+     * Return <code>true</code> if the given address is blocked
+     * 
+     * @param address
+     * @return blocked
+     */
+    public boolean isBlocked(InetAddress address) {
+        Long expires = entries.get(Key.of(address));
+        return expires != null && expires.longValue() > System.currentTimeMillis();
+    }
+
+    /**
+     * Return the count of entries, including the expired ones which were not removed yet
+     * 
+     * @return size
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove all expired entries. This is done periodically once an address was added.
+     * 
+     * @return the count of removed entries
+     */
+    public int expire() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        Iterator<Map.Entry<Key, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Long> entry = it.next();
+            if (entry.getValue().longValue() <= now && entries.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stop the removal of expired entries. The blocklist can still be used, but the expired entries are only ignored
+     * from now on.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    private void start() {
+        if (started.get()) {
+            return;
+        }
+        synchronized (this) {
+            if (closed || !started.compareAndSet(false, true)) {
+                return;
+            }
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "IPBlocklistExpiry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            timer.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    expire();
+                }
+            }, expiryPeriod, expiryPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The 128 bits of an IPv6 address, or the IPv4-mapped IPv6 address of an IPv4 address
+     */
+    private final static class Key {
+        private final long high;
+        private final long low;
+
+        private Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        private static Key of(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (bytes.length == 4) {
+                return new Key(0, 0xffff00000000L | (toLong(bytes, 0, 4) & 0xffffffffL));
+            }
+            return new Key(toLong(bytes, 0, 8), toLong(bytes, 8, 8));
+        }
+
+        private static long toLong(byte[] bytes, int offset, int length) {
+            long value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                value = (value << 8) | (bytes[i] & 0xff);
+            }
+            return value;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = high * 31 + low;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return high == other.high && low == other.low;
+        }
+    }
+}
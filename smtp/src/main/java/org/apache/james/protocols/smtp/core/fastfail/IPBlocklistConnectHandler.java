@@ -0,0 +1,65 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.ConnectHandler;
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dsn.DSNStatus;
+
+/**
+ * {@link ConnectHandler} which rejects clients listed in an {@link IPBlocklist} before the greeting, so a blocked client
+ * does not cost a full session on every retry. It must be added in front of the handler which sends the greeting.
+ */
+public class IPBlocklistConnectHandler implements ConnectHandler<SMTPSession> {
+
+    private final static Response BLOCKED;
+
+    static {
+        SMTPResponse response = new SMTPResponse(SMTPRetCode.TRANSACTION_FAILED, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.SECURITY_AUTH) + " Connection refused");
+        response.setEndSession(true);
+        BLOCKED = response.immutable();
+    }
+
+    private IPBlocklist blocklist;
+
+    /**
+     * Set the {@link IPBlocklist} to check
+     * 
+     * @param blocklist
+     */
+    public void setBlocklist(IPBlocklist blocklist) {
+        this.blocklist = blocklist;
+    }
+
+    /**
+     * @see org.apache.james.protocols.api.handler.ConnectHandler#onConnect(org.apache.james.protocols.api.ProtocolSession)
+     */
+    public Response onConnect(SMTPSession session) {
+        if (blocklist != null && blocklist.isBlocked(session.getRemoteAddress().getAddress())) {
+            session.getLogger().info("Rejected blocked connection from {}", session.getRemoteAddress().getAddress().getHostAddress());
+            return BLOCKED;
+        }
+        return null;
+    }
+}
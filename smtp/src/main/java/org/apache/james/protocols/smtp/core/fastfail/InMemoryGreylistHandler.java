@@ -0,0 +1,266 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler;
+
+/**
+ * {@link AbstractGreylistHandler} which keeps the triplets in memory, using a {@link GreylistStore}.
+ * 
+ * Expired triplets are removed by a background thread, which visits one shard of the store per tick. So every shard
+ * is cleaned once per expiry period and the RCPT commands never pay for the cleanup.
+ * 
+ * If a snapshot file is set, the triplets are loaded from it by {@link #init()} and written to it by
+ * {@link #destroy()}, so they survive a restart.
+ */
+public class InMemoryGreylistHandler extends AbstractGreylistHandler implements LifecycleAwareProtocolHandler {
+
+    private final GreylistStore store;
+    // set once the snapshot was loaded
+    private volatile boolean started = false;
+    private ScheduledExecutorService timer;
+    private int nextShard;
+
+    /** Default 10 minutes */
+    private long expiryPeriod = 600000;
+
+    private File snapshotFile;
+
+    public InMemoryGreylistHandler() {
+        this(64, 65536);
+    }
+
+    /**
+     * Create a new handler
+     * 
+     * @param shardCount the count of shards of the {@link GreylistStore}
+     * @param initialCapacity the count of triplets which can be stored before the store needs to grow
+     */
+    public InMemoryGreylistHandler(int shardCount, int initialCapacity) {
+        this.store = new GreylistStore(shardCount, initialCapacity);
+    }
+
+    /**
+     * Set the time in milliseconds in which all shards are checked for expired triplets once
+     * 
+     * @param expiryPeriod
+     */
+    public void setExpiryPeriod(long expiryPeriod) {
+        this.expiryPeriod = expiryPeriod;
+    }
+
+    /**
+     * Set the file to which the triplets are written on {@link #destroy()} and from which they are read on
+     * {@link #init()}
+     * 
+     * @param snapshotFile
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Return the {@link GreylistStore} which holds the triplets
+     * 
+     * @return store
+     */
+    public GreylistStore getStore() {
+        return store;
+    }
+
+    /**
+     * Load the snapshot, if one exists, and start to remove expired triplets. If this is not called it happens on the
+     * first RCPT command, which waits until the snapshot was loaded.
+     * 
+     * @throws IOException if the snapshot could not be read
+     */
+    public void init() throws IOException {
+        if (started) {
+            return;
+        }
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            if (snapshotFile != null && snapshotFile.exists()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+                try {
+                    store.readFrom(in);
+                } finally {
+                    in.close();
+                }
+            }
+            startExpiry();
+            started = true;
+        }
+    }
+
+    private void startExpiry() {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GreylistExpiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long tick = Math.max(1, expiryPeriod / store.getShardCount());
+        timer.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                expireNextShard();
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    private void expireNextShard() {
+        long time = System.currentTimeMillis();
+        store.expire(nextShard, time - getUnseenLifeTime(), time - getAutoWhiteListLifeTime());
+        nextShard = (nextShard + 1) % store.getShardCount();
+    }
+
+    /**
+     * Write the triplets to the snapshot file now. The file is replaced at once, so a crash while writing does not
+     * destroy the last snapshot.
+     * 
+     * @throws IOException
+     */
+    public void writeSnapshot() throws IOException {
+        if (snapshotFile == null) {
+            return;
+        }
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            store.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(snapshotFile)) {
+            // some platforms can not replace a file on rename
+            snapshotFile.delete();
+            if (!tmp.renameTo(snapshotFile)) {
+                throw new IOException("Unable to rename " + tmp + " to " + snapshotFile);
+            }
+        }
+    }
+
+    /**
+     * Stop removing expired triplets and write the snapshot. If the handler was never started the snapshot was not
+     * loaded either, so it is left as it is.
+     * 
+     * @see org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler#destroy()
+     */
+    public synchronized void destroy() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        timer.shutdownNow();
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write the greylist snapshot to " + snapshotFile, e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#getTriplet(java.lang.String, java.lang.String, java.lang.String)
+     */
+    protected long[] getTriplet(String ipAddress, String sender, String recip) throws Exception {
+        init();
+        long entry = store.get(GreylistStore.digest(ipAddress, sender, recip));
+        if (entry == 0) {
+            return null;
+        }
+        return new long[] { GreylistStore.createTime(entry), GreylistStore.count(entry) };
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#getGreyListData(java.lang.String, java.lang.String, java.lang.String)
+     */
+    protected Iterator<String> getGreyListData(String ipAddress, String sender, String recip) throws Exception {
+        long[] data = getTriplet(ipAddress, sender, recip);
+        if (data == null) {
+            return Collections.<String>emptyList().iterator();
+        }
+        return Arrays.asList(String.valueOf(data[0]), String.valueOf(data[1])).iterator();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#insertTriplet(java.lang.String, java.lang.String, java.lang.String, int, long)
+     */
+    protected void insertTriplet(String ipAddress, String sender, String recip, int count, long createTime) throws Exception {
+        store.put(GreylistStore.digest(ipAddress, sender, recip), createTime, count);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#updateTriplet(java.lang.String, java.lang.String, java.lang.String, int, long)
+     */
+    protected void updateTriplet(String ipAddress, String sender, String recip, int count, long time) throws Exception {
+        store.put(GreylistStore.digest(ipAddress, sender, recip), time, count + 1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#cleanupAutoWhiteListGreyList(long)
+     */
+    protected void cleanupAutoWhiteListGreyList(long time) throws Exception {
+        store.expire(Long.MIN_VALUE, time);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#cleanupGreyList(long)
+     */
+    protected void cleanupGreyList(long time) throws Exception {
+        store.expire(time, Long.MIN_VALUE);
+    }
+
+    /**
+     * Expired triplets are removed in the background
+     * 
+     * @see org.apache.james.protocols.smtp.core.fastfail.AbstractGreylistHandler#isCleanupOnRcpt()
+     */
+    protected boolean isCleanupOnRcpt() {
+        return false;
+    }
+}
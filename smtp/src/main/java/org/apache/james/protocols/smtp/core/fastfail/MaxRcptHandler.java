@@ -52,7 +52,7 @@ public class MaxRcptHandler implements RcptHook {
      */
     public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
         if ((session.getRcptCount() + 1) > maxRcpt) {
-            session.getLogger().info("Maximum recipients of " + maxRcpt + " reached");
+            session.getLogger().info("Maximum recipients of {} reached", maxRcpt);
             
             return MAX_RCPT;
         } else {
@@ -20,6 +20,7 @@
 
 package org.apache.james.protocols.smtp.core.fastfail;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.hook.HookResult;
@@ -35,7 +36,7 @@ public class MaxUnknownCmdHandler implements UnknownHook{
 
     public final static int DEFAULT_MAX_UNKOWN = 5;
     
-    private final static String UNKOWN_COMMAND_COUNT = "UNKNOWN_COMMAND_COUNT";
+    private final static AttachmentKey<Integer> UNKOWN_COMMAND_COUNT = AttachmentKey.of("UNKNOWN_COMMAND_COUNT", Integer.class);
     private int maxUnknown;
     
     public void setMaxUnknownCmdCount(int maxUnknown) {
@@ -47,7 +48,7 @@ public class MaxUnknownCmdHandler implements UnknownHook{
      * @see org.apache.james.protocols.smtp.hook.UnknownHook#doUnknown(org.apache.james.protocols.smtp.SMTPSession, java.lang.String)
      */
     public HookResult doUnknown(SMTPSession session, String command) {
-        Integer count = (Integer) session.getAttachment(UNKOWN_COMMAND_COUNT, State.Transaction);
+        Integer count = session.getAttachment(UNKOWN_COMMAND_COUNT, State.Transaction);
         if (count == null) {
             count = 1;
         } else {
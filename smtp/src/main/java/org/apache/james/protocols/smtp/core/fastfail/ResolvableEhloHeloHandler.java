@@ -21,6 +21,7 @@ package org.apache.james.protocols.smtp.core.fastfail;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Set;
 
 
 import org.apache.james.protocols.api.ProtocolSession.State;
@@ -32,12 +33,14 @@ import org.apache.james.protocols.smtp.hook.HeloHook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.hook.RcptHook;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
 
 
 /**
  * This CommandHandler can be used to reject not resolvable EHLO/HELO
  */
-public class ResolvableEhloHeloHandler implements RcptHook, HeloHook {
+public class ResolvableEhloHeloHandler implements RcptHook, HeloHook, SessionClassAware {
 
     public final static String BAD_EHLO_HELO = "BAD_EHLO_HELO";
 
@@ -91,7 +94,7 @@ public class ResolvableEhloHeloHandler implements RcptHook, HeloHook {
     public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
         if (check(session,rcpt)) {
             return new HookResult(HookReturnCode.DENY,SMTPRetCode.SYNTAX_ERROR_ARGUMENTS,DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG)
-                    + " Provided EHLO/HELO " + session.getAttachment(SMTPSession.CURRENT_HELO_NAME, State.Connection) + " can not resolved.");
+                    + " Provided EHLO/HELO " + session.getAttachment(SMTPSession.CURRENT_HELO_NAME_KEY, State.Connection) + " can not resolved.");
         } else {
             return HookResult.declined();
         }
@@ -105,4 +108,13 @@ public class ResolvableEhloHeloHandler implements RcptHook, HeloHook {
         return HookResult.declined();
     }
 
+    /**
+     * The EHLO/HELO of trusted clients is neither resolved nor used to reject their recipients
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
 }
+
@@ -20,11 +20,15 @@
 
 package org.apache.james.protocols.smtp.core.fastfail;
 
-import java.util.ArrayList;
+import java.net.InetAddress;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.hook.HookResult;
@@ -33,36 +37,81 @@ import org.apache.james.protocols.smtp.hook.RcptHook;
 /**
  * This handler can be used for providing a spam trap. IPAddresses which send emails to the configured
  * recipients will get blacklisted for the configured time.
+ * 
+ * The blocked addresses are kept in an {@link IPBlocklist}. Share it with an {@link IPBlocklistConnectHandler} to drop
+ * blocked clients before the greeting. The default {@link IPBlocklist} is closed by {@link #destroy()}, one which was
+ * set with {@link #setBlocklist(IPBlocklist)} must be closed by its owner.
  */
-public class SpamTrapHandler implements RcptHook {
+public class SpamTrapHandler implements RcptHook, LifecycleAwareProtocolHandler {
 
-    /** Map which hold blockedIps and blockTime in memory */
-    private Map<String,Long> blockedIps = new HashMap<String,Long>();
+    /** Blocklist which hold blockedIps and blockTime in memory */
+    private IPBlocklist blocklist = new IPBlocklist();
+
+    private boolean ownBlocklist = true;
     
-    private Collection<String> spamTrapRecips = new ArrayList<String>();
+    private volatile Set<String> spamTrapRecips = new HashSet<String>();
     
     /** Default blocktime 12 hours */
     protected long blockTime = 4320000; 
     
    
     public void setSpamTrapRecipients(Collection<String> spamTrapRecips) {
-        this.spamTrapRecips = spamTrapRecips;
+        Set<String> recips = new HashSet<String>(spamTrapRecips.size() * 2);
+        Iterator<String> it = spamTrapRecips.iterator();
+        while (it.hasNext()) {
+            recips.add(it.next().toLowerCase(Locale.US));
+        }
+        this.spamTrapRecips = recips;
+    }
+    
+    /**
+     * Set the {@link IPBlocklist} to which the IPAddresses are added. Default is a blocklist which is only used by this
+     * handler.
+     * 
+     * @param blocklist
+     */
+    public void setBlocklist(IPBlocklist blocklist) {
+        if (ownBlocklist) {
+            this.blocklist.close();
+            ownBlocklist = false;
+        }
+        this.blocklist = blocklist;
+    }
+    
+    /**
+     * Return the {@link IPBlocklist} to which the IPAddresses are added
+     * 
+     * @return blocklist
+     */
+    public IPBlocklist getBlocklist() {
+        return blocklist;
     }
     
     public void setBlockTime(long blockTime) {
         this.blockTime = blockTime;
     }
+
+    /**
+     * Close the {@link IPBlocklist} if it is the default one of this handler
+     * 
+     * @see org.apache.james.protocols.api.handler.LifecycleAwareProtocolHandler#destroy()
+     */
+    public void destroy() {
+        if (ownBlocklist) {
+            blocklist.close();
+        }
+    }
     
     /**
      * @see org.apache.james.protocols.smtp.hook.RcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.mailet.MailAddress, org.apache.mailet.MailAddress)
      */
     public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
-        String address = session.getRemoteAddress().getAddress().getHostAddress();
+        InetAddress address = session.getRemoteAddress().getAddress();
         if (isBlocked(address, session)) {
             return HookResult.deny();
         } else {
          
-            if (spamTrapRecips.contains(rcpt.toString().toLowerCase())){
+            if (spamTrapRecips.contains(rcpt.toLowerCase())){
         
                 addIp(address, session);
             
@@ -80,22 +129,10 @@ public class SpamTrapHandler implements RcptHook {
      * @param session not null
      * @return true or false
      */
-    private boolean isBlocked(String ip, SMTPSession session) {
-        Long rawTime = blockedIps.get(ip);
-    
-        if (rawTime != null) {
-            long blockTime = rawTime.longValue();
-           
-            if (blockTime > System.currentTimeMillis()) {
-                session.getLogger().debug("BlockList contain Ip " + ip);
-                return true;
-            } else {
-                session.getLogger().debug("Remove ip " + ip + " from blockList");
-               
-                synchronized(blockedIps) {
-                    blockedIps.remove(ip);
-                }
-            }
+    private boolean isBlocked(InetAddress ip, SMTPSession session) {
+        if (blocklist.isBlocked(ip)) {
+            session.getLogger().debug("BlockList contain Ip {}", ip);
+            return true;
         }
         return false;
     }
@@ -106,14 +143,9 @@ public class SpamTrapHandler implements RcptHook {
      * @param ip IpAddress to add
      * @param session not null
      */
-    private void addIp(String ip, SMTPSession session) {
-        long bTime = System.currentTimeMillis() + blockTime;
-        
-        session.getLogger().debug("Add ip " + ip + " for " + bTime + " to blockList");
-    
-        synchronized(blockedIps) {
-            blockedIps.put(ip, Long.valueOf(bTime));
-        }
+    private void addIp(InetAddress ip, SMTPSession session) {
+        session.getLogger().debug("Add ip {} for {} ms to blockList", ip, blockTime);
     
+        blocklist.block(ip, blockTime, TimeUnit.MILLISECONDS);
     }
 }
@@ -42,11 +42,10 @@ public class SupressDuplicateRcptHandler implements RcptHook {
     /**
      * @see org.apache.james.protocols.smtp.hook.RcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.mailet.MailAddress, org.apache.mailet.MailAddress)
      */
-    @SuppressWarnings("unchecked")
     public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
-        Collection<MailAddress> rcptList = (Collection<MailAddress>) session.getAttachment(SMTPSession.RCPT_LIST, State.Transaction);
+        Collection<MailAddress> rcptList = session.getAttachment(SMTPSession.RCPT_LIST_KEY, State.Transaction);
     
-        // Check if the recipient is already in the rcpt list
+        // Check if the recipient is already in the rcpt list, which is a hash lookup for a RecipientList
         if(rcptList != null && rcptList.contains(rcpt)) {
             StringBuilder responseBuffer = new StringBuilder();
         
@@ -54,7 +53,7 @@ public class SupressDuplicateRcptHandler implements RcptHook {
                           .append(" Recipient <")
                           .append(rcpt.toString())
                           .append("> OK");
-            session.getLogger().debug("Duplicate recipient not add to recipient list: " + rcpt.toString());
+            session.getLogger().debug("Duplicate recipient not add to recipient list: {}", rcpt);
             return new HookResult(HookReturnCode.OK,SMTPRetCode.MAIL_OK, responseBuffer.toString());
         }
         return HookResult.declined();
@@ -0,0 +1,99 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.RcptHook;
+
+/**
+ * Slow down clients which send many recipients. Once more than the configured count of recipients was sent every further
+ * RCPT response is delayed a bit longer, up to the configured maximum.
+ * 
+ * The delay is applied by a timer, so no thread is blocked while a client is tarpitted. The commands which a client
+ * pipelined after a delayed RCPT are held back until its response was written, so the delays of pipelined recipients
+ * add up like the ones of recipients which are sent one by one.
+ */
+public class TarpitHandler implements RcptHook {
+
+    private int tarpitRcptCount = 0;
+    private long tarpitIncrement = 0;
+    private long tarpitSleepTime = 5000;
+
+    /**
+     * Set the count of recipients after which the tarpitting starts
+     * 
+     * @param tarpitRcptCount
+     */
+    public void setTarpitRcptCount(int tarpitRcptCount) {
+        this.tarpitRcptCount = tarpitRcptCount;
+    }
+
+    /**
+     * Set the time in milliseconds by which the delay grows with every further recipient. If not set the maximal delay
+     * is used for all further recipients
+     * 
+     * @param tarpitIncrement
+     */
+    public void setTarpitIncrement(long tarpitIncrement) {
+        this.tarpitIncrement = tarpitIncrement;
+    }
+
+    /**
+     * Set the maximal time in milliseconds by which a RCPT response is delayed
+     * 
+     * @param tarpitSleepTime
+     */
+    public void setTarpitSleepTime(long tarpitSleepTime) {
+        this.tarpitSleepTime = tarpitSleepTime;
+    }
+
+    /**
+     * Return the delay in milliseconds for the given recipient
+     * 
+     * @param rcptCount the count of recipients including the current one
+     * @return delay
+     */
+    protected long getDelay(int rcptCount) {
+        int excess = rcptCount - tarpitRcptCount;
+        if (excess <= 0) {
+            return 0;
+        }
+        if (tarpitIncrement <= 0) {
+            return tarpitSleepTime;
+        }
+        return Math.min(tarpitSleepTime, excess * tarpitIncrement);
+    }
+
+    /**
+     * @see org.apache.james.protocols.smtp.hook.RcptHook#doRcpt(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.MailAddress, org.apache.james.protocols.smtp.MailAddress)
+     */
+    public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+        long delay = getDelay(session.getRcptCount() + 1);
+        if (delay > 0) {
+            session.getLogger().debug("Tarpitting RCPT for {} ms", delay);
+            return new HookResult(HookReturnCode.DECLINED, null, null, delay);
+        }
+        return HookResult.declined();
+    }
+}
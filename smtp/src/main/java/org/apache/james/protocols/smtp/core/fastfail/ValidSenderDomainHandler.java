@@ -18,6 +18,8 @@
  ****************************************************************/
 package org.apache.james.protocols.smtp.core.fastfail;
 
+import java.util.Set;
+
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -25,12 +27,14 @@ import org.apache.james.protocols.smtp.dsn.DSNStatus;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.hook.MailHook;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
 
 /**
  * Add MFDNSCheck feature to SMTPServer. This handler reject mail from domains which have not an an valid MX record.  
  * 
  */
-public abstract class ValidSenderDomainHandler implements MailHook { 
+public abstract class ValidSenderDomainHandler implements MailHook, SessionClassAware { 
 
 
     /**
@@ -45,4 +49,13 @@ public abstract class ValidSenderDomainHandler implements MailHook {
     }
     
     protected abstract boolean hasMXRecord(SMTPSession session, String domain);
+
+    /**
+     * The sender domain of trusted clients is not checked
+     * 
+     * @see org.apache.james.protocols.smtp.hook.SessionClassAware#getSessionClasses()
+     */
+    public Set<SessionClass> getSessionClasses() {
+        return SessionClass.ANONYMOUS_ONLY;
+    }
 }
@@ -0,0 +1,52 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core.log;
+
+import org.apache.james.protocols.api.audit.AsyncAuditLog;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookResultHook;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+
+/**
+ * Record every {@link HookResult} in an {@link AsyncAuditLog}. This is the non-blocking alternative to the {@link HookResultLogger}
+ * as the formatting and writing is done by the background thread of the {@link AsyncAuditLog}.
+ */
+public class HookResultAuditor implements HookResultHook {
+
+    private final AsyncAuditLog auditLog;
+
+    public HookResultAuditor(AsyncAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.hook.HookResultHook#onHookResult(org.apache.james.protocols.smtp.SMTPSession, org.apache.james.protocols.smtp.hook.HookResult, long, org.apache.james.protocols.smtp.hook.Hook)
+     */
+    public HookResult onHookResult(SMTPSession session, HookResult hResult, long executionTime, Hook hook) {
+        // hooks may return null instead of declining
+        int result = hResult == null ? HookReturnCode.DECLINED : hResult.getResult();
+        auditLog.recordHook(session, hook.getClass(), result, executionTime);
+        return hResult;
+    }
+
+}
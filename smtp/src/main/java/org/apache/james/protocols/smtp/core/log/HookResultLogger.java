@@ -33,9 +33,22 @@ import org.apache.james.protocols.smtp.hook.HookReturnCode;
 public class HookResultLogger implements HookResultHook{
 
     public HookResult onHookResult(SMTPSession session, HookResult hResult, long executionTime, Hook hook) {
-        boolean match = false;
-        boolean info = false;
         int result = hResult.getResult();
+        boolean info = (result & (HookReturnCode.DENY | HookReturnCode.DENYSOFT | HookReturnCode.DISCONNECT)) != 0;
+
+        // only build the message if it will get logged
+        if (info) {
+            if (session.getLogger().isInfoEnabled()) {
+                session.getLogger().info(toMessage(hook, result));
+            }
+        } else if (session.getLogger().isDebugEnabled()) {
+            session.getLogger().debug(toMessage(hook, result));
+        }
+        return hResult;
+    }
+
+    private String toMessage(Hook hook, int result) {
+        boolean match = false;
         StringBuilder sb = new StringBuilder();
         sb.append(hook.getClass().getName());
         sb.append(": result=");
@@ -52,28 +65,19 @@ public class HookResultLogger implements HookResultHook{
         if ((result & HookReturnCode.DENY) == HookReturnCode.DENY) {
             sb.append("DENY");
             match = true;
-            info = true;
         }
         if ((result & HookReturnCode.DENYSOFT) == HookReturnCode.DENYSOFT) {
             sb.append("DENYSOFT");
             match = true;
-            info = true;
         }
         if ((result & HookReturnCode.DISCONNECT) == HookReturnCode.DISCONNECT) {
             if(match) {
                 sb.append("|");
             }
             sb.append("DISCONNECT");
-            info = true;
         }
         sb.append(")");
-
-        if (info) {
-            session.getLogger().info(sb.toString());
-        } else {
-            session.getLogger().debug(sb.toString());
-        }
-        return hResult;
+        return sb.toString();
     }
 
 }
@@ -0,0 +1,221 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.james.protocols.api.cache.ExpiringLruCache;
+import org.apache.james.protocols.smtp.dns.FutureDNSResult.DNSResultListener;
+
+/**
+ * {@link DNSService} which caches the results of another {@link DNSService}
+ * 
+ * <ul>
+ * <li>Results are cached as long as their TTL says, within the configured minimum and maximum.</li>
+ * <li>Names which do not exist, or have no records of the type, are cached with the negative caching time of the zone
+ * but at most with the configured negative TTL. This matters for DNSRBL lookups, where most addresses are not
+ * listed.</li>
+ * <li>Failed lookups are not cached.</li>
+ * <li>Concurrent lookups of the same name and type share one query.</li>
+ * <li>Once a result expired it is still returned for the configured stale time, while it is refreshed in the
+ * background. So popular names never wait for a query.</li>
+ * </ul>
+ * 
+ * This implementation is thread-safe
+ */
+public class CachingDNSService implements DNSService {
+
+    private final DNSService service;
+    private final ExpiringLruCache<String, CachedResult> cache;
+    private final ConcurrentMap<String, FutureDNSResult> running = new ConcurrentHashMap<String, FutureDNSResult>();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong sharedLookups = new AtomicLong();
+
+    private volatile long minTTL = 0;
+    private volatile long maxTTL = 86400;
+    private volatile long negativeTTL = 900;
+    private volatile long staleTTL = 300;
+
+    /**
+     * Create a new cache for the given {@link DNSService}
+     * 
+     * @param service
+     * @param maxSize the maximal count of cached results
+     */
+    public CachingDNSService(DNSService service, int maxSize) {
+        this.service = service;
+        this.cache = new ExpiringLruCache<String, CachedResult>(maxSize);
+    }
+
+    /**
+     * Set the minimal time in seconds to cache results with records
+     * 
+     * @param minTTL
+     */
+    public void setMinTTL(long minTTL) {
+        this.minTTL = minTTL;
+    }
+
+    /**
+     * Set the maximal time in seconds to cache results with records
+     * 
+     * @param maxTTL
+     */
+    public void setMaxTTL(long maxTTL) {
+        this.maxTTL = maxTTL;
+    }
+
+    /**
+     * Set the maximal time in seconds to cache results without records
+     * 
+     * @param negativeTTL
+     */
+    public void setNegativeTTL(long negativeTTL) {
+        this.negativeTTL = negativeTTL;
+    }
+
+    /**
+     * Set the time in seconds an expired result is still returned while it is refreshed. Use 0 to disable this.
+     * 
+     * @param staleTTL
+     */
+    public void setStaleTTL(long staleTTL) {
+        this.staleTTL = staleTTL;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.dns.DNSService#lookup(java.lang.String, org.apache.james.protocols.smtp.dns.RecordType)
+     */
+    public FutureDNSResult lookup(String name, RecordType type) {
+        String key = type.name() + ' ' + name.toLowerCase(Locale.US);
+        CachedResult cached = cache.get(key);
+        if (cached != null) {
+            if (cached.expires - System.nanoTime() <= 0) {
+                staleHits.incrementAndGet();
+                query(key, name, type);
+            }
+            return FutureDNSResult.ready(cached.result);
+        }
+        return query(key, name, type);
+    }
+
+    /**
+     * Start a query or return the one which is already running for the key
+     */
+    private FutureDNSResult query(final String key, String name, RecordType type) {
+        FutureDNSResult future = running.get(key);
+        if (future != null) {
+            sharedLookups.incrementAndGet();
+            return future;
+        }
+        final FutureDNSResult created = new FutureDNSResult();
+        future = running.putIfAbsent(key, created);
+        if (future != null) {
+            sharedLookups.incrementAndGet();
+            return future;
+        }
+        service.lookup(name, type).addListener(new DNSResultListener() {
+
+            public void onResult(FutureDNSResult future) {
+                DNSResult result = future.getResult();
+                store(key, result);
+                running.remove(key, created);
+                created.setResult(result);
+            }
+        });
+        return created;
+    }
+
+    private void store(String key, DNSResult result) {
+        if (result.isFailure()) {
+            // keep a stale result, it is better than none
+            return;
+        }
+        long ttl;
+        if (result.hasRecords()) {
+            ttl = Math.max(minTTL, Math.min(maxTTL, result.getTTL()));
+        } else if (result.getTTL() >= 0) {
+            ttl = Math.min(negativeTTL, result.getTTL());
+        } else {
+            ttl = negativeTTL;
+        }
+        long now = System.nanoTime();
+        cache.put(key, new CachedResult(result, now + TimeUnit.SECONDS.toNanos(ttl)), ttl + staleTTL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Remove all cached results
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Return how often a result was found in the cache, including stale results
+     * 
+     * @return hits
+     */
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Return how often no result was found in the cache
+     * 
+     * @return misses
+     */
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Return how often an expired result was returned while it was refreshed
+     * 
+     * @return staleHits
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * Return how often a lookup used the query which was already running for the same name and type
+     * 
+     * @return sharedLookups
+     */
+    public long getSharedLookups() {
+        return sharedLookups.get();
+    }
+
+    private final static class CachedResult {
+        private final DNSResult result;
+        private final long expires;
+
+        private CachedResult(DNSResult result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DNSService} which sends the queries over UDP to recursive name servers. All queries share one thread which
+ * receives the answers, so no thread blocks while waiting for a name server.
+ * 
+ * Every query is sent from its own socket, which is bound to a random port, and uses a random id. An answer is only
+ * accepted if it comes from the name server the query was sent to and matches the id and the question. This makes it
+ * hard to inject forged answers into the cache (RFC 5452).
+ * 
+ * Queries which are not answered in time are sent again to the next name server. Truncated answers are used as they
+ * are, there is no fallback to TCP. To fit bigger answers in one datagram EDNS0 is used.
+ * 
+ * This implementation does no caching, wrap it with a {@link CachingDNSService} for that.
+ */
+public class DNSClient implements DNSService {
+
+    private final static int FLAG_RESPONSE = 0x8000;
+    private final static int FLAG_RECURSION_DESIRED = 0x0100;
+    private final static int FORMERR = 1;
+    private final static int TYPE_SOA = 6;
+    private final static int TYPE_OPT = 41;
+    private final static int CLASS_IN = 1;
+    private final static int UDP_PAYLOAD_SIZE = 1232;
+    private final static int MIN_PORT = 1024;
+    private final static int BIND_ATTEMPTS = 16;
+
+    private final InetSocketAddress[] servers;
+    private final Selector selector;
+    private final Queue<Query> registrations = new ConcurrentLinkedQueue<Query>();
+    private final ConcurrentMap<Query, Boolean> queries = new ConcurrentHashMap<Query, Boolean>();
+    private final Random random = new SecureRandom();
+    private final ScheduledExecutorService timer;
+    private final Thread receiver;
+
+    private volatile long timeout = 2000;
+    private volatile int retries = 2;
+    private volatile boolean closed;
+
+    /**
+     * Create a new client which uses the given recursive name servers
+     * 
+     * @param servers
+     * @throws IOException if the selector could not be opened
+     */
+    public DNSClient(InetSocketAddress... servers) throws IOException {
+        if (servers.length == 0) {
+            throw new IllegalArgumentException("At least one name server is needed");
+        }
+        this.servers = servers.clone();
+        this.selector = Selector.open();
+        ThreadFactory factory = new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DNSClient-Timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.timer = Executors.newSingleThreadScheduledExecutor(factory);
+        this.receiver = new Thread(new Runnable() {
+
+            public void run() {
+                receive();
+            }
+        }, "DNSClient-Receiver");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    /**
+     * Set the time to wait for an answer of a name server in milliseconds, before the query is sent again
+     * 
+     * @param timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Set how often a query is sent again if the name server does not answer in time
+     * 
+     * @param retries
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Close the sockets and fail all pending queries
+     */
+    public void close() {
+        closed = true;
+        timer.shutdownNow();
+        for (Query query : queries.keySet()) {
+            query.complete(DNSResult.failure());
+        }
+        selector.wakeup();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.james.protocols.smtp.dns.DNSService#lookup(java.lang.String, org.apache.james.protocols.smtp.dns.RecordType)
+     */
+    public FutureDNSResult lookup(String name, RecordType type) {
+        FutureDNSResult future = new FutureDNSResult();
+        if (closed) {
+            future.setResult(DNSResult.failure());
+            return future;
+        }
+        byte[] question = encodeQuestion(name, type);
+        if (question == null) {
+            future.setResult(new DNSResult(FORMERR, Collections.<String>emptyList(), -1));
+            return future;
+        }
+        DatagramChannel channel;
+        try {
+            channel = openChannel();
+        } catch (IOException e) {
+            future.setResult(DNSResult.failure());
+            return future;
+        }
+        Query query = new Query(name, type, question, channel, random.nextInt(0x10000), future);
+        queries.put(query, Boolean.TRUE);
+        registrations.add(query);
+        selector.wakeup();
+        if (closed) {
+            query.complete(DNSResult.failure());
+        } else {
+            query.send();
+        }
+        return future;
+    }
+
+    /**
+     * Open a non-blocking socket which is bound to a random port. If no free port is found the port is chosen by the
+     * operating system.
+     */
+    private DatagramChannel openChannel() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            for (int i = 0; i < BIND_ATTEMPTS; i++) {
+                try {
+                    channel.socket().bind(new InetSocketAddress(MIN_PORT + random.nextInt(0x10000 - MIN_PORT)));
+                    return channel;
+                } catch (BindException e) {
+                    // the port is in use, try the next one
+                }
+            }
+            channel.socket().bind(null);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(UDP_PAYLOAD_SIZE);
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                continue;
+            }
+            Query registration;
+            while ((registration = registrations.poll()) != null) {
+                try {
+                    registration.channel.register(selector, SelectionKey.OP_READ, registration);
+                } catch (ClosedChannelException e) {
+                    // the query is already done
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Query query = (Query) key.attachment();
+                try {
+                    SocketAddress address;
+                    while ((address = query.channel.receive(buffer)) != null) {
+                        int length = buffer.position();
+                        buffer.clear();
+                        if (length >= 12 && query.isAnswer(address, buffer.array())) {
+                            DNSResult result = decode(buffer.array(), length, query.name, query.type);
+                            if (result != null) {
+                                query.complete(result);
+                                break;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // the socket was closed or the datagram was broken
+                    buffer.clear();
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ignore on close
+        }
+    }
+
+    /**
+     * Encode the question of a query, or return <code>null</code> if the name is not valid
+     */
+    static byte[] encodeQuestion(String name, RecordType type) {
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.length() == 0 || name.length() > 253) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(name.length() + 6);
+        int start = 0;
+        while (start <= name.length()) {
+            int end = name.indexOf('.', start);
+            if (end == -1) {
+                end = name.length();
+            }
+            int length = end - start;
+            if (length == 0 || length > 63) {
+                return null;
+            }
+            buffer.put((byte) length);
+            for (int i = start; i < end; i++) {
+                char c = name.charAt(i);
+                if (c > 127) {
+                    return null;
+                }
+                buffer.put((byte) c);
+            }
+            start = end + 1;
+        }
+        buffer.put((byte) 0);
+        buffer.putShort((short) type.getCode());
+        buffer.putShort((short) CLASS_IN);
+        return buffer.array();
+    }
+
+    /**
+     * Encode a full query with the given id
+     */
+    static byte[] encodeQuery(int id, byte[] question) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + question.length + 11);
+        buffer.putShort((short) id);
+        buffer.putShort((short) FLAG_RECURSION_DESIRED);
+        // one question and the EDNS0 record
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 1);
+        buffer.put(question);
+        buffer.put((byte) 0);
+        buffer.putShort((short) TYPE_OPT);
+        buffer.putShort((short) UDP_PAYLOAD_SIZE);
+        buffer.putInt(0);
+        buffer.putShort((short) 0);
+        return buffer.array();
+    }
+
+    /**
+     * Decode the answer to a query. Returns <code>null</code> if it is not an answer for the given question.
+     */
+    static DNSResult decode(byte[] data, int length, String name, RecordType type) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            buffer.getShort();
+            int flags = buffer.getShort() & 0xffff;
+            int questions = buffer.getShort() & 0xffff;
+            int answers = buffer.getShort() & 0xffff;
+            int authorities = buffer.getShort() & 0xffff;
+            buffer.getShort();
+            if ((flags & FLAG_RESPONSE) == 0 || questions != 1) {
+                return null;
+            }
+            String questionName = readName(buffer);
+            int questionType = buffer.getShort() & 0xffff;
+            buffer.getShort();
+            if (!questionName.equalsIgnoreCase(name.endsWith(".") ? name.substring(0, name.length() - 1) : name) || questionType != type.getCode()) {
+                return null;
+            }
+            int responseCode = flags & 0xf;
+
+            List<String> records = new ArrayList<String>();
+            final List<Integer> preferences = new ArrayList<Integer>();
+            long ttl = -1;
+            for (int i = 0; i < answers; i++) {
+                readName(buffer);
+                int recordType = buffer.getShort() & 0xffff;
+                buffer.getShort();
+                long recordTTL = buffer.getInt() & 0xffffffffL;
+                int recordLength = buffer.getShort() & 0xffff;
+                int end = buffer.position() + recordLength;
+                if (recordType == type.getCode()) {
+                    records.add(readRecord(buffer, type, recordLength, preferences));
+                    ttl = ttl == -1 ? recordTTL : Math.min(ttl, recordTTL);
+                }
+                buffer.position(end);
+            }
+            if (records.isEmpty()) {
+                // use the negative caching time of the zone (RFC 2308)
+                for (int i = 0; i < authorities; i++) {
+                    readName(buffer);
+                    int recordType = buffer.getShort() & 0xffff;
+                    buffer.getShort();
+                    long recordTTL = buffer.getInt() & 0xffffffffL;
+                    int recordLength = buffer.getShort() & 0xffff;
+                    int end = buffer.position() + recordLength;
+                    if (recordType == TYPE_SOA) {
+                        readName(buffer);
+                        readName(buffer);
+                        buffer.position(buffer.position() + 16);
+                        long minimum = buffer.getInt() & 0xffffffffL;
+                        ttl = Math.min(recordTTL, minimum);
+                    }
+                    buffer.position(end);
+                }
+            } else if (type == RecordType.MX) {
+                sortByPreference(records, preferences);
+            }
+            return new DNSResult(responseCode, records, ttl);
+        } catch (BufferUnderflowException e) {
+            return DNSResult.failure();
+        } catch (IllegalArgumentException e) {
+            // broken record length or name pointer
+            return DNSResult.failure();
+        }
+    }
+
+    private static String readRecord(ByteBuffer buffer, RecordType type, int length, List<Integer> preferences) {
+        switch (type) {
+        case A:
+        case AAAA:
+            byte[] address = new byte[length];
+            buffer.get(address);
+            try {
+                return InetAddress.getByAddress(address).getHostAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Invalid address length " + length);
+            }
+        case MX:
+            preferences.add(buffer.getShort() & 0xffff);
+            return readName(buffer);
+        case TXT:
+            StringBuilder text = new StringBuilder();
+            int end = buffer.position() + length;
+            while (buffer.position() < end) {
+                int stringLength = buffer.get() & 0xff;
+                for (int i = 0; i < stringLength; i++) {
+                    text.append((char) (buffer.get() & 0xff));
+                }
+            }
+            return text.toString();
+        default:
+            return readName(buffer);
+        }
+    }
+
+    private static void sortByPreference(List<String> records, final List<Integer> preferences) {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < records.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer a, Integer b) {
+                return preferences.get(a).compareTo(preferences.get(b));
+            }
+        });
+        List<String> sorted = new ArrayList<String>(records.size());
+        for (int i = 0; i < order.size(); i++) {
+            sorted.add(records.get(order.get(i)));
+        }
+        records.clear();
+        records.addAll(sorted);
+    }
+
+    /**
+     * Read a possible compressed name and return it without the trailing dot
+     */
+    private static String readName(ByteBuffer buffer) {
+        StringBuilder name = new StringBuilder();
+        int position = -1;
+        int jumps = 0;
+        while (true) {
+            int length = buffer.get() & 0xff;
+            if (length == 0) {
+                break;
+            }
+            if ((length & 0xc0) == 0xc0) {
+                int pointer = ((length & 0x3f) << 8) | (buffer.get() & 0xff);
+                if (++jumps > 64) {
+                    throw new IllegalArgumentException("Too many name pointers");
+                }
+                if (position == -1) {
+                    position = buffer.position();
+                }
+                buffer.position(pointer);
+                continue;
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 0; i < length; i++) {
+                name.append((char) (buffer.get() & 0xff));
+            }
+        }
+        if (position != -1) {
+            buffer.position(position);
+        }
+        return name.toString();
+    }
+
+    /**
+     * A query which waits for its answer
+     */
+    private final class Query implements Runnable {
+        private final String name;
+        private final RecordType type;
+        private final byte[] question;
+        private final DatagramChannel channel;
+        private final int id;
+        private final FutureDNSResult future;
+
+        private volatile int attempt;
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        private Query(String name, RecordType type, byte[] question, DatagramChannel channel, int id, FutureDNSResult future) {
+            this.name = name;
+            this.type = type;
+            this.question = question;
+            this.channel = channel;
+            this.id = id;
+            this.future = future;
+        }
+
+        private InetSocketAddress server() {
+            return servers[attempt % servers.length];
+        }
+
+        /**
+         * Return <code>true</code> if the datagram comes from the name server the query was sent to and has the id of
+         * the query
+         */
+        private boolean isAnswer(SocketAddress address, byte[] data) {
+            int answerId = ((data[0] & 0xff) << 8) | (data[1] & 0xff);
+            return answerId == id && server().equals(address);
+        }
+
+        private void send() {
+            try {
+                timeoutTask = timer.schedule(this, timeout, TimeUnit.MILLISECONDS);
+                channel.send(ByteBuffer.wrap(encodeQuery(id, question)), server());
+            } catch (IOException e) {
+                complete(DNSResult.failure());
+            } catch (RuntimeException e) {
+                // the timer was shut down
+                complete(DNSResult.failure());
+            }
+        }
+
+        /**
+         * The name server did not answer in time
+         */
+        public void run() {
+            if (!queries.containsKey(this)) {
+                return;
+            }
+            if (attempt < retries) {
+                attempt++;
+                send();
+            } else {
+                complete(DNSResult.failure());
+            }
+        }
+
+        private void complete(DNSResult result) {
+            if (queries.remove(this) != null) {
+                ScheduledFuture<?> task = timeoutTask;
+                if (task != null) {
+                    task.cancel(false);
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore on close
+                }
+                future.setResult(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a DNS lookup
+ */
+public final class DNSResult {
+
+    /** The lookup was successful, but there may still be no records of the requested type */
+    public final static int NOERROR = 0;
+
+    /** The server was not able to answer or did not answer at all */
+    public final static int SERVFAIL = 2;
+
+    /** The name does not exist */
+    public final static int NXDOMAIN = 3;
+
+    private final static DNSResult FAILURE = new DNSResult(SERVFAIL, Collections.<String>emptyList(), -1);
+
+    private final int responseCode;
+    private final List<String> records;
+    private final long ttl;
+
+    /**
+     * Create a new result
+     * 
+     * @param responseCode the response code of the server
+     * @param records the records in the order of the answer, MX records sorted by their preference
+     * @param ttl the time to live in seconds, or -1 if the server did not tell
+     */
+    public DNSResult(int responseCode, List<String> records, long ttl) {
+        this.responseCode = responseCode;
+        this.records = Collections.unmodifiableList(records);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Return a result for a lookup which failed
+     * 
+     * @return failure
+     */
+    public static DNSResult failure() {
+        return FAILURE;
+    }
+
+    /**
+     * Return the response code of the server, like {@link #NOERROR} or {@link #NXDOMAIN}
+     * 
+     * @return responseCode
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * Return the records. A and AAAA records are returned as address, MX records as host name sorted by preference,
+     * PTR records as host name and TXT records as text.
+     * 
+     * @return records
+     */
+    public List<String> getRecords() {
+        return records;
+    }
+
+    /**
+     * Return true if at least one record was found
+     * 
+     * @return hasRecords
+     */
+    public boolean hasRecords() {
+        return !records.isEmpty();
+    }
+
+    /**
+     * Return the time to live in seconds. For results without records this is the negative caching time of the zone.
+     * 
+     * @return ttl or -1 if unknown
+     */
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * Return true if the lookup failed, so it is unknown if records exist. Results for names which do not exist are no
+     * failures.
+     * 
+     * @return failure
+     */
+    public boolean isFailure() {
+        return responseCode != NOERROR && responseCode != NXDOMAIN;
+    }
+
+    @Override
+    public String toString() {
+        return "DNSResult[responseCode=" + responseCode + ", records=" + records + ", ttl=" + ttl + "]";
+    }
+}
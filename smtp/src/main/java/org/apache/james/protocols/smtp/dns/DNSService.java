@@ -0,0 +1,38 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+/**
+ * Service which resolves DNS records without blocking the calling thread. The same instance should be shared by all
+ * handlers, so they also share its cache.
+ */
+public interface DNSService {
+
+    /**
+     * Lookup the records of the given type for the given name. The returned {@link FutureDNSResult} always gets a
+     * {@link DNSResult}, also if the lookup failed or timed out.
+     * 
+     * @param name the name to lookup, like <code>example.com</code> or <code>4.3.2.1.in-addr.arpa</code>
+     * @param type
+     * @return result
+     */
+    FutureDNSResult lookup(String name, RecordType type);
+}
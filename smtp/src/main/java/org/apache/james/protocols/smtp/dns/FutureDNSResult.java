@@ -0,0 +1,131 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.protocols.smtp.dns;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * {@link DNSResult} which is computed asynchronously by a {@link DNSService}. Callers register a
+ * {@link DNSResultListener} instead of waiting for it, so no thread blocks while the name server answers.
+ * 
+ * This implementation is lock-free and all methods are thread-safe.
+ */
+public final class FutureDNSResult {
+
+    private final static ListenerNode READY = new ListenerNode(null, null);
+    private final static AtomicReferenceFieldUpdater<FutureDNSResult, DNSResult> RESULT = AtomicReferenceFieldUpdater.newUpdater(FutureDNSResult.class, DNSResult.class, "result");
+    private final static AtomicReferenceFieldUpdater<FutureDNSResult, ListenerNode> LISTENERS = AtomicReferenceFieldUpdater.newUpdater(FutureDNSResult.class, ListenerNode.class, "listeners");
+
+    private volatile DNSResult result;
+    private volatile ListenerNode listeners;
+
+    /**
+     * Return a {@link FutureDNSResult} which is already ready
+     * 
+     * @param result
+     * @return future
+     */
+    public static FutureDNSResult ready(DNSResult result) {
+        FutureDNSResult future = new FutureDNSResult();
+        future.setResult(result);
+        return future;
+    }
+
+    /**
+     * Set the {@link DNSResult} and notify the registered {@link DNSResultListener}'s. Calls after the first one are
+     * ignored.
+     * 
+     * @param result
+     */
+    public void setResult(DNSResult result) {
+        if (!RESULT.compareAndSet(this, null, result == null ? DNSResult.failure() : result)) {
+            return;
+        }
+        ListenerNode head = LISTENERS.getAndSet(this, READY);
+
+        // the stack holds the listeners in reverse order
+        ListenerNode reversed = null;
+        for (ListenerNode node = head; node != null; node = node.next) {
+            reversed = new ListenerNode(node.listener, reversed);
+        }
+        for (ListenerNode node = reversed; node != null; node = node.next) {
+            node.listener.onResult(this);
+        }
+    }
+
+    /**
+     * Return <code>true</code> once the {@link DNSResult} is set
+     * 
+     * @return ready
+     */
+    public boolean isReady() {
+        return listeners == READY;
+    }
+
+    /**
+     * Return the {@link DNSResult} or <code>null</code> if it is not ready yet. This method never blocks.
+     * 
+     * @return result
+     */
+    public DNSResult getResult() {
+        return isReady() ? result : null;
+    }
+
+    /**
+     * Add a {@link DNSResultListener} which gets notified once the {@link DNSResult} is set. If it is already set the
+     * {@link DNSResultListener} is notified directly.
+     * 
+     * @param listener
+     */
+    public void addListener(DNSResultListener listener) {
+        while (true) {
+            ListenerNode head = listeners;
+            if (head == READY) {
+                listener.onResult(this);
+                return;
+            }
+            if (LISTENERS.compareAndSet(this, head, new ListenerNode(listener, head))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Listener which gets notified once the {@link DNSResult} of a {@link FutureDNSResult} is set
+     */
+    public interface DNSResultListener {
+
+        /**
+         * The {@link DNSResult} is ready
+         * 
+         * @param result
+         */
+        void onResult(FutureDNSResult result);
+    }
+
+    private final static class ListenerNode {
+        private final DNSResultListener listener;
+        private final ListenerNode next;
+
+        public ListenerNode(DNSResultListener listener, ListenerNode next) {
+            this.listener = listener;
+            this.next = next;
+        }
+    }
+}
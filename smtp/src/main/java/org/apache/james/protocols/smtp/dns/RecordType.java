@@ -0,0 +1,47 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+/**
+ * The types of DNS records which can be looked up with a {@link DNSService}
+ */
+public enum RecordType {
+    A(1),
+    AAAA(28),
+    MX(15),
+    TXT(16),
+    PTR(12);
+
+    private final int code;
+
+    private RecordType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * Return the code of the type as used in DNS messages
+     * 
+     * @return code
+     */
+    public int getCode() {
+        return code;
+    }
+}
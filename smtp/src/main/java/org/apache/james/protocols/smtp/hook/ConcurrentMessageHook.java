@@ -0,0 +1,35 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.hook;
+
+/**
+ * {@link MessageHook} which does not depend on the results or side effects of the other {@link MessageHook}'s, like
+ * an antivirus or antispam check. If an executor is configured on the
+ * {@link org.apache.james.protocols.smtp.core.DataLineMessageHookHandler}, consecutive {@link ConcurrentMessageHook}'s
+ * are executed concurrently.
+ * 
+ * Implementations must only read the message and must not modify the state of the session, as they are called from
+ * other threads than the one which handles the session. The thread may get interrupted if the result of the hook is
+ * not needed anymore.
+ */
+public interface ConcurrentMessageHook extends MessageHook {
+
+}
@@ -0,0 +1,187 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.hook;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * {@link HookResult} which is computed asynchronously by a hook, for example because it needs to wait for a LDAP, database
+ * or DNS lookup. The hook returns it right away and calls {@link #setResult(HookResult)} once the lookup is done, so no
+ * thread needs to block while waiting.
+ * 
+ * This implementation is lock-free and all methods are thread-safe.
+ */
+public final class FutureHookResult {
+
+    private final static ListenerNode READY = new ListenerNode(null, null);
+    private final static HookResult CANCELLED = new HookResult(HookReturnCode.DECLINED);
+    private final static AtomicReferenceFieldUpdater<FutureHookResult, HookResult> RESULT = AtomicReferenceFieldUpdater.newUpdater(FutureHookResult.class, HookResult.class, "result");
+    private final static AtomicReferenceFieldUpdater<FutureHookResult, ListenerNode> LISTENERS = AtomicReferenceFieldUpdater.newUpdater(FutureHookResult.class, ListenerNode.class, "listeners");
+
+    private volatile HookResult result;
+    private volatile ListenerNode listeners;
+
+    /**
+     * Return a {@link FutureHookResult} which is already ready
+     * 
+     * @param result
+     * @return future
+     */
+    public static FutureHookResult ready(HookResult result) {
+        FutureHookResult future = new FutureHookResult();
+        future.setResult(result);
+        return future;
+    }
+
+    /**
+     * Set the {@link HookResult} and notify the registered {@link HookResultListener}'s. Calls after the first one,
+     * or after the {@link FutureHookResult} was cancelled, are ignored.
+     * 
+     * @param result
+     */
+    public void setResult(HookResult result) {
+        complete(result == null ? HookResult.declined() : result);
+    }
+
+    /**
+     * Cancel the {@link FutureHookResult}. This happens when the client disconnected before the hook was done, so it
+     * can stop its work.
+     * 
+     * @return <code>true</code> if it was cancelled by this call
+     */
+    public boolean cancel() {
+        return complete(CANCELLED);
+    }
+
+    /**
+     * Return <code>true</code> if it was cancelled
+     * 
+     * @return cancelled
+     */
+    public boolean isCancelled() {
+        return result == CANCELLED;
+    }
+
+    /**
+     * Return <code>true</code> once the {@link HookResult} is set
+     * 
+     * @return ready
+     */
+    public boolean isReady() {
+        return listeners == READY;
+    }
+
+    /**
+     * Return the {@link HookResult} or <code>null</code> if it is not ready yet. This method never blocks.
+     * 
+     * @return result
+     */
+    public HookResult getResult() {
+        return isReady() ? result : null;
+    }
+
+    /**
+     * Add a {@link HookResultListener} which gets notified once the {@link HookResult} is set. If it is already set the
+     * {@link HookResultListener} is notified directly.
+     * 
+     * @param listener
+     */
+    public void addListener(HookResultListener listener) {
+        while (true) {
+            ListenerNode head = listeners;
+            if (head == READY) {
+                listener.onResult(this);
+                return;
+            }
+            if (LISTENERS.compareAndSet(this, head, new ListenerNode(listener, head))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set the given {@link HookResult} if the hook did not finish within the given time
+     * 
+     * @param timer
+     * @param timeout
+     * @param unit
+     * @param timeoutResult
+     */
+    public void setTimeout(ScheduledExecutorService timer, long timeout, TimeUnit unit, final HookResult timeoutResult) {
+        if (isReady()) {
+            return;
+        }
+        final ScheduledFuture<?> task = timer.schedule(new Runnable() {
+
+            public void run() {
+                setResult(timeoutResult);
+            }
+        }, timeout, unit);
+        addListener(new HookResultListener() {
+
+            public void onResult(FutureHookResult result) {
+                task.cancel(false);
+            }
+        });
+    }
+
+    private boolean complete(HookResult result) {
+        if (!RESULT.compareAndSet(this, null, result)) {
+            return false;
+        }
+        ListenerNode head = LISTENERS.getAndSet(this, READY);
+        
+        // the stack holds the listeners in reverse order
+        ListenerNode reversed = null;
+        for (ListenerNode node = head; node != null; node = node.next) {
+            reversed = new ListenerNode(node.listener, reversed);
+        }
+        for (ListenerNode node = reversed; node != null; node = node.next) {
+            node.listener.onResult(this);
+        }
+        return true;
+    }
+
+    /**
+     * Listener which gets notified once the {@link HookResult} of a {@link FutureHookResult} is set
+     */
+    public interface HookResultListener {
+
+        /**
+         * The {@link HookResult} is ready
+         * 
+         * @param result
+         */
+        void onResult(FutureHookResult result);
+    }
+
+    private final static class ListenerNode {
+        private final HookResultListener listener;
+        private final ListenerNode next;
+
+        public ListenerNode(HookResultListener listener, ListenerNode next) {
+            this.listener = listener;
+            this.next = next;
+        }
+    }
+}
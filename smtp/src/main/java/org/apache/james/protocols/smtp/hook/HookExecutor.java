@@ -0,0 +1,132 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.hook;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.james.protocols.smtp.SMTPSession;
+
+/**
+ * Runs the work which follows an asynchronous hook, like processing a DNS answer or the remaining hooks of a command.
+ * 
+ * The tasks run in a shared pool of daemon threads, so blocking work does not stall the thread which completed the
+ * hook, like the receiver thread of a DNS client. The tasks of one {@link SMTPSession} run one after the other in the
+ * order they were given.
+ * 
+ * The hookable command handlers process a command while holding the lock of the {@link SMTPSession}. Tasks which
+ * change the state of the {@link SMTPSession} must hold the same lock, so they never run at the same time as a
+ * pipelined command of the session.
+ */
+public final class HookExecutor {
+
+    private final static ConcurrentMap<SMTPSession, SessionTasks> TASKS = new ConcurrentHashMap<SMTPSession, SessionTasks>();
+
+    private HookExecutor() {
+    }
+
+    /**
+     * Run the given task for the {@link SMTPSession} in the shared pool, after the tasks which were given before for
+     * the same {@link SMTPSession}
+     * 
+     * @param session
+     * @param task
+     */
+    public static void execute(SMTPSession session, Runnable task) {
+        while (true) {
+            SessionTasks tasks = TASKS.get(session);
+            if (tasks == null) {
+                tasks = new SessionTasks(session);
+                SessionTasks existing = TASKS.putIfAbsent(session, tasks);
+                if (existing != null) {
+                    tasks = existing;
+                }
+            }
+            if (tasks.add(task)) {
+                return;
+            }
+            // the tasks were just done and removed, so start new ones
+        }
+    }
+
+    /**
+     * The tasks of one {@link SMTPSession}. It is removed once all tasks are done.
+     */
+    private final static class SessionTasks implements Runnable {
+        private final SMTPSession session;
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        private boolean running;
+        private boolean done;
+
+        public SessionTasks(SMTPSession session) {
+            this.session = session;
+        }
+
+        private synchronized boolean add(Runnable task) {
+            if (done) {
+                return false;
+            }
+            tasks.add(task);
+            if (!running) {
+                running = true;
+                ExecutorHolder.EXECUTOR.execute(this);
+            }
+            return true;
+        }
+
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        running = false;
+                        done = true;
+                        TASKS.remove(session, this);
+                        return;
+                    }
+                    task = tasks.removeFirst();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    session.getLogger().error("Unable to run task " + task, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the executor on first use
+     */
+    private final static class ExecutorHolder {
+        private final static Executor EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HookExecutor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -34,7 +34,26 @@ public final class HookResult {
     private int result;
     private String smtpRetCode;
     private String smtpDescription;
+    private long delay;
     
+    /**
+     * Construct new HookResult which delays the response by the given time. The delay is applied without blocking a
+     * thread. If the result is {@link HookReturnCode#DECLINED} the response which is returned for the command in the
+     * end gets delayed.
+     * 
+     * @param result 
+     * @param smtpRetCode 
+     * @param smtpDescription
+     * @param delay the delay in milliseconds
+     */
+    public HookResult(int result, String smtpRetCode, CharSequence smtpDescription, long delay) {
+        this(result, smtpRetCode, smtpDescription);
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative");
+        }
+        this.delay = delay;
+    }
+
     /**
      * Construct new HookResult
      * 
@@ -113,6 +132,15 @@ public final class HookResult {
         return smtpDescription;
     }
     
+    /**
+     * Return the time in milliseconds by which the response should be delayed or 0 if it should not be delayed
+     * 
+     * @return delay
+     */
+    public long getDelay() {
+        return delay;
+    }
+    
     public static HookResult declined() {
         return DECLINED;
     }
@@ -0,0 +1,69 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.hook;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.james.protocols.smtp.SMTPSession;
+
+/**
+ * The classes of sessions which {@link SessionClassAware} hooks can be restricted to
+ */
+public enum SessionClass {
+
+    /**
+     * The client is neither authenticated nor allowed to relay
+     */
+    Anonymous,
+
+    /**
+     * The client authenticated with AUTH
+     */
+    Authenticated,
+
+    /**
+     * The client is allowed to relay because of its address
+     */
+    Relay;
+
+    /**
+     * Only {@link #Anonymous} sessions, which is what fast-fail checks should be restricted to
+     */
+    public final static Set<SessionClass> ANONYMOUS_ONLY = Collections.unmodifiableSet(EnumSet.of(Anonymous));
+
+    /**
+     * Return the {@link SessionClass} of the given session. An authenticated client is {@link #Authenticated}, even if
+     * it is also allowed to relay.
+     * 
+     * @param session
+     * @return sessionClass
+     */
+    public static SessionClass of(SMTPSession session) {
+        if (session.getUser() != null) {
+            return Authenticated;
+        } else if (session.isRelayingAllowed()) {
+            return Relay;
+        }
+        return Anonymous;
+    }
+}
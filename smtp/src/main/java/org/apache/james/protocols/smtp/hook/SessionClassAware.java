@@ -0,0 +1,39 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.hook;
+
+import java.util.Set;
+
+/**
+ * {@link Hook} which only applies to some {@link SessionClass}'s. The hookable command handlers only call it for
+ * sessions of these classes, so for example trusted clients skip the fast-fail checks without calling them at all.
+ * Hooks which do not implement this interface are called for all sessions.
+ */
+public interface SessionClassAware extends Hook {
+
+    /**
+     * Return the {@link SessionClass}'s of the sessions for which the hook must be called. This is only called once,
+     * when the hook is wired, so the returned {@link Set} must not change.
+     * 
+     * @return sessionClasses
+     */
+    Set<SessionClass> getSessionClasses();
+}
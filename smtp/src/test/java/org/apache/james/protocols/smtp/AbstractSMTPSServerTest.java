@@ -18,7 +18,9 @@
  ****************************************************************/
 package org.apache.james.protocols.smtp;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 
 import org.apache.commons.net.smtp.SMTPClient;
 import org.apache.commons.net.smtp.SMTPSClient;
@@ -41,6 +43,11 @@ public abstract class AbstractSMTPSServerTest extends AbstractSMTPServerTest{
     }
 
     
+    @Override
+    protected Socket createSocket(InetSocketAddress address) throws IOException {
+        return BogusSslContextFactory.getClientContext().getSocketFactory().createSocket(address.getAddress(), address.getPort());
+    }
+
     @Override
     protected ProtocolServer createServer(Protocol protocol, InetSocketAddress address) {
         return createEncryptedServer(protocol, address,Encryption.createTls(BogusSslContextFactory.getServerContext()));
@@ -20,8 +20,12 @@ package org.apache.james.protocols.smtp;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -38,6 +42,10 @@ import org.apache.james.protocols.api.handler.ProtocolHandler;
 import org.apache.james.protocols.api.handler.WiringException;
 import org.apache.james.protocols.api.utils.MockLogger;
 import org.apache.james.protocols.api.utils.TestUtils;
+import org.apache.james.protocols.smtp.core.fastfail.AbstractBatchValidRcptHandler;
+import org.apache.james.protocols.smtp.core.fastfail.TarpitHandler;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
 import org.apache.james.protocols.smtp.hook.HeloHook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
@@ -104,6 +112,381 @@ public abstract class AbstractSMTPServerTest {
         
     }
     
+    @Test
+    public void testChunking() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        Socket socket = null;
+        try {
+            server = createServer(createProtocol(hook), address);  
+            server.bind();
+            
+            socket = createSocket(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+
+            out.write(("EHLO localhost\r\n").getBytes("US-ASCII"));
+            String line;
+            boolean chunking = false;
+            do {
+                line = in.readLine();
+                chunking |= line.substring(4).equals("CHUNKING");
+            } while (line.charAt(3) == '-');
+            assertTrue(chunking);
+
+            // a chunk is not split into lines, so it may be longer than a line and contain a single dot
+            StringBuilder head = new StringBuilder("Subject: test\r\n\r\n");
+            for (int i = 0; i < 10000; i++) {
+                head.append('x');
+            }
+            String last = "\r\n.\r\n";
+            String commands = "MAIL FROM:<" + SENDER + "> BODY=BINARYMIME\r\nRCPT TO:<" + RCPT1 + ">\r\nBDAT " + head.length() + "\r\n" + head 
+                    + "BDAT " + last.length() + " LAST\r\n" + last;
+            out.write(commands.getBytes("US-ASCII"));
+            for (int i = 0; i < 4; i++) {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith("250"));
+            }
+
+            out.write("QUIT\r\n".getBytes("US-ASCII"));
+            assertTrue(in.readLine().startsWith("221"));
+
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            
+            MailEnvelope env = queued.next();
+            InputStream msg = env.getMessageInputStream();
+            StringBuilder received = new StringBuilder();
+            int b;
+            while ((b = msg.read()) != -1) {
+                received.append((char) b);
+            }
+            assertTrue(received.toString().endsWith(head + last));
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    @Test
+    public void testChunkingAfterRejectedData() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        Socket socket = null;
+        try {
+            server = createServer(createProtocol(hook), address);  
+            server.bind();
+            
+            socket = createSocket(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+
+            out.write(("EHLO localhost\r\n").getBytes("US-ASCII"));
+            String line;
+            do {
+                line = in.readLine();
+            } while (line.charAt(3) == '-');
+
+            // DATA without a transaction is rejected, so the following BDAT command must still announce a chunk
+            out.write("DATA\r\n".getBytes("US-ASCII"));
+            line = in.readLine();
+            assertTrue("Reply=" + line, line.startsWith("503"));
+
+            String chunk = "Subject: test\r\n\r\n.\r\n";
+            String commands = "MAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nBDAT " + chunk.length() + " LAST\r\n" + chunk;
+            out.write(commands.getBytes("US-ASCII"));
+            for (int i = 0; i < 3; i++) {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith("250"));
+            }
+
+            out.write("QUIT\r\n".getBytes("US-ASCII"));
+            assertTrue(in.readLine().startsWith("221"));
+            assertEquals(1, hook.getQueued().size());
+
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedAsyncHook() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        AsyncRcptHook rcptHook = new AsyncRcptHook() {
+
+            public FutureHookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                final FutureHookResult result = new FutureHookResult();
+                new Thread() {
+                    public void run() {
+                        try {
+                            Thread.sleep(300);
+                        } catch (InterruptedException e) {
+                            // go on
+                        }
+                        result.setResult(HookResult.declined());
+                    }
+                }.start();
+                return result;
+            }
+        };
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        Socket socket = null;
+        try {
+            server = createServer(createProtocol(hook, rcptHook), address);  
+            server.bind();
+            
+            socket = createSocket(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+
+            // the commands after RCPT are already received while the hook is running
+            String commands = "EHLO localhost\r\nMAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nDATA\r\n" + MSG1 
+                    + "\r\n.\r\nQUIT\r\n";
+            out.write(commands.getBytes("US-ASCII"));
+            String line;
+            do {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith("250"));
+            } while (line.charAt(3) == '-');
+            for (String code : new String[] {"250", "250", "354", "250", "221"}) {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith(code));
+            }
+
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            checkEnvelope(queued.next(), SENDER, Arrays.asList(RCPT1), MSG1);
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedAsyncHookCompletesLate() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        AsyncRcptHook rcptHook = new AsyncRcptHook() {
+
+            public FutureHookResult doRcpt(SMTPSession session, MailAddress sender, final MailAddress rcpt) {
+                final FutureHookResult result = new FutureHookResult();
+                if (!rcpt.toString().equals(RCPT1)) {
+                    return FutureHookResult.ready(HookResult.declined());
+                }
+                // the hook of the first recipient completes after the second recipient was processed
+                new Thread() {
+                    public void run() {
+                        try {
+                            Thread.sleep(300);
+                        } catch (InterruptedException e) {
+                            // go on
+                        }
+                        result.setResult(HookResult.declined());
+                    }
+                }.start();
+                return result;
+            }
+        };
+        final List<String> checked = new ArrayList<String>();
+        RcptHook checkHook = new RcptHook() {
+
+            public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                synchronized (checked) {
+                    checked.add(rcpt.toString());
+                }
+                return HookResult.declined();
+            }
+        };
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        Socket socket = null;
+        try {
+            server = createServer(createProtocol(hook, rcptHook, checkHook), address);  
+            server.bind();
+            
+            socket = createSocket(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+
+            out.write("EHLO localhost\r\n".getBytes("US-ASCII"));
+            String line;
+            do {
+                line = in.readLine();
+            } while (line.charAt(3) == '-');
+
+            String commands = "MAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nRCPT TO:<" + RCPT2 + ">\r\nDATA\r\n" + MSG1 
+                    + "\r\n.\r\nQUIT\r\n";
+            out.write(commands.getBytes("US-ASCII"));
+            for (String code : new String[] {"250", "250", "250", "354", "250", "221"}) {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith(code));
+            }
+
+            // the hooks after the late one saw the right recipients
+            synchronized (checked) {
+                assertEquals(2, checked.size());
+                assertTrue(checked.containsAll(Arrays.asList(RCPT1, RCPT2)));
+            }
+
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            List<MailAddress> recipients = queued.next().getRecipients();
+            assertEquals(2, recipients.size());
+            assertTrue(recipients.contains(new MailAddress(RCPT1)));
+            assertTrue(recipients.contains(new MailAddress(RCPT2)));
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedBatchValidRcpt() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        final List<List<MailAddress>> lookups = new ArrayList<List<MailAddress>>();
+        AbstractBatchValidRcptHandler validRcpt = new AbstractBatchValidRcptHandler() {
+
+            @Override
+            protected boolean[] isValidRecipients(SMTPSession session, List<MailAddress> recipients) {
+                synchronized (lookups) {
+                    lookups.add(new ArrayList<MailAddress>(recipients));
+                }
+                boolean[] valid = new boolean[recipients.size()];
+                Arrays.fill(valid, true);
+                return valid;
+            }
+
+            @Override
+            protected boolean isLocalDomain(SMTPSession session, String domain) {
+                return true;
+            }
+        };
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        Socket socket = null;
+        try {
+            server = createServer(createProtocol(hook, validRcpt), address);  
+            server.bind();
+            
+            socket = createSocket(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+
+            out.write("EHLO localhost\r\n".getBytes("US-ASCII"));
+            String line;
+            do {
+                line = in.readLine();
+            } while (line.charAt(3) == '-');
+
+            String commands = "MAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nRCPT TO:<" + RCPT2 + ">\r\nDATA\r\n" + MSG1 
+                    + "\r\n.\r\nQUIT\r\n";
+            out.write(commands.getBytes("US-ASCII"));
+            for (String code : new String[] {"250", "250", "250", "354", "250", "221"}) {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith(code));
+            }
+
+            // both recipients were validated with one lookup
+            assertEquals(1, lookups.size());
+            assertEquals(2, lookups.get(0).size());
+
+            Iterator<MailEnvelope> queued = hook.getQueued().iterator();
+            assertTrue(queued.hasNext());
+            checkEnvelope(queued.next(), SENDER, Arrays.asList(RCPT1, RCPT2), MSG1);
+            assertFalse(queued.hasNext());
+
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedTarpit() throws Exception {
+        TarpitHandler tarpit = new TarpitHandler();
+        tarpit.setTarpitRcptCount(0);
+        tarpit.setTarpitIncrement(200);
+        tarpit.setTarpitSleepTime(1000);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        
+        ProtocolServer server = null;
+        Socket socket = null;
+        try {
+            server = createServer(createProtocol(new TestMessageHook(), tarpit), address);  
+            server.bind();
+            
+            socket = createSocket(address);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220"));
+
+            out.write("EHLO localhost\r\n".getBytes("US-ASCII"));
+            String line;
+            do {
+                line = in.readLine();
+            } while (line.charAt(3) == '-');
+
+            long start = System.currentTimeMillis();
+            String commands = "MAIL FROM:<" + SENDER + ">\r\nRCPT TO:<" + RCPT1 + ">\r\nRCPT TO:<" + RCPT2 + ">\r\nRCPT TO:<" + RCPT1 + ">\r\n";
+            out.write(commands.getBytes("US-ASCII"));
+            for (int i = 0; i < 4; i++) {
+                line = in.readLine();
+                assertTrue("Reply=" + line, line.startsWith("250"));
+            }
+
+            // the delays of 200, 400 and 600 ms add up instead of running at the same time
+            long time = System.currentTimeMillis() - start;
+            assertTrue("Time=" + time, time >= 1200);
+
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
     @Test
     public void testStartTlsNotSupported() throws Exception {
         TestMessageHook hook = new TestMessageHook();
@@ -963,6 +1346,13 @@ public abstract class AbstractSMTPServerTest {
         return new SMTPClient();
     }
 
+    /**
+     * Create a {@link Socket} for the tests which need to send raw data
+     */
+    protected Socket createSocket(InetSocketAddress address) throws IOException {
+        return new Socket(address.getAddress(), address.getPort());
+    }
+
     protected abstract ProtocolServer createServer(Protocol protocol, InetSocketAddress address);
 
     
@@ -0,0 +1,72 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class ContentDigestTest {
+
+    private static MailEnvelope envelope(String message) throws Exception {
+        MailEnvelopeImpl env = new MailEnvelopeImpl();
+        env.getMessageOutputStream().write(message.getBytes("US-ASCII"));
+        return env;
+    }
+
+    private static String compute(String message) throws Exception {
+        return ContentDigest.compute(ContentDigest.DEFAULT_ALGORITHM, envelope(message));
+    }
+
+    @Test
+    public void testNormalizedHeaders() throws Exception {
+        String digest = compute("Subject: Hello  World\r\nTo: a@b\r\n\r\nbody\r\n");
+        assertEquals(64, digest.length());
+        assertEquals(digest, compute("Received: from a by b; Mon, 1 Jan 2024 10:00:00 +0000\r\nsubject: Hello\r\n\tWorld\r\nTO: a@b \r\n\r\nbody\r\n"));
+        assertFalse(digest.equals(compute("Subject: Hello World\r\nTo: a@b\r\n\r\nbody.\r\n")));
+        assertFalse(digest.equals(compute("Subject: Hello World\r\nTo: c@d\r\n\r\nbody\r\n")));
+    }
+
+    @Test
+    public void testStreamingDigest() throws Exception {
+        String[] lines = new String[] { "Subject: test\r\n", "\r\n", "line 1\r\n", "line 2\r\n" };
+        MessageHeaders headers = new MessageHeaders();
+        ContentDigest digest = new ContentDigest(ContentDigest.DEFAULT_ALGORITHM);
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            ByteBuffer line = ByteBuffer.wrap(lines[i].getBytes("US-ASCII"));
+            headers.addLine(line);
+            if (i == 0) {
+                // added by the server, so not part of the digest
+                headers.prepend("X-Added", "value");
+            }
+            if (headers.isBodyStarted()) {
+                digest.updateHeaders(headers);
+                digest.updateBody(line);
+            }
+            message.append(lines[i]);
+        }
+        assertTrue(digest.isHeadersDigested());
+        assertEquals(compute(message.toString()), digest.getDigest());
+    }
+}
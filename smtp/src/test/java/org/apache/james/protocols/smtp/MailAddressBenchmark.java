@@ -0,0 +1,102 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Micro benchmark for the parsing of {@link MailAddress}es. It parses a corpus of addresses like they are found in
+ * the envelopes of real mail, and a corpus of malformed addresses like they are sent by broken clients and spam bots.
+ * The addresses are parsed out of the command line, as the RCPT command does.
+ *
+ * This is not run as part of the tests. Start it with:
+ *
+ * <pre>
+ * java -cp ... org.apache.james.protocols.smtp.MailAddressBenchmark
+ * </pre>
+ */
+public class MailAddressBenchmark {
+
+    private final static String[] REAL_WORLD = {
+        "TO:<john.doe@example.com>",
+        "TO:<Jane.Roe@Mail.Example.ORG>",
+        "TO:<newsletter+bounces-1234@lists.example.net>",
+        "TO:<postmaster@example.com>",
+        "TO:<\"john smith\"@example.com>",
+        "TO:<info@[192.168.10.1]>",
+        "TO:<@relay.example.org:user@example.com>",
+        "TO:<a.very.long.local.part.with.many.dots@subdomain.department.example.co.uk>"
+    };
+
+    private final static String[] MALFORMED = {
+        "TO:<john doe@example.com>",
+        "TO:<john.@example.com>",
+        "TO:<john@example..com>x",
+        "TO:<john@-example.com>",
+        "TO:<john@[300.1.1.1]>",
+        "TO:<john@>",
+        "TO:<\"john@example.com>",
+        "TO:<john>"
+    };
+
+    private final static int WARMUP = 200000;
+    private final static int ITERATIONS = 2000000;
+
+    public static void main(String[] args) {
+        for (int i = 0; i < 3; i++) {
+            measure("real world", REAL_WORLD);
+            measure("malformed", MALFORMED);
+        }
+    }
+
+    private static void measure(String name, String[] corpus) {
+        int valid = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            valid += parse(corpus[i % corpus.length]);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = getAllocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            valid += parse(corpus[i % corpus.length]);
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = getAllocatedBytes(threads) - allocated;
+        System.out.println(String.format("%-12s %8.1f ns/op %8.1f bytes/op (%d valid)", name, (double) nanos / ITERATIONS, (double) allocated / ITERATIONS, valid));
+    }
+
+    private static int parse(String line) {
+        try {
+            MailAddress address = new MailAddress(line, line.indexOf('<') + 1, line.lastIndexOf('>'));
+            return address.toLowerCase().length() > 0 ? 1 : 0;
+        } catch (MailAddressException e) {
+            return 0;
+        }
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
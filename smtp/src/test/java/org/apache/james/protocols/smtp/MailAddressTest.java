@@ -0,0 +1,143 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class MailAddressTest {
+
+    private final static String[] VALID = {
+        "user@example.com",
+        "First.Last@Sub.Example.COM",
+        "user+tag@example.com",
+        "\"quoted user\"@example.com",
+        "\"a\\\"b\"@example.com",
+        "us\\@er@example.com",
+        "user@[127.0.0.1]",
+        "postmaster@localhost",
+        "a@b-c.d"
+    };
+
+    private final static String[] INVALID = {
+        "",
+        "user",
+        "user@",
+        "@example.com",
+        "user.@example.com",
+        "us er@example.com",
+        "user@exa_mple.com",
+        "user@-example.com",
+        "user@example-.com",
+        "user@#123",
+        "user@[256.0.0.1]",
+        "user@[1.2.3]",
+        "user@[1.2.3.4",
+        "\"\"@example.com",
+        "\"unterminated@example.com",
+        "user@example.com>",
+        "@<>( junk:user@example.com",
+        "@relay,user@example.com",
+        "@relay.:user@example.com",
+        "@-relay:user@example.com",
+        "@relay,relay2:user@example.com",
+        ":user@example.com"
+    };
+
+    @Test
+    public void testValid() throws Exception {
+        for (int i = 0; i < VALID.length; i++) {
+            MailAddress address = new MailAddress(VALID[i]);
+            assertEquals(VALID[i], address.toString());
+            assertEquals(address, new MailAddress(VALID[i].toUpperCase()));
+        }
+        MailAddress address = new MailAddress("user@[127.0.0.1]");
+        assertEquals("user", address.getLocalPart());
+        assertEquals("127.0.0.1", address.getDomain());
+    }
+
+    @Test
+    public void testInvalid() {
+        for (int i = 0; i < INVALID.length; i++) {
+            try {
+                new MailAddress(INVALID[i]);
+                fail("Accepted " + INVALID[i]);
+            } catch (MailAddressException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        String line = "RCPT TO:< User@Example.com >";
+        MailAddress address = new MailAddress(line, line.indexOf('<') + 1, line.lastIndexOf('>'));
+        assertEquals("User@Example.com", address.toString());
+        assertEquals("User", address.getLocalPart());
+        assertEquals("Example.com", address.getDomain());
+
+        String plain = "user@example.com";
+        assertSame(plain, new MailAddress(plain).toString());
+    }
+
+    @Test
+    public void testSourceRoute() throws Exception {
+        MailAddress address = new MailAddress("@relay.example.org:user@example.com");
+        assertEquals("user@example.com", address.toString());
+        assertEquals("example.com", address.getDomain());
+
+        address = new MailAddress("@relay1.example.org,@relay2:user@example.com");
+        assertEquals("user@example.com", address.toString());
+        assertEquals("user", address.getLocalPart());
+
+        // the error refers to the whole address
+        try {
+            new MailAddress("@relay:us er@example.com");
+            fail();
+        } catch (MailAddressException e) {
+            assertEquals("@relay:us er@example.com", e.getAddress());
+            assertEquals(10, e.getPos());
+        }
+
+        // an invalid source route is not stripped
+        try {
+            new MailAddress("@<>( junk:user@example.com");
+            fail();
+        } catch (MailAddressException e) {
+            assertEquals(1, e.getPos());
+        }
+    }
+
+    @Test
+    public void testCaching() throws Exception {
+        MailAddress first = new MailAddress("First@Example.COM");
+        MailAddress second = new MailAddress("second@Example.COM");
+        assertSame(first.getDomain(), second.getDomain());
+        assertSame(first.getLocalPart(), first.getLocalPart());
+
+        assertEquals("first@example.com", first.toLowerCase());
+        assertSame(first.toLowerCase(), first.toLowerCase());
+        assertEquals(first, new MailAddress("first@example.com"));
+        assertEquals(first.hashCode(), new MailAddress("first@example.com").hashCode());
+        assertEquals("", MailAddress.nullSender().toLowerCase());
+    }
+}
@@ -0,0 +1,105 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class MessageHeadersTest {
+
+    private static ByteBuffer line(String line) throws Exception {
+        return ByteBuffer.wrap(line.getBytes("US-ASCII"));
+    }
+
+    @Test
+    public void testParseLines() throws Exception {
+        MessageHeaders headers = new MessageHeaders();
+        assertTrue(headers.addLine(line("Subject: Hello\r\n")));
+        assertTrue(headers.addLine(line("Received: from a\r\n")));
+        assertTrue(headers.addLine(line("\tby b\r\n")));
+        assertTrue(headers.addLine(line("..Dotted:  value \r\n")));
+        assertFalse(headers.isComplete());
+
+        ByteBuffer separator = line("\r\n");
+        assertTrue(headers.addLine(separator));
+        assertEquals(0, separator.position());
+        assertTrue(headers.isComplete());
+        assertFalse(headers.isBodyStarted());
+
+        assertFalse(headers.addLine(line("Not: a header\r\n")));
+        assertTrue(headers.isBodyStarted());
+
+        assertEquals(3, headers.size());
+        assertEquals("Subject", headers.getName(0));
+        assertEquals("Hello", headers.getValue(0));
+        assertEquals("from a\tby b", headers.getFirst("received"));
+        assertEquals(".Dotted", headers.getName(2));
+        assertEquals("value", headers.getValue(2));
+        assertNull(headers.getFirst("Not"));
+    }
+
+    @Test
+    public void testInternedNames() throws Exception {
+        MessageHeaders first = new MessageHeaders();
+        first.addLine(line("Message-ID: <1@example>\r\n"));
+        MessageHeaders second = new MessageHeaders();
+        second.addLine(line("Message-ID: <2@example>\r\n"));
+        assertSame(first.getName(0), second.getName(0));
+    }
+
+    @Test
+    public void testPrependAndAppend() throws Exception {
+        MessageHeaders headers = new MessageHeaders();
+        headers.addLine(line("Received: from c\r\n"));
+        headers.prepend("Received", "from d");
+        headers.append("X-Spam", "no");
+        headers.addLine(line("\r\n"));
+
+        assertEquals(3, headers.size());
+        assertEquals(2, headers.getAll("RECEIVED").size());
+        assertEquals("from d", headers.getAll("Received").get(0));
+        assertEquals("from c", headers.getAll("Received").get(1));
+        assertEquals("X-Spam", headers.getName(2));
+        assertEquals("no", headers.getValue(2));
+    }
+
+    @Test
+    public void testParseStream() throws Exception {
+        MessageHeaders headers = MessageHeaders.parse(new ByteArrayInputStream("To: a@b\r\nCc: c@d\r\n\r\nTo: body\r\n".getBytes("US-ASCII")));
+        assertTrue(headers.isComplete());
+        assertEquals(2, headers.size());
+        assertEquals("a@b", headers.getFirst("to"));
+        assertEquals(1, headers.getAll("To").size());
+    }
+
+    @Test
+    public void testEndOfMessageWithoutBody() throws Exception {
+        MessageHeaders headers = new MessageHeaders();
+        headers.addLine(line("Subject: test\r\n"));
+        headers.addLine(line(".\r\n"));
+        assertTrue(headers.isComplete());
+        assertEquals(1, headers.size());
+    }
+}
@@ -0,0 +1,97 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class RecipientListTest {
+
+    @Test
+    public void testOrderAndDuplicates() throws Exception {
+        RecipientList recipients = new RecipientList();
+        MailAddress a = new MailAddress("a@localhost");
+        MailAddress b = new MailAddress("b@localhost");
+        recipients.add(a);
+        recipients.add(b);
+
+        assertEquals(Arrays.asList(a, b), recipients);
+        assertTrue(recipients.contains(new MailAddress("A@LocalHost")));
+        assertFalse(recipients.contains(new MailAddress("c@localhost")));
+
+        // duplicates are kept, as the list is only used to detect them
+        recipients.add(new MailAddress("A@localhost"));
+        assertEquals(3, recipients.size());
+        recipients.remove(2);
+        assertTrue(recipients.contains(a));
+        recipients.remove(0);
+        assertFalse(recipients.contains(a));
+        assertEquals(Arrays.asList(b), recipients);
+    }
+
+    @Test
+    public void testSetAndIterator() throws Exception {
+        RecipientList recipients = new RecipientList(Arrays.asList(new MailAddress("a@localhost"), new MailAddress("b@localhost")));
+        recipients.set(0, new MailAddress("c@localhost"));
+        assertFalse(recipients.contains(new MailAddress("a@localhost")));
+        assertTrue(recipients.contains(new MailAddress("c@localhost")));
+
+        Iterator<MailAddress> it = recipients.iterator();
+        it.next();
+        it.remove();
+        assertFalse(recipients.contains(new MailAddress("c@localhost")));
+        assertEquals(1, recipients.size());
+
+        recipients.clear();
+        assertFalse(recipients.contains(new MailAddress("b@localhost")));
+        assertTrue(recipients.isEmpty());
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        RecipientList recipients = new RecipientList();
+        assertSame(recipients, RecipientList.of(recipients));
+
+        List<MailAddress> list = new ArrayList<MailAddress>();
+        list.add(new MailAddress("a@localhost"));
+        RecipientList copy = RecipientList.of(list);
+        assertEquals(list, copy);
+        assertTrue(copy.contains(new MailAddress("a@localhost")));
+    }
+
+    @Test
+    public void testManyRecipients() throws Exception {
+        RecipientList recipients = new RecipientList();
+        for (int i = 0; i < 10000; i++) {
+            MailAddress address = new MailAddress("user" + i + "@localhost");
+            assertFalse(recipients.contains(address));
+            recipients.add(address);
+        }
+        assertEquals(10000, recipients.size());
+        assertTrue(recipients.contains(new MailAddress("user9999@localhost")));
+    }
+}
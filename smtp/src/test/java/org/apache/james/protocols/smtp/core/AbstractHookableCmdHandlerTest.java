@@ -0,0 +1,324 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.BaseRequest;
+import org.apache.james.protocols.api.Request;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.RcptHook;
+import org.apache.james.protocols.smtp.hook.SessionClass;
+import org.apache.james.protocols.smtp.hook.SessionClassAware;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AbstractHookableCmdHandlerTest {
+
+    private final static Request RCPT = new BaseRequest("RCPT", "TO:<rcpt@localhost>");
+
+    @Test
+    public void testSynchronousHooks() {
+        List<String> called = new ArrayList<String>();
+        TestCmdHandler handler = createHandler(new SyncHook("first", called, HookResult.declined()), new SyncHook("second", called, HookResult.deny()));
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        assertEquals(SMTPRetCode.TRANSACTION_FAILED, response.getRetCode());
+        assertEquals(Arrays.asList("first", "second"), called);
+    }
+
+    @Test
+    public void testAsynchronousHooks() {
+        List<String> called = new ArrayList<String>();
+        AsyncHook async = new AsyncHook("async", called);
+        TestCmdHandler handler = createHandler(new SyncHook("first", called, HookResult.declined()), async, new SyncHook("last", called, HookResult.declined()));
+
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        assertTrue(response instanceof FutureResponse);
+        assertFalse(((FutureResponse) response).isReady());
+        assertEquals(Arrays.asList("first", "async"), called);
+
+        // the remaining hooks and the core command are processed once the hook is done
+        async.future.setResult(HookResult.declined());
+        assertTrue(((FutureResponse) response).isReady());
+        assertEquals(Arrays.asList("first", "async", "last"), called);
+        assertEquals(SMTPRetCode.MAIL_OK, response.getRetCode());
+    }
+
+    @Test
+    public void testAsynchronousHookDeny() {
+        List<String> called = new ArrayList<String>();
+        AsyncHook first = new AsyncHook("first", called);
+        AsyncHook second = new AsyncHook("second", called);
+        TestCmdHandler handler = createHandler(first, second, new SyncHook("last", called, HookResult.declined()));
+
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        first.future.setResult(HookResult.declined());
+        assertFalse(((FutureResponse) response).isReady());
+        second.future.setResult(new HookResult(HookReturnCode.DENYSOFT, "451", "Try again"));
+        assertEquals("451", response.getRetCode());
+        assertEquals(Arrays.asList("first", "second"), called);
+    }
+
+    @Test
+    public void testAsynchronousHookReady() {
+        List<String> called = new ArrayList<String>();
+        AsyncHook async = new AsyncHook("async", called);
+        async.future.setResult(HookResult.ok());
+        TestCmdHandler handler = createHandler(async, new SyncHook("last", called, HookResult.declined()));
+
+        // no FutureResponse is needed if the hook is already done
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        assertFalse(response instanceof FutureResponse);
+        assertEquals(SMTPRetCode.MAIL_OK, response.getRetCode());
+        assertEquals(Arrays.asList("async"), called);
+    }
+
+    @Test
+    public void testCancel() {
+        List<String> called = new ArrayList<String>();
+        AsyncHook async = new AsyncHook("async", called);
+        TestCmdHandler handler = createHandler(async);
+
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        ((FutureResponse) response).cancel();
+        assertTrue(async.future.isCancelled());
+    }
+
+    @Test
+    public void testDelayedResponse() throws Exception {
+        List<String> called = new ArrayList<String>();
+        TestCmdHandler handler = createHandler(new SyncHook("tarpit", called, new HookResult(HookReturnCode.DECLINED, null, null, 50)), new SyncHook("last", called, HookResult.declined()));
+
+        // the response of the core command is delayed
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        assertEquals(Arrays.asList("tarpit", "last"), called);
+        assertFalse(((FutureResponse) response).isReady());
+        assertTrue(((FutureResponseImpl) response).await(5, TimeUnit.SECONDS));
+        assertEquals(SMTPRetCode.MAIL_OK, response.getRetCode());
+    }
+
+    @Test
+    public void testDelayedAsynchronousResponse() throws Exception {
+        List<String> called = new ArrayList<String>();
+        AsyncHook async = new AsyncHook("async", called);
+        TestCmdHandler handler = createHandler(new SyncHook("tarpit", called, new HookResult(HookReturnCode.DECLINED, null, null, 50)), async);
+
+        Response response = handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+        async.future.setResult(HookResult.deny());
+
+        // the hook is done but the response is still held back
+        assertFalse(((FutureResponse) response).isReady());
+        assertTrue(((FutureResponseImpl) response).await(5, TimeUnit.SECONDS));
+        assertEquals(SMTPRetCode.TRANSACTION_FAILED, response.getRetCode());
+    }
+
+    @Test
+    public void testSessionClasses() {
+        List<String> called = new ArrayList<String>();
+        TestCmdHandler handler = createHandler(new FastFailHook("fastfail", called), new SyncHook("last", called, HookResult.declined()));
+
+        assertEquals(SMTPRetCode.MAIL_OK, handler.onCommand(new ClassifiedSession(null, false), RCPT).getRetCode());
+        assertEquals(Arrays.asList("fastfail", "last"), called);
+
+        // trusted clients skip the fast-fail hook
+        called.clear();
+        handler.onCommand(new ClassifiedSession(null, true), RCPT);
+        handler.onCommand(new ClassifiedSession("user", false), RCPT);
+        assertEquals(Arrays.asList("last", "last"), called);
+
+        assertEquals(SessionClass.Authenticated, SessionClass.of(new ClassifiedSession("user", true)));
+    }
+
+    @Test
+    public void testRemainingHooksRunInExecutor() throws Exception {
+        List<String> called = new ArrayList<String>();
+        AsyncHook async = new AsyncHook("async", called);
+        final List<Thread> threads = new ArrayList<Thread>();
+        RcptHook blocking = new RcptHook() {
+
+            public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                threads.add(Thread.currentThread());
+                return HookResult.declined();
+            }
+        };
+        TestCmdHandler handler = createHandler(async, blocking);
+        handler.setExecutor(null);
+        FutureResponse response = (FutureResponse) handler.onCommand(new BaseFakeSMTPSession(), RCPT);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        response.addListener(new ResponseListener() {
+
+            public void onResponse(FutureResponse response) {
+                latch.countDown();
+            }
+        });
+        async.future.setResult(HookResult.declined());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(SMTPRetCode.MAIL_OK, response.getRetCode());
+
+        // the blocking hook does not run in the thread which completed the asynchronous hook
+        assertEquals(1, threads.size());
+        assertNotSame(Thread.currentThread(), threads.get(0));
+    }
+
+    private static TestCmdHandler createHandler(Hook... hooks) {
+        List<RcptHook> syncHooks = new ArrayList<RcptHook>();
+        for (Hook hook: hooks) {
+            if (hook instanceof RcptHook) {
+                syncHooks.add((RcptHook) hook);
+            }
+        }
+        TestCmdHandler handler = new TestCmdHandler();
+        // process the remaining hooks in the thread which completes the asynchronous hook
+        handler.setExecutor(new Executor() {
+
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        assertTrue(handler.getMarkerInterfaces().contains(Hook.class));
+        handler.wireExtensions(RcptHook.class, syncHooks);
+        handler.wireExtensions(Hook.class, Arrays.asList(hooks));
+        return handler;
+    }
+
+    private final static class TestCmdHandler extends AbstractHookableCmdHandler<RcptHook> {
+
+        public List<String> getImplCommands() {
+            return Arrays.asList("RCPT");
+        }
+
+        protected Response doFilterChecks(SMTPSession session, String command, String parameters) {
+            return null;
+        }
+
+        protected Response doCoreCmd(SMTPSession session, String command, String parameters) {
+            return new SMTPResponse(SMTPRetCode.MAIL_OK, "Recipient ok");
+        }
+
+        protected Class<RcptHook> getHookInterface() {
+            return RcptHook.class;
+        }
+
+        protected HookResult callHook(RcptHook rawHook, SMTPSession session, String parameters) {
+            return rawHook.doRcpt(session, null, null);
+        }
+
+        protected Class<?> getAsyncHookInterface() {
+            return AsyncRcptHook.class;
+        }
+
+        protected FutureHookResult callAsyncHook(Hook rawHook, SMTPSession session, String parameters) {
+            return ((AsyncRcptHook) rawHook).doRcpt(session, null, null);
+        }
+    }
+
+    private final static class SyncHook implements RcptHook {
+        private final String name;
+        private final List<String> called;
+        private final HookResult result;
+
+        public SyncHook(String name, List<String> called, HookResult result) {
+            this.name = name;
+            this.called = called;
+            this.result = result;
+        }
+
+        public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+            called.add(name);
+            return result;
+        }
+    }
+
+    private final static class FastFailHook implements RcptHook, SessionClassAware {
+        private final String name;
+        private final List<String> called;
+
+        public FastFailHook(String name, List<String> called) {
+            this.name = name;
+            this.called = called;
+        }
+
+        public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+            called.add(name);
+            return HookResult.declined();
+        }
+
+        public Set<SessionClass> getSessionClasses() {
+            return SessionClass.ANONYMOUS_ONLY;
+        }
+    }
+
+    private final static class ClassifiedSession extends BaseFakeSMTPSession {
+        private final String user;
+        private final boolean relayingAllowed;
+
+        public ClassifiedSession(String user, boolean relayingAllowed) {
+            this.user = user;
+            this.relayingAllowed = relayingAllowed;
+        }
+
+        @Override
+        public String getUser() {
+            return user;
+        }
+
+        @Override
+        public boolean isRelayingAllowed() {
+            return relayingAllowed;
+        }
+    }
+
+    private final static class AsyncHook implements AsyncRcptHook {
+        private final String name;
+        private final List<String> called;
+        private final FutureHookResult future = new FutureHookResult();
+
+        public AsyncHook(String name, List<String> called) {
+            this.name = name;
+            this.called = called;
+        }
+
+        public FutureHookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+            called.add(name);
+            return future;
+        }
+    }
+}
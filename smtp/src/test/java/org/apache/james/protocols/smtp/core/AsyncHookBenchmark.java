@@ -0,0 +1,309 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.protocols.smtp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.protocols.api.BaseRequest;
+import org.apache.james.protocols.api.Request;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponse.ResponseListener;
+import org.apache.james.protocols.api.logger.Logger;
+import org.apache.james.protocols.api.logger.MessageSupplier;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.AsyncRcptHook;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.RcptHook;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+
+/**
+ * Benchmark which runs a RCPT command for 10000 concurrent sessions against a hook which needs 50ms for a lookup. The
+ * commands are executed by a fixed pool of worker threads, like the ExecutionHandler of the netty server does. The
+ * synchronous {@link RcptHook} blocks a worker for every lookup, while the {@link AsyncRcptHook} only schedules the
+ * lookup and returns.
+ *
+ * This is not run as part of the tests. Start it with:
+ *
+ * <pre>
+ * java -cp ... org.apache.james.protocols.smtp.core.AsyncHookBenchmark
+ * </pre>
+ */
+public class AsyncHookBenchmark {
+
+    private final static int SESSIONS = 10000;
+    private final static int WORKERS = 16;
+    private final static long LOOKUP_MILLIS = 50;
+    private final static Request RCPT = new BaseRequest("RCPT", "TO:<rcpt@localhost>");
+    private final static SMTPSession SESSION = new BaseFakeSMTPSession() {
+        private final Logger logger = new NopLogger();
+
+        public Logger getLogger() {
+            return logger;
+        }
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        final ScheduledExecutorService lookups = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (int i = 0; i < 2; i++) {
+                measure("RcptHook", new RcptHook() {
+                    
+                    public HookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                        try {
+                            Thread.sleep(LOOKUP_MILLIS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return HookResult.declined();
+                    }
+                });
+                measure("AsyncRcptHook", new AsyncRcptHook() {
+                    
+                    public FutureHookResult doRcpt(SMTPSession session, MailAddress sender, MailAddress rcpt) {
+                        final FutureHookResult result = new FutureHookResult();
+                        lookups.schedule(new Runnable() {
+                            
+                            public void run() {
+                                result.setResult(HookResult.declined());
+                            }
+                        }, LOOKUP_MILLIS, TimeUnit.MILLISECONDS);
+                        return result;
+                    }
+                });
+            }
+        } finally {
+            lookups.shutdownNow();
+        }
+    }
+
+    private static void measure(String name, Hook hook) throws InterruptedException {
+        final BenchmarkCmdHandler handler = new BenchmarkCmdHandler();
+        List<RcptHook> syncHooks = new ArrayList<RcptHook>();
+        if (hook instanceof RcptHook) {
+            syncHooks.add((RcptHook) hook);
+        }
+        handler.wireExtensions(RcptHook.class, syncHooks);
+        handler.wireExtensions(Hook.class, Arrays.asList(hook));
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        final ResponseCounter counter = new ResponseCounter(SESSIONS);
+        long start = System.nanoTime();
+        for (int i = 0; i < SESSIONS; i++) {
+            workers.execute(new Runnable() {
+                
+                public void run() {
+                    Response response = handler.onCommand(SESSION, RCPT);
+                    if (response instanceof FutureResponse) {
+                        ((FutureResponse) response).addListener(counter);
+                    } else {
+                        counter.count(response);
+                    }
+                }
+            });
+        }
+        counter.done.await();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        workers.shutdown();
+        System.out.println(String.format("%-20s %6d sessions %4d workers %8d ms %6d accepted", name, SESSIONS, WORKERS, millis, counter.accepted.get()));
+    }
+
+    private final static class ResponseCounter implements ResponseListener {
+        private final CountDownLatch done;
+        private final AtomicInteger accepted = new AtomicInteger();
+
+        public ResponseCounter(int count) {
+            this.done = new CountDownLatch(count);
+        }
+
+        public void onResponse(FutureResponse response) {
+            count(response);
+        }
+
+        public void count(Response response) {
+            if (SMTPRetCode.MAIL_OK.equals(response.getRetCode())) {
+                accepted.incrementAndGet();
+            }
+            done.countDown();
+        }
+    }
+
+    private final static class BenchmarkCmdHandler extends AbstractHookableCmdHandler<RcptHook> {
+        private final static Response OK = new SMTPResponse(SMTPRetCode.MAIL_OK, "Recipient ok");
+
+        public Collection<String> getImplCommands() {
+            return Arrays.asList("RCPT");
+        }
+
+        protected Response doFilterChecks(SMTPSession session, String command, String parameters) {
+            return null;
+        }
+
+        protected Response doCoreCmd(SMTPSession session, String command, String parameters) {
+            return OK;
+        }
+
+        protected Class<RcptHook> getHookInterface() {
+            return RcptHook.class;
+        }
+
+        protected HookResult callHook(RcptHook rawHook, SMTPSession session, String parameters) {
+            return rawHook.doRcpt(session, null, null);
+        }
+
+        protected Class<?> getAsyncHookInterface() {
+            return AsyncRcptHook.class;
+        }
+
+        protected FutureHookResult callAsyncHook(Hook rawHook, SMTPSession session, String parameters) {
+            return ((AsyncRcptHook) rawHook).doRcpt(session, null, null);
+        }
+    }
+
+    /**
+     * {@link Logger} which drops everything, so the output does not influence the measurement
+     */
+    private final static class NopLogger implements Logger {
+
+        public boolean isTraceEnabled() {
+            return false;
+        }
+
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        public boolean isWarnEnabled() {
+            return false;
+        }
+
+        public boolean isErrorEnabled() {
+            return false;
+        }
+
+        public void trace(String message) {
+        }
+
+        public void trace(String message, Throwable t) {
+        }
+
+        public void trace(String format, Object arg) {
+        }
+
+        public void trace(String format, Object arg1, Object arg2) {
+        }
+
+        public void trace(String format, Object... args) {
+        }
+
+        public void trace(MessageSupplier supplier) {
+        }
+
+        public void debug(String message) {
+        }
+
+        public void debug(String message, Throwable t) {
+        }
+
+        public void debug(String format, Object arg) {
+        }
+
+        public void debug(String format, Object arg1, Object arg2) {
+        }
+
+        public void debug(String format, Object... args) {
+        }
+
+        public void debug(MessageSupplier supplier) {
+        }
+
+        public void info(String message) {
+        }
+
+        public void info(String message, Throwable t) {
+        }
+
+        public void info(String format, Object arg) {
+        }
+
+        public void info(String format, Object arg1, Object arg2) {
+        }
+
+        public void info(String format, Object... args) {
+        }
+
+        public void info(MessageSupplier supplier) {
+        }
+
+        public void warn(String message) {
+        }
+
+        public void warn(String message, Throwable t) {
+        }
+
+        public void warn(String format, Object arg) {
+        }
+
+        public void warn(String format, Object arg1, Object arg2) {
+        }
+
+        public void warn(String format, Object... args) {
+        }
+
+        public void warn(MessageSupplier supplier) {
+        }
+
+        public void error(String message) {
+        }
+
+        public void error(String message, Throwable t) {
+        }
+
+        public void error(String format, Object arg) {
+        }
+
+        public void error(String format, Object arg1, Object arg2) {
+        }
+
+        public void error(String format, Object... args) {
+        }
+
+        public void error(MessageSupplier supplier) {
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.james.protocols.api.BaseRequest;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.ChunkLengthParser.LineTracker;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPConfiguration;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResultHook;
+import org.apache.james.protocols.smtp.hook.MessageHook;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.apache.james.protocols.smtp.utils.TestMessageHook;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class BdatCmdHandlerTest {
+
+    @Test
+    public void testChunks() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        BdatCmdHandler handler = createHandler(hook);
+        ChunkSession session = new ChunkSession(0);
+
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "12")));
+        assertNull(session.receive("Subject: "));
+        Response response = session.receive("a\r\n");
+        assertEquals(SMTPRetCode.MAIL_OK, response.getRetCode());
+        assertTrue(session.handlers.isEmpty());
+
+        // dots and bare line feeds are not touched
+        String body = "\r\n.\r\n..\nbody";
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", body.length() + " LAST")));
+        response = session.receive(body);
+        assertEquals(SMTPRetCode.MAIL_OK, response.getRetCode());
+        assertTrue(session.handlers.isEmpty());
+
+        assertEquals(1, hook.getQueued().size());
+        String message = read(hook.getQueued().get(0));
+        assertTrue(message, message.startsWith("Received: from "));
+        assertTrue(message, message.endsWith("\r\nSubject: a\r\n" + body));
+        assertNull(session.getAttachment(DataCmdHandler.MAILENV_KEY, ProtocolSession.State.Transaction));
+    }
+
+    @Test
+    public void testSuffixHeaders() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        BdatCmdHandler handler = createHandler(hook, new AbstractAddHeadersFilter() {
+
+            @Override
+            protected Location getLocation() {
+                return Location.Suffix;
+            }
+
+            @Override
+            protected Collection<Header> headers(SMTPSession session) {
+                return Arrays.asList(new Header("X-Test", "1"));
+            }
+        });
+        ChunkSession session = new ChunkSession(0);
+
+        // the end of the headers is received in several parts
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "18 LAST")));
+        assertNull(session.receive("Subject: a\r"));
+        assertNull(session.receive("\n\r"));
+        assertEquals(SMTPRetCode.MAIL_OK, session.receive("\nbody").getRetCode());
+
+        assertEquals(1, hook.getQueued().size());
+        assertEquals("Subject: a\r\nX-Test: 1\r\n\r\nbody", read(hook.getQueued().get(0)));
+    }
+
+    @Test
+    public void testEmptyLastChunk() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        BdatCmdHandler handler = createHandler(hook);
+        ChunkSession session = new ChunkSession(0);
+
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "3")));
+        assertEquals(SMTPRetCode.MAIL_OK, session.receive("a\r\n").getRetCode());
+        assertEquals(SMTPRetCode.MAIL_OK, handler.onCommand(session, new BaseRequest("BDAT", "0 LAST")).getRetCode());
+        assertEquals(1, hook.getQueued().size());
+    }
+
+    @Test
+    public void testRejectedChunkIsConsumed() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        BdatCmdHandler handler = createHandler(hook);
+        ChunkSession session = new ChunkSession(0);
+        session.setAttachment(SMTPSession.SENDER_KEY, null, ProtocolSession.State.Transaction);
+
+        assertEquals(SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, handler.onCommand(session, new BaseRequest("BDAT", "3 NEXT")).getRetCode());
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "3 LAST")));
+        assertEquals(SMTPRetCode.BAD_SEQUENCE, session.receive("abc").getRetCode());
+        assertTrue(session.handlers.isEmpty());
+        assertTrue(hook.getQueued().isEmpty());
+    }
+
+    @Test
+    public void testMaxMessageSize() throws Exception {
+        TestMessageHook hook = new TestMessageHook();
+        BdatCmdHandler handler = createHandler(hook);
+        ChunkSession session = new ChunkSession(4);
+
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "3")));
+        assertEquals(SMTPRetCode.MAIL_OK, session.receive("abc").getRetCode());
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "3")));
+        assertEquals(SMTPRetCode.QUOTA_EXCEEDED, session.receive("def").getRetCode());
+
+        // the transaction failed, so the next chunk gets rejected
+        assertNull(handler.onCommand(session, new BaseRequest("BDAT", "1 LAST")));
+        assertEquals(SMTPRetCode.BAD_SEQUENCE, session.receive("g").getRetCode());
+        assertTrue(hook.getQueued().isEmpty());
+    }
+
+    @Test
+    public void testBodyParameter() {
+        BdatCmdHandler handler = new BdatCmdHandler();
+        ChunkSession session = new ChunkSession(0);
+        assertNull(handler.doMailParameter(session, "BODY", "8BITMIME"));
+        assertNull(session.getAttachment(BdatCmdHandler.BINARYMIME_KEY, ProtocolSession.State.Transaction));
+        assertNull(handler.doMailParameter(session, "BODY", "binarymime"));
+        assertEquals(Boolean.TRUE, session.getAttachment(BdatCmdHandler.BINARYMIME_KEY, ProtocolSession.State.Transaction));
+        assertNotNull(handler.doMailParameter(session, "BODY", "UNKNOWN"));
+
+        // DATA can not be used for a binary message
+        Response response = new DataCmdHandler().onCommand(session, new BaseRequest("DATA", null));
+        assertEquals(SMTPRetCode.BAD_SEQUENCE, response.getRetCode());
+    }
+
+    @Test
+    public void testLineTracker() throws Exception {
+        LineTracker tracker = new BdatCmdHandler().newLineTracker();
+        assertEquals(10, tracker.onLine(line("BDAT 10 LAST\r\n")));
+        assertEquals(0, tracker.onLine(line("bdat 0\r\n")));
+        assertEquals(-1, tracker.onLine(line("BDAT ten\r\n")));
+        assertEquals(-1, tracker.onLine(line("RCPT TO:<rcpt@localhost>\r\n")));
+
+        // a rejected DATA command does not start a message
+        assertEquals(-1, tracker.onLine(line("DATA\r\n")));
+        assertEquals(5, tracker.onLine(line("BDAT 5\r\n")));
+
+        // lines of a message sent with DATA are never chunk announcements
+        assertEquals(-1, tracker.onLine(line("DATA\r\n")));
+        ((BdatCmdHandler.BdatLineTracker) tracker).startData();
+        assertEquals(-1, tracker.onLine(line("BDAT 5\r\n")));
+        assertEquals(-1, tracker.onLine(line(".\r\n")));
+        assertEquals(5, tracker.onLine(line("BDAT 5\r\n")));
+    }
+
+    private static ByteBuffer line(String line) throws Exception {
+        return ByteBuffer.wrap(line.getBytes("US-ASCII"));
+    }
+
+    private static String read(MailEnvelope env) throws Exception {
+        InputStream in = env.getMessageInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        return new String(out.toByteArray(), "US-ASCII");
+    }
+
+    private static BdatCmdHandler createHandler(TestMessageHook hook) throws Exception {
+        return createHandler(hook, new ReceivedDataLineFilter());
+    }
+
+    private static BdatCmdHandler createHandler(TestMessageHook hook, AbstractAddHeadersFilter filter) throws Exception {
+        DataLineMessageHookHandler messageHandler = new DataLineMessageHookHandler();
+        messageHandler.wireExtensions(MessageHook.class, Arrays.asList(hook));
+        messageHandler.wireExtensions(HookResultHook.class, Collections.EMPTY_LIST);
+
+        BdatCmdHandler handler = new BdatCmdHandler();
+        handler.wireExtensions(DataLineFilter.class, Arrays.asList(filter, messageHandler));
+        return handler;
+    }
+
+    /**
+     * Session which passes the received data to the pushed {@link LineHandler}, like the transport does
+     */
+    private final static class ChunkSession extends BaseFakeSMTPSession {
+        private final Map<String, Object> connection = new HashMap<String, Object>();
+        private final Map<String, Object> transaction = new HashMap<String, Object>();
+        private final LinkedList<LineHandler<SMTPSession>> handlers = new LinkedList<LineHandler<SMTPSession>>();
+        private final long maxMessageSize;
+
+        public ChunkSession(long maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+            try {
+                transaction.put(SMTPSession.SENDER, new MailAddress("sender@localhost"));
+                List<MailAddress> rcpts = new ArrayList<MailAddress>();
+                rcpts.add(new MailAddress("rcpt@localhost"));
+                transaction.put(SMTPSession.RCPT_LIST, rcpts);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public Response receive(String data) throws Exception {
+            return handlers.getLast().onLine(this, ByteBuffer.wrap(data.getBytes("US-ASCII")));
+        }
+
+        @Override
+        public void resetState() {
+            transaction.clear();
+        }
+
+        @Override
+        public Object setAttachment(String key, Object value, State state) {
+            Map<String, Object> map = state == State.Connection ? connection : transaction;
+            if (value == null) {
+                return map.remove(key);
+            }
+            return map.put(key, value);
+        }
+
+        @Override
+        public Object getAttachment(String key, State state) {
+            return (state == State.Connection ? connection : transaction).get(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends ProtocolSession> void pushLineHandler(LineHandler<T> overrideCommandHandler) {
+            handlers.add((LineHandler<SMTPSession>) overrideCommandHandler);
+        }
+
+        @Override
+        public void popLineHandler() {
+            handlers.removeLast();
+        }
+
+        @Override
+        public String getSessionID() {
+            return "1";
+        }
+
+        @Override
+        public String getUser() {
+            return null;
+        }
+
+        @Override
+        public Charset getCharset() {
+            return Charset.forName("US-ASCII");
+        }
+
+        @Override
+        public String getLineDelimiter() {
+            return "\r\n";
+        }
+
+        @Override
+        public SMTPConfiguration getConfiguration() {
+            return new SMTPConfigurationImpl() {
+                @Override
+                public long getMaxMessageSize() {
+                    return maxMessageSize;
+                }
+            };
+        }
+    }
+}
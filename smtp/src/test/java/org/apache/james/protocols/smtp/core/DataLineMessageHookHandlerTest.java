@@ -0,0 +1,199 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.MailEnvelopeImpl;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.ConcurrentMessageHook;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookResultHook;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.MessageHook;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.After;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class DataLineMessageHookHandlerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<MessageHook> resultOrder = Collections.synchronizedList(new ArrayList<MessageHook>());
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentHooks() throws Exception {
+        // each hook waits until all of them are running, so this only passes if they run concurrently
+        CountDownLatch latch = new CountDownLatch(3);
+        TestHook first = new TestHook(latch, HookResult.declined());
+        TestHook second = new TestHook(latch, new HookResult(HookReturnCode.DENYSOFT));
+        TestHook third = new TestHook(latch, HookResult.ok());
+        DataLineMessageHookHandler handler = createHandler(first, second, third);
+
+        assertEquals("451", handler.processExtensions(createSession(), createEnvelope()).getRetCode());
+        // the results are passed on in the configured order, not in the order the hooks return
+        assertEquals(Arrays.asList(first, second, third), resultOrder);
+
+        latch = new CountDownLatch(2);
+        handler = createHandler(new TestHook(latch, HookResult.declined()), new TestHook(latch, HookResult.ok()));
+        assertEquals("250", handler.processExtensions(createSession(), createEnvelope()).getRetCode());
+    }
+
+    @Test
+    public void testDenyCancelsOtherHooks() throws Exception {
+        TestHook blocking = new TestHook(new CountDownLatch(2), HookResult.ok());
+        MessageHook deny = denyAfterStart(blocking);
+        DataLineMessageHookHandler handler = createHandler(deny, blocking);
+
+        assertEquals("554", handler.processExtensions(createSession(), createEnvelope()).getRetCode());
+        assertTrue(blocking.interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(deny), resultOrder);
+    }
+
+    @Test
+    public void testResultHookDecidesCancel() throws Exception {
+        final TestHook blocking = new TestHook(new CountDownLatch(2), HookResult.ok());
+        MessageHook deny = denyAfterStart(blocking);
+        DataLineMessageHookHandler handler = new DataLineMessageHookHandler();
+        handler.wireExtensions(MessageHook.class, Arrays.asList(deny, blocking));
+        handler.wireExtensions(HookResultHook.class, Arrays.asList(new HookResultHook() {
+
+            public HookResult onHookResult(SMTPSession session, HookResult result, long executionTime, Hook hook) {
+                resultOrder.add((MessageHook) hook);
+                // the deny is turned into a temporary error, so the other hook must be waited for
+                if (result.getResult() == HookReturnCode.DENY) {
+                    blocking.latch.countDown();
+                    return HookResult.denysoft();
+                }
+                return result;
+            }
+        }));
+        handler.setExecutor(executor);
+
+        assertEquals("451", handler.processExtensions(createSession(), createEnvelope()).getRetCode());
+        assertEquals(Arrays.asList(deny, blocking), resultOrder);
+    }
+
+    @Test
+    public void testResultPrecedence() throws Exception {
+        CountDownLatch latch = new CountDownLatch(2);
+        DataLineMessageHookHandler handler = createHandler(new TestHook(latch, new HookResult(HookReturnCode.DENYSOFT)), new TestHook(latch, HookResult.ok()));
+        handler.setResultPrecedence(HookReturnCode.OK, HookReturnCode.DENYSOFT);
+        assertEquals("250", handler.processExtensions(createSession(), createEnvelope()).getRetCode());
+    }
+
+    /**
+     * Return a hook which denies once the given hook runs, as a hook which did not start yet is cancelled without an
+     * interrupt
+     */
+    private static MessageHook denyAfterStart(final TestHook hook) {
+        return new ConcurrentMessageHook() {
+
+            public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+                try {
+                    hook.started.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // deny anyway
+                }
+                return HookResult.deny();
+            }
+        };
+    }
+
+    private DataLineMessageHookHandler createHandler(MessageHook... hooks) throws Exception {
+        DataLineMessageHookHandler handler = new DataLineMessageHookHandler();
+        handler.wireExtensions(MessageHook.class, Arrays.asList(hooks));
+        handler.wireExtensions(HookResultHook.class, Arrays.asList(new HookResultHook() {
+
+            public HookResult onHookResult(SMTPSession session, HookResult result, long executionTime, Hook hook) {
+                resultOrder.add((MessageHook) hook);
+                return result;
+            }
+        }));
+        handler.setExecutor(executor);
+        return handler;
+    }
+
+    private static MailEnvelopeImpl createEnvelope() throws Exception {
+        MailEnvelopeImpl env = new MailEnvelopeImpl();
+        env.getMessageOutputStream().write("Subject: test\r\n\r\nbody\r\n".getBytes("US-ASCII"));
+        return env;
+    }
+
+    private static SMTPSession createSession() {
+        return new BaseFakeSMTPSession() {
+            private final Map<String, Object> attachments = new HashMap<String, Object>();
+
+            @Override
+            public Object setAttachment(String key, Object value, State state) {
+                return attachments.put(key, value);
+            }
+
+            @Override
+            public Object getAttachment(String key, State state) {
+                return attachments.get(key);
+            }
+        };
+    }
+
+    private final static class TestHook implements ConcurrentMessageHook {
+        private final CountDownLatch latch;
+        private final HookResult result;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        public TestHook(CountDownLatch latch, HookResult result) {
+            this.latch = latch;
+            this.result = result;
+        }
+
+        public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+            started.countDown();
+            latch.countDown();
+            try {
+                if (!latch.await(10, TimeUnit.SECONDS)) {
+                    return HookResult.denysoft();
+                }
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return HookResult.declined();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.MailEnvelopeImpl;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookResultHook;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.hook.MessageHook;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.apache.james.protocols.smtp.utils.TestMessageHook;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class DuplicateMessageHandlerTest {
+
+    @Test
+    public void testAcceptRetransmission() throws Exception {
+        DuplicateMessageHandler duplicates = new DuplicateMessageHandler();
+        TestMessageHook queue = new TestMessageHook();
+        DataLineMessageHookHandler handler = createHandler(duplicates, queue);
+
+        assertEquals(SMTPRetCode.MAIL_OK, process(handler, "rcpt@localhost", "Subject: test\r\n\r\nbody\r\n"));
+        assertEquals(1, queue.getQueued().size());
+        assertNotNull(queue.getQueued().get(0).getDigest());
+
+        // the retransmission is accepted without queueing it again
+        assertEquals(SMTPRetCode.MAIL_OK, process(handler, "rcpt@localhost", "Received: from other\r\nSubject: test\r\n\r\nbody\r\n"));
+        assertEquals(1, queue.getQueued().size());
+
+        // other content or recipients are no retransmission
+        assertEquals(SMTPRetCode.MAIL_OK, process(handler, "rcpt@localhost", "Subject: test\r\n\r\nother body\r\n"));
+        assertEquals(SMTPRetCode.MAIL_OK, process(handler, "other@localhost", "Subject: test\r\n\r\nbody\r\n"));
+        assertEquals(3, queue.getQueued().size());
+    }
+
+    @Test
+    public void testRejectedMessageIsProcessedAgain() throws Exception {
+        DuplicateMessageHandler duplicates = new DuplicateMessageHandler();
+        final List<MailEnvelopeImpl> rejected = new ArrayList<MailEnvelopeImpl>();
+        DataLineMessageHookHandler handler = createHandler(duplicates, new MessageHook() {
+
+            public HookResult onMessage(SMTPSession session, MailEnvelope mail) {
+                rejected.add((MailEnvelopeImpl) mail);
+                return new HookResult(HookReturnCode.DENYSOFT);
+            }
+        });
+
+        process(handler, "rcpt@localhost", "Subject: test\r\n\r\nbody\r\n");
+        process(handler, "rcpt@localhost", "Subject: test\r\n\r\nbody\r\n");
+        assertEquals(2, rejected.size());
+    }
+
+    private static DataLineMessageHookHandler createHandler(DuplicateMessageHandler duplicates, MessageHook hook) throws Exception {
+        DataLineMessageHookHandler handler = new DataLineMessageHookHandler();
+        handler.wireExtensions(MessageHook.class, Arrays.asList(duplicates, hook));
+        handler.wireExtensions(HookResultHook.class, Arrays.asList(duplicates));
+        return handler;
+    }
+
+    private static String process(DataLineMessageHookHandler handler, String rcpt, String message) throws Exception {
+        MailEnvelopeImpl env = new MailEnvelopeImpl();
+        env.setSender(new MailAddress("sender@localhost"));
+        env.setRecipients(Arrays.asList(new MailAddress(rcpt)));
+        env.getMessageOutputStream().write(message.getBytes("US-ASCII"));
+
+        final Map<String, Object> attachments = new HashMap<String, Object>();
+        SMTPSession session = new BaseFakeSMTPSession() {
+
+            @Override
+            public Object setAttachment(String key, Object value, State state) {
+                if (value == null) {
+                    return attachments.remove(key);
+                }
+                return attachments.put(key, value);
+            }
+
+            @Override
+            public Object getAttachment(String key, State state) {
+                return attachments.get(key);
+            }
+        };
+        session.setAttachment(DataCmdHandler.MAILENV_KEY, env, ProtocolSession.State.Transaction);
+        handler.computeDigest(session, env);
+        return handler.processExtensions(session, env).getRetCode();
+    }
+}
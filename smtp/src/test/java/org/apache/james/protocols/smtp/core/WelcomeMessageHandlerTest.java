@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.future.FutureResponse;
+import org.apache.james.protocols.api.future.FutureResponseImpl;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.SMTPConfiguration;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class WelcomeMessageHandlerTest {
+
+    @Test
+    public void testGreeting() {
+        Response response = new WelcomeMessageHandler().onConnect(new TestSession());
+        assertFalse(response instanceof FutureResponse);
+        assertEquals(SMTPRetCode.SERVICE_READY, response.getRetCode());
+    }
+
+    @Test
+    public void testDelayedGreeting() throws Exception {
+        WelcomeMessageHandler handler = new WelcomeMessageHandler();
+        handler.setGreetingDelay(50);
+        TestSession session = new TestSession();
+
+        FutureResponseImpl response = (FutureResponseImpl) handler.onConnect(session);
+        assertFalse(response.isReady());
+        assertEquals(1, session.lineHandlers.size());
+
+        assertTrue(response.await(5, TimeUnit.SECONDS));
+        assertEquals(SMTPRetCode.SERVICE_READY, response.getRetCode());
+        assertFalse(response.isEndSession());
+        assertEquals(0, session.lineHandlers.size());
+        assertNull(session.getAttachment(WelcomeMessageHandler.EARLY_TALKER_KEY, ProtocolSession.State.Connection));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEarlyTalker() throws Exception {
+        WelcomeMessageHandler handler = new WelcomeMessageHandler();
+        handler.setGreetingDelay(10000);
+        TestSession session = new TestSession();
+
+        FutureResponse response = (FutureResponse) handler.onConnect(session);
+        LineHandler<SMTPSession> lineHandler = (LineHandler<SMTPSession>) session.lineHandlers.getFirst();
+        assertNull(lineHandler.onLine(session, ByteBuffer.wrap("EHLO localhost\r\n".getBytes("US-ASCII"))));
+
+        // the client is rejected instead of greeted
+        assertTrue(response.isReady());
+        assertEquals(SMTPRetCode.TRANSACTION_FAILED, response.getRetCode());
+        assertTrue(response.isEndSession());
+        assertEquals(Boolean.TRUE, session.getAttachment(WelcomeMessageHandler.EARLY_TALKER_KEY, ProtocolSession.State.Connection));
+
+        // further input is ignored until the connection is closed
+        assertNull(lineHandler.onLine(session, ByteBuffer.wrap("MAIL FROM:<>\r\n".getBytes("US-ASCII"))));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        WelcomeMessageHandler handler = new WelcomeMessageHandler();
+        handler.setGreetingDelay(50);
+        TestSession session = new TestSession();
+
+        FutureResponseImpl response = (FutureResponseImpl) handler.onConnect(session);
+        response.cancel();
+        Thread.sleep(100);
+        assertTrue(response.isCancelled());
+        // the greeting was never released, so the line handler is left to the closing connection
+        assertEquals(1, session.lineHandlers.size());
+    }
+
+    private final static class TestSession extends BaseFakeSMTPSession {
+        private final SMTPConfigurationImpl config = new SMTPConfigurationImpl();
+        private final Map<String, Object> attachments = new HashMap<String, Object>();
+        private final LinkedList<LineHandler<?>> lineHandlers = new LinkedList<LineHandler<?>>();
+
+        public SMTPConfiguration getConfiguration() {
+            return config;
+        }
+
+        public synchronized Object setAttachment(String key, Object value, State state) {
+            return attachments.put(key, value);
+        }
+
+        public synchronized Object getAttachment(String key, State state) {
+            return attachments.get(key);
+        }
+
+        public synchronized <T extends ProtocolSession> void pushLineHandler(LineHandler<T> overrideCommandHandler) {
+            lineHandlers.addFirst(overrideCommandHandler);
+        }
+
+        public synchronized void popLineHandler() {
+            lineHandlers.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.esmtp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.james.protocols.api.cache.CredentialCache;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.AuthHook;
+import org.apache.james.protocols.smtp.hook.Hook;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookResultHook;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AuthCmdHandlerTest {
+
+    @Test
+    public void testCachedCredentialsAllowRelaying() throws Exception {
+        final List<Hook> results = new ArrayList<Hook>();
+        final int[] authCalls = new int[1];
+        AuthCmdHandler handler = createHandler(new AuthHook() {
+            public HookResult doAuth(SMTPSession session, String username, String password) {
+                authCalls[0]++;
+                session.setUser(username);
+                session.setRelayingAllowed(true);
+                return HookResult.ok();
+            }
+        }, new HookResultHook() {
+            public HookResult onHookResult(SMTPSession session, HookResult result, long executionTime, Hook object) {
+                results.add(object);
+                return result;
+            }
+        });
+
+        TestSession session = new TestSession();
+        assertEquals(SMTPRetCode.AUTH_OK, handler.doAuthTest(session, "user", "secret", "PLAIN").getRetCode());
+        assertEquals(1, authCalls[0]);
+
+        session = new TestSession();
+        assertEquals(SMTPRetCode.AUTH_OK, handler.doAuthTest(session, "user", "secret", "PLAIN").getRetCode());
+        assertEquals(1, authCalls[0]);
+        assertEquals("user", session.user);
+        assertTrue(session.relayingAllowed);
+        assertEquals(2, results.size());
+        assertSame(AuthCmdHandler.CachedCredentialsHook.INSTANCE, results.get(1));
+    }
+
+    @Test
+    public void testResultHookDeniesCachedCredentials() throws Exception {
+        final boolean[] deny = new boolean[1];
+        AuthCmdHandler handler = createHandler(new AuthHook() {
+            public HookResult doAuth(SMTPSession session, String username, String password) {
+                return HookResult.ok();
+            }
+        }, new HookResultHook() {
+            public HookResult onHookResult(SMTPSession session, HookResult result, long executionTime, Hook object) {
+                return deny[0] ? HookResult.deny() : result;
+            }
+        });
+
+        assertEquals(SMTPRetCode.AUTH_OK, handler.doAuthTest(new TestSession(), "user", "secret", "PLAIN").getRetCode());
+
+        deny[0] = true;
+        TestSession session = new TestSession();
+        assertEquals(SMTPRetCode.AUTH_FAILED, handler.doAuthTest(session, "user", "secret", "PLAIN").getRetCode());
+        assertNull(session.user);
+        assertFalse(session.relayingAllowed);
+    }
+
+    private static AuthCmdHandler createHandler(AuthHook hook, HookResultHook resultHook) throws Exception {
+        AuthCmdHandler handler = new AuthCmdHandler();
+        handler.wireExtensions(AuthHook.class, Arrays.asList(hook));
+        handler.wireExtensions(HookResultHook.class, Arrays.asList(resultHook));
+        handler.setCredentialCache(new CredentialCache());
+        return handler;
+    }
+
+    private final static class TestSession extends BaseFakeSMTPSession {
+        private String user;
+        private boolean relayingAllowed;
+
+        public String getSessionID() {
+            return "test";
+        }
+
+        public void setUser(String user) {
+            this.user = user;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public void setRelayingAllowed(boolean relayingAllowed) {
+            this.relayingAllowed = relayingAllowed;
+        }
+
+        public boolean isRelayingAllowed() {
+            return relayingAllowed;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.esmtp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.smtp.MailEnvelopeImpl;
+import org.apache.james.protocols.smtp.SMTPConfiguration;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPResponse;
+import org.apache.james.protocols.smtp.SMTPRetCode;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.core.DataCmdHandler;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class MailSizeEsmtpExtensionTest {
+
+    @Test
+    public void testMessageWithinLimit() throws Exception {
+        TestSession session = new TestSession(100);
+        assertNull(session.receive("Subject: test\r\n"));
+        assertNull(session.receive("\r\n"));
+        assertEquals(SMTPRetCode.MAIL_OK, session.receive(".\r\n").getRetCode());
+        assertEquals(3, session.received.size());
+        // the size is still available as Long for the String based API
+        assertEquals(Long.valueOf(17), session.currentSize);
+        assertEquals(0, session.lineHandlers.size());
+    }
+
+    @Test
+    public void testDiscardOversizedMessage() throws Exception {
+        TestSession session = new TestSession(20);
+        assertNull(session.receive("Subject: test\r\n"));
+        assertNull(session.receive("0123456789\r\n"));
+        assertNull(session.session.getAttachment(DataCmdHandler.MAILENV_KEY, ProtocolSession.State.Transaction));
+
+        // the rest of the message is neither stored nor passed to the other handlers
+        for (int i = 0; i < 100; i++) {
+            assertNull(session.receive("0123456789\r\n"));
+        }
+        assertEquals(1, session.received.size());
+
+        // the error is sent once the message is terminated
+        Response response = session.receive(".\r\n");
+        assertEquals(SMTPRetCode.QUOTA_EXCEEDED, response.getRetCode());
+        assertEquals(1, session.received.size());
+        assertEquals(0, session.lineHandlers.size());
+        assertTrue(session.reset);
+        assertEquals(Long.valueOf(27), session.currentSize);
+    }
+
+    private final static class TestSession {
+        private final MailSizeEsmtpExtension extension = new MailSizeEsmtpExtension();
+        private final List<String> received = new ArrayList<String>();
+        private final LinkedList<LineHandler<SMTPSession>> lineHandlers = new LinkedList<LineHandler<SMTPSession>>();
+        private final Map<String, Object> attachments = new HashMap<String, Object>();
+        private final SMTPSession session;
+        private boolean reset;
+        private Long currentSize;
+
+        public TestSession(final long maxMessageSize) {
+            session = new BaseFakeSMTPSession() {
+
+                @Override
+                public SMTPConfiguration getConfiguration() {
+                    return new SMTPConfigurationImpl() {
+                        @Override
+                        public long getMaxMessageSize() {
+                            return maxMessageSize;
+                        }
+                    };
+                }
+
+                @Override
+                public Object setAttachment(String key, Object value, State state) {
+                    if (value == null) {
+                        return attachments.remove(key);
+                    }
+                    return attachments.put(key, value);
+                }
+
+                @Override
+                public Object getAttachment(String key, State state) {
+                    return attachments.get(key);
+                }
+
+                @Override
+                public void resetState() {
+                    currentSize = (Long) attachments.get("CURRENT_SIZE");
+                    attachments.clear();
+                    reset = true;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public <T extends ProtocolSession> void pushLineHandler(LineHandler<T> overrideCommandHandler) {
+                    lineHandlers.addFirst((LineHandler<SMTPSession>) overrideCommandHandler);
+                }
+
+                @Override
+                public void popLineHandler() {
+                    lineHandlers.removeFirst();
+                }
+            };
+            session.setAttachment(DataCmdHandler.MAILENV_KEY, new MailEnvelopeImpl(), ProtocolSession.State.Transaction);
+
+            // the DATA line handler with the extension as filter in front of the message handling
+            session.pushLineHandler(new DataCmdHandler.DataLineFilterWrapper(extension, new LineHandler<SMTPSession>() {
+
+                public Response onLine(SMTPSession session, ByteBuffer line) {
+                    byte[] bytes = new byte[line.remaining()];
+                    line.get(bytes);
+                    String data = new String(bytes);
+                    received.add(data);
+                    if (data.equals(".\r\n")) {
+                        session.popLineHandler();
+                        session.resetState();
+                        return new SMTPResponse(SMTPRetCode.MAIL_OK, "Message received");
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        public Response receive(String line) throws Exception {
+            return lineHandlers.getFirst().onLine(session, ByteBuffer.wrap(line.getBytes("US-ASCII")));
+        }
+    }
+}
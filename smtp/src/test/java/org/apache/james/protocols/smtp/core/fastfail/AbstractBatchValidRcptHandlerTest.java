@@ -0,0 +1,256 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.apache.james.protocols.api.AbstractProtocolTransport;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.utils.MockLogger;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.SMTPSessionImpl;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AbstractBatchValidRcptHandlerTest {
+
+    private final static String VALID_USER = "postmaster";
+    private final static String INVALID_USER = "invalid";
+    private final static String LOCAL_DOMAIN = "localhost";
+    private final static String REMOTE_DOMAIN = "remote";
+
+    @Test
+    public void testPipelinedRecipientsAreValidatedAtOnce() throws Exception {
+        TestTransport transport = new TestTransport();
+        SMTPSession session = new SMTPSessionImpl(new MockLogger(), transport, new SMTPConfigurationImpl());
+        TestDirectory directory = new TestDirectory();
+
+        transport.beginRequestBatch();
+        FutureHookResult valid = directory.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN));
+        FutureHookResult invalid = directory.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN));
+        FutureHookResult remote = directory.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + REMOTE_DOMAIN));
+        FutureHookResult valid2 = directory.doRcpt(session, null, new MailAddress(VALID_USER + "2@" + LOCAL_DOMAIN));
+
+        assertTrue(remote.isReady());
+        assertEquals(HookReturnCode.DECLINED, remote.getResult().getResult());
+        assertFalse(valid.isReady());
+        assertFalse(invalid.isReady());
+        assertFalse(valid2.isReady());
+        assertEquals(0, directory.lookups.size());
+
+        transport.endRequestBatch();
+        assertEquals(1, directory.lookups.size());
+        assertEquals(3, directory.lookups.get(0).size());
+        assertEquals(HookReturnCode.DECLINED, valid.getResult().getResult());
+        assertEquals(HookReturnCode.DENY, invalid.getResult().getResult());
+        assertEquals(HookReturnCode.DECLINED, valid2.getResult().getResult());
+
+        // the next batch starts from scratch
+        transport.beginRequestBatch();
+        FutureHookResult invalid2 = directory.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN));
+        transport.endRequestBatch();
+        assertEquals(1, directory.lookups.size());
+        assertEquals(1, directory.singleLookups);
+        assertEquals(HookReturnCode.DENY, invalid2.getResult().getResult());
+    }
+
+    @Test
+    public void testRecipientsWithoutBatch() throws Exception {
+        SMTPSession session = new SMTPSessionImpl(new MockLogger(), new TestTransport(), new SMTPConfigurationImpl());
+        TestDirectory directory = new TestDirectory();
+
+        FutureHookResult valid = directory.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN));
+        FutureHookResult invalid = directory.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN));
+
+        assertEquals(HookReturnCode.DECLINED, valid.getResult().getResult());
+        assertEquals(HookReturnCode.DENY, invalid.getResult().getResult());
+        assertEquals(0, directory.lookups.size());
+        assertEquals(2, directory.singleLookups);
+    }
+
+    @Test
+    public void testLookupFailure() throws Exception {
+        TestTransport transport = new TestTransport();
+        SMTPSession session = new SMTPSessionImpl(new MockLogger(), transport, new SMTPConfigurationImpl());
+        TestDirectory directory = new TestDirectory();
+        directory.fail = true;
+
+        transport.beginRequestBatch();
+        FutureHookResult valid = directory.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN));
+        FutureHookResult invalid = directory.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN));
+        transport.endRequestBatch();
+
+        assertEquals(HookReturnCode.DENYSOFT, valid.getResult().getResult());
+        assertEquals(HookReturnCode.DENYSOFT, invalid.getResult().getResult());
+    }
+
+    @Test
+    public void testSyncCommandValidatesBatch() throws Exception {
+        TestTransport transport = new TestTransport();
+        SMTPSession session = new SMTPSessionImpl(new MockLogger(), transport, new SMTPConfigurationImpl());
+        TestDirectory directory = new TestDirectory();
+
+        transport.beginRequestBatch();
+        FutureHookResult valid = directory.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN));
+        FutureHookResult invalid = directory.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN));
+
+        // DATA is received with the same batch
+        transport.runRequestBatchTasks();
+        assertEquals(HookReturnCode.DECLINED, valid.getResult().getResult());
+        assertEquals(HookReturnCode.DENY, invalid.getResult().getResult());
+        transport.endRequestBatch();
+        assertEquals(1, directory.lookups.size());
+    }
+
+    @Test
+    public void testLookupInExecutor() throws Exception {
+        SMTPSession session = new SMTPSessionImpl(new MockLogger(), new TestTransport(), new SMTPConfigurationImpl());
+        TestDirectory directory = new TestDirectory();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        directory.setExecutor(new Executor() {
+
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        FutureHookResult valid = directory.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN));
+        assertFalse(valid.isReady());
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(HookReturnCode.DECLINED, valid.getResult().getResult());
+    }
+
+    /**
+     * Directory which knows all users starting with {@link #VALID_USER} and records its lookups
+     */
+    private final static class TestDirectory extends AbstractBatchValidRcptHandler {
+        private final List<List<MailAddress>> lookups = new ArrayList<List<MailAddress>>();
+        private final Set<String> localDomains = new HashSet<String>(Arrays.asList(LOCAL_DOMAIN));
+        private int singleLookups;
+        private boolean fail;
+
+        public TestDirectory() {
+            // do the lookups in the calling thread
+            setExecutor(new Executor() {
+
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+
+        @Override
+        protected boolean isValidRecipient(SMTPSession session, MailAddress recipient) {
+            singleLookups++;
+            return isValid(recipient);
+        }
+
+        @Override
+        protected boolean[] isValidRecipients(SMTPSession session, List<MailAddress> recipients) {
+            if (fail) {
+                throw new IllegalStateException("Directory not reachable");
+            }
+            lookups.add(new ArrayList<MailAddress>(recipients));
+            boolean[] valid = new boolean[recipients.size()];
+            for (int i = 0; i < valid.length; i++) {
+                valid[i] = isValid(recipients.get(i));
+            }
+            return valid;
+        }
+
+        private boolean isValid(MailAddress recipient) {
+            return recipient.getLocalPart().startsWith(VALID_USER);
+        }
+
+        @Override
+        protected boolean isLocalDomain(SMTPSession session, String domain) {
+            return localDomains.contains(domain);
+        }
+    }
+
+    /**
+     * Transport which only supports batches
+     */
+    private final static class TestTransport extends AbstractProtocolTransport {
+
+        public InetSocketAddress getRemoteAddress() {
+            return new InetSocketAddress("127.0.0.1", 25);
+        }
+
+        public InetSocketAddress getLocalAddress() {
+            return new InetSocketAddress("127.0.0.1", 25);
+        }
+
+        public String getId() {
+            return "test";
+        }
+
+        public boolean isTLSStarted() {
+            return false;
+        }
+
+        public boolean isStartTLSSupported() {
+            return false;
+        }
+
+        public void popLineHandler() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void pushLineHandler(LineHandler<? extends ProtocolSession> overrideCommandHandler, ProtocolSession session) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int getPushedLineHandlerCount() {
+            return 0;
+        }
+
+        public void setReadable(boolean readable) {
+        }
+
+        public boolean isReadable() {
+            return true;
+        }
+
+        protected void writeToClient(byte[] bytes, ProtocolSession session, boolean startTLS) {
+        }
+
+        protected void writeToClient(InputStream in, ProtocolSession session, boolean startTLS) {
+        }
+
+        protected void close() {
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AbstractCachingValidRcptHandlerTest {
+
+    private final static String VALID_USER = "postmaster";
+    private final static String INVALID_USER = "invalid";
+    private final static String LOCAL_DOMAIN = "localhost";
+
+    private SMTPSession setupMockedSession() {
+        return new BaseFakeSMTPSession() {
+
+            public boolean isRelayingAllowed() {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    public void testCachedLookups() throws Exception {
+        SMTPSession session = setupMockedSession();
+        TestHandler handler = new TestHandler(null);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN)).getResult());
+            assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN)).getResult());
+        }
+        // case-insensitive
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress("PostMaster@LocalHost")).getResult());
+
+        assertEquals(2, handler.lookups);
+        assertEquals(1, handler.domainLookups);
+        assertEquals(2, handler.getBackendLookups());
+        assertEquals(5, handler.getCacheHits());
+        assertEquals(0, handler.getFilterRejects());
+        assertEquals(5.0 / 7, handler.getHitRate(), 0.001);
+        handler.destroy();
+    }
+
+    @Test
+    public void testExpiredLookups() throws Exception {
+        SMTPSession session = setupMockedSession();
+        TestHandler handler = new TestHandler(null);
+        handler.setNegativeTTL(1);
+
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN)).getResult());
+        Thread.sleep(10);
+        assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN)).getResult());
+        assertEquals(2, handler.lookups);
+
+        // domains which are not local expire with the same time to live
+        handler.doRcpt(session, null, new MailAddress(VALID_USER + "@remote"));
+        Thread.sleep(10);
+        handler.doRcpt(session, null, new MailAddress(VALID_USER + "@remote"));
+        assertEquals(3, handler.domainLookups);
+        handler.destroy();
+    }
+
+    @Test
+    public void testFilterRejectsUnknownRecipients() throws Exception {
+        SMTPSession session = setupMockedSession();
+        TestHandler handler = new TestHandler(Arrays.asList(VALID_USER + "@" + LOCAL_DOMAIN));
+        handler.init();
+        assertTrue(handler.builds.tryAcquire(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            // rejected by the filter or by the backend for false positives of the filter
+            int result = handler.doRcpt(session, null, new MailAddress(INVALID_USER + i + "@" + LOCAL_DOMAIN)).getResult();
+            assertTrue(result == HookReturnCode.DENYSOFT || result == HookReturnCode.DENY);
+        }
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress(VALID_USER + "@" + LOCAL_DOMAIN)).getResult());
+
+        // allow some false positives of the filter
+        assertTrue(handler.getFilterRejects() > 90);
+        assertEquals(101, handler.getFilterRejects() + handler.getBackendLookups());
+        assertEquals(1, handler.loads);
+        handler.destroy();
+    }
+
+    @Test
+    public void testRecipientAddedBetweenRebuilds() throws Exception {
+        SMTPSession session = setupMockedSession();
+        List<String> recipients = new CopyOnWriteArrayList<String>(Arrays.asList(VALID_USER + "@" + LOCAL_DOMAIN));
+        TestHandler handler = new TestHandler(recipients);
+        handler.init();
+        assertTrue(handler.builds.tryAcquire(10, TimeUnit.SECONDS));
+
+        recipients.add("new@" + LOCAL_DOMAIN);
+        // not in the filter yet, so the client must retry later
+        assertEquals(HookReturnCode.DENYSOFT, handler.doRcpt(session, null, new MailAddress("new@" + LOCAL_DOMAIN)).getResult());
+        assertEquals(1, handler.getFilterRejects());
+
+        handler.rebuildFilter();
+        assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, null, new MailAddress("new@" + LOCAL_DOMAIN)).getResult());
+        handler.destroy();
+    }
+
+    @Test
+    public void testFilterIsRebuilt() throws Exception {
+        SMTPSession session = setupMockedSession();
+        TestHandler handler = new TestHandler(Arrays.asList(VALID_USER + "@" + LOCAL_DOMAIN));
+        handler.setRebuildInterval(10);
+        try {
+            // the first RCPT command starts the rebuilds in the background
+            handler.doRcpt(session, null, new MailAddress(INVALID_USER + "@" + LOCAL_DOMAIN));
+            assertTrue(handler.builds.tryAcquire(2, 10, TimeUnit.SECONDS));
+            assertTrue(handler.loads >= 2);
+
+            // the backend is asked if the recipients can not be loaded
+            handler.fail = true;
+            handler.builds.drainPermits();
+            // the first rebuild may have started before
+            assertTrue(handler.builds.tryAcquire(2, 10, TimeUnit.SECONDS));
+            int lookups = handler.lookups;
+            assertEquals(HookReturnCode.DENY, handler.doRcpt(session, null, new MailAddress(INVALID_USER + "3@" + LOCAL_DOMAIN)).getResult());
+            assertEquals(lookups + 1, handler.lookups);
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    private final static class TestHandler extends AbstractCachingValidRcptHandler {
+        private final Semaphore builds = new Semaphore(0);
+        private final Collection<String> recipients;
+        private volatile boolean fail;
+        private volatile int lookups;
+        private volatile int domainLookups;
+        private volatile int loads;
+
+        public TestHandler(Collection<String> recipients) {
+            this.recipients = recipients;
+        }
+
+        @Override
+        public void rebuildFilter() {
+            try {
+                super.rebuildFilter();
+            } finally {
+                builds.release();
+            }
+        }
+
+        @Override
+        protected Collection<String> loadLocalRecipients() {
+            loads++;
+            if (fail) {
+                throw new IllegalStateException("Directory not reachable");
+            }
+            return recipients;
+        }
+
+        @Override
+        protected boolean lookupRecipient(SMTPSession session, MailAddress recipient) {
+            lookups++;
+            return recipient.getLocalPart().equalsIgnoreCase(VALID_USER) || (recipients != null && recipients.contains(recipient.toLowerCase()));
+        }
+
+        @Override
+        protected boolean lookupLocalDomain(SMTPSession session, String domain) {
+            domainLookups++;
+            return domain.equalsIgnoreCase(LOCAL_DOMAIN);
+        }
+    }
+}
@@ -35,6 +35,12 @@ import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailAddressException;
 import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dns.CachingDNSService;
+import org.apache.james.protocols.smtp.dns.DNSClient;
+import org.apache.james.protocols.smtp.dns.FakeDNSServer;
+import org.apache.james.protocols.smtp.dns.RecordType;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
 import org.junit.Before;
 import org.junit.Test;
@@ -257,6 +263,42 @@ public class DNSRBLHandlerTest {
         assertNull(mockedSMTPSession.getAttachment(RBL_DETAIL_MAIL_ATTRIBUTE_NAME, State.Connection));
         assertNull("Not blocked", mockedSMTPSession.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection));
     }
+
+    // lookups with the DNSService
+    @Test
+    public void testBlackListedWithDNSService() throws Exception {
+        FakeDNSServer server = new FakeDNSServer();
+        DNSClient client = new DNSClient(server.getAddress());
+        try {
+            server.addRecords("2.0.0.127.bl.spamcop.net", RecordType.A, 300, "127.0.0.2");
+            server.addRecords("2.0.0.127.bl.spamcop.net", RecordType.TXT, 300, "Blocked - see http://www.spamcop.net/bl.shtml?127.0.0.2");
+            CachingDNSService dnsService = new CachingDNSService(client, 100);
+
+            AsyncDNSRBLHandler rbl = new AsyncDNSRBLHandler();
+            rbl.setDNSService(dnsService);
+            rbl.setBlacklist(new String[] { "bl.spamcop.net." });
+            rbl.setGetDetail(true);
+            setupMockedSMTPSession(new MailAddress("any@domain"));
+            HookResult result = FakeDNSServer.await(rbl.doRcpt(mockedSMTPSession, null, new MailAddress("test@localhost")));
+            assertEquals(HookReturnCode.DENY, result.getResult());
+            assertEquals("Details","Blocked - see http://www.spamcop.net/bl.shtml?127.0.0.2",
+                   mockedSMTPSession.getAttachment(RBL_DETAIL_MAIL_ATTRIBUTE_NAME, State.Connection));
+            assertNotNull("Blocked",mockedSMTPSession.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection));
+
+            setRemoteIp("127.0.0.3");
+            for (int i = 0; i < 2; i++) {
+                setupMockedSMTPSession(new MailAddress("any@domain"));
+                result = FakeDNSServer.await(rbl.doRcpt(mockedSMTPSession, null, new MailAddress("test@localhost")));
+                assertEquals(HookReturnCode.DECLINED, result.getResult());
+                assertNull("Not blocked", mockedSMTPSession.getAttachment(RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, State.Connection));
+            }
+            // the unlisted address was cached
+            assertEquals(3, server.getQueryCount());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
    
 
 }
@@ -0,0 +1,132 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class GreylistStoreTest {
+
+    @Test
+    public void testPacking() {
+        long entry = GreylistStore.pack(1334567890123L, 5);
+        assertEquals(1334567890123L, GreylistStore.createTime(entry));
+        assertEquals(5, GreylistStore.count(entry));
+        assertEquals((1 << 20) - 1, GreylistStore.count(GreylistStore.pack(1, Integer.MAX_VALUE)));
+
+        assertFalse(GreylistStore.digest("127.0.0.1", "ab", "c") == GreylistStore.digest("127.0.0.1", "a", "bc"));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        GreylistStore store = new GreylistStore(4, 16);
+        long digest = GreylistStore.digest("127.0.0.1", "sender@example.com", "rcpt@localhost");
+        assertEquals(0, store.get(digest));
+        store.put(digest, 1000, 0);
+        assertEquals(GreylistStore.pack(1000, 0), store.get(digest));
+        store.put(digest, 2000, 1);
+        assertEquals(GreylistStore.pack(2000, 1), store.get(digest));
+        assertEquals(1, store.size());
+        assertTrue(store.remove(digest));
+        assertFalse(store.remove(digest));
+        assertEquals(0, store.get(digest));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        // few shards and small tables, so there are many collisions and the tables grow
+        GreylistStore store = new GreylistStore(2, 4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // digests with the same lower bits collide in the tables
+            long digest = (random.nextInt(5000) + 1L) << 8 | (random.nextInt(4) + 1);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(digest) != null, store.remove(digest));
+            } else {
+                long time = random.nextInt(1000) + 1;
+                store.put(digest, time, 0);
+                expected.put(digest, GreylistStore.pack(time, 0));
+            }
+        }
+        assertEquals(expected.size(), store.size());
+
+        // expire with moving entries back
+        int removed = store.expire(500, Long.MIN_VALUE);
+        Iterator<Map.Entry<Long, Long>> it = expected.entrySet().iterator();
+        int expectedRemoved = 0;
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> entry = it.next();
+            if (GreylistStore.createTime(entry.getValue()) < 500) {
+                it.remove();
+                expectedRemoved++;
+            }
+        }
+        assertEquals(expectedRemoved, removed);
+        assertEquals(expected.size(), store.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(), store.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testExpire() {
+        GreylistStore store = new GreylistStore(4, 16);
+        store.put(1, 100, 0);
+        store.put(2, 300, 0);
+        store.put(3, 100, 1);
+        store.put(4, 300, 2);
+
+        assertEquals(1, store.expire(200, 0));
+        assertEquals(0, store.get(1));
+        assertEquals(1, store.expire(0, 200));
+        assertEquals(0, store.get(3));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        GreylistStore store = new GreylistStore(4, 16);
+        for (int i = 1; i <= 1000; i++) {
+            store.put(GreylistStore.digest("127.0.0.1", "sender" + i, "rcpt"), i, i % 3);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.writeTo(new DataOutputStream(bytes));
+
+        GreylistStore restored = new GreylistStore(8, 16);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1000, restored.size());
+        for (int i = 1; i <= 1000; i++) {
+            assertEquals(GreylistStore.pack(i, i % 3), restored.get(GreylistStore.digest("127.0.0.1", "sender" + i, "rcpt")));
+        }
+    }
+}
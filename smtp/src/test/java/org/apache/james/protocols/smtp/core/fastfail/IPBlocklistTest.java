@@ -0,0 +1,91 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class IPBlocklistTest {
+
+    @Test
+    public void testBlock() throws Exception {
+        IPBlocklist blocklist = new IPBlocklist();
+        try {
+            InetAddress address = InetAddress.getByName("192.168.100.1");
+            assertFalse(blocklist.isBlocked(address));
+
+            blocklist.block(address, 1, TimeUnit.HOURS);
+            assertTrue(blocklist.isBlocked(address));
+            assertTrue(blocklist.isBlocked(InetAddress.getByName("192.168.100.1")));
+            assertFalse(blocklist.isBlocked(InetAddress.getByName("192.168.100.2")));
+
+            // a shorter block does not shorten the existing one
+            blocklist.block(address, 0, TimeUnit.MILLISECONDS);
+            assertTrue(blocklist.isBlocked(address));
+
+            blocklist.unblock(address);
+            assertFalse(blocklist.isBlocked(address));
+            assertEquals(0, blocklist.size());
+        } finally {
+            blocklist.close();
+        }
+    }
+
+    @Test
+    public void testIPv6() throws Exception {
+        IPBlocklist blocklist = new IPBlocklist();
+        try {
+            blocklist.block(InetAddress.getByName("2001:db8::1"), 1, TimeUnit.HOURS);
+            assertTrue(blocklist.isBlocked(InetAddress.getByName("2001:db8:0:0::1")));
+            assertFalse(blocklist.isBlocked(InetAddress.getByName("2001:db8::2")));
+
+            // IPv4 addresses and their IPv4-mapped IPv6 form share the entry
+            blocklist.block(InetAddress.getByAddress(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff, 10, 0, 0, 1}), 1, TimeUnit.HOURS);
+            assertTrue(blocklist.isBlocked(InetAddress.getByName("10.0.0.1")));
+        } finally {
+            blocklist.close();
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        IPBlocklist blocklist = new IPBlocklist();
+        blocklist.setExpiryPeriod(20);
+        try {
+            InetAddress address = InetAddress.getByName("192.168.100.1");
+            blocklist.block(address, 10, TimeUnit.MILLISECONDS);
+            blocklist.block(InetAddress.getByName("192.168.100.2"), 1, TimeUnit.HOURS);
+            assertEquals(2, blocklist.size());
+
+            Thread.sleep(200);
+            assertFalse(blocklist.isBlocked(address));
+            // the expired entry was removed by the timer
+            assertEquals(1, blocklist.size());
+            assertEquals(0, blocklist.expire());
+        } finally {
+            blocklist.close();
+        }
+    }
+}
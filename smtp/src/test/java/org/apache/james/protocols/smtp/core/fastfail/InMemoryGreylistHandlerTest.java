@@ -0,0 +1,126 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import java.io.File;
+
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class InMemoryGreylistHandlerTest {
+
+    private SMTPSession setupMockedSession() {
+        return new BaseFakeSMTPSession() {
+
+            public boolean isRelayingAllowed() {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    public void testGreylisting() throws Exception {
+        SMTPSession session = setupMockedSession();
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+        handler.setTempBlockTime(50);
+        try {
+            MailAddress sender = new MailAddress("sender@example.com");
+            MailAddress rcpt = new MailAddress("rcpt@localhost");
+
+            // new triplet
+            assertEquals(HookReturnCode.DENYSOFT, handler.doRcpt(session, sender, rcpt).getResult());
+            // to fast
+            assertEquals(HookReturnCode.DENYSOFT, handler.doRcpt(session, sender, rcpt).getResult());
+            Thread.sleep(100);
+            assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, sender, rcpt).getResult());
+            assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, sender, rcpt).getResult());
+
+            assertEquals(HookReturnCode.DENYSOFT, handler.doRcpt(session, sender, new MailAddress("other@localhost")).getResult());
+            assertEquals(2, handler.getStore().size());
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    @Test
+    public void testBackgroundExpiry() throws Exception {
+        SMTPSession session = setupMockedSession();
+        InMemoryGreylistHandler handler = new InMemoryGreylistHandler(4, 16);
+        handler.setUnseenLifeTime(1);
+        handler.setExpiryPeriod(20);
+        try {
+            handler.doRcpt(session, new MailAddress("sender@example.com"), new MailAddress("rcpt@localhost"));
+            assertEquals(1, handler.getStore().size());
+            for (int i = 0; i < 100 && handler.getStore().size() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, handler.getStore().size());
+        } finally {
+            handler.destroy();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        File file = File.createTempFile("greylist", ".snapshot");
+        file.delete();
+        try {
+            SMTPSession session = setupMockedSession();
+            MailAddress sender = new MailAddress("sender@example.com");
+            MailAddress rcpt = new MailAddress("rcpt@localhost");
+
+            InMemoryGreylistHandler handler = new InMemoryGreylistHandler();
+            handler.setSnapshotFile(file);
+            handler.setTempBlockTime(0);
+            assertEquals(HookReturnCode.DENYSOFT, handler.doRcpt(session, sender, rcpt).getResult());
+            handler.destroy();
+            assertTrue(file.exists());
+
+            handler = new InMemoryGreylistHandler();
+            handler.setSnapshotFile(file);
+            handler.setTempBlockTime(0);
+            handler.init();
+            assertEquals(1, handler.getStore().size());
+            assertEquals(HookReturnCode.DECLINED, handler.doRcpt(session, sender, rcpt).getResult());
+            handler.destroy();
+
+            // a handler which never loaded the snapshot must not replace it
+            long length = file.length();
+            handler = new InMemoryGreylistHandler();
+            handler.setSnapshotFile(file);
+            handler.destroy();
+            assertEquals(length, file.length());
+
+            handler = new InMemoryGreylistHandler();
+            handler.setSnapshotFile(file);
+            handler.init();
+            assertEquals(1, handler.getStore().size());
+            handler.destroy();
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -34,6 +34,9 @@ import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailAddressException;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.fastfail.ResolvableEhloHeloHandler;
+import org.apache.james.protocols.smtp.dns.DNSClient;
+import org.apache.james.protocols.smtp.dns.FakeDNSServer;
+import org.apache.james.protocols.smtp.dns.RecordType;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
 import org.junit.Test;
@@ -180,5 +183,30 @@ public class ResolvableEhloHeloHandlerTest {
         int result = handler.doRcpt(session,null, mailAddress).getResult();
         assertEquals("Reject", result,HookReturnCode.DENY);
     }
+
+    @Test
+    public void testWithDNSService() throws Exception {
+        FakeDNSServer server = new FakeDNSServer();
+        DNSClient client = new DNSClient(server.getAddress());
+        try {
+            server.addRecords(VALID_HOST, RecordType.AAAA, 300, "2001:db8::1");
+            MailAddress mailAddress = new MailAddress("test@localhost");
+            AsyncResolvableEhloHeloHandler handler = new AsyncResolvableEhloHeloHandler();
+            handler.setDNSService(client);
+
+            SMTPSession session = setupMockSession(VALID_HOST,false,false,null,mailAddress);
+            FakeDNSServer.await(handler.doHelo(session, VALID_HOST));
+            assertNull("Valid HELO",session.getAttachment(ResolvableEhloHeloHandler.BAD_EHLO_HELO, State.Transaction));
+            assertEquals("Not reject", HookReturnCode.DECLINED, handler.doRcpt(session,null, mailAddress).getResult().getResult());
+
+            session = setupMockSession(INVALID_HOST,false,false,null,mailAddress);
+            FakeDNSServer.await(handler.doHelo(session, INVALID_HOST));
+            assertNotNull("Invalid HELO",session.getAttachment(ResolvableEhloHeloHandler.BAD_EHLO_HELO, State.Transaction));
+            assertEquals("Reject", HookReturnCode.DENY, handler.doRcpt(session,null, mailAddress).getResult().getResult());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
 }
     
@@ -22,9 +22,14 @@ package org.apache.james.protocols.smtp.core.fastfail;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailAddressException;
+import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.fastfail.SpamTrapHandler;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
@@ -90,4 +95,51 @@ public class SpamTrapHandlerTest {
     
         assertEquals("Not blocked. BlockTime exceeded", HookReturnCode.DECLINED,result); 
     }
+    
+    @Test
+    public void testDestroyStopsExpiry() throws Exception {
+        SpamTrapHandler handler = new SpamTrapHandler();
+        handler.setSpamTrapRecipients(Arrays.asList(SPAM_TRAP_RECIP1));
+
+        Set<Thread> before = expiryThreads();
+        handler.doRcpt(setUpSMTPSession("192.168.100.1"), null, new MailAddress(SPAM_TRAP_RECIP1));
+        Set<Thread> started = expiryThreads();
+        started.removeAll(before);
+        assertEquals(1, started.size());
+
+        handler.destroy();
+        Thread expiry = started.iterator().next();
+        expiry.join(5000);
+        assertFalse(expiry.isAlive());
+    }
+
+    private static Set<Thread> expiryThreads() {
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if ("IPBlocklistExpiry".equals(thread.getName())) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    @Test
+    public void testConnectHandler() throws MailAddressException {
+        String ip = "192.168.100.1";
+    
+        SpamTrapHandler handler = new SpamTrapHandler();
+        handler.setSpamTrapRecipients(Arrays.asList("SpamTrap1@localhost"));
+        IPBlocklistConnectHandler connectHandler = new IPBlocklistConnectHandler();
+        connectHandler.setBlocklist(handler.getBlocklist());
+    
+        assertNull("Not blocked", connectHandler.onConnect(setUpSMTPSession(ip)));
+    
+        int result = handler.doRcpt(setUpSMTPSession(ip),null,new MailAddress(SPAM_TRAP_RECIP1)).getResult();
+        assertEquals("Blocked on first connect",HookReturnCode.DENY,result);
+    
+        Response response = connectHandler.onConnect(setUpSMTPSession(ip));
+        assertEquals("Rejected on next connect", SMTPRetCode.TRANSACTION_FAILED, response.getRetCode());
+        assertTrue(response.isEndSession());
+        assertNull("Not blocked", connectHandler.onConnect(setUpSMTPSession("192.168.100.2")));
+    }
 }
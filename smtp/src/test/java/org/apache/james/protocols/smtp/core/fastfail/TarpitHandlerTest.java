@@ -0,0 +1,66 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.core.fastfail;
+
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class TarpitHandlerTest {
+
+    @Test
+    public void testTarpit() {
+        TarpitHandler handler = new TarpitHandler();
+        handler.setTarpitRcptCount(2);
+        handler.setTarpitIncrement(1000);
+        handler.setTarpitSleepTime(2500);
+
+        assertEquals(0, doRcpt(handler, 0).getDelay());
+        assertEquals(0, doRcpt(handler, 1).getDelay());
+        assertEquals(1000, doRcpt(handler, 2).getDelay());
+        assertEquals(2000, doRcpt(handler, 3).getDelay());
+        assertEquals(2500, doRcpt(handler, 4).getDelay());
+
+        // the recipient is not rejected, only delayed
+        assertEquals(HookReturnCode.DECLINED, doRcpt(handler, 4).getResult());
+    }
+
+    @Test
+    public void testWithoutIncrement() {
+        TarpitHandler handler = new TarpitHandler();
+        handler.setTarpitRcptCount(1);
+        handler.setTarpitSleepTime(3000);
+
+        assertEquals(0, doRcpt(handler, 0).getDelay());
+        assertEquals(3000, doRcpt(handler, 1).getDelay());
+    }
+
+    private static HookResult doRcpt(TarpitHandler handler, final int rcptCount) {
+        return handler.doRcpt(new BaseFakeSMTPSession() {
+            public int getRcptCount() {
+                return rcptCount;
+            }
+        }, null, null);
+    }
+}
@@ -28,6 +28,9 @@ import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailAddressException;
 import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.dns.DNSClient;
+import org.apache.james.protocols.smtp.dns.FakeDNSServer;
+import org.apache.james.protocols.smtp.dns.RecordType;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
 import org.junit.Test;
@@ -112,4 +115,29 @@ public class ValidSenderDomainHandlerTest {
         
         assertEquals("Blocked cause we use reject action", response,HookReturnCode.DENY);
     }
+
+    @Test
+    public void testWithDNSService() throws Exception {
+        FakeDNSServer server = new FakeDNSServer();
+        DNSClient client = new DNSClient(server.getAddress());
+        try {
+            server.addRecords("mx.example.com", RecordType.MX, 300, "10 mail.example.com");
+            server.addRecords("a.example.com", RecordType.A, 300, "192.0.2.1");
+            AsyncValidSenderDomainHandler handler = new AsyncValidSenderDomainHandler();
+            handler.setDNSService(client);
+
+            MailAddress sender = new MailAddress("test@mx.example.com");
+            assertEquals(HookReturnCode.DECLINED, FakeDNSServer.await(handler.doMail(setupMockedSession(sender), sender)).getResult());
+
+            // implicit MX
+            sender = new MailAddress("test@a.example.com");
+            assertEquals(HookReturnCode.DECLINED, FakeDNSServer.await(handler.doMail(setupMockedSession(sender), sender)).getResult());
+
+            sender = new MailAddress("test@invalid.example.com");
+            assertEquals(HookReturnCode.DENY, FakeDNSServer.await(handler.doMail(setupMockedSession(sender), sender)).getResult());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
 }
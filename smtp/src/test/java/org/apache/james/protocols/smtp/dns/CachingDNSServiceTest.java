@@ -0,0 +1,143 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class CachingDNSServiceTest {
+
+    @Test
+    public void testCachedResults() {
+        TestDNSService service = new TestDNSService();
+        CachingDNSService cache = new CachingDNSService(service, 100);
+
+        FutureDNSResult future = cache.lookup("example.com", RecordType.A);
+        service.answer(0, new DNSResult(DNSResult.NOERROR, Arrays.asList("192.0.2.1"), 300));
+        assertEquals(Arrays.asList("192.0.2.1"), future.getResult().getRecords());
+
+        // case-insensitive and per type
+        assertTrue(cache.lookup("EXAMPLE.com", RecordType.A).isReady());
+        assertFalse(cache.lookup("example.com", RecordType.MX).isReady());
+        assertEquals(2, service.lookups.size());
+        assertEquals(1, cache.getCacheHits());
+    }
+
+    @Test
+    public void testNegativeCaching() {
+        TestDNSService service = new TestDNSService();
+        CachingDNSService cache = new CachingDNSService(service, 100);
+
+        cache.lookup("2.0.0.127.bl.example.com", RecordType.A);
+        service.answer(0, new DNSResult(DNSResult.NXDOMAIN, Collections.<String>emptyList(), 60));
+        assertEquals(DNSResult.NXDOMAIN, cache.lookup("2.0.0.127.bl.example.com", RecordType.A).getResult().getResponseCode());
+
+        // failures are not cached
+        cache.lookup("example.com", RecordType.A);
+        service.answer(1, DNSResult.failure());
+        assertFalse(cache.lookup("example.com", RecordType.A).isReady());
+        assertEquals(3, service.lookups.size());
+    }
+
+    @Test
+    public void testConcurrentLookupsShareQuery() {
+        TestDNSService service = new TestDNSService();
+        CachingDNSService cache = new CachingDNSService(service, 100);
+
+        FutureDNSResult first = cache.lookup("example.com", RecordType.A);
+        FutureDNSResult second = cache.lookup("example.com", RecordType.A);
+        assertSame(first, second);
+        assertEquals(1, service.lookups.size());
+        assertEquals(1, cache.getSharedLookups());
+
+        service.answer(0, new DNSResult(DNSResult.NOERROR, Arrays.asList("192.0.2.1"), 300));
+        assertTrue(second.isReady());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        TestDNSService service = new TestDNSService();
+        CachingDNSService cache = new CachingDNSService(service, 100);
+
+        cache.lookup("example.com", RecordType.A);
+        service.answer(0, new DNSResult(DNSResult.NOERROR, Arrays.asList("192.0.2.1"), 0));
+
+        // expired, so the stale result is returned and refreshed once
+        FutureDNSResult stale = cache.lookup("example.com", RecordType.A);
+        assertEquals(Arrays.asList("192.0.2.1"), stale.getResult().getRecords());
+        cache.lookup("example.com", RecordType.A);
+        assertEquals(2, service.lookups.size());
+        assertEquals(2, cache.getStaleHits());
+
+        service.answer(1, new DNSResult(DNSResult.NOERROR, Arrays.asList("192.0.2.2"), 300));
+        assertEquals(Arrays.asList("192.0.2.2"), cache.lookup("example.com", RecordType.A).getResult().getRecords());
+        assertEquals(2, service.lookups.size());
+
+        // without stale results the lookup waits for the query
+        cache.setStaleTTL(0);
+        cache.clear();
+        cache.lookup("example.com", RecordType.A);
+        service.answer(2, new DNSResult(DNSResult.NOERROR, Arrays.asList("192.0.2.1"), 0));
+        Thread.sleep(10);
+        assertFalse(cache.lookup("example.com", RecordType.A).isReady());
+    }
+
+    @Test
+    public void testWithClient() throws Exception {
+        FakeDNSServer server = new FakeDNSServer();
+        DNSClient client = new DNSClient(server.getAddress());
+        try {
+            server.addRecords("example.com", RecordType.MX, 300, "10 mx.example.com");
+            CachingDNSService cache = new CachingDNSService(client, 100);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Arrays.asList("mx.example.com"), FakeDNSServer.await(cache.lookup("example.com", RecordType.MX)).getRecords());
+                assertFalse(FakeDNSServer.await(cache.lookup("unknown.example.com", RecordType.MX)).hasRecords());
+            }
+            assertEquals(2, server.getQueryCount());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * {@link DNSService} whose lookups are answered by the test
+     */
+    private final static class TestDNSService implements DNSService {
+        private final List<FutureDNSResult> lookups = new ArrayList<FutureDNSResult>();
+
+        public FutureDNSResult lookup(String name, RecordType type) {
+            FutureDNSResult future = new FutureDNSResult();
+            lookups.add(future);
+            return future;
+        }
+
+        private void answer(int lookup, DNSResult result) {
+            lookups.get(lookup).setResult(result);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class DNSClientTest {
+
+    private FakeDNSServer server;
+    private DNSClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeDNSServer();
+        client = new DNSClient(server.getAddress());
+        client.setTimeout(200);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testRecordTypes() throws Exception {
+        server.addRecords("example.com", RecordType.A, 300, "192.0.2.1", "192.0.2.2");
+        server.addRecords("example.com", RecordType.AAAA, 300, "2001:db8::1");
+        server.addRecords("example.com", RecordType.MX, 600, "20 mx2.example.com", "10 mx1.example.com");
+        server.addRecords("example.com", RecordType.TXT, 60, "v=spf1 -all");
+        server.addRecords("1.2.0.192.in-addr.arpa", RecordType.PTR, 300, "host.example.com");
+
+        DNSResult result = FakeDNSServer.await(client.lookup("example.com", RecordType.A));
+        assertEquals(DNSResult.NOERROR, result.getResponseCode());
+        assertEquals(Arrays.asList("192.0.2.1", "192.0.2.2"), result.getRecords());
+        assertEquals(300, result.getTTL());
+
+        result = FakeDNSServer.await(client.lookup("Example.COM.", RecordType.AAAA));
+        assertEquals(1, result.getRecords().size());
+        assertTrue(result.getRecords().get(0).startsWith("2001:db8:"));
+
+        result = FakeDNSServer.await(client.lookup("example.com", RecordType.MX));
+        assertEquals(Arrays.asList("mx1.example.com", "mx2.example.com"), result.getRecords());
+
+        assertEquals(Arrays.asList("v=spf1 -all"), FakeDNSServer.await(client.lookup("example.com", RecordType.TXT)).getRecords());
+        assertEquals(Arrays.asList("host.example.com"), FakeDNSServer.await(client.lookup("1.2.0.192.in-addr.arpa", RecordType.PTR)).getRecords());
+    }
+
+    @Test
+    public void testNameError() throws Exception {
+        server.addRecords("example.com", RecordType.A, 300, "192.0.2.1");
+        server.setNegativeTTL(120);
+
+        DNSResult result = FakeDNSServer.await(client.lookup("unknown.example.com", RecordType.A));
+        assertEquals(DNSResult.NXDOMAIN, result.getResponseCode());
+        assertFalse(result.hasRecords());
+        assertFalse(result.isFailure());
+        assertEquals(120, result.getTTL());
+
+        // the name exists, but has no records of the type
+        result = FakeDNSServer.await(client.lookup("example.com", RecordType.MX));
+        assertEquals(DNSResult.NOERROR, result.getResponseCode());
+        assertFalse(result.hasRecords());
+    }
+
+    @Test
+    public void testRetryAndTimeout() throws Exception {
+        server.addRecords("example.com", RecordType.A, 300, "192.0.2.1");
+
+        server.dropQueries(1);
+        DNSResult result = FakeDNSServer.await(client.lookup("example.com", RecordType.A));
+        assertTrue(result.hasRecords());
+        assertEquals(2, server.getQueryCount());
+
+        client.setRetries(1);
+        server.dropQueries(2);
+        result = FakeDNSServer.await(client.lookup("example.com", RecordType.A));
+        assertTrue(result.isFailure());
+        assertEquals(4, server.getQueryCount());
+    }
+
+    @Test
+    public void testRandomSourcePorts() throws Exception {
+        server.addRecords("example.com", RecordType.A, 300, "192.0.2.1");
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(FakeDNSServer.await(client.lookup("example.com", RecordType.A)).hasRecords());
+        }
+        // every query is sent from its own random port
+        assertTrue(server.getClientPorts().size() >= 9);
+    }
+
+    @Test
+    public void testInvalidName() throws Exception {
+        DNSResult result = FakeDNSServer.await(client.lookup("invalid..example.com", RecordType.A));
+        assertTrue(result.isFailure());
+        assertEquals(0, server.getQueryCount());
+    }
+}
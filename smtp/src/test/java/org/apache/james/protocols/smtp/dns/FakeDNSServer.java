@@ -0,0 +1,277 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.dns;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.james.protocols.smtp.dns.FutureDNSResult.DNSResultListener;
+import org.apache.james.protocols.smtp.hook.FutureHookResult;
+import org.apache.james.protocols.smtp.hook.FutureHookResult.HookResultListener;
+import org.apache.james.protocols.smtp.hook.HookResult;
+
+/**
+ * Name server which runs in the same JVM and answers queries for the records which were added. All other names do not
+ * exist.
+ */
+public class FakeDNSServer {
+
+    private final DatagramSocket socket;
+    private final Map<String, Answer> answers = new ConcurrentHashMap<String, Answer>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger drop = new AtomicInteger();
+    private final Map<Integer, Boolean> clientPorts = new ConcurrentHashMap<Integer, Boolean>();
+    private volatile long negativeTTL = 60;
+
+    public FakeDNSServer() throws SocketException {
+        socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+        Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                serve();
+            }
+        }, "FakeDNSServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Add records for the name. MX records are given as <code>preference host</code>.
+     */
+    public void addRecords(String name, RecordType type, long ttl, String... values) {
+        answers.put(key(name, type), new Answer(ttl, values));
+    }
+
+    /**
+     * Set the negative caching time which is returned in the SOA record for names which do not exist
+     */
+    public void setNegativeTTL(long negativeTTL) {
+        this.negativeTTL = negativeTTL;
+    }
+
+    /**
+     * Do not answer the next queries
+     */
+    public void dropQueries(int count) {
+        drop.set(count);
+    }
+
+    public int getQueryCount() {
+        return queries.get();
+    }
+
+    /**
+     * Return the source ports of the queries
+     */
+    public Set<Integer> getClientPorts() {
+        return clientPorts.keySet();
+    }
+
+    public void close() {
+        socket.close();
+    }
+
+    /**
+     * Wait for the answer of a lookup
+     */
+    public static DNSResult await(FutureDNSResult future) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        future.addListener(new DNSResultListener() {
+
+            public void onResult(FutureDNSResult result) {
+                latch.countDown();
+            }
+        });
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No answer within 5 seconds");
+        }
+        return future.getResult();
+    }
+
+    /**
+     * Wait for the result of a hook which does lookups
+     */
+    public static HookResult await(FutureHookResult future) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        future.addListener(new HookResultListener() {
+
+            public void onResult(FutureHookResult result) {
+                latch.countDown();
+            }
+        });
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No result within 5 seconds");
+        }
+        return future.getResult();
+    }
+
+    private static String key(String name, RecordType type) {
+        return type.name() + " " + name.toLowerCase(Locale.US);
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[512];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                queries.incrementAndGet();
+                clientPorts.put(packet.getPort(), Boolean.TRUE);
+                if (drop.getAndDecrement() > 0) {
+                    continue;
+                }
+                byte[] response = answer(ByteBuffer.wrap(buffer, 0, packet.getLength()));
+                socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private byte[] answer(ByteBuffer query) throws IOException {
+        short id = query.getShort();
+        query.position(12);
+        StringBuilder name = new StringBuilder();
+        int length;
+        while ((length = query.get()) != 0) {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 0; i < length; i++) {
+                name.append((char) query.get());
+            }
+        }
+        int typeCode = query.getShort();
+        int questionEnd = query.position() + 2;
+        RecordType type = null;
+        for (RecordType t : RecordType.values()) {
+            if (t.getCode() == typeCode) {
+                type = t;
+            }
+        }
+
+        Answer answer = type == null ? null : answers.get(key(name.toString(), type));
+        boolean exists = answer != null;
+        if (!exists) {
+            for (String key : answers.keySet()) {
+                exists |= key.endsWith(" " + name.toString().toLowerCase(Locale.US));
+            }
+        }
+
+        ByteBuffer response = ByteBuffer.allocate(512);
+        response.putShort(id);
+        response.putShort((short) (0x8180 | (exists ? 0 : 3)));
+        response.putShort((short) 1);
+        response.putShort((short) (answer == null ? 0 : answer.values.length));
+        response.putShort((short) (answer == null ? 1 : 0));
+        response.putShort((short) 0);
+        response.put(query.array(), 12, questionEnd - 12);
+        if (answer == null) {
+            // SOA record with the negative caching time
+            response.putShort((short) 0xc00c);
+            response.putShort((short) 6);
+            response.putShort((short) 1);
+            response.putInt(3600);
+            response.putShort((short) 22);
+            response.put((byte) 0);
+            response.put((byte) 0);
+            response.putInt(1);
+            response.putInt(3600);
+            response.putInt(600);
+            response.putInt(86400);
+            response.putInt((int) negativeTTL);
+        } else {
+            for (String value : answer.values) {
+                response.putShort((short) 0xc00c);
+                response.putShort((short) type.getCode());
+                response.putShort((short) 1);
+                response.putInt((int) answer.ttl);
+                byte[] data = encode(type, value);
+                response.putShort((short) data.length);
+                response.put(data);
+            }
+        }
+        byte[] bytes = new byte[response.position()];
+        System.arraycopy(response.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static byte[] encode(RecordType type, String value) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(512);
+        switch (type) {
+        case A:
+        case AAAA:
+            data.put(InetAddress.getByName(value).getAddress());
+            break;
+        case MX:
+            int space = value.indexOf(' ');
+            data.putShort(Short.parseShort(value.substring(0, space)));
+            encodeName(data, value.substring(space + 1));
+            break;
+        case TXT:
+            data.put((byte) value.length());
+            data.put(value.getBytes("US-ASCII"));
+            break;
+        default:
+            encodeName(data, value);
+        }
+        byte[] bytes = new byte[data.position()];
+        System.arraycopy(data.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static void encodeName(ByteBuffer data, String name) throws IOException {
+        for (String label : name.split("\\.")) {
+            data.put((byte) label.length());
+            data.put(label.getBytes("US-ASCII"));
+        }
+        data.put((byte) 0);
+    }
+
+    private final static class Answer {
+        private final long ttl;
+        private final String[] values;
+
+        private Answer(long ttl, String[] values) {
+            this.ttl = ttl;
+            this.values = values;
+        }
+    }
+}
@@ -20,11 +20,17 @@ package org.apache.james.protocols.smtp.netty;
 
 import java.net.InetSocketAddress;
 
+import org.apache.commons.net.smtp.SMTPClient;
 import org.apache.james.protocols.api.Encryption;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.ProtocolServer;
 import org.apache.james.protocols.netty.NettyServer;
+import org.apache.james.protocols.api.utils.TestUtils;
 import org.apache.james.protocols.smtp.AbstractSMTPSServerTest;
+import org.apache.james.protocols.smtp.utils.TestMessageHook;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
 
 /**
  * Integration tests which use netty implementation
@@ -40,4 +46,32 @@ public class NettySMTPSServerTest extends AbstractSMTPSServerTest{
         return server;
     }
 
+    @Test
+    public void testStatisticsCountEncryptedBytes() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+
+        NettyServer server = null;
+        try {
+            server = (NettyServer) createServer(createProtocol(new TestMessageHook()), address);
+            server.bind();
+
+            SMTPClient client = createClient();
+            client.connect(address.getAddress().getHostAddress(), address.getPort());
+            int plain = client.getReplyString().length();
+            client.helo("localhost");
+            plain += client.getReplyString().length();
+            client.quit();
+            plain += client.getReplyString().length();
+            client.disconnect();
+
+            // the handshake alone is more than the plain text of the replies
+            assertTrue(server.getStatistics().getBytesWritten() > 2 * plain);
+            assertTrue(server.getStatistics().getBytesRead() > 0);
+        } finally {
+            if (server != null) {
+                server.unbind();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,132 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.protocols.smtp.netty;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.james.protocols.api.utils.MockLogger;
+import org.apache.james.protocols.api.utils.TestUtils;
+import org.apache.james.protocols.netty.NettyServer;
+import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
+import org.apache.james.protocols.smtp.SMTPProtocol;
+import org.apache.james.protocols.smtp.SMTPProtocolHandlerChain;
+
+/**
+ * Benchmark which sends envelopes with many recipients over loopback to the netty server. The lock-step client waits
+ * for every response before it sends the next command, while the pipelining client (RFC 2920) sends all commands of
+ * an envelope at once and so lets the server answer them with one write.
+ *
+ * This is not run as part of the tests. Start it with:
+ *
+ * <pre>
+ * java -cp ... org.apache.james.protocols.smtp.netty.PipeliningBenchmark
+ * </pre>
+ */
+public class PipeliningBenchmark {
+
+    private final static int ENVELOPES = 2000;
+    private final static int RECIPIENTS = 20;
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", TestUtils.getFreePort());
+        NettyServer server = new NettyServer(new SMTPProtocol(new SMTPProtocolHandlerChain(), new SMTPConfigurationImpl(), new MockLogger()));
+        server.setListenAddresses(address);
+        server.bind();
+        try {
+            // warmup
+            run(address, false);
+            run(address, true);
+
+            for (int i = 0; i < 3; i++) {
+                long lockStep = run(address, false);
+                long pipelined = run(address, true);
+                System.out.println("lock-step: " + lockStep + " ms, pipelined: " + pipelined + " ms (" + ENVELOPES + " envelopes with " + RECIPIENTS + " recipients)");
+            }
+        } finally {
+            server.unbind();
+        }
+    }
+
+    private static long run(InetSocketAddress address, boolean pipelining) throws IOException {
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            OutputStream out = socket.getOutputStream();
+            readResponse(in);
+            send(out, "EHLO localhost\r\n");
+            readResponse(in);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ENVELOPES; i++) {
+                StringBuilder commands = new StringBuilder();
+                commands.append("MAIL FROM:<sender@localhost>\r\n");
+                for (int a = 0; a < RECIPIENTS; a++) {
+                    commands.append("RCPT TO:<rcpt").append(a).append("@localhost>\r\n");
+                }
+                commands.append("RSET\r\n");
+
+                if (pipelining) {
+                    send(out, commands.toString());
+                    for (int a = 0; a < RECIPIENTS + 2; a++) {
+                        readResponse(in);
+                    }
+                } else {
+                    String[] lines = commands.toString().split("(?<=\r\n)");
+                    for (int a = 0; a < lines.length; a++) {
+                        send(out, lines[a]);
+                        readResponse(in);
+                    }
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            send(out, "QUIT\r\n");
+            readResponse(in);
+            return millis;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void send(OutputStream out, String commands) throws IOException {
+        out.write(commands.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    /**
+     * Read a possible multi-line response. Rejected recipients are fine, as only the round trips are measured
+     */
+    private static void readResponse(BufferedReader in) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) {
+                throw new IOException("Connection closed");
+            }
+        } while (line.length() > 3 && line.charAt(3) == '-');
+    }
+}
@@ -24,6 +24,7 @@ import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.util.Map;
 
+import org.apache.james.protocols.api.AttachmentKey;
 import org.apache.james.protocols.api.ProtocolSession;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.LineHandler;
@@ -176,6 +177,22 @@ public class BaseFakeSMTPSession implements SMTPSession {
         throw new UnsupportedOperationException("Unimplemented Stub Method");
     }
 
+    /**
+     * Delegates to {@link #setAttachment(String, Object, State)}, so mocks only need to override the String based methods
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T setAttachment(AttachmentKey<T> key, T value, State state) {
+        return (T) setAttachment(key.getName(), value, state);
+    }
+
+    /**
+     * Delegates to {@link #getAttachment(String, State)}, so mocks only need to override the String based methods
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment(AttachmentKey<T> key, State state) {
+        return (T) getAttachment(key.getName(), state);
+    }
+
     public Charset getCharset() {
         throw new UnsupportedOperationException("Unimplemented Stub Method");
     }